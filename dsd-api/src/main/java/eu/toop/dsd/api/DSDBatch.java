@@ -0,0 +1,376 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+
+import eu.toop.dsd.api.types.DSDQuery;
+
+/**
+ * The wire format of the DSD batch queries (<code>POST /rest/batch</code>).
+ * <p>
+ * The request body is <code>text/plain</code> with one query per line. Each line is the URL encoded
+ * query string of the equivalent <code>/rest/search</code> request, for example
+ * <code>queryId=urn:toop:dsd:ebxml-regrem:queries:ByDatasetTypeAndLocation&amp;dataSetType=REGISTERED_ORGANIZATION_TYPE&amp;countryCode=SV</code>.
+ * Empty lines are ignored.
+ * <p>
+ * The response is a <code>multipart/mixed</code> body with one part per query. The parts are written as
+ * soon as their query is answered, so they are not necessarily in the order of the request. Each part
+ * carries the zero based index of its query in the {@value #HEADER_QUERY_INDEX} header, the HTTP status
+ * the equivalent <code>/rest/search</code> request would have had in {@value #HEADER_STATUS}, and its
+ * <code>Content-Length</code>. A successful part contains the RegRep query response, a failed one a plain
+ * text error message. A part that is answered with the last known good response of its query, because the
+ * TOOP Directory is unavailable, also carries the age of that response in seconds in {@value #HEADER_STALE}.
+ *
+ * @author yerlibilgin
+ */
+public final class DSDBatch {
+  /**
+   * The content type of the batch request
+   */
+  public static final String REQUEST_CONTENT_TYPE = "text/plain";
+  /**
+   * The content type of the batch response, without the boundary
+   */
+  public static final String RESPONSE_CONTENT_TYPE = "multipart/mixed";
+  /**
+   * The part header with the index of the query in the batch
+   */
+  public static final String HEADER_QUERY_INDEX = "X-DSD-Query-Index";
+  /**
+   * The part header with the HTTP status of the query
+   */
+  public static final String HEADER_STATUS = "X-DSD-Status";
+  /**
+   * The part header with the age in seconds of a stored response that answers the query while the
+   * directory is unavailable
+   */
+  public static final String HEADER_STALE = "X-DSD-Stale";
+
+  private static final String HEADER_CONTENT_TYPE = "Content-Type";
+  private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  private DSDBatch() {
+  }
+
+  /**
+   * Create the batch request body for the given queries
+   *
+   * @param queries the queries, may not be empty
+   * @return the request body
+   */
+  @Nonnull
+  public static String createRequestBody(@Nonnull List<DSDQuery> queries) {
+    ValueEnforcer.notEmpty(queries, "queries");
+
+    final StringBuilder sb = new StringBuilder();
+    for (DSDQuery query : queries) {
+      sb.append(DSDQuery.PARAM_NAME_QUERY_ID).append('=').append(encode(query.getQueryId().id));
+      final Iterator<Map.Entry<String, String>> parameters = query.getAllParameters();
+      while (parameters.hasNext()) {
+        final Map.Entry<String, String> parameter = parameters.next();
+        if (DSDQuery.PARAM_NAME_QUERY_ID.equals(parameter.getKey()))
+          continue;
+        sb.append('&').append(encode(parameter.getKey())).append('=').append(encode(parameter.getValue()));
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Parse a batch request body into the parameter maps of its queries
+   *
+   * @param requestBody the request body
+   * @return the parameter maps in the order of the request, as {@link DSDQuery#resolve(Map)} expects them
+   * @throws IllegalArgumentException if a line is not a valid query string
+   */
+  @Nonnull
+  public static List<Map<String, String[]>> parseRequestBody(@Nonnull String requestBody) {
+    ValueEnforcer.notNull(requestBody, "requestBody");
+
+    final List<Map<String, String[]>> parameterMaps = new ArrayList<>();
+    for (String line : requestBody.split("\r?\n")) {
+      final String queryString = line.trim();
+      if (queryString.isEmpty())
+        continue;
+
+      final Map<String, String[]> parameterMap = new LinkedHashMap<>();
+      for (String parameter : queryString.split("&")) {
+        if (parameter.isEmpty())
+          continue;
+        final int eq = parameter.indexOf('=');
+        final String name = decode(eq < 0 ? parameter : parameter.substring(0, eq));
+        final String value = eq < 0 ? "" : decode(parameter.substring(eq + 1));
+        // like a servlet container, keep repeated parameters, DSDQuery.resolve rejects them
+        final String[] values = parameterMap.get(name);
+        if (values == null) {
+          parameterMap.put(name, new String[]{value});
+        } else {
+          final String[] newValues = new String[values.length + 1];
+          System.arraycopy(values, 0, newValues, 0, values.length);
+          newValues[values.length] = value;
+          parameterMap.put(name, newValues);
+        }
+      }
+      parameterMaps.add(parameterMap);
+    }
+    return parameterMaps;
+  }
+
+  /**
+   * Create a new random multipart boundary
+   *
+   * @return the boundary
+   */
+  @Nonnull
+  public static String createBoundary() {
+    return "dsd-batch-" + UUID.randomUUID();
+  }
+
+  /**
+   * Get the boundary parameter of a multipart content type
+   *
+   * @param contentType the content type header value
+   * @return the boundary or <code>null</code> if there is none
+   */
+  @Nullable
+  public static String getBoundary(@Nullable String contentType) {
+    if (contentType == null)
+      return null;
+
+    for (String parameter : contentType.split(";")) {
+      final String trimmed = parameter.trim();
+      if (trimmed.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+        String boundary = trimmed.substring("boundary=".length()).trim();
+        if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\""))
+          boundary = boundary.substring(1, boundary.length() - 1);
+        return boundary.isEmpty() ? null : boundary;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Write one part of the batch response
+   *
+   * @param out         the response stream
+   * @param boundary    the multipart boundary
+   * @param queryIndex  the index of the query in the batch
+   * @param status      the HTTP status of the query
+   * @param contentType the content type of the body
+   * @param body        the body of the part
+   * @throws IOException if the part cannot be written
+   */
+  public static void writePart(@Nonnull OutputStream out, @Nonnull String boundary, int queryIndex, int status,
+                               @Nonnull String contentType, @Nonnull byte[] body) throws IOException {
+    writePart(out, boundary, queryIndex, status, contentType, body, -1);
+  }
+
+  /**
+   * Write one part of the batch response
+   *
+   * @param out             the response stream
+   * @param boundary        the multipart boundary
+   * @param queryIndex      the index of the query in the batch
+   * @param status          the HTTP status of the query
+   * @param contentType     the content type of the body
+   * @param body            the body of the part
+   * @param staleAgeSeconds the age of the stored response that answers the query, -1 for a fresh response
+   * @throws IOException if the part cannot be written
+   */
+  public static void writePart(@Nonnull OutputStream out, @Nonnull String boundary, int queryIndex, int status,
+                               @Nonnull String contentType, @Nonnull byte[] body, long staleAgeSeconds) throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("--").append(boundary).append("\r\n");
+    sb.append(HEADER_CONTENT_TYPE).append(": ").append(contentType).append("\r\n");
+    sb.append(HEADER_QUERY_INDEX).append(": ").append(queryIndex).append("\r\n");
+    sb.append(HEADER_STATUS).append(": ").append(status).append("\r\n");
+    if (staleAgeSeconds >= 0)
+      sb.append(HEADER_STALE).append(": ").append(staleAgeSeconds).append("\r\n");
+    sb.append(HEADER_CONTENT_LENGTH).append(": ").append(body.length).append("\r\n\r\n");
+    out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+    out.write(body);
+    out.write(CRLF);
+  }
+
+  /**
+   * Write the end of the batch response, after all the parts
+   *
+   * @param out      the response stream
+   * @param boundary the multipart boundary
+   * @throws IOException if the end cannot be written
+   */
+  public static void writeEnd(@Nonnull OutputStream out, @Nonnull String boundary) throws IOException {
+    out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Read a batch response
+   *
+   * @param responseStream the response body
+   * @param boundary       the multipart boundary from the content type of the response
+   * @param queryCount     the number of queries in the batch
+   * @return the results, ordered by the index of their query
+   * @throws IOException if the response cannot be read
+   * @throws DSDException if the response is malformed or a query has no result
+   */
+  @Nonnull
+  public static List<DSDBatchResult> readResponse(@Nonnull InputStream responseStream, @Nonnull String boundary, int queryCount) throws IOException {
+    ValueEnforcer.notNull(responseStream, "responseStream");
+    ValueEnforcer.notEmpty(boundary, "boundary");
+
+    // the headers are read byte by byte
+    final InputStream in = new BufferedInputStream(responseStream);
+
+    final DSDBatchResult[] results = new DSDBatchResult[queryCount];
+    final String delimiter = "--" + boundary;
+    final String closeDelimiter = delimiter + "--";
+
+    String line = readLine(in);
+    // skip the preamble
+    while (line != null && !line.equals(delimiter) && !line.equals(closeDelimiter))
+      line = readLine(in);
+
+    while (line != null && line.equals(delimiter)) {
+      String contentType = null;
+      int queryIndex = -1;
+      int status = -1;
+      int contentLength = -1;
+      long staleAgeSeconds = -1;
+
+      String header;
+      while ((header = readLine(in)) != null && !header.isEmpty()) {
+        final int colon = header.indexOf(':');
+        if (colon < 0)
+          throw new DSDException("Malformed batch response header: " + header);
+        final String name = header.substring(0, colon).trim();
+        final String value = header.substring(colon + 1).trim();
+        if (HEADER_CONTENT_TYPE.equalsIgnoreCase(name))
+          contentType = value;
+        else if (HEADER_QUERY_INDEX.equalsIgnoreCase(name))
+          queryIndex = parseInt(name, value);
+        else if (HEADER_STATUS.equalsIgnoreCase(name))
+          status = parseInt(name, value);
+        else if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(name))
+          contentLength = parseInt(name, value);
+        else if (HEADER_STALE.equalsIgnoreCase(name))
+          staleAgeSeconds = parseInt(name, value);
+      }
+
+      if (queryIndex < 0 || queryIndex >= queryCount || status < 0 || contentLength < 0)
+        throw new DSDException("Incomplete batch response part [index: " + queryIndex + ", status: " + status + ", length: " + contentLength + "]");
+
+      final byte[] body = readFully(in, contentLength);
+      results[queryIndex] = new DSDBatchResult(queryIndex, status, contentType, body, staleAgeSeconds);
+
+      // the CRLF after the body
+      if (!"".equals(readLine(in)))
+        throw new DSDException("Malformed batch response after the part of query " + queryIndex);
+      line = readLine(in);
+    }
+
+    if (line == null || !line.equals(closeDelimiter))
+      throw new DSDException("Truncated batch response");
+
+    final List<DSDBatchResult> ret = new ArrayList<>(queryCount);
+    for (int i = 0; i < queryCount; ++i) {
+      if (results[i] == null)
+        throw new DSDException("The batch response has no result for query " + i);
+      ret.add(results[i]);
+    }
+    return ret;
+  }
+
+  private static int parseInt(String name, String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException ex) {
+      throw new DSDException("Invalid " + name + " in the batch response: " + value);
+    }
+  }
+
+  /**
+   * Read a CRLF (or LF) terminated ASCII line
+   *
+   * @return the line without the line terminator, <code>null</code> at the end of the stream
+   */
+  @Nullable
+  private static String readLine(InputStream in) throws IOException {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream(80);
+    int b;
+    while ((b = in.read()) >= 0) {
+      if (b == '\n') {
+        final byte[] bytes = line.toByteArray();
+        final int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+      }
+      line.write(b);
+    }
+    return line.size() == 0 ? null : new String(line.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] readFully(InputStream in, int length) throws IOException {
+    final byte[] bytes = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      final int read = in.read(bytes, offset, length - offset);
+      if (read < 0)
+        throw new DSDException("Truncated batch response");
+      offset += read;
+    }
+    return bytes;
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String decode(String value) {
+    try {
+      return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
+
+/**
+ * The result of a single query of a DSD batch request.
+ *
+ * @author yerlibilgin
+ */
+public final class DSDBatchResult {
+  private static final int STATUS_OK = 200;
+
+  private final int queryIndex;
+  private final int status;
+  private final String contentType;
+  private final byte[] body;
+  private final long staleAgeSeconds;
+
+  /**
+   * Instantiates a new result.
+   *
+   * @param queryIndex  the index of the query in the batch
+   * @param status      the HTTP status of the query
+   * @param contentType the content type of the body, may be <code>null</code>
+   * @param body        the body
+   */
+  public DSDBatchResult(int queryIndex, int status, @Nullable String contentType, @Nonnull byte[] body) {
+    this(queryIndex, status, contentType, body, -1);
+  }
+
+  /**
+   * Instantiates a new result.
+   *
+   * @param queryIndex      the index of the query in the batch
+   * @param status          the HTTP status of the query
+   * @param contentType     the content type of the body, may be <code>null</code>
+   * @param body            the body
+   * @param staleAgeSeconds the age of the stored response that answered the query, -1 for a fresh response
+   */
+  public DSDBatchResult(int queryIndex, int status, @Nullable String contentType, @Nonnull byte[] body, long staleAgeSeconds) {
+    this.queryIndex = queryIndex;
+    this.status = status;
+    this.contentType = contentType;
+    this.body = body;
+    this.staleAgeSeconds = staleAgeSeconds;
+  }
+
+  /**
+   * @return the zero based index of the query in the batch
+   */
+  public int getQueryIndex() {
+    return queryIndex;
+  }
+
+  /**
+   * @return the HTTP status of the query, 200 on success
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return <code>true</code> if the query was answered successfully
+   */
+  public boolean isSuccess() {
+    return status == STATUS_OK;
+  }
+
+  /**
+   * @return <code>true</code> if the query was answered with its last known good response, because the
+   * TOOP Directory was unavailable
+   */
+  public boolean isStale() {
+    return staleAgeSeconds >= 0;
+  }
+
+  /**
+   * @return the age of the stored response in seconds, -1 if the result is fresh
+   */
+  public long getStaleAgeSeconds() {
+    return staleAgeSeconds;
+  }
+
+  /**
+   * @return the content type of the result
+   */
+  @Nullable
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * @return the raw result: the RegRep query response on success, the error message otherwise
+   */
+  @Nonnull
+  public String getRawResult() {
+    return new String(body, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read the result as a List of {@link DCatAPDatasetType} objects
+   *
+   * @return the datasets
+   * @throws DSDException if the query failed
+   */
+  @Nonnull
+  public List<DCatAPDatasetType> getDatasets() {
+    if (!isSuccess())
+      throw new DSDException("Query " + queryIndex + " of the batch failed with status " + status + ": " + getRawResult().trim());
+    return DsdDataConverter.parseDataset(getRawResult());
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * The compact form of a dataset of a DSD result, as carried by the JSON responses (see {@link DSDJson}).
+ * It holds the values of the RegRep response that most clients need, without the RegRep and DCAT-AP envelope.
+ * Absent values are empty strings or empty lists.
+ *
+ * @author yerlibilgin
+ */
+public final class DSDDatasetSummary {
+  private final String datasetType;
+  private final String identifier;
+  private final String conformsTo;
+  private final String distributionFormat;
+  private final String distributionConformsTo;
+  private final String accessServiceIdentifier;
+  private final String publisherId;
+  private final String publisherIdScheme;
+  private final String publisherName;
+  private final String countryCode;
+  private final List<String> dataProviderTypes;
+  private final List<String> dataSubjectIdentifierSchemes;
+
+  /**
+   * Instantiates a new summary.
+   *
+   * @param datasetType                  the dataset type of the query (<code>dct:type</code>)
+   * @param identifier                   the dataset identifier (<code>dct:identifier</code>)
+   * @param conformsTo                   the ontology URL of the dataset type (<code>dct:conformsTo</code>)
+   * @param distributionFormat           the format of the distribution
+   * @param distributionConformsTo       the specification the distribution conforms to
+   * @param accessServiceIdentifier      the doctype of the access service, with its scheme
+   * @param publisherId                  the participant id of the publisher
+   * @param publisherIdScheme            the scheme of the participant id
+   * @param publisherName                the name of the publisher
+   * @param countryCode                  the country code of the publisher
+   * @param dataProviderTypes            the data provider types of the publisher
+   * @param dataSubjectIdentifierSchemes the supported data subject identifier schemes
+   */
+  public DSDDatasetSummary(@Nonnull String datasetType, @Nonnull String identifier, @Nonnull String conformsTo,
+                           @Nonnull String distributionFormat, @Nonnull String distributionConformsTo,
+                           @Nonnull String accessServiceIdentifier, @Nonnull String publisherId,
+                           @Nonnull String publisherIdScheme, @Nonnull String publisherName, @Nonnull String countryCode,
+                           @Nonnull List<String> dataProviderTypes, @Nonnull List<String> dataSubjectIdentifierSchemes) {
+    ValueEnforcer.notNull(dataProviderTypes, "dataProviderTypes");
+    ValueEnforcer.notNull(dataSubjectIdentifierSchemes, "dataSubjectIdentifierSchemes");
+    this.datasetType = ValueEnforcer.notNull(datasetType, "datasetType");
+    this.identifier = ValueEnforcer.notNull(identifier, "identifier");
+    this.conformsTo = ValueEnforcer.notNull(conformsTo, "conformsTo");
+    this.distributionFormat = ValueEnforcer.notNull(distributionFormat, "distributionFormat");
+    this.distributionConformsTo = ValueEnforcer.notNull(distributionConformsTo, "distributionConformsTo");
+    this.accessServiceIdentifier = ValueEnforcer.notNull(accessServiceIdentifier, "accessServiceIdentifier");
+    this.publisherId = ValueEnforcer.notNull(publisherId, "publisherId");
+    this.publisherIdScheme = ValueEnforcer.notNull(publisherIdScheme, "publisherIdScheme");
+    this.publisherName = ValueEnforcer.notNull(publisherName, "publisherName");
+    this.countryCode = ValueEnforcer.notNull(countryCode, "countryCode");
+    this.dataProviderTypes = Collections.unmodifiableList(dataProviderTypes);
+    this.dataSubjectIdentifierSchemes = Collections.unmodifiableList(dataSubjectIdentifierSchemes);
+  }
+
+  /**
+   * @return the dataset type of the query
+   */
+  @Nonnull
+  public String getDatasetType() {
+    return datasetType;
+  }
+
+  /**
+   * @return the dataset identifier
+   */
+  @Nonnull
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  /**
+   * @return the ontology URL of the dataset type
+   */
+  @Nonnull
+  public String getConformsTo() {
+    return conformsTo;
+  }
+
+  /**
+   * @return the format of the distribution
+   */
+  @Nonnull
+  public String getDistributionFormat() {
+    return distributionFormat;
+  }
+
+  /**
+   * @return the specification the distribution conforms to
+   */
+  @Nonnull
+  public String getDistributionConformsTo() {
+    return distributionConformsTo;
+  }
+
+  /**
+   * @return the doctype of the access service, with its scheme
+   */
+  @Nonnull
+  public String getAccessServiceIdentifier() {
+    return accessServiceIdentifier;
+  }
+
+  /**
+   * @return the participant id of the publisher
+   */
+  @Nonnull
+  public String getPublisherId() {
+    return publisherId;
+  }
+
+  /**
+   * @return the scheme of the participant id of the publisher
+   */
+  @Nonnull
+  public String getPublisherIdScheme() {
+    return publisherIdScheme;
+  }
+
+  /**
+   * @return the name of the publisher
+   */
+  @Nonnull
+  public String getPublisherName() {
+    return publisherName;
+  }
+
+  /**
+   * @return the country code of the publisher
+   */
+  @Nonnull
+  public String getCountryCode() {
+    return countryCode;
+  }
+
+  /**
+   * @return the data provider types of the publisher, unmodifiable
+   */
+  @Nonnull
+  public List<String> getDataProviderTypes() {
+    return dataProviderTypes;
+  }
+
+  /**
+   * @return the supported data subject identifier schemes, unmodifiable
+   */
+  @Nonnull
+  public List<String> getDataSubjectIdentifierSchemes() {
+    return dataSubjectIdentifierSchemes;
+  }
+
+  @Override
+  public String toString() {
+    return "datasetType: " + datasetType +
+        ", identifier: " + identifier +
+        ", distributionFormat: " + distributionFormat +
+        ", publisherId: " + publisherId +
+        ", countryCode: " + countryCode;
+  }
+}
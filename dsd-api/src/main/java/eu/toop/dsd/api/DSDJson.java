@@ -0,0 +1,491 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * The compact JSON format of the DSD results (<code>/rest/search</code> with <code>Accept: application/json</code>).
+ * <p>
+ * The response is a single object with the number of datasets and the datasets as flat objects, for example
+ * <pre>
+ * {"totalResultCount":1,"datasets":[{"datasetType":"REGISTERED_ORGANIZATION_TYPE","identifier":"...",
+ *   "conformsTo":"...","distributionFormat":"...","distributionConformsTo":"...","accessServiceIdentifier":"...",
+ *   "publisherId":"9999:elonia","publisherIdScheme":"iso6523-actorid-upis","publisherName":"...",
+ *   "countryCode":"SV","dataProviderTypes":["..."],"dataSubjectIdentifierSchemes":["..."]}]}
+ * </pre>
+ * The writer streams the datasets without building a JSON tree. The reader is a small pull parser that
+ * builds the {@link DSDDatasetSummary} objects directly and ignores unknown members, so that members
+ * can be added to the format later.
+ *
+ * @author yerlibilgin
+ */
+public final class DSDJson {
+  /**
+   * The content type of the JSON responses
+   */
+  public static final String CONTENT_TYPE = "application/json";
+
+  private static final String TOTAL_RESULT_COUNT = "totalResultCount";
+  private static final String DATASETS = "datasets";
+  private static final String DATASET_TYPE = "datasetType";
+  private static final String IDENTIFIER = "identifier";
+  private static final String CONFORMS_TO = "conformsTo";
+  private static final String DISTRIBUTION_FORMAT = "distributionFormat";
+  private static final String DISTRIBUTION_CONFORMS_TO = "distributionConformsTo";
+  private static final String ACCESS_SERVICE_IDENTIFIER = "accessServiceIdentifier";
+  private static final String PUBLISHER_ID = "publisherId";
+  private static final String PUBLISHER_ID_SCHEME = "publisherIdScheme";
+  private static final String PUBLISHER_NAME = "publisherName";
+  private static final String COUNTRY_CODE = "countryCode";
+  private static final String DATA_PROVIDER_TYPES = "dataProviderTypes";
+  private static final String DATA_SUBJECT_IDENTIFIER_SCHEMES = "dataSubjectIdentifierSchemes";
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private DSDJson() {
+  }
+
+  /**
+   * Write a JSON response. The stream is flushed but not closed.
+   *
+   * @param datasets the datasets of the response
+   * @param out      the stream to write the response to (UTF-8)
+   * @throws IOException if the response cannot be written
+   */
+  public static void writeResponse(@Nonnull List<DSDDatasetSummary> datasets, @Nonnull OutputStream out) throws IOException {
+    ValueEnforcer.notNull(datasets, "datasets");
+    ValueEnforcer.notNull(out, "out");
+
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    writer.write("{\"" + TOTAL_RESULT_COUNT + "\":");
+    writer.write(Integer.toString(datasets.size()));
+    writer.write(",\"" + DATASETS + "\":[");
+    boolean first = true;
+    for (DSDDatasetSummary dataset : datasets) {
+      if (!first)
+        writer.write(',');
+      first = false;
+      writeDataset(dataset, writer);
+    }
+    writer.write("]}");
+    writer.flush();
+  }
+
+  private static void writeDataset(DSDDatasetSummary dataset, Writer writer) throws IOException {
+    writer.write('{');
+    writeMember(DATASET_TYPE, dataset.getDatasetType(), writer);
+    writer.write(',');
+    writeMember(IDENTIFIER, dataset.getIdentifier(), writer);
+    writer.write(',');
+    writeMember(CONFORMS_TO, dataset.getConformsTo(), writer);
+    writer.write(',');
+    writeMember(DISTRIBUTION_FORMAT, dataset.getDistributionFormat(), writer);
+    writer.write(',');
+    writeMember(DISTRIBUTION_CONFORMS_TO, dataset.getDistributionConformsTo(), writer);
+    writer.write(',');
+    writeMember(ACCESS_SERVICE_IDENTIFIER, dataset.getAccessServiceIdentifier(), writer);
+    writer.write(',');
+    writeMember(PUBLISHER_ID, dataset.getPublisherId(), writer);
+    writer.write(',');
+    writeMember(PUBLISHER_ID_SCHEME, dataset.getPublisherIdScheme(), writer);
+    writer.write(',');
+    writeMember(PUBLISHER_NAME, dataset.getPublisherName(), writer);
+    writer.write(',');
+    writeMember(COUNTRY_CODE, dataset.getCountryCode(), writer);
+    writer.write(',');
+    writeMember(DATA_PROVIDER_TYPES, dataset.getDataProviderTypes(), writer);
+    writer.write(',');
+    writeMember(DATA_SUBJECT_IDENTIFIER_SCHEMES, dataset.getDataSubjectIdentifierSchemes(), writer);
+    writer.write('}');
+  }
+
+  private static void writeMember(String name, String value, Writer writer) throws IOException {
+    writer.write('"');
+    writer.write(name);
+    writer.write("\":");
+    writeString(value, writer);
+  }
+
+  private static void writeMember(String name, List<String> values, Writer writer) throws IOException {
+    writer.write('"');
+    writer.write(name);
+    writer.write("\":[");
+    for (int i = 0; i < values.size(); ++i) {
+      if (i > 0)
+        writer.write(',');
+      writeString(values.get(i), writer);
+    }
+    writer.write(']');
+  }
+
+  private static void writeString(String value, Writer writer) throws IOException {
+    writer.write('"');
+    int start = 0;
+    for (int i = 0; i < value.length(); ++i) {
+      final char c = value.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\')
+        continue;
+
+      writer.write(value, start, i - start);
+      start = i + 1;
+      switch (c) {
+        case '"':
+          writer.write("\\\"");
+          break;
+        case '\\':
+          writer.write("\\\\");
+          break;
+        case '\n':
+          writer.write("\\n");
+          break;
+        case '\r':
+          writer.write("\\r");
+          break;
+        case '\t':
+          writer.write("\\t");
+          break;
+        default:
+          writer.write("\\u");
+          writer.write(HEX_DIGITS[(c >> 12) & 0xF]);
+          writer.write(HEX_DIGITS[(c >> 8) & 0xF]);
+          writer.write(HEX_DIGITS[(c >> 4) & 0xF]);
+          writer.write(HEX_DIGITS[c & 0xF]);
+          break;
+      }
+    }
+    writer.write(value, start, value.length() - start);
+    writer.write('"');
+  }
+
+  /**
+   * Read a JSON response. The stream is read to the end of the response but not closed.
+   *
+   * @param in the response (UTF-8)
+   * @return the datasets of the response, in the order of the response
+   * @throws DSDException if the response cannot be read or is not a valid JSON response
+   */
+  @Nonnull
+  public static List<DSDDatasetSummary> readResponse(@Nonnull InputStream in) {
+    ValueEnforcer.notNull(in, "in");
+
+    try {
+      return new Parser(new InputStreamReader(in, StandardCharsets.UTF_8)).readResponse();
+    } catch (IOException ex) {
+      throw new DSDException("Cannot read the JSON response: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * A pull parser for the response object, which skips the members it doesn't know
+   */
+  private static final class Parser {
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private final StringBuilder sb = new StringBuilder();
+
+    private Parser(Reader reader) {
+      this.reader = reader;
+    }
+
+    List<DSDDatasetSummary> readResponse() throws IOException {
+      List<DSDDatasetSummary> datasets = null;
+
+      expect('{');
+      if (!consume('}')) {
+        do {
+          final String name = readString();
+          expect(':');
+          if (DATASETS.equals(name)) {
+            datasets = readDatasets();
+          } else {
+            skipValue();
+          }
+        } while (consume(','));
+        expect('}');
+      }
+      if (next() >= 0)
+        throw error("Unexpected content after the response");
+      if (datasets == null)
+        throw error("The response has no " + DATASETS);
+      return datasets;
+    }
+
+    private List<DSDDatasetSummary> readDatasets() throws IOException {
+      final List<DSDDatasetSummary> datasets = new ArrayList<>();
+      expect('[');
+      if (consume(']'))
+        return datasets;
+      do {
+        datasets.add(readDataset());
+      } while (consume(','));
+      expect(']');
+      return datasets;
+    }
+
+    private DSDDatasetSummary readDataset() throws IOException {
+      String datasetType = "";
+      String identifier = "";
+      String conformsTo = "";
+      String distributionFormat = "";
+      String distributionConformsTo = "";
+      String accessServiceIdentifier = "";
+      String publisherId = "";
+      String publisherIdScheme = "";
+      String publisherName = "";
+      String countryCode = "";
+      List<String> dataProviderTypes = new ArrayList<>();
+      List<String> dataSubjectIdentifierSchemes = new ArrayList<>();
+
+      expect('{');
+      if (!consume('}')) {
+        do {
+          final String name = readString();
+          expect(':');
+          switch (name) {
+            case DATASET_TYPE:
+              datasetType = readString();
+              break;
+            case IDENTIFIER:
+              identifier = readString();
+              break;
+            case CONFORMS_TO:
+              conformsTo = readString();
+              break;
+            case DISTRIBUTION_FORMAT:
+              distributionFormat = readString();
+              break;
+            case DISTRIBUTION_CONFORMS_TO:
+              distributionConformsTo = readString();
+              break;
+            case ACCESS_SERVICE_IDENTIFIER:
+              accessServiceIdentifier = readString();
+              break;
+            case PUBLISHER_ID:
+              publisherId = readString();
+              break;
+            case PUBLISHER_ID_SCHEME:
+              publisherIdScheme = readString();
+              break;
+            case PUBLISHER_NAME:
+              publisherName = readString();
+              break;
+            case COUNTRY_CODE:
+              countryCode = readString();
+              break;
+            case DATA_PROVIDER_TYPES:
+              dataProviderTypes = readStrings();
+              break;
+            case DATA_SUBJECT_IDENTIFIER_SCHEMES:
+              dataSubjectIdentifierSchemes = readStrings();
+              break;
+            default:
+              skipValue();
+              break;
+          }
+        } while (consume(','));
+        expect('}');
+      }
+
+      return new DSDDatasetSummary(datasetType, identifier, conformsTo, distributionFormat, distributionConformsTo,
+          accessServiceIdentifier, publisherId, publisherIdScheme, publisherName, countryCode, dataProviderTypes,
+          dataSubjectIdentifierSchemes);
+    }
+
+    private List<String> readStrings() throws IOException {
+      final List<String> values = new ArrayList<>();
+      expect('[');
+      if (consume(']'))
+        return values;
+      do {
+        values.add(readString());
+      } while (consume(','));
+      expect(']');
+      return values;
+    }
+
+    private String readString() throws IOException {
+      expect('"');
+      sb.setLength(0);
+      while (true) {
+        final int c = read();
+        if (c < 0)
+          throw error("Unterminated string");
+        if (c == '"')
+          return sb.toString();
+        if (c < 0x20)
+          throw error("Unescaped control character in a string");
+        if (c != '\\') {
+          sb.append((char) c);
+          continue;
+        }
+
+        final int escaped = read();
+        switch (escaped) {
+          case '"':
+          case '\\':
+          case '/':
+            sb.append((char) escaped);
+            break;
+          case 'b':
+            sb.append('\b');
+            break;
+          case 'f':
+            sb.append('\f');
+            break;
+          case 'n':
+            sb.append('\n');
+            break;
+          case 'r':
+            sb.append('\r');
+            break;
+          case 't':
+            sb.append('\t');
+            break;
+          case 'u':
+            sb.append(readUnicodeEscape());
+            break;
+          default:
+            throw error("Invalid escape sequence");
+        }
+      }
+    }
+
+    private char readUnicodeEscape() throws IOException {
+      int value = 0;
+      for (int i = 0; i < 4; ++i) {
+        final int digit = Character.digit(read(), 16);
+        if (digit < 0)
+          throw error("Invalid unicode escape sequence");
+        value = (value << 4) | digit;
+      }
+      return (char) value;
+    }
+
+    private void skipValue() throws IOException {
+      final int c = next();
+      switch (c) {
+        case '"':
+          unread();
+          readString();
+          break;
+        case '{':
+          if (!consume('}')) {
+            do {
+              readString();
+              expect(':');
+              skipValue();
+            } while (consume(','));
+            expect('}');
+          }
+          break;
+        case '[':
+          if (!consume(']')) {
+            do {
+              skipValue();
+            } while (consume(','));
+            expect(']');
+          }
+          break;
+        default:
+          if (c < 0 || !isLiteralChar(c))
+            throw error("Unexpected character");
+          // a number, true, false or null
+          int d;
+          do {
+            d = read();
+          } while (d >= 0 && isLiteralChar(d));
+          if (d >= 0)
+            unread();
+          break;
+      }
+    }
+
+    private static boolean isLiteralChar(int c) {
+      return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.' || c == 'E';
+    }
+
+    private void expect(char expected) throws IOException {
+      if (next() != expected)
+        throw error("Expected '" + expected + "'");
+    }
+
+    /**
+     * Consume the next non whitespace character if it is the given one
+     */
+    private boolean consume(char expected) throws IOException {
+      final int c = next();
+      if (c == expected)
+        return true;
+      if (c >= 0)
+        unread();
+      return false;
+    }
+
+    /**
+     * @return the next non whitespace character, -1 at the end of the stream
+     */
+    private int next() throws IOException {
+      int c;
+      do {
+        c = read();
+      } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+      return c;
+    }
+
+    private int read() throws IOException {
+      if (position == limit) {
+        limit = reader.read(buffer, 0, buffer.length);
+        position = 0;
+        if (limit <= 0) {
+          limit = 0;
+          return -1;
+        }
+      }
+      return buffer[position++];
+    }
+
+    /**
+     * Step back one character. Only valid right after a successful {@link #read()}.
+     */
+    private void unread() {
+      --position;
+    }
+
+    private DSDException error(String message) {
+      return new DSDException("Invalid JSON response: " + message);
+    }
+  }
+}
@@ -17,14 +17,37 @@
  */
 package eu.toop.dsd.api;
 
+import java.io.Closeable;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
 
 import com.helger.regrep.RegRep4Reader;
 import com.helger.regrep.query.QueryResponse;
@@ -34,10 +57,54 @@ import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
 import eu.toop.edm.xml.cagv.CCAGV;
 import eu.toop.edm.xml.dcatap.DatasetMarshaller;
 
+/**
+ * Reads the {@link DCatAPDatasetType} objects of a DSD (RegRep) query response.
+ * <p>
+ * {@link #parseDataset(Source)} reads and validates the whole response at once. The streaming variants
+ * ({@link #readDatasets(InputStream, Consumer)}, {@link #iterateDatasets(InputStream)} and
+ * {@link #streamDatasets(InputStream)}) walk the response with StAX and only build the DOM of one
+ * <code>Dataset</code> slot at a time, which is unmarshalled before the next one is read. Their memory
+ * use doesn't depend on the number of datasets in the response.
+ * <p>
+ * The streaming variants share two marshallers that are set up once: with validation, every dataset is
+ * validated against the DCAT-AP schema (compiled once and cached) while being unmarshalled; without
+ * validation, which is meant for the responses of a trusted DSD, the datasets are unmarshalled as they
+ * are. In both cases the RegRep envelope is only checked structurally by the StAX walk. All the methods
+ * are thread safe.
+ *
+ * @author yerlibilgin
+ */
 public class DcatDatasetTypeReader {
 
   public static final String DATASET_SLOT_NAME = "Dataset";
 
+  private static final String NS_QUERY = "urn:oasis:names:tc:ebxml-regrep:xsd:query:4.0";
+  private static final String NS_RIM = "urn:oasis:names:tc:ebxml-regrep:xsd:rim:4.0";
+
+  private static final XMLInputFactory INPUT_FACTORY;
+  private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY;
+
+  /**
+   * The marshallers are thread safe, and each of them keeps its JAXB context and schema for all the reads
+   */
+  private static final DatasetMarshaller VALIDATING_MARSHALLER;
+  private static final DatasetMarshaller NON_VALIDATING_MARSHALLER;
+
+  static {
+    INPUT_FACTORY = XMLInputFactory.newInstance();
+    INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+
+    DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+
+    VALIDATING_MARSHALLER = new DatasetMarshaller();
+    NON_VALIDATING_MARSHALLER = new DatasetMarshaller();
+    NON_VALIDATING_MARSHALLER.setUseSchema(false);
+  }
+
   /**
    * Instantiates a new DcatDatasetTypeReader
    */
@@ -84,12 +151,331 @@ public class DcatDatasetTypeReader {
   private static List<DCatAPDatasetType> convertElementsToDCatList(List<Element> dcatElements) {
     List<DCatAPDatasetType> datasetTypes = new ArrayList<>(dcatElements.size());
 
-    DatasetMarshaller dm = new DatasetMarshaller();
     dcatElements.forEach(element -> {
-      DCatAPDatasetType dataset = dm.read(element);
+      DCatAPDatasetType dataset = VALIDATING_MARSHALLER.read(element);
       datasetTypes.add(dataset);
     });
 
     return datasetTypes;
   }
+
+  /**
+   * Read all the datasets of a query response into a list. The stream is not closed.
+   *
+   * @param aInputStream the query response
+   * @param bValidate    whether each dataset is validated against the DCAT-AP schema
+   * @return the list of the datasets in the order of the response
+   * @throws DSDException if the response cannot be read or a dataset is invalid
+   */
+  @Nonnull
+  public static List<DCatAPDatasetType> readDatasets(@Nonnull final InputStream aInputStream, final boolean bValidate) {
+    final List<DCatAPDatasetType> datasets = new ArrayList<>();
+    readDatasets(aInputStream, bValidate, datasets::add);
+    return datasets;
+  }
+
+  /**
+   * Read the datasets of a query response one by one, validating each of them, and pass each of them to
+   * the consumer as soon as it is read. The stream is not closed.
+   *
+   * @param aInputStream the query response
+   * @param aConsumer    receives the datasets in the order of the response
+   * @return the number of datasets
+   * @throws DSDException if the response cannot be read or a dataset is invalid
+   */
+  public static int readDatasets(@Nonnull final InputStream aInputStream, @Nonnull final Consumer<? super DCatAPDatasetType> aConsumer) {
+    return readDatasets(aInputStream, true, aConsumer);
+  }
+
+  /**
+   * Read the datasets of a query response one by one and pass each of them to the consumer as soon as it
+   * is read. The stream is not closed.
+   *
+   * @param aInputStream the query response
+   * @param bValidate    whether each dataset is validated against the DCAT-AP schema
+   * @param aConsumer    receives the datasets in the order of the response
+   * @return the number of datasets
+   * @throws DSDException if the response cannot be read or a dataset is invalid
+   */
+  public static int readDatasets(@Nonnull final InputStream aInputStream, final boolean bValidate,
+                                 @Nonnull final Consumer<? super DCatAPDatasetType> aConsumer) {
+    ValueEnforcer.notNull(aConsumer, "consumer");
+
+    try (DatasetIterator iterator = iterateDatasets(aInputStream, bValidate)) {
+      int count = 0;
+      while (iterator.hasNext()) {
+        aConsumer.accept(iterator.next());
+        ++count;
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Read the datasets of a query response lazily, validating each of them: each call to
+   * {@link Iterator#next()} reads the next dataset from the stream. Closing the iterator doesn't close the
+   * stream.
+   *
+   * @param aInputStream the query response
+   * @return the iterator over the datasets, {@link Iterator#hasNext()} and {@link Iterator#next()} throw a
+   * {@link DSDException} if the response cannot be read or a dataset is invalid
+   * @throws DSDException if the response cannot be read
+   */
+  @Nonnull
+  public static DatasetIterator iterateDatasets(@Nonnull final InputStream aInputStream) {
+    return iterateDatasets(aInputStream, true);
+  }
+
+  /**
+   * Read the datasets of a query response lazily: each call to {@link Iterator#next()} reads the next
+   * dataset from the stream. Closing the iterator doesn't close the stream.
+   *
+   * @param aInputStream the query response
+   * @param bValidate    whether each dataset is validated against the DCAT-AP schema
+   * @return the iterator over the datasets, {@link Iterator#hasNext()} and {@link Iterator#next()} throw a
+   * {@link DSDException} if the response cannot be read or a dataset is invalid
+   * @throws DSDException if the response cannot be read
+   */
+  @Nonnull
+  public static DatasetIterator iterateDatasets(@Nonnull final InputStream aInputStream, final boolean bValidate) {
+    ValueEnforcer.notNull(aInputStream, "inputStream");
+
+    try {
+      return new DatasetIterator(INPUT_FACTORY.createXMLStreamReader(aInputStream),
+          bValidate ? VALIDATING_MARSHALLER : NON_VALIDATING_MARSHALLER);
+    } catch (XMLStreamException ex) {
+      throw new DSDException("Cannot read the query response: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Read the datasets of a query response as a lazy sequential stream, validating each of them. Closing
+   * the returned stream doesn't close the input stream.
+   *
+   * @param aInputStream the query response
+   * @return the stream of the datasets, its terminal operations throw a {@link DSDException} if the response
+   * cannot be read or a dataset is invalid
+   * @throws DSDException if the response cannot be read
+   */
+  @Nonnull
+  public static Stream<DCatAPDatasetType> streamDatasets(@Nonnull final InputStream aInputStream) {
+    return streamDatasets(aInputStream, true);
+  }
+
+  /**
+   * Read the datasets of a query response as a lazy sequential stream. Closing the returned stream doesn't
+   * close the input stream.
+   *
+   * @param aInputStream the query response
+   * @param bValidate    whether each dataset is validated against the DCAT-AP schema
+   * @return the stream of the datasets, its terminal operations throw a {@link DSDException} if the response
+   * cannot be read or a dataset is invalid
+   * @throws DSDException if the response cannot be read
+   */
+  @Nonnull
+  public static Stream<DCatAPDatasetType> streamDatasets(@Nonnull final InputStream aInputStream, final boolean bValidate) {
+    final DatasetIterator iterator = iterateDatasets(aInputStream, bValidate);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(iterator::close);
+  }
+
+  /**
+   * Walks a query response with StAX and unmarshals the <code>Dataset</code> slots one at a time
+   */
+  public static final class DatasetIterator implements Iterator<DCatAPDatasetType>, Closeable {
+    private final XMLStreamReader reader;
+    private final DatasetMarshaller marshaller;
+    private DocumentBuilder documentBuilder;
+    /**
+     * the namespace declarations of the open elements, prefix and URI, innermost last
+     */
+    private final Deque<String[]> namespaces = new ArrayDeque<>();
+    private final Deque<Integer> namespaceCounts = new ArrayDeque<>();
+    private int depth;
+    private DCatAPDatasetType next;
+    private boolean finished;
+
+    private DatasetIterator(XMLStreamReader reader, DatasetMarshaller marshaller) {
+      this.reader = reader;
+      this.marshaller = marshaller;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !finished)
+        next = readNext();
+      return next != null;
+    }
+
+    @Override
+    public DCatAPDatasetType next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      final DCatAPDatasetType ret = next;
+      next = null;
+      return ret;
+    }
+
+    @Override
+    public void close() {
+      finished = true;
+      try {
+        reader.close();
+      } catch (XMLStreamException ex) {
+        // nothing left to read
+      }
+    }
+
+    private DCatAPDatasetType readNext() {
+      try {
+        while (reader.hasNext()) {
+          final int event = reader.next();
+          if (event == XMLStreamConstants.END_ELEMENT) {
+            endElement();
+            continue;
+          }
+          if (event != XMLStreamConstants.START_ELEMENT)
+            continue;
+
+          startElement();
+          if (depth == 1 && !(NS_QUERY.equals(reader.getNamespaceURI()) && "QueryResponse".equals(reader.getLocalName())))
+            throw new DSDException("Not a query response: " + reader.getName());
+
+          if (isDatasetSlot()) {
+            final Element element = readSlotValue();
+            if (element != null)
+              return unmarshal(element);
+          }
+        }
+        close();
+        return null;
+      } catch (XMLStreamException ex) {
+        close();
+        throw new DSDException("Cannot read the query response: " + ex.getMessage(), ex);
+      } catch (RuntimeException ex) {
+        close();
+        throw ex;
+      }
+    }
+
+    private void startElement() {
+      ++depth;
+      final int count = reader.getNamespaceCount();
+      for (int i = 0; i < count; ++i) {
+        namespaces.addLast(new String[]{reader.getNamespacePrefix(i), reader.getNamespaceURI(i)});
+      }
+      namespaceCounts.addLast(count);
+    }
+
+    private void endElement() {
+      --depth;
+      for (int i = namespaceCounts.removeLast(); i > 0; --i) {
+        namespaces.removeLast();
+      }
+    }
+
+    /**
+     * QueryResponse/RegistryObjectList/RegistryObject/Slot[@name='Dataset']
+     */
+    private boolean isDatasetSlot() {
+      return depth == 4 && NS_RIM.equals(reader.getNamespaceURI()) && "Slot".equals(reader.getLocalName()) &&
+          DATASET_SLOT_NAME.equals(reader.getAttributeValue(null, "name"));
+    }
+
+    /**
+     * Reads the slot up to its end and returns the first element of its value as the document element of
+     * a new document, with all the namespaces that are in scope there.
+     */
+    private Element readSlotValue() throws XMLStreamException {
+      final int slotDepth = depth;
+      Element ret = null;
+      Node current = null;
+
+      while (depth >= slotDepth) {
+        final int event = reader.next();
+        switch (event) {
+          case XMLStreamConstants.START_ELEMENT: {
+            startElement();
+            if (current == null && ret == null && depth == slotDepth + 2) {
+              // the first element of the SlotValue
+              final Document document = newDocument();
+              ret = createElement(document);
+              for (String[] namespace : namespaces) {
+                declareNamespace(ret, namespace[0], namespace[1]);
+              }
+              document.appendChild(ret);
+              current = ret;
+            } else if (current != null) {
+              final Element element = createElement(current.getOwnerDocument());
+              for (int i = 0; i < reader.getNamespaceCount(); ++i) {
+                declareNamespace(element, reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+              }
+              current.appendChild(element);
+              current = element;
+            }
+            break;
+          }
+          case XMLStreamConstants.END_ELEMENT:
+            endElement();
+            if (current != null)
+              current = current == ret ? null : current.getParentNode();
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+          case XMLStreamConstants.SPACE:
+            if (current != null)
+              current.appendChild(current.getOwnerDocument().createTextNode(reader.getText()));
+            break;
+          default:
+            break;
+        }
+      }
+      return ret;
+    }
+
+    private Element createElement(Document document) {
+      final String prefix = reader.getPrefix();
+      final String namespaceURI = reader.getNamespaceURI();
+      final Element element = document.createElementNS(namespaceURI == null || namespaceURI.isEmpty() ? null : namespaceURI,
+          prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName());
+      for (int i = 0; i < reader.getAttributeCount(); ++i) {
+        final String attributePrefix = reader.getAttributePrefix(i);
+        final String attributeURI = reader.getAttributeNamespace(i);
+        element.setAttributeNS(attributeURI == null || attributeURI.isEmpty() ? null : attributeURI,
+            attributePrefix == null || attributePrefix.isEmpty() ? reader.getAttributeLocalName(i) : attributePrefix + ":" + reader.getAttributeLocalName(i),
+            reader.getAttributeValue(i));
+      }
+      return element;
+    }
+
+    private static void declareNamespace(Element element, String prefix, String namespaceURI) {
+      if (namespaceURI == null)
+        namespaceURI = "";
+      if (prefix == null || prefix.isEmpty())
+        element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE, namespaceURI);
+      else
+        element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, namespaceURI);
+    }
+
+    private Document newDocument() {
+      if (documentBuilder == null) {
+        // the factory is shared, creating the builders is not thread safe
+        synchronized (DOCUMENT_BUILDER_FACTORY) {
+          try {
+            documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+          } catch (ParserConfigurationException ex) {
+            throw new DSDException(ex.getMessage(), ex);
+          }
+        }
+      }
+      return documentBuilder.newDocument();
+    }
+
+    private DCatAPDatasetType unmarshal(Element element) {
+      final DCatAPDatasetType dataset = marshaller.read(element);
+      if (dataset == null)
+        throw new DSDException("Invalid dataset in the query response");
+      return dataset;
+    }
+  }
 }
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A circuit breaker for the calls to the TOOP Directory. After a number of consecutive failed requests the
+ * breaker opens, and the requests fail fast with a {@link DirectoryUnavailableException} instead of
+ * waiting for an unhealthy directory. After the open period, a single probe request is let through
+ * (half open): if it succeeds the breaker closes, otherwise it opens again for another period.
+ * <p>
+ * Thread safe.
+ *
+ * @author yerlibilgin
+ */
+public final class DirectoryCircuitBreaker {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryCircuitBreaker.class);
+
+  /**
+   * The states of the breaker
+   */
+  public enum State {
+    /**
+     * The requests are let through
+     */
+    CLOSED,
+    /**
+     * The requests fail fast
+     */
+    OPEN,
+    /**
+     * A single probe request is let through to find out whether the directory has recovered
+     */
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final LongSupplier nanoClock;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAt;
+  private boolean probeInFlight;
+
+  /**
+   * Create a new closed breaker
+   *
+   * @param failureThreshold the number of consecutive failures that open the breaker
+   * @param openMillis       the time the breaker stays open before a probe request is let through
+   */
+  public DirectoryCircuitBreaker(int failureThreshold, long openMillis) {
+    this(failureThreshold, openMillis, System::nanoTime);
+  }
+
+  DirectoryCircuitBreaker(int failureThreshold, long openMillis, @Nonnull LongSupplier nanoClock) {
+    ValueEnforcer.isGT0(failureThreshold, "failureThreshold");
+    ValueEnforcer.isGT0(openMillis, "openMillis");
+    ValueEnforcer.notNull(nanoClock, "nanoClock");
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * Ask for the permission to send a request. A permitted request must report its outcome with
+   * {@link #recordSuccess()} or {@link #recordFailure()}, or give the permission back with {@link #release()}
+   * if it ended without an answer that tells anything about the directory.
+   *
+   * @return <code>true</code> if the request may be sent, <code>false</code> if it must fail fast
+   */
+  public synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (nanoClock.getAsLong() - openedAt < openNanos)
+          return false;
+        LOGGER.info("Directory circuit breaker half open, sending a probe request");
+        state = State.HALF_OPEN;
+        probeInFlight = true;
+        return true;
+      default:
+        if (probeInFlight)
+          return false;
+        probeInFlight = true;
+        return true;
+    }
+  }
+
+  /**
+   * Record a request that the directory answered
+   */
+  public synchronized void recordSuccess() {
+    if (state != State.CLOSED)
+      LOGGER.info("Directory circuit breaker closed");
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    probeInFlight = false;
+  }
+
+  /**
+   * Record a request that failed because of the directory, e.g. a connection failure, a timeout or a
+   * server error
+   */
+  public synchronized void recordFailure() {
+    ++consecutiveFailures;
+    if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      LOGGER.warn("Directory circuit breaker open after " + consecutiveFailures + " consecutive failures, failing fast for " +
+          TimeUnit.NANOSECONDS.toMillis(openNanos) + " ms");
+      state = State.OPEN;
+      openedAt = nanoClock.getAsLong();
+      probeInFlight = false;
+    }
+  }
+
+  /**
+   * Give back the permission of a request that ended without telling anything about the directory, e.g. because it
+   * was cancelled. If it was the probe of a half open breaker, the next request becomes the probe.
+   */
+  public synchronized void release() {
+    if (state == State.HALF_OPEN)
+      probeInFlight = false;
+  }
+
+  /**
+   * @return the current state. An open breaker whose open period is over is reported as open until the next
+   * request probes the directory.
+   */
+  @Nonnull
+  public synchronized State getState() {
+    return state;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DirectoryCircuitBreaker [state: " + state + ", consecutiveFailures: " + consecutiveFailures +
+        ", failureThreshold: " + failureThreshold + ", openMillis: " + TimeUnit.NANOSECONDS.toMillis(openNanos) + "]";
+  }
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+/**
+ * The settings of the HTTP connections from DSD to the TOOP Directory.
+ *
+ * @author yerlibilgin
+ */
+public class DirectoryClientSettings {
+  public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 50;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+  public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5_000;
+  public static final int DEFAULT_SOCKET_TIMEOUT_MS = 30_000;
+  public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT_MS = 5_000;
+  public static final int DEFAULT_IDLE_EVICTION_MS = 30_000;
+  public static final int DEFAULT_TOTAL_TIMEOUT_MS = 60_000;
+  public static final int DEFAULT_MAX_RETRIES = 2;
+  public static final int DEFAULT_RETRY_INITIAL_BACKOFF_MS = 200;
+  public static final int DEFAULT_RETRY_MAX_BACKOFF_MS = 2_000;
+
+  private int maxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+  private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+  private int connectTimeoutMS = DEFAULT_CONNECT_TIMEOUT_MS;
+  private int socketTimeoutMS = DEFAULT_SOCKET_TIMEOUT_MS;
+  private int connectionRequestTimeoutMS = DEFAULT_CONNECTION_REQUEST_TIMEOUT_MS;
+  private int idleEvictionMS = DEFAULT_IDLE_EVICTION_MS;
+  private boolean contentCompression = true;
+  private int totalTimeoutMS = DEFAULT_TOTAL_TIMEOUT_MS;
+  private int maxRetries = DEFAULT_MAX_RETRIES;
+  private int retryInitialBackoffMS = DEFAULT_RETRY_INITIAL_BACKOFF_MS;
+  private int retryMaxBackoffMS = DEFAULT_RETRY_MAX_BACKOFF_MS;
+
+  /**
+   * Gets the maximum number of pooled connections.
+   *
+   * @return the maximum number of connections
+   */
+  public int getMaxConnectionsTotal() {
+    return maxConnectionsTotal;
+  }
+
+  /**
+   * Sets the maximum number of pooled connections.
+   *
+   * @param maxConnectionsTotal the maximum number of connections
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setMaxConnectionsTotal(int maxConnectionsTotal) {
+    this.maxConnectionsTotal = maxConnectionsTotal;
+    return this;
+  }
+
+  /**
+   * Gets the maximum number of pooled connections per route (host).
+   *
+   * @return the maximum number of connections per route
+   */
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  /**
+   * Sets the maximum number of pooled connections per route (host).
+   *
+   * @param maxConnectionsPerRoute the maximum number of connections per route
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    return this;
+  }
+
+  /**
+   * Gets the timeout for establishing a connection.
+   *
+   * @return the connect timeout in milliseconds
+   */
+  public int getConnectTimeoutMS() {
+    return connectTimeoutMS;
+  }
+
+  /**
+   * Sets the timeout for establishing a connection.
+   *
+   * @param connectTimeoutMS the connect timeout in milliseconds
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setConnectTimeoutMS(int connectTimeoutMS) {
+    this.connectTimeoutMS = connectTimeoutMS;
+    return this;
+  }
+
+  /**
+   * Gets the maximum period of inactivity between two data packets.
+   *
+   * @return the socket timeout in milliseconds
+   */
+  public int getSocketTimeoutMS() {
+    return socketTimeoutMS;
+  }
+
+  /**
+   * Sets the maximum period of inactivity between two data packets.
+   *
+   * @param socketTimeoutMS the socket timeout in milliseconds
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setSocketTimeoutMS(int socketTimeoutMS) {
+    this.socketTimeoutMS = socketTimeoutMS;
+    return this;
+  }
+
+  /**
+   * Gets the timeout for leasing a connection from the pool.
+   *
+   * @return the connection request timeout in milliseconds
+   */
+  public int getConnectionRequestTimeoutMS() {
+    return connectionRequestTimeoutMS;
+  }
+
+  /**
+   * Sets the timeout for leasing a connection from the pool.
+   *
+   * @param connectionRequestTimeoutMS the connection request timeout in milliseconds
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setConnectionRequestTimeoutMS(int connectionRequestTimeoutMS) {
+    this.connectionRequestTimeoutMS = connectionRequestTimeoutMS;
+    return this;
+  }
+
+  /**
+   * Gets the time after which idle connections are closed.
+   *
+   * @return the idle time in milliseconds
+   */
+  public int getIdleEvictionMS() {
+    return idleEvictionMS;
+  }
+
+  /**
+   * Sets the time after which idle connections are closed.
+   *
+   * @param idleEvictionMS the idle time in milliseconds
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setIdleEvictionMS(int idleEvictionMS) {
+    this.idleEvictionMS = idleEvictionMS;
+    return this;
+  }
+
+  /**
+   * Is the compressed transfer of the directory results enabled.
+   *
+   * @return <code>true</code> if gzip and deflate encoded results are requested and decoded
+   */
+  public boolean isContentCompression() {
+    return contentCompression;
+  }
+
+  /**
+   * Enables or disables the compressed transfer of the directory results. When enabled, the requests
+   * carry <code>Accept-Encoding: gzip,deflate</code> and the encoded results are decoded while they are
+   * read, without buffering them.
+   *
+   * @param contentCompression <code>true</code> to request compressed results
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setContentCompression(boolean contentCompression) {
+    this.contentCompression = contentCompression;
+    return this;
+  }
+
+  /**
+   * Gets the deadline of a whole directory call, all the pages and retries included.
+   *
+   * @return the deadline in milliseconds, 0 for none
+   */
+  public int getTotalTimeoutMS() {
+    return totalTimeoutMS;
+  }
+
+  /**
+   * Sets the deadline of a whole directory call, all the pages and retries included. A call that is still
+   * running at the deadline is aborted.
+   *
+   * @param totalTimeoutMS the deadline in milliseconds, 0 for none
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setTotalTimeoutMS(int totalTimeoutMS) {
+    this.totalTimeoutMS = totalTimeoutMS;
+    return this;
+  }
+
+  /**
+   * Gets the number of times a failed directory request is retried.
+   *
+   * @return the number of retries
+   */
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Sets the number of times a failed directory request is retried. Only the requests that failed before
+   * their result was passed on are retried: connection failures, timeouts and the
+   * <code>408, 429, 500, 502, 503, 504</code> responses.
+   *
+   * @param maxRetries the number of retries, 0 to disable retrying
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+    return this;
+  }
+
+  /**
+   * Gets the upper bound of the wait before the first retry.
+   *
+   * @return the backoff in milliseconds
+   */
+  public int getRetryInitialBackoffMS() {
+    return retryInitialBackoffMS;
+  }
+
+  /**
+   * Sets the upper bound of the wait before the first retry. The bound doubles with each retry, up to
+   * {@link #getRetryMaxBackoffMS()}, and the actual wait is a random time below it.
+   *
+   * @param retryInitialBackoffMS the backoff in milliseconds
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setRetryInitialBackoffMS(int retryInitialBackoffMS) {
+    this.retryInitialBackoffMS = retryInitialBackoffMS;
+    return this;
+  }
+
+  /**
+   * Gets the maximum upper bound of the wait before a retry.
+   *
+   * @return the backoff in milliseconds
+   */
+  public int getRetryMaxBackoffMS() {
+    return retryMaxBackoffMS;
+  }
+
+  /**
+   * Sets the maximum upper bound of the wait before a retry.
+   *
+   * @param retryMaxBackoffMS the backoff in milliseconds
+   * @return this for chaining
+   */
+  public DirectoryClientSettings setRetryMaxBackoffMS(int retryMaxBackoffMS) {
+    this.retryMaxBackoffMS = retryMaxBackoffMS;
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return "maxConnectionsTotal: " + maxConnectionsTotal +
+        ", maxConnectionsPerRoute: " + maxConnectionsPerRoute +
+        ", connectTimeoutMS: " + connectTimeoutMS +
+        ", socketTimeoutMS: " + socketTimeoutMS +
+        ", connectionRequestTimeoutMS: " + connectionRequestTimeoutMS +
+        ", idleEvictionMS: " + idleEvictionMS +
+        ", contentCompression: " + contentCompression +
+        ", totalTimeoutMS: " + totalTimeoutMS +
+        ", maxRetries: " + maxRetries +
+        ", retryInitialBackoffMS: " + retryInitialBackoffMS +
+        ", retryMaxBackoffMS: " + retryMaxBackoffMS;
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A long living pool of keep-alive HTTP connections to the TOOP Directory. The pool is
+ * thread safe and shared by all the directory calls; it must be closed when it is not
+ * needed anymore.
+ *
+ * @author yerlibilgin
+ */
+public class DirectoryConnectionPool implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryConnectionPool.class);
+
+  private final DirectoryClientSettings settings;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+
+  /**
+   * Create a new pool with the given settings
+   *
+   * @param settings the settings, may not be <code>null</code>
+   */
+  public DirectoryConnectionPool(@Nonnull DirectoryClientSettings settings) {
+    ValueEnforcer.notNull(settings, "settings");
+    this.settings = settings;
+
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(settings.getMaxConnectionsTotal());
+    connectionManager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+
+    final RequestConfig requestConfig = RequestConfig.custom()
+        .setConnectTimeout(settings.getConnectTimeoutMS())
+        .setSocketTimeout(settings.getSocketTimeoutMS())
+        .setConnectionRequestTimeout(settings.getConnectionRequestTimeoutMS())
+        .build();
+
+    final HttpClientBuilder builder = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        .evictExpiredConnections()
+        .evictIdleConnections(settings.getIdleEvictionMS(), TimeUnit.MILLISECONDS);
+
+    // the client sends Accept-Encoding: gzip,deflate by default and wraps the encoded entities
+    // into decompressing streams, so the results are decoded while they are parsed
+    if (!settings.isContentCompression())
+      builder.disableContentCompression();
+
+    httpClient = builder.build();
+
+    LOGGER.info("Created directory connection pool [" + settings + "]");
+  }
+
+  /**
+   * @return the settings of this pool
+   */
+  @Nonnull
+  public DirectoryClientSettings getSettings() {
+    return settings;
+  }
+
+  /**
+   * @return the shared HTTP client. Don't close it, close the pool instead.
+   */
+  @Nonnull
+  public CloseableHttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * Open keep-alive connections to the given URL ahead of the first requests, so that they don't pay for
+   * the connection setup and the TLS handshake. The connections are opened in parallel with
+   * <code>HEAD</code> requests and all of them are held until each request is answered (or failed), so
+   * that each one opens its own connection. They are then returned to the pool.
+   *
+   * @param url         the URL to send the requests to, e.g. the directory base URL
+   * @param connections the number of connections to open, bounded by the maximum connections per route
+   * @return the number of successful requests
+   */
+  public int prime(@Nonnull String url, int connections) {
+    ValueEnforcer.notEmpty(url, "url");
+    final int count = Math.min(connections, settings.getMaxConnectionsPerRoute());
+    if (count <= 0)
+      return 0;
+
+    final CountDownLatch allAnswered = new CountDownLatch(count);
+    final ExecutorService executor = Executors.newFixedThreadPool(count, r -> {
+      final Thread thread = new Thread(r, "dsd-dir-pool-prime");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      final List<Future<Boolean>> futures = new ArrayList<>(count);
+      for (int i = 0; i < count; ++i) {
+        futures.add(executor.submit(() -> {
+          boolean answered = false;
+          try (CloseableHttpResponse response = httpClient.execute(new HttpHead(url))) {
+            answered = true;
+            allAnswered.countDown();
+            // keep the connection leased until the others have theirs
+            allAnswered.await(settings.getSocketTimeoutMS(), TimeUnit.MILLISECONDS);
+            return Boolean.TRUE;
+          } catch (IOException ex) {
+            LOGGER.debug("Couldn't prime a connection to " + url + ": " + ex.getMessage());
+            return Boolean.FALSE;
+          } finally {
+            if (!answered)
+              allAnswered.countDown();
+          }
+        }));
+      }
+
+      int primed = 0;
+      for (Future<Boolean> future : futures) {
+        if (future.get().booleanValue())
+          ++primed;
+      }
+      LOGGER.info("Primed " + primed + "/" + count + " connections to " + url + " " + getPoolStats());
+      return primed;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return 0;
+    } catch (ExecutionException ex) {
+      LOGGER.warn("Couldn't prime the connections to " + url + ": " + ex.getCause());
+      return 0;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the current usage of the pool over all routes
+   */
+  @Nonnull
+  public PoolStats getPoolStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  @Override
+  public void close() {
+    LOGGER.info("Closing directory connection pool " + getPoolStats());
+    try {
+      // also shuts down the connection manager and the idle connection evictor
+      httpClient.close();
+    } catch (Exception ex) {
+      LOGGER.warn("Couldn't close the directory connection pool: " + ex.getMessage());
+    }
+  }
+}
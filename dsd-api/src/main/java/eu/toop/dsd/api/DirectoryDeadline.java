@@ -0,0 +1,122 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * The deadline of a whole directory call. The requests of the call are registered here, and the ones that are
+ * still running at the deadline are aborted, no matter whether they are connecting, waiting for the response or
+ * streaming it. The timer is cancelled when the call is closed.
+ * <p>
+ * The deadline doesn't report to the circuit breaker itself: an aborted request is reported by the attempt
+ * that sent it, so that every permit of the breaker gets exactly one outcome.
+ *
+ * @author yerlibilgin
+ */
+final class DirectoryDeadline implements Closeable {
+  private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+    final Thread thread = new Thread(r, "dsd-dir-deadline");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  static {
+    TIMER.setRemoveOnCancelPolicy(true);
+  }
+
+  private final long timeoutMillis;
+  private final long deadlineNanos;
+  private final List<HttpRequestBase> requests = new ArrayList<>();
+  private final ScheduledFuture<?> timer;
+  private boolean expired;
+
+  /**
+   * Start the deadline of a call
+   *
+   * @param timeoutMillis the time the call may take, 0 for no deadline
+   */
+  DirectoryDeadline(long timeoutMillis) {
+    this.timeoutMillis = timeoutMillis;
+    this.deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+    this.timer = timeoutMillis > 0 ? TIMER.schedule(this::expire, timeoutMillis, TimeUnit.MILLISECONDS) : null;
+  }
+
+  private void expire() {
+    final List<HttpRequestBase> toAbort;
+    synchronized (this) {
+      expired = true;
+      toAbort = new ArrayList<>(requests);
+    }
+    for (HttpRequestBase request : toAbort) {
+      request.abort();
+    }
+  }
+
+  /**
+   * Register a request of the call, so that it is aborted at the deadline
+   *
+   * @param request the request
+   * @throws InterruptedIOException if the deadline is already over
+   */
+  synchronized void register(@Nonnull HttpRequestBase request) throws InterruptedIOException {
+    if (expired)
+      throw createTimeoutException(null);
+    requests.add(request);
+  }
+
+  /**
+   * @return the nanoseconds left until the deadline, {@link Long#MAX_VALUE} if there is no deadline
+   */
+  long getRemainingNanos() {
+    return deadlineNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadlineNanos - System.nanoTime();
+  }
+
+  synchronized boolean isExpired() {
+    return expired;
+  }
+
+  /**
+   * @param cause the failure caused by aborting the requests, may be <code>null</code>
+   * @return the exception that reports the expired deadline
+   */
+  @Nonnull
+  InterruptedIOException createTimeoutException(@Nullable Throwable cause) {
+    final InterruptedIOException ex = new InterruptedIOException("The directory call exceeded its deadline of " + timeoutMillis + " ms");
+    if (cause != null)
+      ex.initCause(cause);
+    return ex;
+  }
+
+  @Override
+  public void close() {
+    if (timer != null)
+      timer.cancel(false);
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the TOOP Directory answers a request with a status other than <code>200 OK</code>.
+ *
+ * @author yerlibilgin
+ */
+public class DirectoryStatusException extends IOException {
+  private final int statusCode;
+
+  public DirectoryStatusException(int statusCode) {
+    super("Request failed " + statusCode);
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * @return the HTTP status of the response
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * @return <code>true</code> if the status reports a temporary problem of the directory, so that the request
+   * may be retried
+   */
+  public boolean isRetryable() {
+    switch (statusCode) {
+      case 408:
+      case 429:
+      case 500:
+      case 502:
+      case 503:
+      case 504:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
@@ -18,11 +18,22 @@
 package eu.toop.dsd.api;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -33,6 +44,8 @@ import javax.xml.transform.stream.StreamSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 
 import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
@@ -45,21 +58,80 @@ import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
 public class DsdDataConverter {
   private static final Logger LOGGER = LoggerFactory.getLogger(DsdDataConverter.class);
 
-  private static final Transformer transformer;
+  /**
+   * The maximum number of idle transformers that are kept for reuse. A thread that finds
+   * the pool empty creates a new transformer from the compiled templates, so this only
+   * bounds the memory kept between requests, not the concurrency.
+   */
+  private static final int MAX_POOLED_TRANSFORMERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+  /**
+   * The compiled stylesheet. {@link Templates} is thread safe, a {@link Transformer} is not.
+   */
+  private static final Templates templates;
+
+  private static final BlockingQueue<Transformer> transformerPool = new ArrayBlockingQueue<>(MAX_POOLED_TRANSFORMERS);
+
+  /**
+   * The implementations of the DIR to DSD conversion
+   */
+  public enum ConversionEngine {
+    /**
+     * The <code>xslt/dsd.xslt</code> stylesheet
+     */
+    XSLT,
+    /**
+     * The {@link DsdStaxConverter}, which produces the same result as the stylesheet
+     */
+    STAX
+  }
+
+  private static volatile ConversionEngine conversionEngine = ConversionEngine.XSLT;
+
+  private static volatile boolean indent = true;
 
   static {
-    try {
-      LOGGER.info ("Starting to precompile DSD XSLT script");
-      InputStream inputStream = DsdDataConverter.class.getResourceAsStream("/xslt/dsd.xslt");
+    LOGGER.info("Starting to precompile DSD XSLT script");
+    try (InputStream inputStream = DsdDataConverter.class.getResourceAsStream("/xslt/dsd.xslt")) {
       StreamSource stylesource = new StreamSource(inputStream);
-      transformer = TransformerFactory.newInstance().newTransformer(stylesource);
-      LOGGER.info ("Finsihed precompiling DSD XSLT script");
-
-    } catch (TransformerConfigurationException e) {
-      throw new DSDException("Cannot instantiate transformers");
+      templates = TransformerFactory.newInstance().newTemplates(stylesource);
+      LOGGER.info("Finished precompiling DSD XSLT script");
+    } catch (TransformerConfigurationException | IOException e) {
+      throw new DSDException("Cannot instantiate transformers", e);
     }
   }
 
+  /**
+   * Select the implementation of the conversion
+   *
+   * @param engine the conversion engine, may not be <code>null</code>
+   */
+  public static void setConversionEngine(@Nonnull ConversionEngine engine) {
+    ValueEnforcer.notNull(engine, "engine");
+    conversionEngine = engine;
+    LOGGER.info("Using the " + engine + " conversion engine");
+  }
+
+  @Nonnull
+  public static ConversionEngine getConversionEngine() {
+    return conversionEngine;
+  }
+
+  /**
+   * Select whether the DSD results are indented. The indented form is easier to read, the compact
+   * form is considerably smaller, which is what machine clients want.
+   *
+   * @param indent <code>true</code> to indent the results (the default), <code>false</code> for the compact form
+   */
+  public static void setIndent(boolean indent) {
+    DsdDataConverter.indent = indent;
+    LOGGER.info((indent ? "Indenting" : "Not indenting") + " the DSD results");
+  }
+
+  public static boolean isIndent() {
+    return indent;
+  }
+
   /**
    * Converts a DIR result to a DSD result
    *
@@ -84,24 +156,130 @@ public class DsdDataConverter {
     return convertDIRToDSD(directoryResult, datasetType, countryCode, null);
   }
 
-  private static String convertDIRToDSD(String directoryResult, String datasetType, String countryCode, String dpType) throws TransformerException {
-    transformer.clearParameters();
-    if (datasetType != null)
-      transformer.setParameter("datasetType", datasetType);
+  /**
+   * Converts a DIR result to a DSD result and writes it directly to the given stream
+   * without buffering the whole result in memory.
+   *
+   * @param directoryResult the xml received from the toop directory, e.g. the stream of the HTTP response
+   * @param datasetType     the optional datasetType parameter, used for filtering the record
+   * @param dpType          the dpType query parameter for filtering and returning only the selected entities
+   * @param resultStream    the stream to write the DSD result into (UTF-8)
+   * @throws TransformerException if the transformation fails
+   */
+  public static void convertDIRToDSDWithDPType(@Nonnull Source directoryResult, String datasetType, String dpType,
+                                               @Nonnull OutputStream resultStream) throws TransformerException {
+    convertDIRToDSD(directoryResult, datasetType, null, dpType, resultStream);
+  }
 
-    if (countryCode != null)
-      transformer.setParameter("countryCode", countryCode);
+  /**
+   * Converts a DIR result to a DSD result and writes it directly to the given stream
+   * without buffering the whole result in memory.
+   *
+   * @param directoryResult the xml received from the toop directory, e.g. the stream of the HTTP response
+   * @param datasetType     the optional datasetType parameter, used for filtering the record
+   * @param countryCode     the country code for filtering and returning only the selected countries
+   * @param resultStream    the stream to write the DSD result into (UTF-8)
+   * @throws TransformerException if the transformation fails
+   */
+  public static void convertDIRToDSDWithCountryCode(@Nonnull Source directoryResult, String datasetType, String countryCode,
+                                                    @Nonnull OutputStream resultStream) throws TransformerException {
+    convertDIRToDSD(directoryResult, datasetType, countryCode, null, resultStream);
+  }
 
-    if (dpType != null)
-      transformer.setParameter("dpType", dpType);
+  private static Source createSource(String directoryResult) {
+    return new StreamSource(new StringReader(directoryResult));
+  }
 
-    StringWriter writer = new StringWriter();
-    StreamSource xmlSource = new StreamSource(new ByteArrayInputStream(directoryResult.getBytes(StandardCharsets.UTF_8)));
-    transformer.transform(xmlSource, new StreamResult(writer));
+  private static String convertDIRToDSD(String directoryResult, String datasetType, String countryCode, String dpType)
+      throws TransformerException {
+    if (conversionEngine == ConversionEngine.STAX) {
+      final NonBlockingByteArrayOutputStream stream = new NonBlockingByteArrayOutputStream();
+      DsdStaxConverter.convert(createSource(directoryResult), datasetType, countryCode, dpType, stream, indent);
+      return new String(stream.toByteArray(), StandardCharsets.UTF_8);
+    }
 
+    final StringWriter writer = new StringWriter();
+    transform(createSource(directoryResult), datasetType, countryCode, dpType, new StreamResult(writer));
     return writer.toString();
   }
 
+  private static void convertDIRToDSD(Source directoryResult, String datasetType, String countryCode, String dpType,
+                                      OutputStream resultStream) throws TransformerException {
+    if (conversionEngine == ConversionEngine.STAX) {
+      DsdStaxConverter.convert(directoryResult, datasetType, countryCode, dpType, resultStream, indent);
+      return;
+    }
+
+    transform(directoryResult, datasetType, countryCode, dpType, new StreamResult(resultStream));
+  }
+
+  private static void transform(Source directoryResult, String datasetType, String countryCode, String dpType,
+                                Result result) throws TransformerException {
+    final Transformer transformer = borrowTransformer();
+    try {
+      if (datasetType != null)
+        transformer.setParameter("datasetType", datasetType);
+
+      if (countryCode != null)
+        transformer.setParameter("countryCode", countryCode);
+
+      if (dpType != null)
+        transformer.setParameter("dpType", dpType);
+
+      // set on every use, the transformers are pooled
+      transformer.setOutputProperty(OutputKeys.INDENT, indent ? "yes" : "no");
+
+      transformer.transform(directoryResult, result);
+    } finally {
+      releaseTransformer(transformer);
+    }
+  }
+
+  /**
+   * Take an idle transformer from the pool or create a new one from the compiled templates.
+   * The returned transformer is owned by the calling thread until it is passed to
+   * {@link #releaseTransformer(Transformer)}.
+   */
+  private static Transformer borrowTransformer() throws TransformerConfigurationException {
+    final Transformer transformer = transformerPool.poll();
+    if (transformer != null)
+      return transformer;
+
+    return templates.newTransformer();
+  }
+
+  /**
+   * Fill the transformer pool ahead of the first requests, so that they don't pay for creating their
+   * transformers. Loading this class compiles the stylesheet, so this also makes sure that it compiles.
+   *
+   * @param count the number of transformers to create, bounded by the capacity of the pool
+   * @return the number of idle transformers in the pool afterwards
+   * @throws TransformerConfigurationException if a transformer cannot be created
+   */
+  public static int primeTransformerPool(int count) throws TransformerConfigurationException {
+    final int toCreate = Math.min(count, transformerPool.remainingCapacity());
+    for (int i = 0; i < toCreate; ++i) {
+      if (!transformerPool.offer(templates.newTransformer()))
+        break;
+    }
+    return transformerPool.size();
+  }
+
+  /**
+   * Reset the transformer and put it back to the pool. If the pool is already full, the transformer
+   * is dropped.
+   */
+  private static void releaseTransformer(Transformer transformer) {
+    try {
+      transformer.reset();
+    } catch (RuntimeException ex) {
+      // don't reuse a transformer that is in an unknown state
+      LOGGER.warn("Couldn't reset transformer: " + ex.getMessage());
+      return;
+    }
+    transformerPool.offer(transformer);
+  }
+
   /**
    * Read the dsdRawResult as a List of {@link DCatAPDatasetType} objects
    *
@@ -113,10 +291,34 @@ public class DsdDataConverter {
     return DcatDatasetTypeReader.parseDataset(new StreamSource(inputStream));
   }
 
+  /**
+   * Read the dsdRawResult as a List of {@link DCatAPDatasetType} objects with the reusable streaming
+   * reader of {@link DcatDatasetTypeReader}, which doesn't set up a new reader and marshaller per call.
+   *
+   * @param dsdRawResult the raw DSD query result
+   * @param validate     whether each dataset is validated against the DCAT-AP schema, can be turned off
+   *                     for the responses of a trusted DSD
+   * @return the resulting list, <code>null</code> if the result cannot be read
+   */
+  @Nullable
+  public static List<DCatAPDatasetType> parseDataset(String dsdRawResult, boolean validate) {
+    final InputStream inputStream = new ByteArrayInputStream(dsdRawResult.getBytes(StandardCharsets.UTF_8));
+    try {
+      return DcatDatasetTypeReader.readDatasets(inputStream, validate);
+    } catch (DSDException ex) {
+      LOGGER.warn("Couldn't read the DSD result: " + ex.getMessage());
+      return null;
+    }
+  }
+
   /**
    * Try a dummy transformation on the XSLT to make it ready for
    * future calls
+   *
+   * @deprecated runs unmanaged in the background, the DSD service runs a managed warm-up instead. Use
+   * {@link #primeTransformerPool(int)} and a few conversions of a representative directory result.
    */
+  @Deprecated
   public static void prepare() {
     new Thread(() -> {
       LOGGER.info("Starting Dummy prepare");
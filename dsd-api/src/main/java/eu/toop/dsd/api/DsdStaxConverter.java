@@ -0,0 +1,721 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.helger.commons.ValueEnforcer;
+
+import eu.toop.dsd.api.types.DoctypeFormatException;
+import eu.toop.dsd.api.types.DoctypeParts;
+import eu.toop.dsd.api.types.V2DoctypeParts;
+
+/**
+ * A hand written alternative to <code>xslt/dsd.xslt</code> that converts a directory result into
+ * a DSD (RegRep) <code>QueryResponse</code>.
+ * <p>
+ * The directory result is read with StAX, keeping only the fields of the matches that are needed
+ * for the response, and the response is written with an {@link XMLStreamWriter} in one go. The
+ * filters and the produced values are the same as the ones of the stylesheet, including its
+ * <code>contains</code> based filtering. Each distinct doctype is parsed once per conversion with
+ * {@link DoctypeParts#parse(String)}.
+ * <p>
+ * The same datasets can also be written in the compact JSON form of {@link DSDJson}.
+ * <p>
+ * Directory results that are only available as SAX events (a {@link SAXSource} with a custom
+ * {@link org.xml.sax.XMLReader}, e.g. the merged pages of a directory result) are read with SAX
+ * into the same model.
+ *
+ * @author yerlibilgin
+ */
+public final class DsdStaxConverter {
+  static final String NS_LCM = "urn:oasis:names:tc:ebxml-regrep:xsd:lcm:4.0";
+  static final String NS_QUERY = "urn:oasis:names:tc:ebxml-regrep:xsd:query:4.0";
+  static final String NS_RIM = "urn:oasis:names:tc:ebxml-regrep:xsd:rim:4.0";
+  static final String NS_RS = "urn:oasis:names:tc:ebxml-regrep:xsd:rs:4.0";
+  static final String NS_XSI = XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+  static final String NS_CAGV = "https://semic.org/sa/cv/cagv/agent-2.0.0#";
+  static final String NS_DCT = "http://purl.org/dc/terms/";
+  static final String NS_CBC = "https://data.europe.eu/semanticassets/ns/cv/common/cbc_v2.0.0#";
+  static final String NS_SKOS = "http://www.w3.org/2004/02/skos/core#";
+  static final String NS_DCAT = "http://data.europa.eu/r5r/";
+  static final String NS_LOCN = "http://www.w3.org/ns/locn#";
+  static final String NS_ORG = "http://www.w3.org/ns/org#";
+
+  private static final String STATUS_SUCCESS = "urn:oasis:names:tc:ebxml-regrep:ResponseStatusType:Success";
+  private static final String FICTIVE_URL_PREFIX = "https://smp.elonia.toop.eu/9999::Elonia/services/";
+  private static final String ONTOLOGY_URL_PREFIX = "https://semantic-repository.toop.eu/ontology/";
+  private static final String SUPPORTED_ID_SCHEME_ROLE = "https://toop.eu/dataset/supportedIdScheme";
+  private static final String DATA_PROVIDER_TYPE_SCHEME = "DataProviderType";
+  private static final String DATA_SUBJECT_IDENTIFIER_SCHEME = "DataSubjectIdentifierScheme";
+
+  private static final byte[] XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+      .getBytes(StandardCharsets.UTF_8);
+
+  private static final XMLInputFactory INPUT_FACTORY;
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+  static {
+    INPUT_FACTORY = XMLInputFactory.newInstance();
+    INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+  }
+
+  private DsdStaxConverter() {
+  }
+
+  /**
+   * Converts a DIR result to an indented DSD result and writes it to the given stream.
+   * A <code>null</code> filter parameter matches everything, like an empty stylesheet parameter.
+   *
+   * @param directoryResult the xml received from the toop directory
+   * @param datasetType     the datasetType parameter, used for filtering the doctypes
+   * @param countryCode     the country code for filtering and returning only the selected countries
+   * @param dpType          the dpType query parameter for filtering and returning only the selected entities
+   * @param resultStream    the stream to write the DSD result into (UTF-8)
+   * @throws TransformerException if the directory result cannot be read or the result cannot be written
+   */
+  public static void convert(@Nonnull Source directoryResult, @Nullable String datasetType, @Nullable String countryCode,
+                             @Nullable String dpType, @Nonnull OutputStream resultStream) throws TransformerException {
+    convert(directoryResult, datasetType, countryCode, dpType, resultStream, true);
+  }
+
+  /**
+   * Converts a DIR result to a DSD result and writes it to the given stream.
+   * A <code>null</code> filter parameter matches everything, like an empty stylesheet parameter.
+   *
+   * @param directoryResult the xml received from the toop directory
+   * @param datasetType     the datasetType parameter, used for filtering the doctypes
+   * @param countryCode     the country code for filtering and returning only the selected countries
+   * @param dpType          the dpType query parameter for filtering and returning only the selected entities
+   * @param resultStream    the stream to write the DSD result into (UTF-8)
+   * @param indent          <code>true</code> to indent the result, <code>false</code> for the compact form
+   * @throws TransformerException if the directory result cannot be read or the result cannot be written
+   */
+  public static void convert(@Nonnull Source directoryResult, @Nullable String datasetType, @Nullable String countryCode,
+                             @Nullable String dpType, @Nonnull OutputStream resultStream, boolean indent) throws TransformerException {
+    ValueEnforcer.notNull(directoryResult, "directoryResult");
+    ValueEnforcer.notNull(resultStream, "resultStream");
+
+    final List<Match> matches = readMatches(directoryResult);
+    final List<RegistryObject> registryObjects = filter(matches, nullToEmpty(datasetType), nullToEmpty(countryCode),
+        nullToEmpty(dpType));
+
+    try {
+      resultStream.write(XML_DECLARATION);
+      final XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(resultStream, StandardCharsets.UTF_8.name());
+      new ResponseWriter(writer, nullToEmpty(datasetType), indent).write(registryObjects);
+      writer.flush();
+      writer.close();
+    } catch (XMLStreamException | IOException e) {
+      throw new TransformerException("Cannot write the DSD result: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Converts a DIR result to the compact JSON form of the DSD result (see {@link DSDJson}) and writes it to
+   * the given stream. The datasets are the same as the ones of {@link #convert(Source, String, String, String, OutputStream)}.
+   *
+   * @param directoryResult the xml received from the toop directory
+   * @param datasetType     the datasetType parameter, used for filtering the doctypes
+   * @param countryCode     the country code for filtering and returning only the selected countries
+   * @param dpType          the dpType query parameter for filtering and returning only the selected entities
+   * @param resultStream    the stream to write the JSON result into (UTF-8)
+   * @throws TransformerException if the directory result cannot be read or the result cannot be written
+   */
+  public static void convertToJson(@Nonnull Source directoryResult, @Nullable String datasetType, @Nullable String countryCode,
+                                   @Nullable String dpType, @Nonnull OutputStream resultStream) throws TransformerException {
+    ValueEnforcer.notNull(directoryResult, "directoryResult");
+    ValueEnforcer.notNull(resultStream, "resultStream");
+
+    final List<Match> matches = readMatches(directoryResult);
+    final List<RegistryObject> registryObjects = filter(matches, nullToEmpty(datasetType), nullToEmpty(countryCode),
+        nullToEmpty(dpType));
+
+    final List<DSDDatasetSummary> datasets = new ArrayList<>(registryObjects.size());
+    for (RegistryObject registryObject : registryObjects) {
+      datasets.add(summarize(registryObject, nullToEmpty(datasetType)));
+    }
+
+    try {
+      DSDJson.writeResponse(datasets, resultStream);
+    } catch (IOException e) {
+      throw new TransformerException("Cannot write the DSD result: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * The values of a registry object as {@link ResponseWriter} writes them
+   */
+  private static DSDDatasetSummary summarize(RegistryObject ro, String datasetType) {
+    final List<String> dataProviderTypes = new ArrayList<>(ro.entity.dataProviderTypes.size());
+    for (String dataProviderType : ro.entity.dataProviderTypes) {
+      dataProviderTypes.add(normalizeSpace(dataProviderType));
+    }
+
+    return new DSDDatasetSummary(datasetType,
+        nullToEmpty(ro.docTypeParts.getDataSetIdentifier()),
+        ONTOLOGY_URL_PREFIX + datasetType,
+        nullToEmpty(ro.docTypeParts.getDistributionFormat()),
+        nullToEmpty(ro.docTypeParts.getConformsTo()),
+        ro.docTypeScheme + "::" + ro.docTypeID,
+        String.join(" ", ro.match.participantIds),
+        String.join(" ", ro.match.participantSchemes),
+        String.join(" ", ro.entity.names),
+        ro.entity.getJoinedCountryCodes(),
+        dataProviderTypes,
+        new ArrayList<>(ro.entity.dataSubjectIdentifierSchemes));
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+
+  // ------------------------------------------------------------------------------------------------
+  // reading
+  // ------------------------------------------------------------------------------------------------
+
+  private static final class Match {
+    private final List<String> participantSchemes = new ArrayList<>();
+    private final List<String> participantIds = new ArrayList<>();
+    /**
+     * scheme and normalized value of each doctype
+     */
+    private final List<String[]> docTypes = new ArrayList<>();
+    private final List<Entity> entities = new ArrayList<>();
+    private final int index;
+
+    private Match(int index) {
+      this.index = index;
+    }
+  }
+
+  private static final class Entity {
+    private final StringBuilder stringValue = new StringBuilder();
+    private final List<String> names = new ArrayList<>();
+    private final List<String> countryCodes = new ArrayList<>();
+    private final List<String> dataProviderTypes = new ArrayList<>();
+    private final List<String> dataSubjectIdentifierSchemes = new ArrayList<>();
+    private final int index;
+    private String joinedCountryCodes;
+    private String joinedDataProviderTypes;
+
+    private Entity(int index) {
+      this.index = index;
+    }
+
+    /**
+     * @return the country codes separated by spaces, joined once since every doctype of the match tests them
+     */
+    private String getJoinedCountryCodes() {
+      if (joinedCountryCodes == null)
+        joinedCountryCodes = String.join(" ", countryCodes);
+      return joinedCountryCodes;
+    }
+
+    private String getJoinedDataProviderTypes() {
+      if (joinedDataProviderTypes == null)
+        joinedDataProviderTypes = String.join(" ", dataProviderTypes);
+      return joinedDataProviderTypes;
+    }
+  }
+
+  /**
+   * Builds the {@link Match} list out of the parsing events, independently of the parser API
+   */
+  private static final class MatchCollector {
+    private final List<Match> matches = new ArrayList<>();
+    private int depth;
+    private boolean inResultList;
+    private Match match;
+    private Entity entity;
+
+    private StringBuilder capture;
+    private int captureDepth;
+    private String captureName;
+    private String captureScheme;
+
+    void startElement(String namespaceURI, String localName, UnaryOperator<String> attributes) {
+      ++depth;
+      if (capture != null || (namespaceURI != null && !namespaceURI.isEmpty()))
+        return;
+
+      switch (depth) {
+        case 1:
+          inResultList = "resultlist".equals(localName);
+          break;
+        case 2:
+          if (inResultList && "match".equals(localName))
+            match = new Match(matches.size());
+          break;
+        case 3:
+          if (match == null)
+            break;
+          if ("entity".equals(localName)) {
+            entity = new Entity(match.entities.size());
+          } else if ("participantID".equals(localName) || "docTypeID".equals(localName)) {
+            startCapture(localName, attributes.apply("scheme"));
+          }
+          break;
+        case 4:
+          if (entity != null && ("name".equals(localName) || "countryCode".equals(localName) || "identifier".equals(localName)))
+            startCapture(localName, attributes.apply("scheme"));
+          break;
+        default:
+          break;
+      }
+    }
+
+    private void startCapture(String localName, String scheme) {
+      capture = new StringBuilder();
+      captureDepth = depth;
+      captureName = localName;
+      captureScheme = scheme == null ? "" : scheme;
+    }
+
+    void characters(char[] ch, int start, int length) {
+      if (entity != null)
+        entity.stringValue.append(ch, start, length);
+      if (capture != null)
+        capture.append(ch, start, length);
+    }
+
+    void endElement() {
+      if (capture != null && depth == captureDepth) {
+        endCapture(capture.toString());
+        capture = null;
+      } else if (depth == 3 && entity != null) {
+        match.entities.add(entity);
+        entity = null;
+      } else if (depth == 2 && match != null) {
+        matches.add(match);
+        match = null;
+      }
+      --depth;
+    }
+
+    private void endCapture(String value) {
+      switch (captureName) {
+        case "participantID":
+          match.participantSchemes.add(captureScheme);
+          match.participantIds.add(value);
+          break;
+        case "docTypeID":
+          match.docTypes.add(new String[]{captureScheme, normalizeSpace(value)});
+          break;
+        case "name":
+          entity.names.add(value);
+          break;
+        case "countryCode":
+          entity.countryCodes.add(value);
+          break;
+        case "identifier": {
+          final String scheme = normalizeSpace(captureScheme);
+          if (DATA_PROVIDER_TYPE_SCHEME.equals(scheme))
+            entity.dataProviderTypes.add(value);
+          else if (DATA_SUBJECT_IDENTIFIER_SCHEME.equals(scheme))
+            entity.dataSubjectIdentifierSchemes.add(normalizeSpace(value));
+          break;
+        }
+        default:
+          break;
+      }
+    }
+  }
+
+  private static List<Match> readMatches(Source directoryResult) throws TransformerException {
+    final MatchCollector collector = new MatchCollector();
+
+    if (directoryResult instanceof SAXSource && ((SAXSource) directoryResult).getXMLReader() != null) {
+      // the events are produced by a custom reader, StAX cannot consume them
+      readWithSAX((SAXSource) directoryResult, collector);
+      return collector.matches;
+    }
+
+    try {
+      final XMLStreamReader reader = createXMLStreamReader(directoryResult);
+      try {
+        while (reader.hasNext()) {
+          switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+              collector.startElement(reader.getNamespaceURI(), reader.getLocalName(), name -> reader.getAttributeValue(null, name));
+              break;
+            case XMLStreamConstants.END_ELEMENT:
+              collector.endElement();
+              break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+              collector.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+              break;
+            default:
+              break;
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new TransformerException("Cannot read the directory result: " + e.getMessage(), e);
+    }
+    return collector.matches;
+  }
+
+  private static XMLStreamReader createXMLStreamReader(Source source) throws XMLStreamException {
+    InputStream inputStream = null;
+    Reader reader = null;
+    String systemId = source.getSystemId();
+
+    if (source instanceof StreamSource) {
+      inputStream = ((StreamSource) source).getInputStream();
+      reader = ((StreamSource) source).getReader();
+    } else if (source instanceof SAXSource && ((SAXSource) source).getInputSource() != null) {
+      final InputSource inputSource = ((SAXSource) source).getInputSource();
+      inputStream = inputSource.getByteStream();
+      reader = inputSource.getCharacterStream();
+      if (systemId == null)
+        systemId = inputSource.getSystemId();
+    } else {
+      return INPUT_FACTORY.createXMLStreamReader(source);
+    }
+
+    if (reader != null)
+      return INPUT_FACTORY.createXMLStreamReader(reader);
+    if (inputStream != null)
+      return INPUT_FACTORY.createXMLStreamReader(inputStream);
+    return INPUT_FACTORY.createXMLStreamReader(systemId, (InputStream) null);
+  }
+
+  /**
+   * Drives the reader of the source directly, an identity transformer in between would only pass the events on
+   */
+  private static void readWithSAX(SAXSource directoryResult, MatchCollector collector) throws TransformerException {
+    final XMLReader reader = directoryResult.getXMLReader();
+    reader.setContentHandler(new DefaultHandler() {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        collector.startElement(uri, localName, attributes::getValue);
+      }
+
+      @Override
+      public void endElement(String uri, String localName, String qName) {
+        collector.endElement();
+      }
+
+      @Override
+      public void characters(char[] ch, int start, int length) {
+        collector.characters(ch, start, length);
+      }
+    });
+
+    final InputSource inputSource = directoryResult.getInputSource() != null ? directoryResult.getInputSource()
+        : new InputSource(directoryResult.getSystemId());
+    try {
+      reader.parse(inputSource);
+    } catch (SAXException | IOException e) {
+      throw new TransformerException("Cannot read the directory result: " + e.getMessage(), e);
+    }
+  }
+
+  // ------------------------------------------------------------------------------------------------
+  // filtering
+  // ------------------------------------------------------------------------------------------------
+
+  private static final class RegistryObject {
+    private final Match match;
+    private final Entity entity;
+    private final String docTypeScheme;
+    private final String docTypeID;
+    private final DoctypeParts docTypeParts;
+
+    private RegistryObject(Match match, Entity entity, String docTypeScheme, String docTypeID, DoctypeParts docTypeParts) {
+      this.match = match;
+      this.entity = entity;
+      this.docTypeScheme = docTypeScheme;
+      this.docTypeID = docTypeID;
+      this.docTypeParts = docTypeParts;
+    }
+  }
+
+  private static List<RegistryObject> filter(List<Match> matches, String datasetType, String countryCode, String dpType)
+      throws TransformerException {
+    final Map<String, DoctypeParts> parsedDocTypes = new HashMap<>();
+    final List<RegistryObject> result = new ArrayList<>();
+
+    for (Match match : matches) {
+      for (String[] docType : match.docTypes) {
+        final String docTypeID = docType[1];
+        if (!docTypeID.contains(datasetType))
+          continue;
+
+        for (Entity entity : match.entities) {
+          if (!entity.getJoinedCountryCodes().contains(countryCode))
+            continue;
+          if (!entity.getJoinedDataProviderTypes().contains(dpType))
+            continue;
+
+          DoctypeParts docTypeParts = parsedDocTypes.get(docTypeID);
+          if (docTypeParts == null) {
+            docTypeParts = parseDocType(docTypeID);
+            parsedDocTypes.put(docTypeID, docTypeParts);
+          }
+          result.add(new RegistryObject(match, entity, docType[0], docTypeID, docTypeParts));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Parses the doctype like <code>dsd:getDocTypeParts</code> of the stylesheet: three tokens are a V1 doctype,
+   * anything else is read as a V2 doctype with the missing tokens left empty.
+   */
+  private static DoctypeParts parseDocType(String docTypeID) throws TransformerException {
+    try {
+      return DoctypeParts.parse(docTypeID);
+    } catch (DoctypeFormatException e) {
+      final String[] tokens = stripScheme(docTypeID).split("::", -1);
+      final String token3 = token(tokens, 2);
+      final int hashIndex = token3.indexOf("##");
+      return new V2DoctypeParts(token(tokens, 0), token(tokens, 1),
+          hashIndex < 0 ? token3 : token3.substring(0, hashIndex),
+          hashIndex < 0 ? null : token3.substring(hashIndex + 2),
+          token(tokens, 3));
+    } catch (IllegalArgumentException e) {
+      throw new TransformerException("Invalid doctype " + docTypeID, e);
+    }
+  }
+
+  private static String stripScheme(String docTypeID) {
+    final String prefix = "toop-doctypeid-qns::";
+    return docTypeID.startsWith(prefix) ? docTypeID.substring(prefix.length()) : docTypeID;
+  }
+
+  private static String token(String[] tokens, int index) {
+    return index < tokens.length ? tokens[index] : "";
+  }
+
+  /**
+   * The XPath <code>normalize-space</code> function
+   */
+  static String normalizeSpace(String value) {
+    final StringBuilder sb = new StringBuilder(value.length());
+    boolean pendingSpace = false;
+    for (int i = 0; i < value.length(); ++i) {
+      final char c = value.charAt(i);
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+        pendingSpace = sb.length() > 0;
+      } else {
+        if (pendingSpace)
+          sb.append(' ');
+        pendingSpace = false;
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  // ------------------------------------------------------------------------------------------------
+  // writing
+  // ------------------------------------------------------------------------------------------------
+
+  /**
+   * Writes the response with a two space indentation, or without any whitespace between the elements
+   */
+  private static final class ResponseWriter {
+    private final XMLStreamWriter writer;
+    private final String datasetType;
+    private final String fictiveUrl;
+    private final boolean indent;
+    private int depth;
+
+    private ResponseWriter(XMLStreamWriter writer, String datasetType, boolean indent) {
+      this.writer = writer;
+      this.datasetType = datasetType;
+      this.fictiveUrl = FICTIVE_URL_PREFIX + datasetType;
+      this.indent = indent;
+    }
+
+    void write(List<RegistryObject> registryObjects) throws XMLStreamException {
+      writer.setPrefix("query", NS_QUERY);
+      writer.writeStartElement("query", "QueryResponse", NS_QUERY);
+      writer.writeDefaultNamespace(NS_LCM);
+      writer.writeNamespace("lcm", NS_LCM);
+      writer.writeNamespace("query", NS_QUERY);
+      writer.writeNamespace("rim", NS_RIM);
+      writer.writeNamespace("rs", NS_RS);
+      writer.writeNamespace("xsi", NS_XSI);
+      writer.writeAttribute("startIndex", "0");
+      writer.writeAttribute("status", STATUS_SUCCESS);
+      writer.writeAttribute("totalResultCount", Integer.toString(registryObjects.size()));
+      ++depth;
+
+      start("rim", "RegistryObjectList", NS_RIM);
+      for (RegistryObject registryObject : registryObjects) {
+        writeRegistryObject(registryObject);
+      }
+      end();
+
+      end();
+      writer.writeEndDocument();
+    }
+
+    private void writeRegistryObject(RegistryObject ro) throws XMLStreamException {
+      start("rim", "RegistryObject", NS_RIM);
+      writer.writeAttribute("id", "m" + (ro.match.index + 1) + "e" + (ro.entity.index + 1));
+
+      start("rim", "Slot", NS_RIM);
+      writer.writeAttribute("name", "Dataset");
+      start("rim", "SlotValue", NS_RIM);
+      writer.writeAttribute("xsi", NS_XSI, "type", "rim:AnyValueType");
+
+      start("dcat", "dataset", NS_DCAT);
+      writer.writeNamespace("cagv", NS_CAGV);
+      writer.writeNamespace("dct", NS_DCT);
+      writer.writeNamespace("cbc", NS_CBC);
+      writer.writeNamespace("skos", NS_SKOS);
+      writer.writeNamespace("dcat", NS_DCAT);
+      writer.writeNamespace("locn", NS_LOCN);
+      writer.writeNamespace("org", NS_ORG);
+
+      leaf("dct", "description", NS_DCT, normalizeSpace("A dataset about " + datasetType));
+      leaf("dct", "title", NS_DCT, "?Companies registry?");
+
+      comment("Distribution Information");
+      start("dcat", "distribution", NS_DCAT);
+      leaf("dcat", "accessURL", NS_DCAT, fictiveUrl);
+      leaf("dct", "description", NS_DCT, normalizeSpace("?This is a pdf distribution of the " + datasetType + "?"));
+      leaf("dct", "format", NS_DCT, nullToEmpty(ro.docTypeParts.getDistributionFormat()));
+      start("dcat", "accessService", NS_DCAT);
+      leaf("dct", "identifier", NS_DCT, ro.docTypeScheme + "::" + ro.docTypeID);
+      leaf("dct", "title", NS_DCT, "?Access Service Title?");
+      leaf("dcat", "endpointURL", NS_DCAT, fictiveUrl);
+      leaf("dct", "conformsTo", NS_DCT, nullToEmpty(ro.docTypeParts.getConformsTo()));
+      end();
+      leaf("dcat", "mediaType", NS_DCAT, "?application/pdf?");
+      end();
+
+      leaf("dct", "conformsTo", NS_DCT, ONTOLOGY_URL_PREFIX + datasetType);
+      leaf("dct", "identifier", NS_DCT, nullToEmpty(ro.docTypeParts.getDataSetIdentifier()));
+
+      comment("Publisher Information");
+      start("dct", "publisher", NS_DCT);
+      writer.writeAttribute("xsi", NS_XSI, "type", "cagv:PublicOrganizationType");
+      start("cbc", "id", NS_CBC);
+      writer.writeAttribute("schemeID", String.join(" ", ro.match.participantSchemes));
+      writer.writeCharacters(String.join(" ", ro.match.participantIds));
+      endInline();
+      start("cagv", "location", NS_CAGV);
+      start("cagv", "address", NS_CAGV);
+      leaf("locn", "fullAddress", NS_LOCN, normalizeSpace(ro.entity.stringValue.toString()));
+      leaf("locn", "adminUnitLevel1", NS_LOCN, ro.entity.getJoinedCountryCodes());
+      end();
+      end();
+      leaf("skos", "prefLabel", NS_SKOS, String.join(" ", ro.entity.names));
+      for (String dataProviderType : ro.entity.dataProviderTypes) {
+        start("org", "classification", NS_ORG);
+        leaf("skos", "name", NS_SKOS, normalizeSpace(dataProviderType));
+        end();
+      }
+      end();
+
+      leaf("dct", "type", NS_DCT, datasetType);
+      for (String scheme : ro.entity.dataSubjectIdentifierSchemes) {
+        start("dcat", "qualifiedRelation", NS_DCAT);
+        leaf("dct", "relation", NS_DCT, scheme);
+        leaf("dcat", "hadRole", NS_DCAT, SUPPORTED_ID_SCHEME_ROLE);
+        end();
+      }
+      end();
+
+      end();
+      end();
+      end();
+    }
+
+    private void newLine() throws XMLStreamException {
+      if (!indent)
+        return;
+
+      final StringBuilder sb = new StringBuilder(1 + depth * 2).append('\n');
+      for (int i = 0; i < depth; ++i) {
+        sb.append("  ");
+      }
+      writer.writeCharacters(sb.toString());
+    }
+
+    private void start(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+      newLine();
+      writer.writeStartElement(prefix, localName, namespaceURI);
+      ++depth;
+    }
+
+    private void end() throws XMLStreamException {
+      --depth;
+      newLine();
+      writer.writeEndElement();
+    }
+
+    private void endInline() throws XMLStreamException {
+      --depth;
+      writer.writeEndElement();
+    }
+
+    private void leaf(String prefix, String localName, String namespaceURI, String text) throws XMLStreamException {
+      start(prefix, localName, namespaceURI);
+      writer.writeCharacters(text);
+      endInline();
+    }
+
+    private void comment(String text) throws XMLStreamException {
+      newLine();
+      writer.writeComment(text);
+    }
+  }
+}
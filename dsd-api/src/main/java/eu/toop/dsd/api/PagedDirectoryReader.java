@@ -0,0 +1,271 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A SAX filter that presents all the pages of a TOOP Directory search result as one logical
+ * <code>resultlist</code> document.
+ * <p>
+ * The first page is parsed from the given input (usually the HTTP response stream). As soon as
+ * its root element is seen, the total result count is known and the remaining pages are requested
+ * from the {@link PageFetcher} in the background, with at most <code>maxPagesInFlight</code>
+ * pages being downloaded at once. The pages are then parsed in order, so that page N+1 is being
+ * downloaded while page N is consumed by the downstream content handler.
+ * <p>
+ * The root element of the first page is kept, the root elements of the other pages are dropped
+ * and their children are appended to it.
+ *
+ * @author yerlibilgin
+ */
+final class PagedDirectoryReader extends XMLFilterImpl {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PagedDirectoryReader.class);
+
+  static final String ATTR_TOTAL_RESULT_COUNT = "total-result-count";
+  static final String ATTR_RESULT_PAGE_COUNT = "result-page-count";
+
+  private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+
+  /**
+   * Fetches a single page of the directory result
+   */
+  @FunctionalInterface
+  interface PageFetcher {
+    /**
+     * @param pageIndex the zero based page index
+     * @return the raw bytes of the page
+     * @throws IOException if a communication problem occurs
+     */
+    byte[] fetchPage(int pageIndex) throws IOException;
+  }
+
+  private final PageFetcher pageFetcher;
+  private final ExecutorService executor;
+  private final int maxPagesInFlight;
+  private final int defaultPageSize;
+
+  private final Deque<Future<byte[]>> pagesInFlight = new ArrayDeque<>();
+  private final List<String> rootPrefixes = new ArrayList<>();
+
+  private boolean firstPage;
+  private int depth;
+  private int pageCount;
+  private int nextPageToRequest;
+
+  private String rootUri;
+  private String rootLocalName;
+  private String rootQName;
+
+  /**
+   * Instantiates a new reader.
+   *
+   * @param parent           the namespace aware reader that parses the single pages
+   * @param pageFetcher      the fetcher for the pages after the first one
+   * @param executor         the executor that runs the page fetches
+   * @param maxPagesInFlight the maximum number of pages that are requested at once
+   * @param defaultPageSize  the page size to assume if the result doesn't report it
+   */
+  PagedDirectoryReader(@Nonnull XMLReader parent, @Nonnull PageFetcher pageFetcher, @Nonnull ExecutorService executor,
+                       int maxPagesInFlight, int defaultPageSize) {
+    super(parent);
+    ValueEnforcer.notNull(pageFetcher, "pageFetcher");
+    ValueEnforcer.notNull(executor, "executor");
+    ValueEnforcer.isGT0(maxPagesInFlight, "maxPagesInFlight");
+    ValueEnforcer.isGT0(defaultPageSize, "defaultPageSize");
+    this.pageFetcher = pageFetcher;
+    this.executor = executor;
+    this.maxPagesInFlight = maxPagesInFlight;
+    this.defaultPageSize = defaultPageSize;
+  }
+
+  /**
+   * @return the number of pages of the result, only valid after the root element of the first page was read
+   */
+  int getPageCount() {
+    return pageCount;
+  }
+
+  @Override
+  public void parse(InputSource input) throws SAXException, IOException {
+    firstPage = true;
+    depth = 0;
+    pageCount = 1;
+    nextPageToRequest = 1;
+    rootPrefixes.clear();
+    rootQName = null;
+
+    try {
+      super.parse(input);
+      firstPage = false;
+
+      for (int pageIndex = 1; pageIndex < pageCount; ++pageIndex) {
+        final byte[] page = takeNextPage();
+        LOGGER.debug("Appending directory result page " + (pageIndex + 1) + "/" + pageCount);
+        depth = 0;
+        getParent().parse(new InputSource(new ByteArrayInputStream(page)));
+      }
+
+      if (rootQName != null) {
+        super.endElement(rootUri, rootLocalName, rootQName);
+        for (String prefix : rootPrefixes) {
+          super.endPrefixMapping(prefix);
+        }
+      }
+      super.endDocument();
+    } finally {
+      // in case of an error, don't keep downloading pages nobody will read
+      for (Future<byte[]> future : pagesInFlight) {
+        future.cancel(true);
+      }
+      pagesInFlight.clear();
+    }
+  }
+
+  private byte[] takeNextPage() throws SAXException, IOException {
+    final Future<byte[]> future = pagesInFlight.poll();
+    // keep the window full while this page is being processed
+    requestPages();
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SAXException("Interrupted while waiting for a directory result page", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new SAXException("Couldn't fetch directory result page", e);
+    }
+  }
+
+  private void requestPages() {
+    while (nextPageToRequest < pageCount && pagesInFlight.size() < maxPagesInFlight) {
+      final int pageIndex = nextPageToRequest++;
+      pagesInFlight.add(executor.submit(() -> pageFetcher.fetchPage(pageIndex)));
+    }
+  }
+
+  private void readPaging(Attributes atts) {
+    final int totalResultCount = parseInt(atts.getValue(ATTR_TOTAL_RESULT_COUNT), 0);
+    final int pageSize = parseInt(atts.getValue(ATTR_RESULT_PAGE_COUNT), defaultPageSize);
+    if (pageSize > 0 && totalResultCount > pageSize) {
+      pageCount = (totalResultCount + pageSize - 1) / pageSize;
+      LOGGER.debug("Directory result has " + totalResultCount + " matches in " + pageCount + " pages");
+    }
+    requestPages();
+  }
+
+  private static int parseInt(String value, int defaultValue) {
+    if (value == null)
+      return defaultValue;
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException ex) {
+      return defaultValue;
+    }
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    if (firstPage)
+      super.startDocument();
+  }
+
+  @Override
+  public void endDocument() {
+    // emitted once after the last page
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {
+    if (depth > 0) {
+      super.startPrefixMapping(prefix, uri);
+    } else if (firstPage) {
+      rootPrefixes.add(prefix);
+      super.startPrefixMapping(prefix, uri);
+    }
+  }
+
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException {
+    if (depth > 0)
+      super.endPrefixMapping(prefix);
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+    if (depth++ > 0) {
+      super.startElement(uri, localName, qName, atts);
+      return;
+    }
+
+    if (firstPage) {
+      rootUri = uri;
+      rootLocalName = localName;
+      rootQName = qName;
+      readPaging(atts);
+      super.startElement(uri, localName, qName, new AttributesImpl(atts));
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    if (--depth > 0)
+      super.endElement(uri, localName, qName);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) throws SAXException {
+    if (depth > 0 || firstPage)
+      super.processingInstruction(target, data);
+  }
+
+  @Override
+  public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+    // comments and DTD events would bypass this filter and end up in the wrong place, so they are not supported
+    if (LEXICAL_HANDLER_PROPERTY.equals(name))
+      throw new SAXNotRecognizedException(name);
+    super.setProperty(name, value);
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * Deduplicates concurrent identical calls: while a call for a key is running, the other callers with the same key
+ * wait for it and share its result instead of making the same call again. The result is not kept after the call
+ * is finished, and a failure is passed to all the waiting callers but not remembered either.
+ *
+ * @param <K> the key type
+ * @param <V> the result type
+ * @author yerlibilgin
+ */
+final class SingleFlight<K, V> {
+  /**
+   * The call whose result is shared
+   *
+   * @param <V> the result type
+   */
+  @FunctionalInterface
+  interface Call<V> {
+    /**
+     * @return the result
+     * @throws Exception if the call fails
+     */
+    V call() throws Exception;
+  }
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Runs the call, or waits for the running call with the same key.
+   *
+   * @param key  the key of the call
+   * @param call the call
+   * @return the result of the call
+   * @throws Exception the failure of the call
+   */
+  V execute(@Nonnull K key, @Nonnull Call<V> call) throws Exception {
+    ValueEnforcer.notNull(key, "key");
+    ValueEnforcer.notNull(call, "call");
+
+    final CompletableFuture<V> future = new CompletableFuture<>();
+    final CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+    if (running != null)
+      return await(running);
+
+    try {
+      final V result = call.call();
+      future.complete(result);
+      return result;
+    } catch (Exception | Error ex) {
+      future.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  private static <V> V await(CompletableFuture<V> running) throws Exception {
+    try {
+      return running.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw ex;
+    } catch (ExecutionException ex) {
+      final Throwable cause = ex.getCause();
+      if (cause instanceof Exception)
+        throw (Exception) cause;
+      throw (Error) cause;
+    }
+  }
+
+  /**
+   * @return the number of calls that are currently running
+   */
+  int getInFlightCount() {
+    return inFlight.size();
+  }
+}
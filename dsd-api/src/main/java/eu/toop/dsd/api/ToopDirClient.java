@@ -17,13 +17,22 @@
  */
 package eu.toop.dsd.api;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -32,16 +41,32 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509ExtendedTrustManager;
-
-import org.apache.http.HttpResponse;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.url.SimpleURL;
 
@@ -109,6 +134,175 @@ public class ToopDirClient {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ToopDirClient.class);
 
+  /**
+   * The maximum page size accepted by the directory
+   */
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  public static final int DEFAULT_PAGE_SIZE = 100;
+
+  public static final int DEFAULT_MAX_PAGES_IN_FLIGHT = 4;
+  /**
+   * The default number of threads that download the pages of all the directory calls
+   */
+  public static final int DEFAULT_PAGE_FETCH_THREADS = 16;
+
+  private static final AtomicInteger pageFetchThreadCounter = new AtomicInteger();
+
+  private static volatile int pageSize = DEFAULT_PAGE_SIZE;
+
+  private static volatile int maxPagesInFlight = DEFAULT_MAX_PAGES_IN_FLIGHT;
+
+  /**
+   * Off by default: a coalesced result is buffered for all its callers, so it is not streamed to any of them
+   */
+  private static volatile boolean coalesceRequests = false;
+
+  /**
+   * The identity transformers that copy the coalesced results, reused by each thread instead of creating a
+   * transformer factory per call
+   */
+  private static final ThreadLocal<Transformer> identityTransformer = ThreadLocal.withInitial(() -> {
+    try {
+      return TransformerFactory.newInstance().newTransformer();
+    } catch (TransformerConfigurationException e) {
+      throw new DSDException("Cannot create an identity transformer", e);
+    }
+  });
+
+  private static final SingleFlight<String, byte[]> inFlightRequests = new SingleFlight<>();
+
+  private static volatile DirectoryCircuitBreaker circuitBreaker;
+
+  private static volatile DirectoryConnectionPool connectionPool = new DirectoryConnectionPool(new DirectoryClientSettings());
+
+  private static volatile ExecutorService pageFetchExecutor = createPageFetchExecutor(DEFAULT_PAGE_FETCH_THREADS);
+
+  /**
+   * Replace the connection pool used for the directory calls. The previous pool is closed.
+   *
+   * @param pool the new pool, may not be <code>null</code>
+   */
+  public static void setConnectionPool(@Nonnull DirectoryConnectionPool pool) {
+    ValueEnforcer.notNull(pool, "pool");
+    final DirectoryConnectionPool previous = connectionPool;
+    connectionPool = pool;
+    if (previous != pool)
+      previous.close();
+  }
+
+  /**
+   * @return the connection pool used for the directory calls
+   */
+  @Nonnull
+  public static DirectoryConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  /**
+   * Set the number of matches requested per directory page.
+   *
+   * @param pageSize the page size, between 1 and {@link #MAX_PAGE_SIZE}
+   */
+  public static void setPageSize(int pageSize) {
+    ValueEnforcer.isTrue(pageSize > 0 && pageSize <= MAX_PAGE_SIZE, "pageSize must be between 1 and " + MAX_PAGE_SIZE);
+    ToopDirClient.pageSize = pageSize;
+  }
+
+  public static int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Set the maximum number of pages of a single result that are downloaded at the same time.
+   *
+   * @param maxPagesInFlight the number of pages, at least 1
+   */
+  public static void setMaxPagesInFlight(int maxPagesInFlight) {
+    ValueEnforcer.isGT0(maxPagesInFlight, "maxPagesInFlight");
+    ToopDirClient.maxPagesInFlight = maxPagesInFlight;
+  }
+
+  public static int getMaxPagesInFlight() {
+    return maxPagesInFlight;
+  }
+
+  /**
+   * Enable or disable the coalescing of identical concurrent directory requests. When enabled, concurrent
+   * callers that query the same directory URL share a single request, and the result is buffered so that
+   * each of them can process it. When disabled (the default), each call streams its own result from the directory.
+   *
+   * @param coalesceRequests <code>true</code> to coalesce the requests
+   */
+  public static void setCoalesceRequests(boolean coalesceRequests) {
+    ToopDirClient.coalesceRequests = coalesceRequests;
+  }
+
+  public static boolean isCoalesceRequests() {
+    return coalesceRequests;
+  }
+
+  /**
+   * Set the circuit breaker of the directory calls.
+   *
+   * @param breaker the breaker, <code>null</code> to send every request regardless of the earlier failures
+   */
+  public static void setCircuitBreaker(@Nullable DirectoryCircuitBreaker breaker) {
+    circuitBreaker = breaker;
+  }
+
+  /**
+   * @return the circuit breaker of the directory calls, <code>null</code> if there is none
+   */
+  @Nullable
+  public static DirectoryCircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Create a bounded executor for the page downloads. <code>maxPagesInFlight</code> only limits the pages of a
+   * single call, this executor limits the page downloads of all the concurrent calls; the pages beyond the limit
+   * wait in its queue. The idle threads are ended after a minute.
+   *
+   * @param threads the maximum number of concurrent page downloads
+   * @return the new executor
+   */
+  @Nonnull
+  public static ExecutorService createPageFetchExecutor(int threads) {
+    ValueEnforcer.isGT0(threads, "threads");
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        runnable -> {
+          final Thread thread = new Thread(runnable, "dsd-dir-page-" + pageFetchThreadCounter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Replace the executor that downloads the pages after the first one. The previous executor is shut down,
+   * the downloads it has already started are finished.
+   *
+   * @param executor the executor, may not be <code>null</code>
+   */
+  public static void setPageFetchExecutor(@Nonnull ExecutorService executor) {
+    ValueEnforcer.notNull(executor, "executor");
+    final ExecutorService previous = pageFetchExecutor;
+    pageFetchExecutor = executor;
+    if (previous != executor)
+      previous.shutdown();
+  }
+
+  /**
+   * @return the executor that downloads the pages after the first one. Shut it down when the client is not
+   * used anymore.
+   */
+  @Nonnull
+  public static ExecutorService getPageFetchExecutor() {
+    return pageFetchExecutor;
+  }
+
   /**
    * Query TOOP-DIR with country code and doctype. Return a String that contains the result
    *
@@ -118,20 +312,39 @@ public class ToopDirClient {
    * @throws IOException if a communication problem occurs
    */
   public static String callSearchApiWithCountryCode(final String toopDirBaseURL, @Nullable final String sCountryCode) throws IOException {
+    return readAsString(createCountryCodeURLFactory(toopDirBaseURL, sCountryCode));
+  }
+
+  /**
+   * Query TOOP-DIR with country code and pass the response to the given handler. The response is streamed
+   * while it is being received, unless the requests are coalesced (see {@link #setCoalesceRequests(boolean)}).
+   *
+   * @param toopDirBaseURL the base URL of Toop Directory, <code>mandatory</code>
+   * @param sCountryCode   two letter Country Code, <code>mandatory</code>
+   * @param resultHandler  the handler that consumes the directory result, <code>mandatory</code>
+   * @throws IOException          if a communication problem occurs
+   * @throws TransformerException if the handler fails to transform the result
+   */
+  public static void callSearchApiWithCountryCode(final String toopDirBaseURL, @Nullable final String sCountryCode,
+                                                  @Nonnull final DirectoryResultHandler resultHandler) throws IOException, TransformerException {
+    ValueEnforcer.notNull(resultHandler, "resultHandler");
+    callSearchApi(createCountryCodeURLFactory(toopDirBaseURL, sCountryCode), resultHandler);
+  }
+
+  private static IntFunction<SimpleURL> createCountryCodeURLFactory(final String toopDirBaseURL, @Nullable final String sCountryCode) {
     ValueEnforcer.notEmpty(toopDirBaseURL, "toopDirBaseURL");
     ValueEnforcer.notEmpty(sCountryCode, "sCountryCode");
 
-    // Build base URL and fetch all records per HTTP request
-    final SimpleURL aBaseURL = new SimpleURL(toopDirBaseURL + "/search/1.0/xml");
-    // More than 1000 is not allowed
-    aBaseURL.add("rpc", 100);
+    return pageIndex -> {
+      final SimpleURL aBaseURL = createPageURL(toopDirBaseURL, pageIndex);
 
-    // Parameters to this servlet
-    if (sCountryCode != null && !sCountryCode.isEmpty()) {
-      aBaseURL.add("country", sCountryCode);
-    }
+      // Parameters to this servlet
+      if (sCountryCode != null && !sCountryCode.isEmpty()) {
+        aBaseURL.add("country", sCountryCode);
+      }
 
-    return callSearchApi(aBaseURL);
+      return aBaseURL;
+    };
   }
 
   /**
@@ -144,48 +357,334 @@ public class ToopDirClient {
    */
   public static String callSearchApiForDpType(@Nonnull final String toopDirBaseURL,
                                               @Nonnull final String dpType) throws IOException {
+    return readAsString(createDpTypeURLFactory(toopDirBaseURL, dpType));
+  }
+
+  /**
+   * Query TOOP-DIR with dpType and pass the response to the given handler. The response is streamed
+   * while it is being received, unless the requests are coalesced (see {@link #setCoalesceRequests(boolean)}).
+   *
+   * @param toopDirBaseURL the base URL of Toop Directory, <code>mandatory</code>
+   * @param dpType         data provider type, <code>mandatory</code>
+   * @param resultHandler  the handler that consumes the directory result, <code>mandatory</code>
+   * @throws IOException          if a communication problem occurs
+   * @throws TransformerException if the handler fails to transform the result
+   */
+  public static void callSearchApiForDpType(@Nonnull final String toopDirBaseURL, @Nonnull final String dpType,
+                                            @Nonnull final DirectoryResultHandler resultHandler) throws IOException, TransformerException {
+    ValueEnforcer.notNull(resultHandler, "resultHandler");
+    callSearchApi(createDpTypeURLFactory(toopDirBaseURL, dpType), resultHandler);
+  }
+
+  /**
+   * Query TOOP-DIR for all the matches that have a data provider type, regardless of their country, and pass the
+   * response to the given handler.
+   *
+   * @param toopDirBaseURL the base URL of Toop Directory, <code>mandatory</code>
+   * @param resultHandler  the handler that consumes the directory result, <code>mandatory</code>
+   * @throws IOException          if a communication problem occurs
+   * @throws TransformerException if the handler fails to transform the result
+   */
+  public static void callSearchApiForAllDpTypes(@Nonnull final String toopDirBaseURL,
+                                                @Nonnull final DirectoryResultHandler resultHandler) throws IOException, TransformerException {
+    ValueEnforcer.notEmpty(toopDirBaseURL, "toopDirBaseURL");
+    ValueEnforcer.notNull(resultHandler, "resultHandler");
+    callSearchApi(createDataProviderTypeURLFactory(toopDirBaseURL, null), resultHandler);
+  }
+
+  private static IntFunction<SimpleURL> createDpTypeURLFactory(@Nonnull final String toopDirBaseURL, @Nonnull final String dpType) {
     ValueEnforcer.notEmpty(toopDirBaseURL, toopDirBaseURL);
     ValueEnforcer.notEmpty(dpType, dpType);
+    return createDataProviderTypeURLFactory(toopDirBaseURL, dpType);
+  }
 
+  private static IntFunction<SimpleURL> createDataProviderTypeURLFactory(@Nonnull final String toopDirBaseURL, @Nullable final String dpType) {
     if (StringHelper.hasNoText(toopDirBaseURL))
       throw new IllegalStateException("The Directory base URL configuration is missing");
 
-    // Build base URL and fetch all records per HTTP request
+    return pageIndex -> {
+      final SimpleURL aBaseURL = createPageURL(toopDirBaseURL, pageIndex);
+      aBaseURL.add("identifierScheme", "DataProviderType");
+
+      if (dpType != null && !dpType.isEmpty()) {
+        aBaseURL.add("identifierValue", dpType);
+      }
+
+      return aBaseURL;
+    };
+  }
+
+  private static SimpleURL createPageURL(final String toopDirBaseURL, final int pageIndex) {
+    // Build base URL and fetch one page of records per HTTP request
     final SimpleURL aBaseURL = new SimpleURL(toopDirBaseURL + "/search/1.0/xml");
     // More than 1000 is not allowed
-    aBaseURL.add("rpc", 100);
-    aBaseURL.add("identifierScheme", "DataProviderType");
+    aBaseURL.add("rpc", pageSize);
+    aBaseURL.add("rpi", pageIndex);
+    return aBaseURL;
+  }
+
+  private static String readAsString(IntFunction<SimpleURL> pageURLFactory) throws IOException {
+    try {
+      return new String(readSearchResult(pageURLFactory), StandardCharsets.UTF_8);
+    } catch (TransformerException e) {
+      throw new DSDException("Couldn't read the directory result: " + e.getMessage(), e);
+    }
+  }
 
-    if (dpType != null && !dpType.isEmpty()) {
-      aBaseURL.add("identifierValue", dpType);
+  /**
+   * Query all the pages of a directory result and pass them to the handler as a single <code>resultlist</code>.
+   * If the requests are coalesced, the result is buffered and shared with the concurrent callers of the same URL,
+   * otherwise it is streamed to the handler.
+   */
+  private static void callSearchApi(IntFunction<SimpleURL> pageURLFactory, DirectoryResultHandler resultHandler) throws IOException, TransformerException {
+    if (!coalesceRequests) {
+      streamSearchApi(pageURLFactory, resultHandler);
+      return;
     }
 
+    final byte[] result = readSearchResult(pageURLFactory);
+    resultHandler.handle(new StreamSource(new ByteArrayInputStream(result)));
+  }
+
+  private static byte[] readSearchResult(IntFunction<SimpleURL> pageURLFactory) throws IOException, TransformerException {
+    if (!coalesceRequests)
+      return readAllPages(pageURLFactory);
 
-    return callSearchApi(aBaseURL);
+    // all the pages are derived from the first page URL, so it identifies the whole result
+    final String key = pageURLFactory.apply(0).getAsStringWithEncodedParameters();
+    try {
+      return inFlightRequests.execute(key, () -> readAllPages(pageURLFactory));
+    } catch (IOException | TransformerException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new DSDException("Couldn't read the directory result: " + e.getMessage(), e);
+    }
   }
 
+  private static byte[] readAllPages(IntFunction<SimpleURL> pageURLFactory) throws IOException, TransformerException {
+    try (final NonBlockingByteArrayOutputStream stream = new NonBlockingByteArrayOutputStream()) {
+      streamSearchApi(pageURLFactory, directoryResult -> {
+        final Transformer transformer = identityTransformer.get();
+        try {
+          transformer.transform(directoryResult, new StreamResult(stream));
+        } finally {
+          transformer.reset();
+        }
+      });
+      return stream.toByteArray();
+    }
+  }
 
-  private static String callSearchApi(SimpleURL aBaseURL) throws IOException {
+  /**
+   * Query all the pages of a directory result. The first page is streamed to the handler while it is being
+   * received, the other pages are downloaded in parallel in the background and appended to the first one, so that
+   * the handler sees a single <code>resultlist</code>.
+   * <p>
+   * The whole call, all the pages and retries included, is bounded by the total timeout of the connection pool
+   * settings. The requests are retried until the first page is passed to the handler, later pages are buffered,
+   * so they are retried as a whole.
+   */
+  private static void streamSearchApi(IntFunction<SimpleURL> pageURLFactory, DirectoryResultHandler resultHandler) throws IOException, TransformerException {
+    final SimpleURL aFirstPageURL = pageURLFactory.apply(0);
     if (LOGGER.isInfoEnabled())
-      LOGGER.info("Querying " + aBaseURL.getAsStringWithEncodedParameters());
+      LOGGER.info("Querying " + aFirstPageURL.getAsStringWithEncodedParameters());
+
+    try (final DirectoryDeadline deadline = new DirectoryDeadline(connectionPool.getSettings().getTotalTimeoutMS())) {
+      // closing the response releases the connection back to the pool
+      try (final CloseableHttpResponse response = executeWithRetries(aFirstPageURL, deadline, ToopDirClient::requireEntity)) {
+        final HttpEntity entity = response.getEntity();
+
+        final PagedDirectoryReader reader = new PagedDirectoryReader(createXMLReader(),
+            pageIndex -> fetchPage(pageURLFactory.apply(pageIndex), deadline), pageFetchExecutor, maxPagesInFlight, pageSize);
+
+        // hand the socket stream over to the handler, so that the result is processed while it is being received
+        try (final InputStream content = entity.getContent()) {
+          resultHandler.handle(new SAXSource(reader, new InputSource(content)));
+        }
+      } catch (IOException | TransformerException | RuntimeException ex) {
+        if (deadline.isExpired())
+          throw deadline.createTimeoutException(ex);
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * Fetch a single page of a directory result within the deadline of its call
+   */
+  static byte[] fetchPage(SimpleURL aPageURL, DirectoryDeadline deadline) throws IOException {
+    if (LOGGER.isDebugEnabled())
+      LOGGER.debug("Querying " + aPageURL.getAsStringWithEncodedParameters());
+
+    return executeWithRetries(aPageURL, deadline, response -> {
+      try {
+        return EntityUtils.toByteArray(requireEntity(response).getEntity());
+      } finally {
+        response.close();
+      }
+    });
+  }
+
+  /**
+   * Reads a successful response
+   *
+   * @param <T> the result type
+   */
+  @FunctionalInterface
+  private interface ResponseReader<T> {
+    /**
+     * @param response the response of the directory, owned by the reader
+     * @return the result
+     * @throws IOException if the response cannot be read, the request is then retried
+     */
+    T read(CloseableHttpResponse response) throws IOException;
+  }
 
-    try (final CloseableHttpClient httpClient = HttpClients.createDefault()) {
-      final HttpGet aGet = new HttpGet(aBaseURL.getAsURI());
+  /**
+   * Send a GET request to the directory and read its response, with retries for the failures that may be
+   * temporary. Each attempt asks the circuit breaker first and reports its outcome to it. The wait before a retry
+   * is a random time up to an exponentially growing bound ("full jitter"), so that the retries of concurrent
+   * calls don't hit the recovering directory at the same time.
+   * <p>
+   * Every permit of the breaker ends with a success, a failure or a release. An attempt that was interrupted,
+   * e.g. because the query was cancelled, says nothing about the directory and only releases its permit.
+   */
+  private static <T> T executeWithRetries(SimpleURL aURL, DirectoryDeadline deadline, ResponseReader<T> responseReader) throws IOException {
+    final DirectoryClientSettings settings = connectionPool.getSettings();
+    final DirectoryCircuitBreaker breaker = circuitBreaker;
+
+    IOException failure = null;
+    for (int attempt = 0; ; ++attempt) {
+      // registered before the permit is taken, an expired call must not take the probe of the breaker
+      final HttpGet aGet = new HttpGet(aURL.getAsURI());
+      if (deadline.isExpired())
+        throw deadline.createTimeoutException(failure);
+      deadline.register(aGet);
+      if (breaker != null && !breaker.tryAcquire())
+        throw new DirectoryUnavailableException("The TOOP Directory is unavailable, failing fast");
+
+      Outcome outcome = Outcome.RELEASE;
+      try {
+        final CloseableHttpResponse response = connectionPool.getHttpClient().execute(aGet);
+        final int status = response.getStatusLine().getStatusCode();
+        if (status != HttpStatus.SC_OK) {
+          response.close();
+          throw new DirectoryStatusException(status);
+        }
+
+        final T result = responseReader.read(response);
+        outcome = Outcome.SUCCESS;
+        return result;
+      } catch (DirectoryStatusException ex) {
+        if (!ex.isRetryable()) {
+          // the directory is healthy, the request is wrong
+          outcome = Outcome.SUCCESS;
+          throw ex;
+        }
+        outcome = Outcome.FAILURE;
+        failure = ex;
+      } catch (IOException ex) {
+        if (Thread.currentThread().isInterrupted())
+          throw ex;
+        // an attempt that is aborted at the deadline counts as a failure, the directory was too slow
+        outcome = Outcome.FAILURE;
+        failure = ex;
+      } catch (RuntimeException ex) {
+        // not retried, but the attempt must still be reported
+        outcome = Outcome.FAILURE;
+        throw ex;
+      } finally {
+        if (breaker != null)
+          outcome.report(breaker);
+      }
 
-      final HttpResponse response = httpClient.execute(aGet);
+      if (deadline.isExpired())
+        throw deadline.createTimeoutException(failure);
+      if (attempt >= settings.getMaxRetries())
+        throw failure;
+
+      final long boundMillis = Math.min(settings.getRetryMaxBackoffMS(), (long) settings.getRetryInitialBackoffMS() << Math.min(attempt, 20));
+      final long backoffMillis = ThreadLocalRandom.current().nextLong(boundMillis + 1);
+      if (TimeUnit.MILLISECONDS.toNanos(backoffMillis) >= deadline.getRemainingNanos())
+        throw failure;
+
+      LOGGER.warn("Request to " + aURL.getAsStringWithEncodedParameters() + " failed (" + failure.getMessage() + "), retrying in " +
+          backoffMillis + " ms");
+      try {
+        Thread.sleep(backoffMillis);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        final InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for a retry");
+        interrupted.initCause(failure);
+        throw interrupted;
+      }
+    }
+  }
 
-      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-        throw new IllegalStateException("Request failed " + response.getStatusLine().getStatusCode());
+  /**
+   * The outcome of an attempt that holds a permit of the circuit breaker
+   */
+  private enum Outcome {
+    SUCCESS {
+      @Override
+      void report(DirectoryCircuitBreaker breaker) {
+        breaker.recordSuccess();
+      }
+    },
+    FAILURE {
+      @Override
+      void report(DirectoryCircuitBreaker breaker) {
+        breaker.recordFailure();
       }
+    },
+    RELEASE {
+      @Override
+      void report(DirectoryCircuitBreaker breaker) {
+        breaker.release();
+      }
+    };
 
-      try (final ByteArrayOutputStream stream = new ByteArrayOutputStream()) {
-        response.getEntity().writeTo(stream);
-        final byte[] s_bytes = stream.toByteArray();
+    abstract void report(DirectoryCircuitBreaker breaker);
+  }
 
-        final String s_result = new String(s_bytes, StandardCharsets.UTF_8);
-        return s_result;
+  private static CloseableHttpResponse requireEntity(CloseableHttpResponse response) {
+    if (response.getEntity() == null) {
+      try {
+        response.close();
+      } catch (IOException ex) {
+        // nothing to release
       }
+      throw new IllegalStateException("Empty response from the directory");
+    }
+    return response;
+  }
+
+  private static XMLReader createXMLReader() {
+    try {
+      final SAXParserFactory factory = SAXParserFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      return factory.newSAXParser().getXMLReader();
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new DSDException("Cannot create an XML reader", e);
     }
   }
 
+  /**
+   * A callback that consumes a directory result while it is streamed from the TOOP Directory, or
+   * from the buffered result of a coalesced request.
+   * All the pages of the result are presented as one <code>resultlist</code> document.
+   * The {@link Source} is only valid during the call.
+   */
+  @FunctionalInterface
+  public interface DirectoryResultHandler {
+    /**
+     * Handle the directory result
+     *
+     * @param directoryResult the xml received from the toop directory
+     * @throws IOException          if an io problem occurs
+     * @throws TransformerException if the result cannot be transformed
+     */
+    void handle(@Nonnull Source directoryResult) throws IOException, TransformerException;
+  }
 }
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * Access to the virtual threads of JDK 21 and newer, while the code base is still compiled for Java 8.
+ * The JDK methods are looked up reflectively once; on older JDKs {@link #isAvailable()} returns
+ * <code>false</code> and the callers are expected to fall back to platform threads.
+ * <p>
+ * Virtual threads are cheap to block, so a directory call that waits on the network for a long
+ * time doesn't hold on to a scarce platform thread.
+ *
+ * @author yerlibilgin
+ */
+public final class VirtualThreads {
+  private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreads.class);
+
+  /**
+   * <code>Thread.ofVirtual()</code>
+   */
+  private static final Method OF_VIRTUAL;
+  /**
+   * <code>Thread.Builder.name(String prefix, long start)</code>
+   */
+  private static final Method BUILDER_NAME;
+  /**
+   * <code>Thread.Builder.factory()</code>
+   */
+  private static final Method BUILDER_FACTORY;
+  /**
+   * <code>Executors.newThreadPerTaskExecutor(ThreadFactory)</code>
+   */
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method ofVirtual = null;
+    Method builderName = null;
+    Method builderFactory = null;
+    Method newThreadPerTaskExecutor = null;
+    try {
+      // the methods are taken from the public interface, the builder implementation is not accessible
+      final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      builderName = builderClass.getMethod("name", String.class, long.class);
+      builderFactory = builderClass.getMethod("factory");
+      newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+
+      // virtual threads were a preview feature before JDK 21, where ofVirtual exists but fails
+      ofVirtual.invoke(null);
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException ex) {
+      LOGGER.debug("Virtual threads are not available: " + ex);
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = builderName;
+    BUILDER_FACTORY = builderFactory;
+    NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+  }
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return <code>true</code> if the running JDK supports virtual threads
+   */
+  public static boolean isAvailable() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Create a factory for virtual threads named <code>namePrefix</code> followed by a counter.
+   *
+   * @param namePrefix the prefix of the thread names, may not be <code>null</code>
+   * @return the thread factory
+   * @throws UnsupportedOperationException if virtual threads are not available
+   */
+  @Nonnull
+  public static ThreadFactory newThreadFactory(@Nonnull String namePrefix) {
+    ValueEnforcer.notNull(namePrefix, "namePrefix");
+    if (!isAvailable())
+      throw new UnsupportedOperationException("Virtual threads need JDK 21 or newer");
+
+    try {
+      final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 1L);
+      return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+    } catch (IllegalAccessException | InvocationTargetException ex) {
+      throw new UnsupportedOperationException("Couldn't create a virtual thread factory", ex);
+    }
+  }
+
+  /**
+   * Create an executor that starts a new virtual thread for each task. The threads are
+   * named <code>namePrefix</code> followed by a counter.
+   *
+   * @param namePrefix the prefix of the thread names, may not be <code>null</code>
+   * @return the executor
+   * @throws UnsupportedOperationException if virtual threads are not available
+   */
+  @Nonnull
+  public static ExecutorService newThreadPerTaskExecutor(@Nonnull String namePrefix) {
+    final ThreadFactory threadFactory = newThreadFactory(namePrefix);
+    try {
+      return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+    } catch (IllegalAccessException | InvocationTargetException ex) {
+      throw new UnsupportedOperationException("Couldn't create a virtual thread executor", ex);
+    }
+  }
+}
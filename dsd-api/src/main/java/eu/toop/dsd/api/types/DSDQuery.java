@@ -21,9 +21,13 @@ import com.helger.commons.ValueEnforcer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * This class provides methods to resolve a DSD query checking
@@ -197,4 +201,49 @@ public class DSDQuery {
   public DSDQueryID getQueryId() {
     return queryId;
   }
+
+  /**
+   * Gets the canonical form of this query: the query id followed by the URL encoded parameters sorted by name.
+   * Queries with the same canonical form yield the same result, regardless of the order of their parameters.
+   *
+   * @return the canonical form
+   */
+  @Nonnull
+  public String getCanonicalForm() {
+    final StringBuilder sb = new StringBuilder(queryId.id);
+    for (Map.Entry<String, String> entry : new TreeMap<>(parameters).entrySet()) {
+      if (PARAM_NAME_QUERY_ID.equals(entry.getKey()))
+        continue;
+      sb.append('&').append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+    }
+    return sb.toString();
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (o == null || getClass() != o.getClass())
+      return false;
+    final DSDQuery other = (DSDQuery) o;
+    return queryId == other.queryId && parameters.equals(other.parameters);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * queryId.hashCode() + parameters.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return getCanonicalForm();
+  }
 }
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api.types;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A dataset type of a query, prepared once for being matched against many doctypes.
+ * <p>
+ * {@link V1DoctypeParts} match if their customization id contains the dataset type,
+ * ignoring cases and underscores (<code>CRIMINAL_RECORD</code> = <code>criminalRecord</code>).
+ * {@link V2DoctypeParts} match if their dataset type is equal to it. Both comparisons
+ * are done on pre-normalized strings, so {@link #matches(DoctypeParts)} doesn't allocate.
+ * <p>
+ * Instances are immutable and thread-safe.
+ *
+ * @author yerlibilgin
+ */
+public final class DatasetTypeMatcher {
+  private final String datasetType;
+  private final String normalizedDatasetType;
+
+  private DatasetTypeMatcher(String datasetType) {
+    this.datasetType = datasetType;
+    this.normalizedDatasetType = normalize(datasetType);
+  }
+
+  /**
+   * Create a matcher for the dataset type of a query
+   *
+   * @param datasetType the dataset type, may not be <code>null</code>
+   * @return the matcher
+   */
+  @Nonnull
+  public static DatasetTypeMatcher of(@Nonnull String datasetType) {
+    ValueEnforcer.notNull(datasetType, "datasetType");
+    return new DatasetTypeMatcher(datasetType);
+  }
+
+  /**
+   * The normal form that V1 matching compares: lower case and without underscores.
+   * The underscores are removed by hand, <code>replaceAll("_", "")</code> would compile a pattern.
+   *
+   * @param s the string to normalize
+   * @return the normalized string
+   */
+  @Nonnull
+  static String normalize(@Nonnull String s) {
+    final String lowerCase = s.toLowerCase();
+    if (lowerCase.indexOf('_') < 0)
+      return lowerCase;
+
+    final StringBuilder sb = new StringBuilder(lowerCase.length());
+    for (int i = 0; i < lowerCase.length(); ++i) {
+      final char c = lowerCase.charAt(i);
+      if (c != '_')
+        sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the dataset type as it was given
+   */
+  @Nonnull
+  public String getDatasetType() {
+    return datasetType;
+  }
+
+  /**
+   * @return the dataset type in lower case and without underscores
+   */
+  @Nonnull
+  public String getNormalizedDatasetType() {
+    return normalizedDatasetType;
+  }
+
+  /**
+   * Check the given doctype against this dataset type
+   *
+   * @param doctypeParts the doctype, may not be <code>null</code>
+   * @return true if the doctype matches the dataset type
+   */
+  public boolean matches(@Nonnull DoctypeParts doctypeParts) {
+    return doctypeParts.matches(this);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (o == null || getClass() != o.getClass())
+      return false;
+    return datasetType.equals(((DatasetTypeMatcher) o).datasetType);
+  }
+
+  @Override
+  public int hashCode() {
+    return datasetType.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return datasetType;
+  }
+}
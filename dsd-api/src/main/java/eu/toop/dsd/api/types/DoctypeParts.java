@@ -17,11 +17,14 @@
  */
 package eu.toop.dsd.api.types;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.helger.commons.ValueEnforcer;
 import eu.toop.commons.codelist.EPredefinedDocumentTypeIdentifier;
 
 /**
  * Parses a given flat doctype id String as either a {@link V1DoctypeParts} or a {@link V2DoctypeParts} object.
+ * The parts are immutable and implement <code>equals</code>/<code>hashCode</code>, so they can be used as map keys.
  * @author yerlibilgin
  */
 public abstract class DoctypeParts {
@@ -38,7 +41,25 @@ public abstract class DoctypeParts {
 
 
   /**
-   * A temporary method tho check whether the doctype is the new version
+   * The maximum number of doctypes that are kept by {@link #parse(String)}
+   */
+  static final int MAX_CACHED_DOCTYPES = 4096;
+
+  private static final String SCHEME_PREFIX = EPredefinedDocumentTypeIdentifier.DOC_TYPE_SCHEME + "::";
+  private static final String SEPARATOR = "::";
+  private static final String HASH_SEPARATOR = "##";
+
+  /**
+   * raw doctype string -&gt; parsed doctype. The same few hundred doctypes repeat in every
+   * directory result, so a repeated parse is a single lookup.
+   */
+  private static final ConcurrentHashMap<String, DoctypeParts> parsedDocTypes = new ConcurrentHashMap<>();
+
+  /**
+   * A temporary method tho check whether the doctype is the new version.
+   * <p>
+   * The parsed doctypes are immutable and cached, so parsing the same doctype again returns
+   * the same instance.
    *
    * @param s_docType string to parse
    * @return The parsed doctype parts
@@ -47,46 +68,97 @@ public abstract class DoctypeParts {
 
     ValueEnforcer.notEmpty(s_docType, "doctype");
 
+    DoctypeParts doctypeParts = parsedDocTypes.get(s_docType);
+    if (doctypeParts == null) {
+      doctypeParts = parseUncached(s_docType);
 
-    //remove the scheme if it is there
-    final String schemePrefix = EPredefinedDocumentTypeIdentifier.DOC_TYPE_SCHEME + "::";
-    if (s_docType.startsWith(schemePrefix)){
-      s_docType = s_docType.substring(schemePrefix.length());
+      // the doctypes of a directory are a small and stable set, don't let unexpected input grow the cache without bounds
+      if (parsedDocTypes.size() < MAX_CACHED_DOCTYPES) {
+        final DoctypeParts existing = parsedDocTypes.putIfAbsent(s_docType, doctypeParts);
+        if (existing != null)
+          doctypeParts = existing;
+      }
     }
+    return doctypeParts;
+  }
 
-    final String[] split = s_docType.split("::");
+  /**
+   * Parse the doctype in a single scan. The tokens are read like <code>split("::")</code> would
+   * read them (trailing empty tokens are ignored), but only the final fields are allocated.
+   */
+  private static DoctypeParts parseUncached(String s_docType) {
+    //remove the scheme if it is there
+    final int start = s_docType.startsWith(SCHEME_PREFIX) ? SCHEME_PREFIX.length() : 0;
+    final int end = s_docType.length();
+
+    //the start indexes of the first four separators
+    int sep1 = -1;
+    int sep2 = -1;
+    int sep3 = -1;
+    int sep4 = -1;
+    //the number of tokens up to the last non empty one
+    int tokenCount = 0;
+
+    int tokenIndex = 0;
+    int tokenStart = start;
+    while (true) {
+      final int sep = s_docType.indexOf(SEPARATOR, tokenStart);
+      if ((sep < 0 ? end : sep) > tokenStart)
+        tokenCount = tokenIndex + 1;
+      if (sep < 0)
+        break;
+
+      switch (tokenIndex) {
+        case 0:
+          sep1 = sep;
+          break;
+        case 1:
+          sep2 = sep;
+          break;
+        case 2:
+          sep3 = sep;
+          break;
+        case 3:
+          sep4 = sep;
+          break;
+        default:
+          break;
+      }
+      ++tokenIndex;
+      tokenStart = sep + SEPARATOR.length();
+    }
 
-    if (split.length == 3) {
+    if (tokenCount == 3) {
       //Version 1.0
+      final int middleStart = sep1 + SEPARATOR.length();
+      final int indexofDoubleHash = s_docType.indexOf(HASH_SEPARATOR, middleStart);
+      if (indexofDoubleHash == -1 || indexofDoubleHash >= sep2)
+        throw new IllegalArgumentException("Invalid doctype " + s_docType.substring(start));
 
-      String namespace = split[0];
-      String middle = split[1];
-
-
-      int indexofDoubleHash = middle.indexOf("##");
-      if (indexofDoubleHash == -1)
-        throw new IllegalArgumentException("Invalid doctype " + s_docType);
-
-      String localElementName = middle.substring(0, indexofDoubleHash);
-      String customizationId = middle.substring(indexofDoubleHash + 2);
-      String v1VersionField = split[2];
+      final String namespace = s_docType.substring(start, sep1);
+      final String localElementName = s_docType.substring(middleStart, indexofDoubleHash);
+      final String customizationId = s_docType.substring(indexofDoubleHash + HASH_SEPARATOR.length(), sep2);
+      final String v1VersionField = s_docType.substring(sep2 + SEPARATOR.length(), sep3 < 0 ? end : sep3);
 
       return new V1DoctypeParts(namespace, localElementName, customizationId, v1VersionField);
-    } else if (split.length == 4) {
+    } else if (tokenCount == 4) {
       //Version 2.0
-      String datasetIdentifier = split[0];
-      String datasetType = split[1];
-      String conformsTo = split[3];
-      String distributionFormat = split[2];
+      final int formatStart = sep2 + SEPARATOR.length();
+      final String datasetIdentifier = s_docType.substring(start, sep1);
+      final String datasetType = s_docType.substring(sep1 + SEPARATOR.length(), sep2);
+      final String conformsTo = s_docType.substring(sep3 + SEPARATOR.length(), sep4 < 0 ? end : sep4);
+      final String distributionFormat;
       String distConformsTo = null;
-      if (distributionFormat.contains("##")) {
-        final int i = distributionFormat.indexOf("##");
-        distConformsTo = distributionFormat.substring(i + 2);
-        distributionFormat = distributionFormat.substring(0, i);
+      final int i = s_docType.indexOf(HASH_SEPARATOR, formatStart);
+      if (i != -1 && i < sep3) {
+        distConformsTo = s_docType.substring(i + HASH_SEPARATOR.length(), sep3);
+        distributionFormat = s_docType.substring(formatStart, i);
+      } else {
+        distributionFormat = s_docType.substring(formatStart, sep3);
       }
       return new V2DoctypeParts(datasetIdentifier, datasetType, distributionFormat, distConformsTo, conformsTo);
     } else {
-      throw new DoctypeFormatException("Invalid doctype " + s_docType);
+      throw new DoctypeFormatException("Invalid doctype " + s_docType.substring(start));
     }
   }
 
@@ -99,6 +171,17 @@ public abstract class DoctypeParts {
    */
   public abstract boolean matches(String datasetType);
 
+  /**
+   * Check this doctype against the dataset type of the given matcher. Use this instead of
+   * {@link #matches(String)} when the same dataset type is checked against many doctypes.
+   *
+   * @param datasetTypeMatcher the prepared dataset type
+   * @return true if the datasetType matches this doctype.
+   */
+  public boolean matches(DatasetTypeMatcher datasetTypeMatcher) {
+    return matches(datasetTypeMatcher.getDatasetType());
+  }
+
   public abstract String getDistributionConformsTo();
 
   public abstract String getDistributionFormat();
@@ -17,6 +17,8 @@
  */
 package eu.toop.dsd.api.types;
 
+import java.util.Objects;
+
 /**
  * Represents a ToopV1.0.0 doctype id.
  *
@@ -28,13 +30,20 @@ package eu.toop.dsd.api.types;
  */
 @Deprecated
 public class V1DoctypeParts extends DoctypeParts {
-  private String namespaceURI;
+  private final String namespaceURI;
+
+  private final String localElementName;
 
-  private String localElementName;
+  private final String customizationId;
 
-  private String customizationId;
+  private final String v1VersionField;
 
-  private String v1VersionField;
+  /**
+   * the customization id in lower case, for {@link #matches(DatasetTypeMatcher)}
+   */
+  private final String normalizedCustomizationId;
+
+  private final int hashCode;
 
 
   /**
@@ -50,6 +59,8 @@ public class V1DoctypeParts extends DoctypeParts {
     this.localElementName = localElementName;
     this.customizationId = customizationId;
     this.v1VersionField = v1VersionField;
+    this.normalizedCustomizationId = customizationId == null ? null : customizationId.toLowerCase();
+    this.hashCode = Objects.hash(namespaceURI, localElementName, customizationId, v1VersionField);
   }
 
   /**
@@ -93,11 +104,33 @@ public class V1DoctypeParts extends DoctypeParts {
     return namespaceURI + "::" + localElementName + "##" + customizationId + "::" + v1VersionField;
   }
 
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (o == null || getClass() != o.getClass())
+      return false;
+    final V1DoctypeParts other = (V1DoctypeParts) o;
+    return Objects.equals(namespaceURI, other.namespaceURI) &&
+        Objects.equals(localElementName, other.localElementName) &&
+        Objects.equals(customizationId, other.customizationId) &&
+        Objects.equals(v1VersionField, other.v1VersionField);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
   @Override
   public boolean matches(String datasetType) {
+    return matches(DatasetTypeMatcher.of(datasetType));
+  }
+
+  @Override
+  public boolean matches(DatasetTypeMatcher datasetTypeMatcher) {
     //  ignore cases and underscores (CRIMINAL_RECORD = criminalRecord)
-    return this.customizationId.toLowerCase()
-        .contains(datasetType.replaceAll("_", "").toLowerCase());
+    return normalizedCustomizationId.contains(datasetTypeMatcher.getNormalizedDatasetType());
   }
 
   //the methods below are only for representing the old doctype id as the new one.
@@ -17,6 +17,8 @@
  */
 package eu.toop.dsd.api.types;
 
+import java.util.Objects;
+
 /**
  * Represents the TOOP V2.0.0 doctype id.
  * <p>sample:
@@ -27,23 +29,25 @@ public class V2DoctypeParts extends DoctypeParts {
   /**
    * dataset identifier  e.g <code>RegisteredOrganization</code>
    */
-  private String dataSetIdentifier;
+  private final String dataSetIdentifier;
   /**
    * dataset type: e.g. <code>REGISTERED_ORGANIZATION_TYPE</code>
    */
-  private String datasetType;
+  private final String datasetType;
   /**
    * distribution format: e.g. <code>CONCEPT</code>
    */
-  private String distributionFormat;
+  private final String distributionFormat;
   /**
    * conformance of distribution. e.g. <code>CCCEV</code>
    */
-  private String distributionConformsTo;
+  private final String distributionConformsTo;
   /**
    * doctype conforms to: e.g. <code>toop-edm:v2.1</code>
    */
-  private String conformsTo;
+  private final String conformsTo;
+
+  private final int hashCode;
 
   public V2DoctypeParts(String dataSetIdentifier, String datasetType, String distributionFormat, String distributionConformsTo, String conformsTo) {
     this.dataSetIdentifier = dataSetIdentifier;
@@ -51,6 +55,7 @@ public class V2DoctypeParts extends DoctypeParts {
     this.distributionFormat = distributionFormat;
     this.distributionConformsTo = distributionConformsTo;
     this.conformsTo = conformsTo;
+    this.hashCode = Objects.hash(dataSetIdentifier, datasetType, distributionFormat, distributionConformsTo, conformsTo);
   }
 
   /**
@@ -108,6 +113,30 @@ public class V2DoctypeParts extends DoctypeParts {
     return datasetType.equals(this.datasetType);
   }
 
+  @Override
+  public boolean matches(DatasetTypeMatcher datasetTypeMatcher) {
+    return matches(datasetTypeMatcher.getDatasetType());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (o == null || getClass() != o.getClass())
+      return false;
+    final V2DoctypeParts other = (V2DoctypeParts) o;
+    return Objects.equals(dataSetIdentifier, other.dataSetIdentifier) &&
+        Objects.equals(datasetType, other.datasetType) &&
+        Objects.equals(distributionFormat, other.distributionFormat) &&
+        Objects.equals(distributionConformsTo, other.distributionConformsTo) &&
+        Objects.equals(conformsTo, other.conformsTo);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
   @Override
   public String toString() {
     return dataSetIdentifier + "::" + datasetType + "::" + distributionFormat + "::" +
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.toop.dsd.api.types.DSDQuery;
+
+/**
+ * Tests the batch request and response format of {@link DSDBatch}
+ *
+ * @author yerlibilgin
+ */
+public class DSDBatchTest {
+
+  @Test
+  public void requestRoundTrip() {
+    final DSDQuery byLocation = query(DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION, DSDQuery.PARAM_NAME_COUNTRY_CODE, "SV");
+    final DSDQuery byDPType = query(DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE, DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE, "a&b = c");
+
+    final String requestBody = DSDBatch.createRequestBody(Arrays.asList(byLocation, byDPType));
+    final List<Map<String, String[]>> parameterMaps = DSDBatch.parseRequestBody(requestBody + "\r\n\n");
+
+    Assert.assertEquals(2, parameterMaps.size());
+    Assert.assertEquals(byLocation, DSDQuery.resolve(parameterMaps.get(0)));
+    Assert.assertEquals(byDPType, DSDQuery.resolve(parameterMaps.get(1)));
+  }
+
+  @Test
+  public void repeatedParametersAreKept() {
+    final List<Map<String, String[]>> parameterMaps = DSDBatch.parseRequestBody("a=1&a=2&b");
+    Assert.assertArrayEquals(new String[]{"1", "2"}, parameterMaps.get(0).get("a"));
+    Assert.assertArrayEquals(new String[]{""}, parameterMaps.get(0).get("b"));
+  }
+
+  @Test
+  public void responseRoundTrip() throws Exception {
+    final String boundary = DSDBatch.createBoundary();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // the parts are written in the order the queries finish
+    DSDBatch.writePart(out, boundary, 2, 200, "application/xml", "<third/>\r\n".getBytes(StandardCharsets.UTF_8));
+    DSDBatch.writePart(out, boundary, 0, 200, "application/xml", new byte[0]);
+    DSDBatch.writePart(out, boundary, 1, 400, "text/plain", ("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
+    DSDBatch.writeEnd(out, boundary);
+
+    Assert.assertEquals(boundary, DSDBatch.getBoundary(DSDBatch.RESPONSE_CONTENT_TYPE + "; boundary=\"" + boundary + "\""));
+
+    final List<DSDBatchResult> results = DSDBatch.readResponse(new ByteArrayInputStream(out.toByteArray()), boundary, 3);
+    Assert.assertEquals(3, results.size());
+    for (int i = 0; i < results.size(); ++i) {
+      Assert.assertEquals(i, results.get(i).getQueryIndex());
+    }
+    Assert.assertEquals("", results.get(0).getRawResult());
+    Assert.assertFalse(results.get(1).isSuccess());
+    Assert.assertEquals("--" + boundary + "\r\n", results.get(1).getRawResult());
+    Assert.assertTrue(results.get(2).isSuccess());
+    Assert.assertEquals("application/xml", results.get(2).getContentType());
+    Assert.assertEquals("<third/>\r\n", results.get(2).getRawResult());
+  }
+
+  @Test
+  public void stalePartRoundTrip() throws Exception {
+    final String boundary = DSDBatch.createBoundary();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DSDBatch.writePart(out, boundary, 0, 200, "application/xml", "<stored/>".getBytes(StandardCharsets.UTF_8), 42);
+    DSDBatch.writePart(out, boundary, 1, 200, "application/xml", "<fresh/>".getBytes(StandardCharsets.UTF_8));
+    DSDBatch.writeEnd(out, boundary);
+
+    final List<DSDBatchResult> results = DSDBatch.readResponse(new ByteArrayInputStream(out.toByteArray()), boundary, 2);
+    Assert.assertTrue(results.get(0).isStale());
+    Assert.assertEquals(42, results.get(0).getStaleAgeSeconds());
+    Assert.assertEquals("<stored/>", results.get(0).getRawResult());
+    Assert.assertFalse(results.get(1).isStale());
+    Assert.assertEquals(-1, results.get(1).getStaleAgeSeconds());
+  }
+
+  @Test(expected = DSDException.class)
+  public void missingResult() throws Exception {
+    final String boundary = DSDBatch.createBoundary();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DSDBatch.writePart(out, boundary, 0, 200, "application/xml", new byte[0]);
+    DSDBatch.writeEnd(out, boundary);
+    DSDBatch.readResponse(new ByteArrayInputStream(out.toByteArray()), boundary, 2);
+  }
+
+  @Test(expected = DSDException.class)
+  public void truncatedResponse() throws Exception {
+    final String boundary = DSDBatch.createBoundary();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DSDBatch.writePart(out, boundary, 0, 200, "application/xml", "<result/>".getBytes(StandardCharsets.UTF_8));
+    final byte[] bytes = Arrays.copyOf(out.toByteArray(), out.size() - 4);
+    DSDBatch.readResponse(new ByteArrayInputStream(bytes), boundary, 1);
+  }
+
+  private static DSDQuery query(DSDQuery.DSDQueryID queryID, String paramName, String paramValue) {
+    final Map<String, String[]> parameterMap = new HashMap<>();
+    parameterMap.put(DSDQuery.PARAM_NAME_QUERY_ID, new String[]{queryID.id});
+    parameterMap.put(DSDQuery.PARAM_NAME_DATA_SET_TYPE, new String[]{"REGISTERED_ORGANIZATION_TYPE"});
+    parameterMap.put(paramName, new String[]{paramValue});
+    return DSDQuery.resolve(parameterMap);
+  }
+}
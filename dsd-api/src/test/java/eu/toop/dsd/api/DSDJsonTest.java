@@ -0,0 +1,124 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Tests the JSON format of {@link DSDJson} and the JSON output of {@link DsdStaxConverter}
+ *
+ * @author yerlibilgin
+ */
+public class DSDJsonTest {
+
+  @Test
+  public void roundTrip() throws Exception {
+    final DSDDatasetSummary dataset = new DSDDatasetSummary("REGISTERED_ORGANIZATION_TYPE", "id \"1\"", "https://x/\\y",
+        "UNSTRUCTURED", "conforms\tto", "toop-doctypeid-qns::a::b", "9999:elonia", "iso6523-actorid-upis",
+        "Élonia \u0001 Dev\nTeam", "SV", Arrays.asList("Business Register", ""), Collections.emptyList());
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DSDJson.writeResponse(Arrays.asList(dataset, dataset), out);
+    final String json = new String(out.toByteArray(), StandardCharsets.UTF_8);
+    Assert.assertTrue(json.startsWith("{\"totalResultCount\":2,"));
+    Assert.assertTrue(json.contains("\\u0001"));
+
+    final List<DSDDatasetSummary> datasets = read(json);
+    Assert.assertEquals(2, datasets.size());
+    for (DSDDatasetSummary read : datasets) {
+      Assert.assertEquals(dataset.getIdentifier(), read.getIdentifier());
+      Assert.assertEquals(dataset.getConformsTo(), read.getConformsTo());
+      Assert.assertEquals(dataset.getDistributionConformsTo(), read.getDistributionConformsTo());
+      Assert.assertEquals(dataset.getPublisherName(), read.getPublisherName());
+      Assert.assertEquals(dataset.getDataProviderTypes(), read.getDataProviderTypes());
+      Assert.assertEquals(dataset.getDataSubjectIdentifierSchemes(), read.getDataSubjectIdentifierSchemes());
+    }
+  }
+
+  @Test
+  public void unknownMembersAreSkipped() {
+    final List<DSDDatasetSummary> datasets = read(" { \"version\" : 2.5e1, \"extra\": {\"a\": [true, null, -1]},\n" +
+        "\"datasets\": [ {\"countryCode\": \"S\\u0056\", \"future\": [\"x\", {}], \"publisherId\": \"p\"} ] }\n");
+    Assert.assertEquals(1, datasets.size());
+    Assert.assertEquals("SV", datasets.get(0).getCountryCode());
+    Assert.assertEquals("p", datasets.get(0).getPublisherId());
+    Assert.assertEquals("", datasets.get(0).getIdentifier());
+  }
+
+  @Test
+  public void invalidResponses() {
+    for (String json : new String[]{"", "[]", "{\"datasets\":[}", "{\"datasets\":[]", "{\"datasets\":[]} x", "{\"other\":1}",
+        "{\"datasets\":[{\"countryCode\":\"SV}]}"}) {
+      try {
+        read(json);
+        Assert.fail("Accepted " + json);
+      } catch (DSDException expected) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void sameDatasetsAsRegRep() throws Exception {
+    final String directoryResult = new String(StreamHelper.getAllBytes(DSDJsonTest.class.getResourceAsStream("/directory-results-v2.xml")),
+        StandardCharsets.UTF_8);
+
+    final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    DsdStaxConverter.convert(new StreamSource(new StringReader(directoryResult)), "REGISTERED_ORGANIZATION_TYPE", "SV", null, xml);
+    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    final Document document = factory.newDocumentBuilder().parse(new InputSource(new ByteArrayInputStream(xml.toByteArray())));
+
+    final ByteArrayOutputStream json = new ByteArrayOutputStream();
+    DsdStaxConverter.convertToJson(new StreamSource(new StringReader(directoryResult)), "REGISTERED_ORGANIZATION_TYPE", "SV", null, json);
+    final List<DSDDatasetSummary> datasets = read(new String(json.toByteArray(), StandardCharsets.UTF_8));
+
+    final int count = document.getElementsByTagNameNS(DsdStaxConverter.NS_DCAT, "dataset").getLength();
+    Assert.assertTrue(count > 0);
+    Assert.assertEquals(count, datasets.size());
+    for (int i = 0; i < count; ++i) {
+      final DSDDatasetSummary dataset = datasets.get(i);
+      Assert.assertEquals("SV", dataset.getCountryCode());
+      Assert.assertEquals("REGISTERED_ORGANIZATION_TYPE", dataset.getDatasetType());
+      Assert.assertEquals(document.getElementsByTagNameNS(DsdStaxConverter.NS_DCT, "format").item(i).getTextContent(),
+          dataset.getDistributionFormat());
+      Assert.assertEquals(document.getElementsByTagNameNS(DsdStaxConverter.NS_SKOS, "prefLabel").item(i).getTextContent(),
+          dataset.getPublisherName());
+    }
+  }
+
+  private static List<DSDDatasetSummary> read(String json) {
+    return DSDJson.readResponse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+  }
+}
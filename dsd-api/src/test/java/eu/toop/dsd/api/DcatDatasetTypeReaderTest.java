@@ -0,0 +1,115 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
+import eu.toop.edm.xml.dcatap.DatasetMarshaller;
+
+/**
+ * Tests the streaming readers of {@link DcatDatasetTypeReader} against {@link DcatDatasetTypeReader#parseDataset(javax.xml.transform.Source)}
+ *
+ * @author yerlibilgin
+ */
+public class DcatDatasetTypeReaderTest {
+
+  @Test
+  public void streamingReadersMatchParseDataset() throws Exception {
+    final byte[] response = createResponse();
+    final List<String> expected = toStrings(DcatDatasetTypeReader.parseDataset(new StreamSource(new ByteArrayInputStream(response))));
+    Assert.assertTrue(expected.size() > 1);
+
+    final List<DCatAPDatasetType> consumed = new ArrayList<>();
+    Assert.assertEquals(expected.size(), DcatDatasetTypeReader.readDatasets(new ByteArrayInputStream(response), consumed::add));
+    Assert.assertEquals(expected, toStrings(consumed));
+
+    try (Stream<DCatAPDatasetType> stream = DcatDatasetTypeReader.streamDatasets(new ByteArrayInputStream(response))) {
+      Assert.assertEquals(expected, toStrings(stream.collect(Collectors.toList())));
+    }
+  }
+
+  @Test
+  public void validationModesMatchParseDataset() throws Exception {
+    final byte[] response = createResponse();
+    final List<String> expected = toStrings(DcatDatasetTypeReader.parseDataset(new StreamSource(new ByteArrayInputStream(response))));
+
+    // twice each, the shared marshallers are reused
+    for (int i = 0; i < 2; ++i) {
+      Assert.assertEquals(expected, toStrings(DcatDatasetTypeReader.readDatasets(new ByteArrayInputStream(response), true)));
+      Assert.assertEquals(expected, toStrings(DcatDatasetTypeReader.readDatasets(new ByteArrayInputStream(response), false)));
+    }
+  }
+
+  @Test
+  public void iteratorIsLazy() throws Exception {
+    final byte[] response = createResponse();
+    // cut the response after the first dataset: the first one can still be read
+    final String text = new String(response, StandardCharsets.UTF_8);
+    final int secondSlot = text.indexOf("<rim:Slot", text.indexOf("</rim:Slot>"));
+    final byte[] truncated = text.substring(0, secondSlot + 20).getBytes(StandardCharsets.UTF_8);
+
+    try (DcatDatasetTypeReader.DatasetIterator iterator = DcatDatasetTypeReader.iterateDatasets(new ByteArrayInputStream(truncated))) {
+      Assert.assertTrue(iterator.hasNext());
+      Assert.assertNotNull(iterator.next());
+      try {
+        iterator.hasNext();
+        Assert.fail("The truncated response was accepted");
+      } catch (DSDException expected) {
+        // expected
+      }
+    }
+  }
+
+  @Test(expected = DSDException.class)
+  public void notAQueryResponse() {
+    DcatDatasetTypeReader.readDatasets(new ByteArrayInputStream("<resultlist/>".getBytes(StandardCharsets.UTF_8)), dataset -> {
+    });
+  }
+
+  private static byte[] createResponse() throws Exception {
+    final String directoryResult = new String(StreamHelper.getAllBytes(DcatDatasetTypeReaderTest.class.getResourceAsStream("/directory-results.xml")),
+        StandardCharsets.UTF_8);
+    final NonBlockingByteArrayOutputStream stream = new NonBlockingByteArrayOutputStream();
+    DsdStaxConverter.convert(new StreamSource(new StringReader(directoryResult)), "registeredorganization", "", null, stream);
+    return stream.toByteArray();
+  }
+
+  private static List<String> toStrings(List<DCatAPDatasetType> datasets) {
+    final DatasetMarshaller marshaller = new DatasetMarshaller();
+    final List<String> ret = new ArrayList<>(datasets.size());
+    for (DCatAPDatasetType dataset : datasets) {
+      ret.add(marshaller.getAsString(dataset));
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the state changes of the {@link DirectoryCircuitBreaker}
+ *
+ * @author yerlibilgin
+ */
+public class DirectoryCircuitBreakerTest {
+  private static final long OPEN_MILLIS = 1000;
+
+  private final AtomicLong clock = new AtomicLong();
+  private final DirectoryCircuitBreaker breaker = new DirectoryCircuitBreaker(3, OPEN_MILLIS, clock::get);
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    fail(2);
+    breaker.recordSuccess();
+    fail(2);
+    Assert.assertEquals(DirectoryCircuitBreaker.State.CLOSED, breaker.getState());
+
+    fail(1);
+    Assert.assertEquals(DirectoryCircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertFalse(breaker.tryAcquire());
+  }
+
+  @Test
+  public void singleProbeAfterOpenPeriod() {
+    fail(3);
+    advance(OPEN_MILLIS - 1);
+    Assert.assertFalse(breaker.tryAcquire());
+
+    advance(1);
+    Assert.assertTrue(breaker.tryAcquire());
+    Assert.assertEquals(DirectoryCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    // only the probe is let through
+    Assert.assertFalse(breaker.tryAcquire());
+
+    breaker.recordSuccess();
+    Assert.assertEquals(DirectoryCircuitBreaker.State.CLOSED, breaker.getState());
+    Assert.assertTrue(breaker.tryAcquire());
+  }
+
+  @Test
+  public void failedProbeReopens() {
+    fail(3);
+    advance(OPEN_MILLIS);
+    Assert.assertTrue(breaker.tryAcquire());
+    breaker.recordFailure();
+
+    Assert.assertEquals(DirectoryCircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertFalse(breaker.tryAcquire());
+    advance(OPEN_MILLIS);
+    Assert.assertTrue(breaker.tryAcquire());
+  }
+
+  @Test
+  public void releasedProbeIsGivenToTheNextRequest() {
+    fail(3);
+    advance(OPEN_MILLIS);
+    Assert.assertTrue(breaker.tryAcquire());
+    Assert.assertFalse(breaker.tryAcquire());
+
+    // e.g. a cancelled query, which tells nothing about the directory
+    breaker.release();
+    Assert.assertEquals(DirectoryCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    Assert.assertTrue(breaker.tryAcquire());
+    breaker.recordSuccess();
+    Assert.assertEquals(DirectoryCircuitBreaker.State.CLOSED, breaker.getState());
+
+    // a release doesn't reset the failures of a closed breaker
+    fail(2);
+    Assert.assertTrue(breaker.tryAcquire());
+    breaker.release();
+    fail(1);
+    Assert.assertEquals(DirectoryCircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  private void fail(int count) {
+    for (int i = 0; i < count; ++i) {
+      Assert.assertTrue(breaker.tryAcquire());
+      breaker.recordFailure();
+    }
+  }
+
+  private void advance(long millis) {
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Tests for the {@link DsdDataConverter}
+ *
+ * @author yerlibilgin
+ */
+public class DsdDataConverterTest {
+  private static final int THREAD_COUNT = 64;
+  private static final int ITERATIONS_PER_THREAD = 25;
+
+  /**
+   * datasetType, countryCode, dpType. Each query yields a different result, so a mixed up parameter set
+   * shows up as a wrong output.
+   */
+  private static final String[][] QUERIES = {
+      {"registeredorganization", "PL", null},
+      {"shipcertificate", "SV", null},
+      {"crewcertificate", "GQ", null},
+      {"registeredorganization", null, "abc"},
+  };
+
+  private static String directoryResult;
+  private static String[] expectedResults;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    final byte[] allBytes = StreamHelper.getAllBytes(DsdDataConverterTest.class.getResourceAsStream("/directory-results.xml"));
+    directoryResult = new String(allBytes, StandardCharsets.UTF_8);
+
+    expectedResults = new String[QUERIES.length];
+    for (int i = 0; i < QUERIES.length; ++i) {
+      expectedResults[i] = normalize(convert(QUERIES[i]));
+    }
+
+    for (int i = 0; i < QUERIES.length; ++i) {
+      for (int j = i + 1; j < QUERIES.length; ++j) {
+        Assert.assertNotEquals(expectedResults[i], expectedResults[j]);
+      }
+    }
+  }
+
+  @Test
+  public void concurrentConversions() throws Exception {
+    final ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+    final CountDownLatch startSignal = new CountDownLatch(1);
+    final List<Future<Integer>> futures = new ArrayList<>(THREAD_COUNT);
+
+    try {
+      for (int thread = 0; thread < THREAD_COUNT; ++thread) {
+        final int offset = thread;
+        futures.add(executorService.submit(() -> {
+          startSignal.await();
+          int checked = 0;
+          for (int iteration = 0; iteration < ITERATIONS_PER_THREAD; ++iteration) {
+            final int queryIndex = (offset + iteration) % QUERIES.length;
+            final String result = normalize(convert(QUERIES[queryIndex]));
+            Assert.assertEquals("Unexpected result for query " + queryIndex, expectedResults[queryIndex], result);
+            ++checked;
+          }
+          return checked;
+        }));
+      }
+
+      startSignal.countDown();
+
+      int total = 0;
+      for (Future<Integer> future : futures) {
+        total += future.get(2, TimeUnit.MINUTES);
+      }
+      Assert.assertEquals(THREAD_COUNT * ITERATIONS_PER_THREAD, total);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private static String convert(String[] query) throws Exception {
+    if (query[2] != null)
+      return DsdDataConverter.convertDIRToDSDWithDPType(directoryResult, query[0], query[2]);
+
+    return DsdDataConverter.convertDIRToDSDWithCountryCode(directoryResult, query[0], query[1]);
+  }
+
+  /**
+   * The registry object ids are generated per transformation, so they are not stable across calls
+   */
+  private static String normalize(String result) {
+    return result.replaceAll(" id=\"[^\"]*\"", " id=\"\"");
+  }
+}
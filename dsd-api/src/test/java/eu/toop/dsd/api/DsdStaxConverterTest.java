@@ -0,0 +1,211 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * A differential test that runs the same queries through <code>xslt/dsd.xslt</code> and the
+ * {@link DsdStaxConverter} and compares the results.
+ * <p>
+ * The results are compared as XML, not byte by byte: the stylesheet generates the registry object
+ * ids with <code>generate-id()</code>, which differ between two runs of the stylesheet already, and
+ * the serializer of the XSLT processor decides on the indentation and on where namespaces are declared.
+ *
+ * @author yerlibilgin
+ */
+public class DsdStaxConverterTest {
+  /**
+   * fixture, datasetType, countryCode, dpType
+   */
+  private static final String[][] QUERIES = {
+      {"/directory-results.xml", "registeredorganization", "PL", null},
+      {"/directory-results.xml", "registeredorganization", "", null},
+      {"/directory-results.xml", "shipcertificate", "SV", null},
+      {"/directory-results.xml", "crewcertificate", "GQ", null},
+      {"/directory-results.xml", "REGISTERED_ORGANIZATION_TYPE", "SV", null},
+      {"/directory-results.xml", "registeredorganization", null, "abc"},
+      {"/directory-result-single.xml", "shipcertificate", "SV", null},
+      {"/directory-result-single.xml", "crewcertificate", "", null},
+      {"/directory-results-v2.xml", "REGISTERED_ORGANIZATION_TYPE", "SV", null},
+      {"/directory-results-v2.xml", "REGISTERED_ORGANIZATION_TYPE", "GQ", null},
+      {"/directory-results-v2.xml", "registeredorganization", "SV", null},
+      {"/directory-results-v2.xml", "FINANCIAL_RECORD_TYPE", null, "TaxAuthority"},
+      {"/directory-results-v2.xml", "REGISTERED_ORGANIZATION_TYPE", null, "BusinessRegister"},
+  };
+
+  @Test
+  public void sameResultAsXslt() throws Exception {
+    for (String[] query : QUERIES) {
+      final String directoryResult = readFixture(query[0]);
+      final String expected = convertWithXslt(directoryResult, query);
+
+      final NonBlockingByteArrayOutputStream stream = new NonBlockingByteArrayOutputStream();
+      DsdStaxConverter.convert(new StreamSource(new StringReader(directoryResult)), query[1], query[2], query[3], stream);
+      final String actual = new String(stream.toByteArray(), StandardCharsets.UTF_8);
+
+      Assert.assertEquals("Different result for " + String.join(", ", query[0], query[1], query[2], query[3]),
+          canonicalize(expected), canonicalize(actual));
+    }
+  }
+
+  @Test
+  public void readsSAXEvents() throws Exception {
+    final String[] query = QUERIES[1];
+    final String directoryResult = readFixture(query[0]);
+
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    final SAXSource source = new SAXSource(factory.newSAXParser().getXMLReader(),
+        new InputSource(new ByteArrayInputStream(directoryResult.getBytes(StandardCharsets.UTF_8))));
+
+    final NonBlockingByteArrayOutputStream stream = new NonBlockingByteArrayOutputStream();
+    DsdStaxConverter.convert(source, query[1], query[2], query[3], stream);
+
+    Assert.assertEquals(canonicalize(convertWithXslt(directoryResult, query)),
+        canonicalize(new String(stream.toByteArray(), StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void selectableEngine() throws Exception {
+    final String[] query = QUERIES[0];
+    final String directoryResult = readFixture(query[0]);
+    final String expected = canonicalize(convertWithXslt(directoryResult, query));
+
+    DsdDataConverter.setConversionEngine(DsdDataConverter.ConversionEngine.STAX);
+    try {
+      Assert.assertEquals(expected, canonicalize(DsdDataConverter.convertDIRToDSDWithCountryCode(directoryResult, query[1], query[2])));
+    } finally {
+      DsdDataConverter.setConversionEngine(DsdDataConverter.ConversionEngine.XSLT);
+    }
+  }
+
+  @Test
+  public void compactResult() throws Exception {
+    final String[] query = QUERIES[0];
+    final String directoryResult = readFixture(query[0]);
+    final String expected = canonicalize(convertWithXslt(directoryResult, query));
+
+    final NonBlockingByteArrayOutputStream stream = new NonBlockingByteArrayOutputStream();
+    DsdStaxConverter.convert(new StreamSource(new StringReader(directoryResult)), query[1], query[2], query[3], stream, false);
+    final String stax = new String(stream.toByteArray(), StandardCharsets.UTF_8);
+
+    DsdDataConverter.setIndent(false);
+    final String xslt;
+    try {
+      xslt = convertWithXslt(directoryResult, query);
+    } finally {
+      DsdDataConverter.setIndent(true);
+    }
+
+    for (String compact : new String[]{stax, xslt}) {
+      Assert.assertFalse(compact.substring(compact.indexOf("?>") + 2).trim().contains(">\n"));
+      Assert.assertEquals(expected, canonicalize(compact));
+    }
+    // the pooled transformer is indenting again
+    Assert.assertTrue(convertWithXslt(directoryResult, query).contains(">\n  <"));
+  }
+
+  private static String readFixture(String name) {
+    return new String(StreamHelper.getAllBytes(DsdStaxConverterTest.class.getResourceAsStream(name)), StandardCharsets.UTF_8);
+  }
+
+  private static String convertWithXslt(String directoryResult, String[] query) throws Exception {
+    Assert.assertEquals(DsdDataConverter.ConversionEngine.XSLT, DsdDataConverter.getConversionEngine());
+    if (query[3] != null)
+      return DsdDataConverter.convertDIRToDSDWithDPType(directoryResult, query[1], query[3]);
+    return DsdDataConverter.convertDIRToDSDWithCountryCode(directoryResult, query[1], query[2]);
+  }
+
+  /**
+   * Writes the document as a string of the expanded element names, the attributes in a fixed order (without the
+   * registry object ids and the namespace declarations), the comments and the non whitespace text
+   */
+  private static String canonicalize(String xml) throws Exception {
+    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    final Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+
+    final StringBuilder sb = new StringBuilder();
+    canonicalize(document.getDocumentElement(), sb);
+    return sb.toString();
+  }
+
+  private static void canonicalize(Element element, StringBuilder sb) {
+    sb.append("<{").append(nullToEmpty(element.getNamespaceURI())).append('}').append(element.getLocalName());
+
+    final Map<String, String> attributes = new TreeMap<>();
+    final NamedNodeMap attributeNodes = element.getAttributes();
+    for (int i = 0; i < attributeNodes.getLength(); ++i) {
+      final Attr attribute = (Attr) attributeNodes.item(i);
+      if ("http://www.w3.org/2000/xmlns/".equals(attribute.getNamespaceURI()))
+        continue;
+      if ("RegistryObject".equals(element.getLocalName()) && "id".equals(attribute.getLocalName())) {
+        Assert.assertFalse(attribute.getValue().isEmpty());
+        continue;
+      }
+      attributes.put("{" + nullToEmpty(attribute.getNamespaceURI()) + "}" + attribute.getLocalName(), attribute.getValue());
+    }
+    attributes.forEach((name, value) -> sb.append(' ').append(name).append("=\"").append(value).append('"'));
+    sb.append(">\n");
+
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      switch (child.getNodeType()) {
+        case Node.ELEMENT_NODE:
+          canonicalize((Element) child, sb);
+          break;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          if (!child.getNodeValue().trim().isEmpty())
+            sb.append(child.getNodeValue()).append('\n');
+          break;
+        case Node.COMMENT_NODE:
+          sb.append("<!--").append(child.getNodeValue()).append("-->\n");
+          break;
+        default:
+          break;
+      }
+    }
+    sb.append("</").append(element.getLocalName()).append(">\n");
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * Tests merging the pages of a directory result with {@link PagedDirectoryReader}
+ *
+ * @author yerlibilgin
+ */
+public class PagedDirectoryReaderTest {
+  private static final int PAGE_SIZE = 100;
+  private static final int TOTAL_RESULT_COUNT = 250;
+
+  private static ExecutorService executor;
+
+  @BeforeClass
+  public static void beforeClass() {
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void mergesAllPagesInOrder() throws Exception {
+    final PagedDirectoryReader reader = createReader(PagedDirectoryReaderTest::createPage, 2);
+    final String merged = transform(reader);
+
+    Assert.assertEquals(3, reader.getPageCount());
+
+    final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(merged)));
+    Assert.assertEquals("resultlist", document.getDocumentElement().getTagName());
+    final NodeList participantIds = document.getElementsByTagName("participantID");
+    Assert.assertEquals(TOTAL_RESULT_COUNT, participantIds.getLength());
+    for (int i = 0; i < TOTAL_RESULT_COUNT; ++i) {
+      Assert.assertEquals("9999:participant" + i, participantIds.item(i).getTextContent());
+    }
+  }
+
+  @Test
+  public void singlePage() throws Exception {
+    final PagedDirectoryReader reader = createReader(pageIndex -> {
+      throw new IOException("Only one page expected");
+    }, 1);
+    final String merged = transform(reader, createSinglePage());
+
+    Assert.assertEquals(1, reader.getPageCount());
+    Assert.assertTrue(merged.contains("9999:participant0"));
+  }
+
+  @Test(expected = TransformerException.class)
+  public void failingPage() throws Exception {
+    final PagedDirectoryReader reader = createReader(pageIndex -> {
+      if (pageIndex == 2)
+        throw new IOException("Page " + pageIndex + " failed");
+      return createPage(pageIndex);
+    }, 1);
+    transform(reader);
+  }
+
+  private static PagedDirectoryReader createReader(PagedDirectoryReader.PageFetcher fetcher, int maxPagesInFlight) throws Exception {
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    return new PagedDirectoryReader(factory.newSAXParser().getXMLReader(), fetcher, executor, maxPagesInFlight, PAGE_SIZE);
+  }
+
+  private static String transform(PagedDirectoryReader reader) throws Exception {
+    return transform(reader, createPage(0));
+  }
+
+  private static String transform(PagedDirectoryReader reader, byte[] firstPage) throws Exception {
+    final StringWriter writer = new StringWriter();
+    final SAXSource source = new SAXSource(reader, new InputSource(new ByteArrayInputStream(firstPage)));
+    TransformerFactory.newInstance().newTransformer().transform(source, new StreamResult(writer));
+    return writer.toString();
+  }
+
+  private static byte[] createPage(int pageIndex) {
+    final int first = pageIndex * PAGE_SIZE;
+    final int last = Math.min(first + PAGE_SIZE, TOTAL_RESULT_COUNT);
+    return createPage(pageIndex, first, last, TOTAL_RESULT_COUNT);
+  }
+
+  private static byte[] createSinglePage() {
+    return createPage(0, 0, 1, 1);
+  }
+
+  private static byte[] createPage(int pageIndex, int first, int last, int total) {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- page ").append(pageIndex).append(" -->\n");
+    sb.append("<resultlist version=\"1.0\" total-result-count=\"").append(total)
+        .append("\" result-page-index=\"").append(pageIndex)
+        .append("\" result-page-count=\"").append(PAGE_SIZE).append("\">\n");
+    for (int i = first; i < last; ++i) {
+      sb.append("  <match>\n");
+      sb.append("    <participantID scheme=\"iso6523-actorid-upis\">9999:participant").append(i).append("</participantID>\n");
+      sb.append("    <entity><name>Participant ").append(i).append("</name><countryCode>SV</countryCode></entity>\n");
+      sb.append("  </match>\n");
+    }
+    sb.append("</resultlist>\n");
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
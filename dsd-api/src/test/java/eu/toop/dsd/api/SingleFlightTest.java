@@ -0,0 +1,135 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SingleFlight}
+ *
+ * @author yerlibilgin
+ */
+public class SingleFlightTest {
+  private static final int WAITER_COUNT = 8;
+
+  private static ExecutorService executor;
+
+  @BeforeClass
+  public static void beforeClass() {
+    executor = Executors.newFixedThreadPool(WAITER_COUNT + 1);
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void concurrentCallsShareOneResult() throws Exception {
+    final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    final AtomicInteger calls = new AtomicInteger();
+    final CountDownLatch callStarted = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+      calls.incrementAndGet();
+      callStarted.countDown();
+      release.await();
+      return "result";
+    }));
+    callStarted.await();
+
+    final List<Future<String>> waiters = submitWaiters(singleFlight, calls, "unexpected");
+    // give the waiters some time to join the running call
+    Thread.sleep(200);
+    release.countDown();
+
+    Assert.assertEquals("result", leader.get(1, TimeUnit.MINUTES));
+    for (Future<String> waiter : waiters) {
+      Assert.assertEquals("result", waiter.get(1, TimeUnit.MINUTES));
+    }
+    Assert.assertEquals(1, calls.get());
+    Assert.assertEquals(0, singleFlight.getInFlightCount());
+
+    // the result is not kept after the call
+    Assert.assertEquals("second", singleFlight.execute("key", () -> "second"));
+  }
+
+  @Test
+  public void failureReachesAllWaitersAndIsNotRemembered() throws Exception {
+    final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    final AtomicInteger calls = new AtomicInteger();
+    final CountDownLatch callStarted = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+      calls.incrementAndGet();
+      callStarted.countDown();
+      release.await();
+      throw new IOException("directory down");
+    }));
+    callStarted.await();
+
+    final List<Future<String>> waiters = submitWaiters(singleFlight, calls, "unexpected");
+    Thread.sleep(200);
+    release.countDown();
+
+    assertFailure(leader);
+    for (Future<String> waiter : waiters) {
+      assertFailure(waiter);
+    }
+    Assert.assertEquals(1, calls.get());
+
+    Assert.assertEquals("recovered", singleFlight.execute("key", () -> "recovered"));
+  }
+
+  private static List<Future<String>> submitWaiters(SingleFlight<String, String> singleFlight, AtomicInteger calls, String result) {
+    final List<Future<String>> waiters = new ArrayList<>();
+    for (int i = 0; i < WAITER_COUNT; ++i) {
+      waiters.add(executor.submit(() -> singleFlight.execute("key", () -> {
+        calls.incrementAndGet();
+        return result;
+      })));
+    }
+    return waiters;
+  }
+
+  private static void assertFailure(Future<String> future) throws Exception {
+    try {
+      future.get(1, TimeUnit.MINUTES);
+      Assert.fail("The call should have failed");
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof IOException);
+      Assert.assertEquals("directory down", ex.getCause().getMessage());
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.url.SimpleURL;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests that every directory request that takes a permit of the {@link DirectoryCircuitBreaker} gives it back,
+ * against a local HTTP server
+ *
+ * @author yerlibilgin
+ */
+public class ToopDirClientBreakerTest {
+  private static final long OPEN_MILLIS = 1000;
+  private static final byte[] PAGE = "<resultlist total-result-count=\"0\"/>".getBytes(StandardCharsets.UTF_8);
+
+  private final AtomicLong clock = new AtomicLong();
+  private final DirectoryCircuitBreaker breaker = new DirectoryCircuitBreaker(1, OPEN_MILLIS, clock::get);
+  private final AtomicInteger requests = new AtomicInteger();
+  private final CountDownLatch hanging = new CountDownLatch(1);
+  private final CountDownLatch releaseHanging = new CountDownLatch(1);
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private String baseURL;
+
+  @Before
+  public void before() throws IOException {
+    serverExecutor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(serverExecutor);
+    server.createContext("/page", exchange -> {
+      requests.incrementAndGet();
+      exchange.sendResponseHeaders(200, PAGE.length);
+      exchange.getResponseBody().write(PAGE);
+      exchange.close();
+    });
+    server.createContext("/hang", exchange -> {
+      hanging.countDown();
+      try {
+        releaseHanging.await(10, TimeUnit.SECONDS);
+        exchange.sendResponseHeaders(200, PAGE.length);
+        exchange.getResponseBody().write(PAGE);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        exchange.close();
+      }
+    });
+    server.start();
+    baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+
+    // a single connection, so that a second request has to wait for it
+    ToopDirClient.setConnectionPool(new DirectoryConnectionPool(new DirectoryClientSettings()
+        .setMaxConnectionsTotal(1).setMaxConnectionsPerRoute(1).setConnectionRequestTimeoutMS(10_000).setMaxRetries(0)));
+    ToopDirClient.setCircuitBreaker(breaker);
+  }
+
+  @After
+  public void after() {
+    releaseHanging.countDown();
+    ToopDirClient.setCircuitBreaker(null);
+    ToopDirClient.setConnectionPool(new DirectoryConnectionPool(new DirectoryClientSettings()));
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  public void expiredCallDoesNotTakeTheProbe() throws Exception {
+    openBreaker();
+
+    final DirectoryDeadline deadline = new DirectoryDeadline(1);
+    while (!deadline.isExpired()) {
+      Thread.sleep(1);
+    }
+    try {
+      ToopDirClient.fetchPage(new SimpleURL(baseURL + "/page"), deadline);
+      Assert.fail("The call is past its deadline");
+    } catch (InterruptedIOException ex) {
+      // expected
+    }
+    Assert.assertEquals(0, requests.get());
+
+    // the probe is still available to a live call
+    Assert.assertArrayEquals(PAGE, ToopDirClient.fetchPage(new SimpleURL(baseURL + "/page"), new DirectoryDeadline(0)));
+    Assert.assertEquals(DirectoryCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void interruptedProbeIsReleased() throws Exception {
+    final ExecutorService callers = Executors.newFixedThreadPool(2);
+    try {
+      // holds the only connection while the breaker is still closed
+      final Future<byte[]> blocker = callers.submit(() -> ToopDirClient.fetchPage(new SimpleURL(baseURL + "/hang"), new DirectoryDeadline(0)));
+      Assert.assertTrue(hanging.await(10, TimeUnit.SECONDS));
+
+      openBreaker();
+      final CountDownLatch probing = new CountDownLatch(1);
+      final Future<byte[]> probe = callers.submit(() -> {
+        probing.countDown();
+        return ToopDirClient.fetchPage(new SimpleURL(baseURL + "/page"), new DirectoryDeadline(0));
+      });
+      Assert.assertTrue(probing.await(10, TimeUnit.SECONDS));
+      // wait until the probe waits for a connection
+      while (breaker.getState() != DirectoryCircuitBreaker.State.HALF_OPEN) {
+        Thread.sleep(1);
+      }
+      Thread.sleep(100);
+
+      // like a query that is abandoned by its client
+      probe.cancel(true);
+      final long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      boolean released = false;
+      while (!released && System.nanoTime() < until) {
+        released = breaker.tryAcquire();
+        if (!released)
+          Thread.sleep(1);
+      }
+      Assert.assertTrue("The interrupted probe must give back its permit", released);
+      Assert.assertEquals(DirectoryCircuitBreaker.State.HALF_OPEN, breaker.getState());
+      breaker.release();
+
+      releaseHanging.countDown();
+      Assert.assertArrayEquals(PAGE, blocker.get(10, TimeUnit.SECONDS));
+      Assert.assertEquals(0, requests.get());
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  private void openBreaker() {
+    Assert.assertTrue(breaker.tryAcquire());
+    breaker.recordFailure();
+    Assert.assertEquals(DirectoryCircuitBreaker.State.OPEN, breaker.getState());
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS));
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.url.SimpleURL;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the retries and the backoff of the directory requests, against a local HTTP server that fails the
+ * first requests
+ *
+ * @author yerlibilgin
+ */
+public class ToopDirClientRetryTest {
+  private static final byte[] PAGE = "<resultlist total-result-count=\"0\"/>".getBytes(StandardCharsets.UTF_8);
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private volatile int failures;
+  private volatile int failureStatus = 503;
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private SimpleURL pageURL;
+
+  @Before
+  public void before() throws IOException {
+    serverExecutor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(serverExecutor);
+    server.createContext("/page", exchange -> {
+      if (requests.incrementAndGet() <= failures) {
+        exchange.sendResponseHeaders(failureStatus, -1);
+      } else {
+        exchange.sendResponseHeaders(200, PAGE.length);
+        exchange.getResponseBody().write(PAGE);
+      }
+      exchange.close();
+    });
+    server.start();
+    pageURL = new SimpleURL("http://127.0.0.1:" + server.getAddress().getPort() + "/page");
+  }
+
+  @After
+  public void after() {
+    ToopDirClient.setCircuitBreaker(null);
+    ToopDirClient.setConnectionPool(new DirectoryConnectionPool(new DirectoryClientSettings()));
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  public void temporaryFailuresAreRetried() throws Exception {
+    setRetries(3, 1, 5);
+    failures = 2;
+
+    Assert.assertArrayEquals(PAGE, ToopDirClient.fetchPage(pageURL, new DirectoryDeadline(0)));
+    Assert.assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void lastFailureIsThrownAfterTheRetries() throws Exception {
+    setRetries(2, 1, 5);
+    failures = Integer.MAX_VALUE;
+
+    try {
+      ToopDirClient.fetchPage(pageURL, new DirectoryDeadline(0));
+      Assert.fail("All the attempts fail");
+    } catch (DirectoryStatusException ex) {
+      Assert.assertEquals(503, ex.getStatusCode());
+    }
+    Assert.assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void clientErrorIsNotRetried() throws Exception {
+    setRetries(3, 1, 5);
+    failures = Integer.MAX_VALUE;
+    failureStatus = 404;
+    final DirectoryCircuitBreaker breaker = new DirectoryCircuitBreaker(1, 60_000);
+    ToopDirClient.setCircuitBreaker(breaker);
+
+    try {
+      ToopDirClient.fetchPage(pageURL, new DirectoryDeadline(0));
+      Assert.fail("The request is wrong");
+    } catch (DirectoryStatusException ex) {
+      Assert.assertEquals(404, ex.getStatusCode());
+    }
+    Assert.assertEquals(1, requests.get());
+    // the directory answered, it is not a failure of the directory
+    Assert.assertEquals(DirectoryCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void backoffIsBoundedByTheMaximum() throws Exception {
+    // without the bound, the five waits would add up to seconds
+    setRetries(5, 1000, 20);
+    failures = 5;
+
+    final long start = System.nanoTime();
+    Assert.assertArrayEquals(PAGE, ToopDirClient.fetchPage(pageURL, new DirectoryDeadline(0)));
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    Assert.assertEquals(6, requests.get());
+  }
+
+  @Test
+  public void retriesStopAtTheDeadline() throws Exception {
+    setRetries(Integer.MAX_VALUE, 1, 5);
+    failures = Integer.MAX_VALUE;
+
+    final long start = System.nanoTime();
+    try {
+      ToopDirClient.fetchPage(pageURL, new DirectoryDeadline(300));
+      Assert.fail("The directory fails until the deadline");
+    } catch (IOException ex) {
+      // either the deadline expired or the next wait would have passed it
+      final Throwable failure = ex instanceof InterruptedIOException ? ex.getCause() : ex;
+      Assert.assertTrue(String.valueOf(failure), failure instanceof DirectoryStatusException);
+    }
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+    Assert.assertTrue(requests.get() > 1);
+  }
+
+  @Test
+  public void everyAttemptIsReportedToTheBreaker() throws Exception {
+    setRetries(5, 1, 5);
+    failures = Integer.MAX_VALUE;
+    ToopDirClient.setCircuitBreaker(new DirectoryCircuitBreaker(3, 60_000));
+
+    try {
+      ToopDirClient.fetchPage(pageURL, new DirectoryDeadline(0));
+      Assert.fail("The breaker opens after the third attempt");
+    } catch (DirectoryUnavailableException ex) {
+      // expected
+    }
+    Assert.assertEquals(3, requests.get());
+  }
+
+  private static void setRetries(int maxRetries, int initialBackoffMillis, int maxBackoffMillis) {
+    ToopDirClient.setConnectionPool(new DirectoryConnectionPool(new DirectoryClientSettings().setMaxRetries(maxRetries)
+        .setRetryInitialBackoffMS(initialBackoffMillis).setRetryMaxBackoffMS(maxBackoffMillis)));
+  }
+}
@@ -22,6 +22,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class DSDQueryTest {
@@ -63,4 +64,20 @@ public class DSDQueryTest {
     assert DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION == QUERY_BY_DATASETTYPE_AND_LOCATION.getQueryId();
     assert DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE == QUERY_BY_DATASETTYPE_AND_DPTYPE.getQueryId();
   }
+
+  @Test
+  public void getCanonicalForm() {
+    Map<String, String[]> parameterMap = new LinkedHashMap<>();
+    parameterMap.put(DSDQuery.PARAM_NAME_DATA_SET_TYPE, new String[]{"REGISTERED_ORGANIZATION_TYPE2"});
+    parameterMap.put(DSDQuery.PARAM_NAME_COUNTRY_CODE, new String[]{"SW"});
+    parameterMap.put(DSDQuery.PARAM_NAME_QUERY_ID, new String[]{DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION.id});
+
+    DSDQuery reordered = DSDQuery.resolve(parameterMap);
+
+    assert reordered.equals(QUERY_BY_DATASETTYPE_AND_LOCATION);
+    assert reordered.getCanonicalForm().equals(QUERY_BY_DATASETTYPE_AND_LOCATION.getCanonicalForm());
+    assert (DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION.id + "&countryCode=SW&dataSetType=REGISTERED_ORGANIZATION_TYPE2")
+        .equals(reordered.getCanonicalForm());
+    assert !QUERY_BY_DATASETTYPE_AND_DPTYPE.getCanonicalForm().equals(QUERY_BY_DATASETTYPE_AND_LOCATION.getCanonicalForm());
+  }
 }
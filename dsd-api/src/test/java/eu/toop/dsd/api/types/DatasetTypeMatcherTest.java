@@ -0,0 +1,87 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.api.types;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link DatasetTypeMatcher}
+ *
+ * @author yerlibilgin
+ */
+public class DatasetTypeMatcherTest {
+  private static final String[] DOC_TYPES = {
+      "urn:eu:toop:ns:dataexchange-1p40::Response##urn:eu.toop.response.registeredorganization::1.40",
+      "urn:eu:toop:ns:dataexchange-1p40::Request##urn:eu.toop.request.crewcertificate-list::1.40",
+      "urn:eu:toop:ns:dataexchange-1p40::Request##urn:eu.toop.request.Criminal_Record::1.40",
+      "RegisteredOrganization::REGISTERED_ORGANIZATION_TYPE::CONCEPT##CCCEV::toop-edm:v2.1",
+      "FinancialRatioDocument::FINANCIAL_RECORD_TYPE::UNSTRUCTURED::toop-edm:v2.1",
+  };
+
+  private static final String[] DATASET_TYPES = {
+      "registeredorganization", "REGISTERED_ORGANIZATION", "RegisteredOrganization", "REGISTERED_ORGANIZATION_TYPE",
+      "crewcertificate", "CREW_CERTIFICATE_LIST", "criminalrecord", "criminal_record", "FINANCIAL_RECORD_TYPE",
+      "financial_record_type", "_", "", "shipcertificate"
+  };
+
+  @Test
+  public void sameResultAsTheStringRule() {
+    for (String docType : DOC_TYPES) {
+      final DoctypeParts doctypeParts = DoctypeParts.parse(docType);
+      for (String datasetType : DATASET_TYPES) {
+        final DatasetTypeMatcher matcher = DatasetTypeMatcher.of(datasetType);
+        Assert.assertEquals(docType + " / " + datasetType, expectedMatch(doctypeParts, datasetType), matcher.matches(doctypeParts));
+        Assert.assertEquals(docType + " / " + datasetType, expectedMatch(doctypeParts, datasetType), doctypeParts.matches(datasetType));
+      }
+    }
+  }
+
+  @Test
+  public void ignoresCasesAndUnderscoresForV1() {
+    final DoctypeParts v1 = DoctypeParts.parse("urn:eu:toop:ns:dataexchange-1p40::Response##urn:eu.toop.response.registeredorganization::1.40");
+    Assert.assertTrue(DatasetTypeMatcher.of("REGISTERED_ORGANIZATION").matches(v1));
+    Assert.assertTrue(DatasetTypeMatcher.of("registeredOrganization").matches(v1));
+    Assert.assertFalse(DatasetTypeMatcher.of("REGISTERED_ORGANIZATION_TYPE").matches(v1));
+  }
+
+  @Test
+  public void exactForV2() {
+    final DoctypeParts v2 = DoctypeParts.parse("RegisteredOrganization::REGISTERED_ORGANIZATION_TYPE::CONCEPT##CCCEV::toop-edm:v2.1");
+    Assert.assertTrue(DatasetTypeMatcher.of("REGISTERED_ORGANIZATION_TYPE").matches(v2));
+    Assert.assertFalse(DatasetTypeMatcher.of("registered_organization_type").matches(v2));
+    Assert.assertFalse(DatasetTypeMatcher.of("REGISTERED_ORGANIZATION").matches(v2));
+  }
+
+  @Test
+  public void normalize() {
+    Assert.assertEquals("criminalrecord", DatasetTypeMatcher.normalize("CRIMINAL_RECORD"));
+    Assert.assertEquals("criminalrecord", DatasetTypeMatcher.normalize("criminalRecord"));
+    Assert.assertEquals("", DatasetTypeMatcher.normalize("__"));
+  }
+
+  /**
+   * The matching rule as it was implemented before the matcher
+   */
+  @SuppressWarnings("deprecation")
+  private static boolean expectedMatch(DoctypeParts doctypeParts, String datasetType) {
+    if (doctypeParts instanceof V1DoctypeParts)
+      return ((V1DoctypeParts) doctypeParts).getCustomizationId().toLowerCase().contains(datasetType.replaceAll("_", "").toLowerCase());
+    return datasetType.equals(doctypeParts.getDatasetType());
+  }
+}
@@ -17,6 +17,10 @@
  */
 package eu.toop.dsd.api.types;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 public class DoctypePartsTest {
@@ -40,4 +44,92 @@ public class DoctypePartsTest {
             System.out.println(doctypeParts);
         }
     }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void parseV1() {
+        final DoctypeParts doctypeParts = DoctypeParts.parse("toop-doctypeid-qns::urn:eu:toop:ns:dataexchange-1p40::Request##urn:eu.toop.request.registeredorganization::1.40");
+        Assert.assertTrue(doctypeParts instanceof V1DoctypeParts);
+
+        final V1DoctypeParts v1 = (V1DoctypeParts) doctypeParts;
+        Assert.assertEquals("urn:eu:toop:ns:dataexchange-1p40", v1.getNamespaceURI());
+        Assert.assertEquals("Request", v1.getLocalElementName());
+        Assert.assertEquals("urn:eu.toop.request.registeredorganization", v1.getCustomizationId());
+        Assert.assertEquals("1.40", v1.getV1VersionField());
+    }
+
+    @Test
+    public void parseV2() {
+        final DoctypeParts withDistConformsTo = DoctypeParts.parse("RegisteredOrganization::REGISTERED_ORGANIZATION_TYPE::CONCEPT##CCCEV::toop-edm:v2.1");
+        Assert.assertTrue(withDistConformsTo instanceof V2DoctypeParts);
+        Assert.assertEquals("RegisteredOrganization", withDistConformsTo.getDataSetIdentifier());
+        Assert.assertEquals("REGISTERED_ORGANIZATION_TYPE", withDistConformsTo.getDatasetType());
+        Assert.assertEquals("CONCEPT", withDistConformsTo.getDistributionFormat());
+        Assert.assertEquals("CCCEV", withDistConformsTo.getDistributionConformsTo());
+        Assert.assertEquals("toop-edm:v2.1", withDistConformsTo.getConformsTo());
+
+        final DoctypeParts withoutDistConformsTo = DoctypeParts.parse("toop-doctypeid-qns::FinancialRatioDocument::FINANCIAL_RECORD_TYPE::UNSTRUCTURED::toop-edm:v2.1");
+        Assert.assertEquals("FinancialRatioDocument", withoutDistConformsTo.getDataSetIdentifier());
+        Assert.assertEquals("UNSTRUCTURED", withoutDistConformsTo.getDistributionFormat());
+        Assert.assertNull(withoutDistConformsTo.getDistributionConformsTo());
+        Assert.assertEquals("toop-edm:v2.1", withoutDistConformsTo.getConformsTo());
+    }
+
+    @Test
+    public void trailingSeparatorsAreIgnored() {
+        // like String.split("::"), trailing empty tokens don't count
+        Assert.assertEquals(DoctypeParts.parse("ns::Request##custom::1.40"), DoctypeParts.parse("ns::Request##custom::1.40::::"));
+        Assert.assertEquals(DoctypeParts.parse("a::B_TYPE::C::d"), DoctypeParts.parse("a::B_TYPE::C::d::"));
+    }
+
+    @Test
+    public void invalidDoctypes() {
+        final String[] invalidDocTypes = new String[]{
+                "toop-doctypeid-qns::",
+                "::",
+                "single",
+                "two::tokens",
+                "a::b::c::d::e",
+                // V1 without the ## in the middle token
+                "ns::Request::1.40",
+                // ## in the last token instead of the middle one
+                "ns::Request::custom##1.40"
+        };
+
+        for (String docType : invalidDocTypes) {
+            try {
+                DoctypeParts.parse(docType);
+                Assert.fail("Expected an exception for " + docType);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void repeatedParseReturnsCachedInstance() {
+        final String docType = "toop-doctypeid-qns::RegisteredOrganization::REGISTERED_ORGANIZATION_TYPE::CONCEPT##CCCEV::toop-edm:v2.1";
+        Assert.assertSame(DoctypeParts.parse(docType), DoctypeParts.parse(docType));
+        Assert.assertSame(DoctypeParts.parse(docType), DoctypeParts.parse(new String(docType.toCharArray())));
+    }
+
+    @Test
+    public void equalsAndHashCode() {
+        // the same parts with and without the scheme are different cache entries, but equal values
+        final DoctypeParts v2 = DoctypeParts.parse("RegisteredOrganization::REGISTERED_ORGANIZATION_TYPE::CONCEPT##CCCEV::toop-edm:v2.1");
+        final DoctypeParts v2WithScheme = DoctypeParts.parse("toop-doctypeid-qns::RegisteredOrganization::REGISTERED_ORGANIZATION_TYPE::CONCEPT##CCCEV::toop-edm:v2.1");
+        Assert.assertNotSame(v2, v2WithScheme);
+        Assert.assertEquals(v2, v2WithScheme);
+        Assert.assertEquals(v2.hashCode(), v2WithScheme.hashCode());
+        Assert.assertNotEquals(v2, DoctypeParts.parse("RegisteredOrganization::REGISTERED_ORGANIZATION_TYPE::CONCEPT::toop-edm:v2.1"));
+
+        final DoctypeParts v1 = DoctypeParts.parse("urn:eu:toop:ns:dataexchange-1p40::Request##urn:eu.toop.request.registeredorganization::1.40");
+        Assert.assertEquals(v1, DoctypeParts.parse("toop-doctypeid-qns::urn:eu:toop:ns:dataexchange-1p40::Request##urn:eu.toop.request.registeredorganization::1.40"));
+        Assert.assertNotEquals(v1, DoctypeParts.parse("urn:eu:toop:ns:dataexchange-1p40::Response##urn:eu.toop.request.registeredorganization::1.40"));
+
+        final Map<DoctypeParts, String> index = new HashMap<>();
+        index.put(v2, "v2");
+        index.put(v1, "v1");
+        Assert.assertEquals("v2", index.get(v2WithScheme));
+    }
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.toop.dsd.api.DcatDatasetTypeReader;
+import eu.toop.dsd.api.DsdDataConverter;
+import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
+
+/**
+ * Per call cost of reading a DSD response: {@link DcatDatasetTypeReader#parseDataset(javax.xml.transform.Source)},
+ * which sets up a new RegRep reader and validates the whole response on every call, against the reusable
+ * streaming reader with and without validation.
+ * <p>
+ * Compare the <code>gc.alloc.rate.norm</code> figures as well, the setup of the readers shows up there first.
+ *
+ * @author yerlibilgin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class DatasetReaderBenchmark {
+  /**
+   * {@link DirectoryResults#FIXTURE} or the number of synthetic matches
+   */
+  @Param({DirectoryResults.FIXTURE, "1", "100", "1000"})
+  public String matches;
+
+  private byte[] dsdResult;
+
+  @Setup
+  public void setup() throws TransformerException {
+    final String datasetType = DirectoryResults.FIXTURE.equals(matches) ? "registeredorganization" : "REGISTERED_ORGANIZATION_TYPE";
+    dsdResult = DsdDataConverter.convertDIRToDSDWithDPType(DirectoryResults.get(matches), datasetType, "")
+        .getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Before: a new reader per call, the whole response is validated
+   */
+  @Benchmark
+  public List<DCatAPDatasetType> parseDataset() {
+    return DcatDatasetTypeReader.parseDataset(new StreamSource(new ByteArrayInputStream(dsdResult)));
+  }
+
+  /**
+   * After: the shared reader, each dataset is validated
+   */
+  @Benchmark
+  public List<DCatAPDatasetType> readDatasetsValidating() {
+    return DcatDatasetTypeReader.readDatasets(new ByteArrayInputStream(dsdResult), true);
+  }
+
+  /**
+   * After: the shared reader without validation, for a trusted DSD
+   */
+  @Benchmark
+  public List<DCatAPDatasetType> readDatasetsNonValidating() {
+    return DcatDatasetTypeReader.readDatasets(new ByteArrayInputStream(dsdResult), false);
+  }
+}
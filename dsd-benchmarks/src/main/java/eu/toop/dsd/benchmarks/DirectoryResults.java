@@ -0,0 +1,130 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Provides the directory results that the benchmarks run on: the small fixture that the
+ * unit tests use, from the test-jar of dsd-api, and synthetic results of an arbitrary size that look like a real
+ * TOOP Directory export (mixed V1 and V2 doctypes, several countries and data provider types).
+ *
+ * @author yerlibilgin
+ */
+final class DirectoryResults {
+  /**
+   * The parameter value that selects the fixture instead of a synthetic result
+   */
+  static final String FIXTURE = "fixture";
+
+  private static final String FIXTURE_RESOURCE = "/directory-results.xml";
+
+  private static final String[] COUNTRY_CODES = {"AT", "BE", "DE", "EE", "FR", "GQ", "NL", "PL", "SI", "SV"};
+  private static final String[] DP_TYPES = {"BusinessRegister", "TaxAuthority", "CivilRegistry"};
+
+  private static final String V2_REGISTERED_ORGANIZATION = "RegisteredOrganization::REGISTERED_ORGANIZATION_TYPE::CONCEPT##CCCEV::toop-edm:v2.1";
+  private static final String V2_FINANCIAL_RECORD = "FinancialRecord::FINANCIAL_RECORD_TYPE::UNSTRUCTURED::toop-edm:v2.1";
+  private static final String V1_REGISTERED_ORGANIZATION = "urn:eu:toop:ns:dataexchange-1p40::Response##urn:eu.toop.response.registeredorganization::1.40";
+
+  private DirectoryResults() {
+  }
+
+  /**
+   * Create the directory result that is selected by a benchmark parameter
+   *
+   * @param matchCount either {@link #FIXTURE} or the number of synthetic matches
+   * @return the directory result as string
+   */
+  @Nonnull
+  static String get(@Nonnull String matchCount) {
+    if (FIXTURE.equals(matchCount))
+      return readFixture();
+
+    return createSynthetic(Integer.parseInt(matchCount));
+  }
+
+  /**
+   * @return the <code>directory-results.xml</code> fixture
+   */
+  @Nonnull
+  static String readFixture() {
+    try (InputStream inputStream = DirectoryResults.class.getResourceAsStream(FIXTURE_RESOURCE)) {
+      if (inputStream == null)
+        throw new IllegalStateException("Couldn't find " + FIXTURE_RESOURCE);
+      return new String(StreamHelper.getAllBytes(inputStream), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't read " + FIXTURE_RESOURCE, e);
+    }
+  }
+
+  /**
+   * Create a synthetic directory result. Every match provides the V2 registered organization
+   * doctype, every other match a financial record and every fourth match a V1 doctype.
+   * The countries and data provider types rotate, so a query for a single country
+   * selects about a tenth of the matches.
+   *
+   * @param matchCount the number of matches to create
+   * @return the directory result as string
+   */
+  @Nonnull
+  static String createSynthetic(int matchCount) {
+    ValueEnforcer.isGT0(matchCount, "matchCount");
+
+    final StringBuilder sb = new StringBuilder(matchCount * 700);
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<resultlist version=\"1.0\" total-result-count=\"").append(matchCount)
+        .append("\" used-result-count=\"").append(matchCount)
+        .append("\" result-page-index=\"0\" result-page-count=\"").append(matchCount)
+        .append("\" first-result-index=\"0\" last-result-index=\"").append(matchCount - 1)
+        .append("\" query-terms=\"identifierScheme=DataSubjectIdentifierScheme\" creation-dt=\"2021-01-01T00:00:00.000Z\">\n");
+
+    for (int i = 0; i < matchCount; ++i) {
+      final String countryCode = COUNTRY_CODES[i % COUNTRY_CODES.length];
+
+      sb.append("  <match>\n");
+      sb.append("    <participantID scheme=\"iso6523-actorid-upis\">9999:synthetic").append(i).append("</participantID>\n");
+      appendDocType(sb, V2_REGISTERED_ORGANIZATION);
+      if (i % 2 == 0)
+        appendDocType(sb, V2_FINANCIAL_RECORD);
+      if (i % 4 == 0)
+        appendDocType(sb, V1_REGISTERED_ORGANIZATION);
+      sb.append("    <entity>\n");
+      sb.append("      <name>Synthetic Data Provider ").append(i).append("</name>\n");
+      sb.append("      <countryCode>").append(countryCode).append("</countryCode>\n");
+      sb.append("      <geoInfo>Country code ").append(countryCode).append("</geoInfo>\n");
+      sb.append("      <identifier scheme=\"DataProviderType\">").append(DP_TYPES[i % DP_TYPES.length]).append("</identifier>\n");
+      sb.append("      <identifier scheme=\"DataSubjectIdentifierScheme\">VAT</identifier>\n");
+      sb.append("      <regDate>2021-01-01</regDate>\n");
+      sb.append("    </entity>\n");
+      sb.append("  </match>\n");
+    }
+    sb.append("</resultlist>\n");
+    return sb.toString();
+  }
+
+  private static void appendDocType(StringBuilder sb, String docType) {
+    sb.append("    <docTypeID scheme=\"toop-doctypeid-qns\">").append(docType).append("</docTypeID>\n");
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.toop.dsd.api.types.DatasetTypeMatcher;
+import eu.toop.dsd.api.types.DoctypeParts;
+import eu.toop.dsd.api.types.V1DoctypeParts;
+
+/**
+ * Benchmarks for parsing and matching doctype identifiers, which happens for every
+ * <code>docTypeID</code> of every directory match.
+ *
+ * @author yerlibilgin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@SuppressWarnings("deprecation")
+public class DoctypePartsBenchmark {
+  private static final String V1_DOCTYPE = "urn:eu:toop:ns:dataexchange-1p40::Response##urn:eu.toop.response.registeredorganization::1.40";
+  private static final String V2_DOCTYPE = "RegisteredOrganization::REGISTERED_ORGANIZATION_TYPE::CONCEPT##CCCEV::toop-edm:v2.1";
+
+  /**
+   * A plain hit, a hit that needs the case and underscore normalization, and a miss
+   */
+  @Param({"registeredorganization", "REGISTERED_ORGANIZATION", "FINANCIAL_RECORD_TYPE"})
+  public String datasetType;
+
+  private V1DoctypeParts v1Parts;
+  private DatasetTypeMatcher datasetTypeMatcher;
+
+  @Setup
+  public void setup() {
+    v1Parts = (V1DoctypeParts) DoctypeParts.parse(V1_DOCTYPE);
+    datasetTypeMatcher = DatasetTypeMatcher.of(datasetType);
+  }
+
+  @Benchmark
+  public DoctypeParts parseV1() {
+    return DoctypeParts.parse(V1_DOCTYPE);
+  }
+
+  @Benchmark
+  public DoctypeParts parseV2() {
+    return DoctypeParts.parse(V2_DOCTYPE);
+  }
+
+  @Benchmark
+  public boolean v1Matches() {
+    return v1Parts.matches(datasetType);
+  }
+
+  /**
+   * The dataset type is normalized once per query, like a request that checks all the doctypes of a directory result
+   */
+  @Benchmark
+  public boolean v1MatchesWithMatcher() {
+    return v1Parts.matches(datasetTypeMatcher);
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The main class of <code>benchmarks.jar</code>. Accepts the usual JMH command line
+ * options and always adds the GC profiler, so that the allocation rate per operation
+ * (<code>gc.alloc.rate.norm</code>) is reported next to the throughput and latency figures.
+ * <p>
+ * Usage:
+ * <pre>
+ * mvn -pl dsd-benchmarks -am package
+ * java -jar dsd-benchmarks/target/benchmarks.jar                       # everything
+ * java -jar dsd-benchmarks/target/benchmarks.jar DoctypeParts          # a single class
+ * java -jar dsd-benchmarks/target/benchmarks.jar -p matches=10000 -rf json
+ * </pre>
+ *
+ * @author yerlibilgin
+ */
+public final class DsdBenchmarks {
+  private DsdBenchmarks() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList() || commandLineOptions.shouldListWithParams() ||
+        commandLineOptions.shouldListProfilers() || commandLineOptions.shouldListResultFormats()) {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+
+    final Options options = new OptionsBuilder()
+        .parent(commandLineOptions)
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.TransformerException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.toop.dsd.api.DsdDataConverter;
+import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
+
+/**
+ * Benchmarks for converting a directory result to a DSD response and for reading the
+ * DSD response back, on the fixture and on synthetic results of growing size.
+ *
+ * @author yerlibilgin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class DsdDataConverterBenchmark {
+  /**
+   * {@link DirectoryResults#FIXTURE} or the number of synthetic matches
+   */
+  @Param({DirectoryResults.FIXTURE, "100", "1000", "10000"})
+  public String matches;
+
+  @Param({"XSLT", "STAX"})
+  public String engine;
+
+  private String directoryResult;
+  private String datasetType;
+  private String countryCode;
+  private String dpType;
+  private String dsdResult;
+
+  @Setup
+  public void setup() throws TransformerException {
+    DsdDataConverter.setConversionEngine(DsdDataConverter.ConversionEngine.valueOf(engine));
+
+    directoryResult = DirectoryResults.get(matches);
+    if (DirectoryResults.FIXTURE.equals(matches)) {
+      datasetType = "registeredorganization";
+      countryCode = "SV";
+      dpType = "abc";
+    } else {
+      datasetType = "REGISTERED_ORGANIZATION_TYPE";
+      countryCode = "SV";
+      dpType = "BusinessRegister";
+    }
+
+    dsdResult = DsdDataConverter.convertDIRToDSDWithDPType(directoryResult, datasetType, "");
+  }
+
+  @Benchmark
+  public String convertDIRToDSDWithCountryCode() throws TransformerException {
+    return DsdDataConverter.convertDIRToDSDWithCountryCode(directoryResult, datasetType, countryCode);
+  }
+
+  @Benchmark
+  public String convertDIRToDSDWithDPType() throws TransformerException {
+    return DsdDataConverter.convertDIRToDSDWithDPType(directoryResult, datasetType, dpType);
+  }
+
+  /**
+   * Reads the DSD response with all the matches of the dataset type, independent of the engine
+   */
+  @Benchmark
+  public List<DCatAPDatasetType> parseDataset() {
+    return DsdDataConverter.parseDataset(dsdResult);
+  }
+}
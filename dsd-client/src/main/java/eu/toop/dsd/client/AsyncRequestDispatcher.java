@@ -0,0 +1,277 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+import eu.toop.dsd.api.DSDException;
+
+/**
+ * Sends the asynchronous requests of a {@link DSDClient} with a non-blocking HTTP client.
+ * <p>
+ * At most <code>maxRequestsInFlight</code> requests are sent at the same time, further requests
+ * wait in a queue without blocking the caller. The responses are received on the I/O threads of
+ * the HTTP client and handed over to the parse executor, so that a slow parse doesn't hold up the
+ * other responses.
+ * <p>
+ * After {@link #close()}, no new requests are accepted, the queued requests fail and the HTTP client
+ * is closed as soon as the requests in flight are finished. The last of them finishes on an I/O thread
+ * of the client, which cannot wait for its own end, so the client is then closed on a thread of its own.
+ *
+ * @author yerlibilgin
+ */
+final class AsyncRequestDispatcher implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRequestDispatcher.class);
+
+  private static final AtomicInteger ioThreadCounter = new AtomicInteger();
+  private static final AtomicInteger closeThreadCounter = new AtomicInteger();
+
+  private final CloseableHttpAsyncClient httpClient;
+  private final Executor parseExecutor;
+  private final int maxRequestsInFlight;
+
+  /**
+   * guards the fields below
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Deque<PendingRequest> pendingRequests = new ArrayDeque<>();
+  private int requestsInFlight;
+  private boolean closed;
+
+  /**
+   * @param maxRequestsInFlight the maximum number of requests that are sent at the same time
+   * @param parseExecutor       the executor that parses the responses
+   */
+  AsyncRequestDispatcher(int maxRequestsInFlight, @Nonnull Executor parseExecutor) {
+    ValueEnforcer.isGT0(maxRequestsInFlight, "maxRequestsInFlight");
+    ValueEnforcer.notNull(parseExecutor, "parseExecutor");
+    this.maxRequestsInFlight = maxRequestsInFlight;
+    this.parseExecutor = parseExecutor;
+    this.httpClient = HttpAsyncClients.custom()
+        .setMaxConnTotal(maxRequestsInFlight)
+        .setMaxConnPerRoute(maxRequestsInFlight)
+        .setThreadFactory(runnable -> {
+          final Thread thread = new Thread(runnable, "dsd-client-io-" + ioThreadCounter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        })
+        .build();
+    this.httpClient.start();
+  }
+
+  /**
+   * Send a request
+   *
+   * @param request the request
+   * @param parser  converts a 200 or 304 response to the result, runs on the parse executor. The response
+   *                body is already buffered.
+   * @param <T>     the type of the result
+   * @return the future result. It fails with an {@link IllegalStateException} if the response status is neither
+   * 200 nor 304, with a {@link DSDException} if the request fails. Cancelling it cancels the request.
+   */
+  @Nonnull
+  <T> CompletableFuture<T> execute(@Nonnull HttpUriRequest request, @Nonnull Function<HttpResponse, T> parser) {
+    final PendingRequest pendingRequest = new PendingRequest(request);
+
+    boolean send = false;
+    lock.lock();
+    try {
+      if (closed) {
+        pendingRequest.response.completeExceptionally(new IllegalStateException("The DSDClient is closed"));
+      } else if (requestsInFlight < maxRequestsInFlight) {
+        ++requestsInFlight;
+        send = true;
+      } else {
+        pendingRequests.add(pendingRequest);
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (send)
+      send(pendingRequest);
+
+    final CompletableFuture<T> result = pendingRequest.response.thenApplyAsync(parser, parseExecutor);
+    result.whenComplete((value, throwable) -> {
+      if (result.isCancelled())
+        pendingRequest.cancel();
+    });
+    return result;
+  }
+
+  private void send(PendingRequest pendingRequest) {
+    // cancelled while it was waiting
+    if (pendingRequest.response.isDone()) {
+      requestFinished();
+      return;
+    }
+
+    try {
+      pendingRequest.setHttpFuture(httpClient.execute(pendingRequest.request, new FutureCallback<HttpResponse>() {
+        @Override
+        public void completed(HttpResponse response) {
+          try {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK && status != HttpStatus.SC_NOT_MODIFIED) {
+              EntityUtils.consumeQuietly(response.getEntity());
+              pendingRequest.response.completeExceptionally(new IllegalStateException("Request failed " + status));
+            } else {
+              // the body is already buffered by the http client, so it can be read on the parse executor
+              pendingRequest.response.complete(response);
+            }
+          } finally {
+            requestFinished();
+          }
+        }
+
+        @Override
+        public void failed(Exception ex) {
+          LOGGER.error(ex.getMessage(), ex);
+          pendingRequest.response.completeExceptionally(new DSDException(ex.getMessage(), ex));
+          requestFinished();
+        }
+
+        @Override
+        public void cancelled() {
+          pendingRequest.response.cancel(false);
+          requestFinished();
+        }
+      }));
+    } catch (RuntimeException ex) {
+      // e.g. the client was closed
+      pendingRequest.response.completeExceptionally(new DSDException(ex.getMessage(), ex));
+      requestFinished();
+    }
+  }
+
+  /**
+   * Send the next waiting request in place of a finished one
+   */
+  private void requestFinished() {
+    PendingRequest next = null;
+    boolean closeClient = false;
+    lock.lock();
+    try {
+      next = pendingRequests.poll();
+      if (next == null) {
+        --requestsInFlight;
+        closeClient = closed && requestsInFlight == 0;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (next != null)
+      send(next);
+    else if (closeClient)
+      closeHttpClientInBackground();
+  }
+
+  @Override
+  public void close() {
+    final Deque<PendingRequest> failedRequests;
+    final boolean closeClient;
+    lock.lock();
+    try {
+      if (closed)
+        return;
+      closed = true;
+      failedRequests = new ArrayDeque<>(pendingRequests);
+      pendingRequests.clear();
+      closeClient = requestsInFlight == 0;
+    } finally {
+      lock.unlock();
+    }
+
+    for (PendingRequest pendingRequest : failedRequests) {
+      pendingRequest.response.completeExceptionally(new IllegalStateException("The DSDClient is closed"));
+    }
+    if (closeClient)
+      closeHttpClient();
+  }
+
+  /**
+   * Close the HTTP client on a new thread. Closing it shuts its I/O reactor down and waits for the I/O
+   * threads to end, so it must not run on one of them.
+   */
+  private void closeHttpClientInBackground() {
+    final Thread thread = new Thread(this::closeHttpClient, "dsd-client-close-" + closeThreadCounter.incrementAndGet());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return <code>true</code> until the HTTP client is closed, for the tests
+   */
+  boolean isHttpClientRunning() {
+    return httpClient.isRunning();
+  }
+
+  private void closeHttpClient() {
+    try {
+      httpClient.close();
+    } catch (IOException ex) {
+      LOGGER.warn("Failed to close the async http client: " + ex.getMessage(), ex);
+    }
+  }
+
+  private static final class PendingRequest {
+    private final HttpUriRequest request;
+    private final CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+    private volatile Future<HttpResponse> httpFuture;
+
+    private PendingRequest(HttpUriRequest request) {
+      this.request = request;
+    }
+
+    private void setHttpFuture(Future<HttpResponse> httpFuture) {
+      this.httpFuture = httpFuture;
+      if (response.isCancelled())
+        httpFuture.cancel(true);
+    }
+
+    private void cancel() {
+      response.cancel(false);
+      final Future<HttpResponse> f = httpFuture;
+      if (f != null)
+        f.cancel(true);
+    }
+  }
+}
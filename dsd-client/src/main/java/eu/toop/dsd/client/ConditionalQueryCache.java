@@ -0,0 +1,140 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import eu.toop.dsd.api.DsdDataConverter;
+import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
+
+/**
+ * The last response of each query of a {@link DSDClient}, so that the query can be revalidated
+ * with a conditional request. On <code>304 Not Modified</code>, the stored body and the already
+ * parsed datasets are reused.
+ * <p>
+ * The number of stored responses is bounded, the least recently used one is dropped first.
+ *
+ * @author yerlibilgin
+ */
+final class ConditionalQueryCache {
+  /**
+   * A response with its entity tag
+   */
+  static final class Entry {
+    private final String eTag;
+    private final String body;
+    private final boolean validate;
+    private volatile List<DCatAPDatasetType> datasets;
+
+    /**
+     * @param eTag     the entity tag of the response
+     * @param body     the response body
+     * @param validate whether the datasets are validated when the body is parsed
+     */
+    Entry(@Nullable String eTag, @Nonnull String body, boolean validate) {
+      this.eTag = eTag;
+      this.body = body;
+      this.validate = validate;
+    }
+
+    /**
+     * @return the entity tag, <code>null</code> if the response didn't have one
+     */
+    @Nullable
+    String getETag() {
+      return eTag;
+    }
+
+    @Nonnull
+    String getBody() {
+      return body;
+    }
+
+    /**
+     * @return a new list of the datasets of the response, <code>null</code> if the response cannot be parsed.
+     * The body is parsed only once, the dataset objects are shared between the calls.
+     */
+    @Nullable
+    List<DCatAPDatasetType> getDatasets() {
+      List<DCatAPDatasetType> ret = datasets;
+      if (ret == null) {
+        // two threads may parse at the same time, both get the same result
+        ret = validate ? DsdDataConverter.parseDataset(body) : DsdDataConverter.parseDataset(body, false);
+        if (ret == null)
+          return null;
+        datasets = ret;
+      }
+      return new ArrayList<>(ret);
+    }
+  }
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<String, Entry> entries;
+
+  /**
+   * @param maxEntries the maximum number of stored responses
+   */
+  ConditionalQueryCache(final int maxEntries) {
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, ConditionalQueryCache.Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @param url the query URL
+   * @return the last response of the query, <code>null</code> if there is none
+   */
+  @Nullable
+  Entry get(@Nonnull String url) {
+    lock.lock();
+    try {
+      return entries.get(url);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Store the response of a query. A response without an entity tag cannot be revalidated, so it
+   * only removes the previous response.
+   *
+   * @param url   the query URL
+   * @param entry the response
+   */
+  void put(@Nonnull String url, @Nonnull Entry entry) {
+    lock.lock();
+    try {
+      if (entry.getETag() == null)
+        entries.remove(url);
+      else
+        entries.put(url, entry);
+    } finally {
+      lock.unlock();
+    }
+  }
+}
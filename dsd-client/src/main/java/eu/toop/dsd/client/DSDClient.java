@@ -17,44 +17,97 @@
  */
 package eu.toop.dsd.client;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.xml.transform.TransformerException;
 
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
-import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.url.SimpleURL;
 import com.helger.httpclient.HttpClientManager;
 import com.helger.httpclient.HttpClientSettings;
 import com.helger.pd.searchapi.v1.MatchType;
 
+import eu.toop.dsd.api.DSDBatch;
+import eu.toop.dsd.api.DSDBatchResult;
+import eu.toop.dsd.api.DSDDatasetSummary;
 import eu.toop.dsd.api.DSDException;
-import eu.toop.dsd.api.DsdDataConverter;
+import eu.toop.dsd.api.DSDJson;
+import eu.toop.dsd.api.DcatDatasetTypeReader;
 import eu.toop.dsd.api.types.DSDQuery;
 import eu.toop.edm.jaxb.dcatap.DCatAPDatasetType;
 
 /**
  * This is a helper class that abstracts the rest call to the DSD service for
  * dataset type queries.
+ * <p>
+ * A client keeps its pooled HTTP connections to the DSD for its whole lifetime, so it is meant to be
+ * created once, shared between threads and closed when it is not needed anymore.
+ * <p>
+ * The client keeps the last response of each query if it has an <code>ETag</code>, and revalidates it
+ * with <code>If-None-Match</code> on the next call. If the DSD answers with <code>304 Not Modified</code>,
+ * the kept response is returned without downloading or parsing it again.
+ * <p>
+ * The responses are requested gzipped and decoded transparently.
  *
  * @author yerlibilgin
  */
-public class DSDClient {
+public class DSDClient implements AutoCloseable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(DSDClient.class);
 
+  /**
+   * The default maximum number of asynchronous requests that are sent at the same time
+   */
+  public static final int DEFAULT_MAX_ASYNC_REQUESTS_IN_FLIGHT = 16;
+
+  /**
+   * The maximum number of queries whose last response is kept for revalidation
+   */
+  private static final int MAX_REVALIDATED_QUERIES = 256;
+
+  private static final String ACCEPT_ENCODING_GZIP = "gzip";
+
   private final String m_sDSDBaseURL;
+  private final ConditionalQueryCache m_aQueryCache = new ConditionalQueryCache(MAX_REVALIDATED_QUERIES);
+
+  /**
+   * Queries hold the read lock while they use the http client, replacing or closing the client takes the write lock.
+   */
+  private final ReadWriteLock m_aRWLock = new ReentrantReadWriteLock();
   private HttpClientSettings m_aHttpClientSettings;
+  private HttpClientManager m_aHttpClientManager;
+  private int m_nMaxAsyncRequestsInFlight = DEFAULT_MAX_ASYNC_REQUESTS_IN_FLIGHT;
+  private Executor m_aAsyncParseExecutor;
+  private AsyncRequestDispatcher m_aAsyncRequestDispatcher;
+  private boolean m_bClosed;
+  private volatile boolean m_bValidateResponses = true;
 
   /**
    * Constructor
@@ -68,17 +121,171 @@ public class DSDClient {
   }
 
   /**
-   * Sets http client settings.
+   * Sets http client settings. The pooled http client is created with these settings upon the next query.
+   * If a client was already created, it is closed after the running queries are finished.
    *
-   * @param aHttpClientSettings the a http client settings
-   * @return the http client settings
+   * @param aHttpClientSettings the a http client settings, <code>null</code> for the defaults
+   * @return this for chaining
    */
   @Nonnull
   public DSDClient setHttpClientSettings(@Nullable final HttpClientSettings aHttpClientSettings) {
-    m_aHttpClientSettings = aHttpClientSettings;
+    final Lock aWriteLock = m_aRWLock.writeLock();
+    aWriteLock.lock();
+    try {
+      m_aHttpClientSettings = aHttpClientSettings;
+      _closeHttpClientManager();
+    } finally {
+      aWriteLock.unlock();
+    }
     return this;
   }
 
+  /**
+   * Sets the settings of the asynchronous queries. The async http client is created with these settings
+   * upon the next asynchronous query. If a client was already created, it is closed after its running queries are finished.
+   *
+   * @param nMaxRequestsInFlight the maximum number of requests that are sent at the same time, further requests
+   *                             wait until a running request is finished
+   * @param aParseExecutor       the executor that parses the responses, <code>null</code> for the
+   *                             {@link ForkJoinPool#commonPool() common pool}
+   * @return this for chaining
+   */
+  @Nonnull
+  public DSDClient setAsyncSettings(final int nMaxRequestsInFlight, @Nullable final Executor aParseExecutor) {
+    ValueEnforcer.isGT0(nMaxRequestsInFlight, "MaxRequestsInFlight");
+    final Lock aWriteLock = m_aRWLock.writeLock();
+    aWriteLock.lock();
+    try {
+      m_nMaxAsyncRequestsInFlight = nMaxRequestsInFlight;
+      m_aAsyncParseExecutor = aParseExecutor;
+      _closeAsyncRequestDispatcher();
+    } finally {
+      aWriteLock.unlock();
+    }
+    return this;
+  }
+
+  /**
+   * @return whether the datasets of the responses are validated against their schema. Default is <code>true</code>.
+   */
+  public boolean isValidateResponses() {
+    return m_bValidateResponses;
+  }
+
+  /**
+   * Sets whether the datasets of the responses are validated against their schema. Validation can be turned off
+   * for a trusted DSD, the datasets are then read with a shared non validating reader, which is considerably
+   * cheaper for large responses. Applies to the responses that are received afterwards.
+   *
+   * @param bValidateResponses <code>true</code> to validate the responses
+   * @return this for chaining
+   */
+  @Nonnull
+  public DSDClient setValidateResponses(final boolean bValidateResponses) {
+    m_bValidateResponses = bValidateResponses;
+    return this;
+  }
+
+  /**
+   * Closes the pooled http client. The client cannot be used for queries afterwards.
+   */
+  @Override
+  public void close() {
+    final Lock aWriteLock = m_aRWLock.writeLock();
+    aWriteLock.lock();
+    try {
+      m_bClosed = true;
+      _closeHttpClientManager();
+      _closeAsyncRequestDispatcher();
+    } finally {
+      aWriteLock.unlock();
+    }
+  }
+
+  private void _closeAsyncRequestDispatcher() {
+    if (m_aAsyncRequestDispatcher != null) {
+      m_aAsyncRequestDispatcher.close();
+      m_aAsyncRequestDispatcher = null;
+    }
+  }
+
+  private void _closeHttpClientManager() {
+    if (m_aHttpClientManager != null) {
+      try {
+        m_aHttpClientManager.close();
+      } catch (final Exception ex) {
+        LOGGER.warn("Failed to close the http client: " + ex.getMessage(), ex);
+      }
+      m_aHttpClientManager = null;
+    }
+  }
+
+  /**
+   * Returns the pooled http client, creating it on first use. Must be called with the read lock held,
+   * which is temporarily upgraded to the write lock if the client has to be created.
+   */
+  @Nonnull
+  private HttpClientManager _getHttpClientManager() {
+    if (m_bClosed)
+      throw new IllegalStateException("The DSDClient is closed");
+
+    HttpClientManager aHttpClientManager = m_aHttpClientManager;
+    if (aHttpClientManager != null)
+      return aHttpClientManager;
+
+    m_aRWLock.readLock().unlock();
+    final Lock aWriteLock = m_aRWLock.writeLock();
+    aWriteLock.lock();
+    try {
+      if (m_bClosed)
+        throw new IllegalStateException("The DSDClient is closed");
+
+      if (m_aHttpClientManager == null) {
+        final HttpClientSettings aHttpClientSettings = m_aHttpClientSettings != null ? m_aHttpClientSettings
+            : new HttpClientSettings();
+        m_aHttpClientManager = HttpClientManager.create(aHttpClientSettings);
+      }
+      aHttpClientManager = m_aHttpClientManager;
+    } finally {
+      // downgrade: the read lock keeps the client open while it is used
+      m_aRWLock.readLock().lock();
+      aWriteLock.unlock();
+    }
+    return aHttpClientManager;
+  }
+
+  /**
+   * Returns the async request dispatcher, creating it on first use. Must be called with the read lock held,
+   * which is temporarily upgraded to the write lock if the dispatcher has to be created.
+   */
+  @Nonnull
+  private AsyncRequestDispatcher _getAsyncRequestDispatcher() {
+    if (m_bClosed)
+      throw new IllegalStateException("The DSDClient is closed");
+
+    AsyncRequestDispatcher aDispatcher = m_aAsyncRequestDispatcher;
+    if (aDispatcher != null)
+      return aDispatcher;
+
+    m_aRWLock.readLock().unlock();
+    final Lock aWriteLock = m_aRWLock.writeLock();
+    aWriteLock.lock();
+    try {
+      if (m_bClosed)
+        throw new IllegalStateException("The DSDClient is closed");
+
+      if (m_aAsyncRequestDispatcher == null) {
+        final Executor aParseExecutor = m_aAsyncParseExecutor != null ? m_aAsyncParseExecutor : ForkJoinPool.commonPool();
+        m_aAsyncRequestDispatcher = new AsyncRequestDispatcher(m_nMaxAsyncRequestsInFlight, aParseExecutor);
+      }
+      aDispatcher = m_aAsyncRequestDispatcher;
+    } finally {
+      m_aRWLock.readLock().lock();
+      aWriteLock.unlock();
+    }
+    return aDispatcher;
+  }
+
   /**
    * The default DSD query as described here:
    * http://wiki.ds.unipi.gr/display/TOOPSA20/Data+Services+Directory
@@ -122,8 +329,10 @@ public class DSDClient {
   @Nullable
   public List<DCatAPDatasetType> queryDatasetByLocation(@Nonnull final String datasetType,
                                                         @Nonnull final String countryCode) {
-    final String result = queryDatasetRawByLocation(datasetType, countryCode);
-    return DsdDataConverter.parseDataset(result);
+    ValueEnforcer.notEmpty(datasetType, "datasetType");
+    ValueEnforcer.notEmpty(countryCode, "countryCode");
+    return _queryDataset(datasetType, DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION,
+        DSDQuery.PARAM_NAME_COUNTRY_CODE, countryCode).getDatasets();
   }
 
   /**
@@ -137,40 +346,138 @@ public class DSDClient {
   @Nullable
   public List<DCatAPDatasetType> queryDatasetByDPType(@Nonnull final String datasetType,
                                                       @Nonnull final String dpType) {
-    final String result = queryDatasetRawByDPType(datasetType, dpType);
-    return DsdDataConverter.parseDataset(result);
+    ValueEnforcer.notEmpty(datasetType, "datasetType");
+    ValueEnforcer.notEmpty(dpType, "dpType");
+    return _queryDataset(datasetType, DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE,
+        DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE, dpType).getDatasets();
   }
 
-  private String queryDatasetRaw(@Nonnull final String datasetType, final DSDQuery.DSDQueryID targetQueryId,
-                                 final String secondParamName, final String secondParam) {
+  /**
+   * Query the DSD and pass each dataset of the result to the consumer as soon as it is read from the
+   * response, without buffering the response. The result is not kept for revalidation.
+   *
+   * @param datasetType the dataset type, <code>mandatory</code>
+   * @param countryCode the country code, <code>mandatory</code>
+   * @param aConsumer   receives the {@link DCatAPDatasetType} objects in the order of the response, <code>mandatory</code>
+   * @return the number of datasets
+   */
+  public int streamDatasetsByLocation(@Nonnull final String datasetType, @Nonnull final String countryCode,
+                                      @Nonnull final Consumer<? super DCatAPDatasetType> aConsumer) {
+    ValueEnforcer.notEmpty(datasetType, "datasetType");
+    ValueEnforcer.notEmpty(countryCode, "countryCode");
+    ValueEnforcer.notNull(aConsumer, "consumer");
+    return _streamDatasets(datasetType, DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION,
+        DSDQuery.PARAM_NAME_COUNTRY_CODE, countryCode, aConsumer);
+  }
 
-    final SimpleURL aBaseURL = new SimpleURL(m_sDSDBaseURL + "/rest/search");
+  /**
+   * Query the DSD and pass each dataset of the result to the consumer as soon as it is read from the
+   * response, without buffering the response. The result is not kept for revalidation.
+   *
+   * @param datasetType the dataset type, <code>mandatory</code>
+   * @param dpType      the Data provider type, <code>mandatory</code>
+   * @param aConsumer   receives the {@link DCatAPDatasetType} objects in the order of the response, <code>mandatory</code>
+   * @return the number of datasets
+   */
+  public int streamDatasetsByDPType(@Nonnull final String datasetType, @Nonnull final String dpType,
+                                    @Nonnull final Consumer<? super DCatAPDatasetType> aConsumer) {
+    ValueEnforcer.notEmpty(datasetType, "datasetType");
+    ValueEnforcer.notEmpty(dpType, "dpType");
+    ValueEnforcer.notNull(aConsumer, "consumer");
+    return _streamDatasets(datasetType, DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE,
+        DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE, dpType, aConsumer);
+  }
 
-    aBaseURL.add(DSDQuery.PARAM_NAME_QUERY_ID, targetQueryId.id);
-    aBaseURL.add(DSDQuery.PARAM_NAME_DATA_SET_TYPE, datasetType);
+  private int _streamDatasets(@Nonnull final String datasetType, final DSDQuery.DSDQueryID targetQueryId,
+                              final String secondParamName, final String secondParam,
+                              @Nonnull final Consumer<? super DCatAPDatasetType> aConsumer) {
+    final SimpleURL aURL = _createQueryURL(datasetType, targetQueryId, secondParamName, secondParam);
 
-    aBaseURL.add(secondParamName, secondParam);
-    if (LOGGER.isInfoEnabled())
-      LOGGER.info("Querying " + aBaseURL.getAsStringWithEncodedParameters());
+    final Lock aReadLock = m_aRWLock.readLock();
+    aReadLock.lock();
+    try {
+      final HttpClientManager httpClient = _getHttpClientManager();
+
+      try (final CloseableHttpResponse response = httpClient.execute(_createConditionalGet(aURL, null))) {
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+          throw new IllegalStateException("Request failed " + response.getStatusLine().getStatusCode());
+        }
+
+        try (final InputStream aContent = getContent(response)) {
+          return DcatDatasetTypeReader.readDatasets(aContent, m_bValidateResponses, aConsumer);
+        }
+      }
+    } catch (final RuntimeException ex) {
+      throw ex;
+    } catch (final Exception ex) {
+      LOGGER.error(ex.getMessage(), ex);
+      throw new DSDException(ex.getMessage(), ex);
+    } finally {
+      aReadLock.unlock();
+    }
+  }
 
-    final HttpClientSettings aHttpClientSettings = m_aHttpClientSettings != null ? m_aHttpClientSettings
-        : new HttpClientSettings();
-    try (final HttpClientManager httpClient = HttpClientManager.create(aHttpClientSettings)) {
-      final HttpGet aGet = new HttpGet(aBaseURL.getAsURI());
+  /**
+   * Query the DSD for the compact JSON form of the result, which carries the most needed values of each dataset
+   * and is considerably cheaper to transfer and to read than the RegRep response.
+   *
+   * @param datasetType the dataset type, <code>mandatory</code>
+   * @param countryCode the country code, <code>mandatory</code>
+   * @return the list of {@link DSDDatasetSummary} objects.
+   */
+  @Nonnull
+  public List<DSDDatasetSummary> queryDatasetSummaryByLocation(@Nonnull final String datasetType,
+                                                               @Nonnull final String countryCode) {
+    ValueEnforcer.notEmpty(datasetType, "datasetType");
+    ValueEnforcer.notEmpty(countryCode, "countryCode");
+    return _queryDatasetSummary(datasetType, DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION,
+        DSDQuery.PARAM_NAME_COUNTRY_CODE, countryCode);
+  }
+
+  /**
+   * Query the DSD for the compact JSON form of the result, which carries the most needed values of each dataset
+   * and is considerably cheaper to transfer and to read than the RegRep response.
+   *
+   * @param datasetType the dataset type, <code>mandatory</code>
+   * @param dpType      the Data provider type, <code>mandatory</code>
+   * @return the list of {@link DSDDatasetSummary} objects.
+   */
+  @Nonnull
+  public List<DSDDatasetSummary> queryDatasetSummaryByDPType(@Nonnull final String datasetType,
+                                                             @Nonnull final String dpType) {
+    ValueEnforcer.notEmpty(datasetType, "datasetType");
+    ValueEnforcer.notEmpty(dpType, "dpType");
+    return _queryDatasetSummary(datasetType, DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE,
+        DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE, dpType);
+  }
+
+  /**
+   * Query the DSD for the JSON result. The JSON responses are not kept for revalidation, they are decoded
+   * while they are read.
+   */
+  @Nonnull
+  private List<DSDDatasetSummary> _queryDatasetSummary(@Nonnull final String datasetType, final DSDQuery.DSDQueryID targetQueryId,
+                                                       final String secondParamName, final String secondParam) {
+    final SimpleURL aURL = _createQueryURL(datasetType, targetQueryId, secondParamName, secondParam);
+
+    final Lock aReadLock = m_aRWLock.readLock();
+    aReadLock.lock();
+    try {
+      final HttpClientManager httpClient = _getHttpClientManager();
+      final HttpGet aGet = _createConditionalGet(aURL, null);
+      aGet.setHeader(HttpHeaders.ACCEPT, DSDJson.CONTENT_TYPE);
 
       try (final CloseableHttpResponse response = httpClient.execute(aGet)) {
         if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
           throw new IllegalStateException("Request failed " + response.getStatusLine().getStatusCode());
         }
 
-        try (final NonBlockingByteArrayOutputStream stream = new NonBlockingByteArrayOutputStream()) {
-          response.getEntity().writeTo(stream);
-          final byte[] bytes = stream.toByteArray();
-          final String result = new String(bytes, StandardCharsets.UTF_8);
-          if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("DSD result:\n" + result);
-          }
-          return result;
+        final Header aContentType = response.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+        if (aContentType == null || !aContentType.getValue().startsWith(DSDJson.CONTENT_TYPE))
+          throw new IllegalStateException("The DSD didn't answer with JSON");
+
+        try (final InputStream aContent = getContent(response)) {
+          return DSDJson.readResponse(aContent);
         }
       }
     } catch (final RuntimeException ex) {
@@ -178,6 +485,221 @@ public class DSDClient {
     } catch (final Exception ex) {
       LOGGER.error(ex.getMessage(), ex);
       throw new DSDException(ex.getMessage(), ex);
+    } finally {
+      aReadLock.unlock();
     }
   }
+
+  /**
+   * The asynchronous variant of {@link #queryDatasetByLocation(String, String)}. The calling thread is not
+   * blocked; the response is parsed on the parse executor (see {@link #setAsyncSettings(int, Executor)}).
+   *
+   * @param datasetType the dataset type, <code>mandatory</code>
+   * @param countryCode the country code, <code>mandatory</code>
+   * @return the future list of {@link DCatAPDatasetType} objects. It fails with an {@link IllegalStateException}
+   * if the DSD doesn't answer with 200, or with a {@link DSDException} if the request fails.
+   */
+  @Nonnull
+  public CompletableFuture<List<DCatAPDatasetType>> queryDatasetByLocationAsync(@Nonnull final String datasetType,
+                                                                               @Nonnull final String countryCode) {
+    ValueEnforcer.notEmpty(datasetType, "datasetType");
+    ValueEnforcer.notEmpty(countryCode, "countryCode");
+    return queryDatasetAsync(datasetType, DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION,
+        DSDQuery.PARAM_NAME_COUNTRY_CODE, countryCode);
+  }
+
+  /**
+   * The asynchronous variant of {@link #queryDatasetByDPType(String, String)}. The calling thread is not
+   * blocked; the response is parsed on the parse executor (see {@link #setAsyncSettings(int, Executor)}).
+   *
+   * @param datasetType the dataset type, <code>mandatory</code>
+   * @param dpType      the Data provider type, <code>mandatory</code>
+   * @return the future list of {@link DCatAPDatasetType} objects. It fails with an {@link IllegalStateException}
+   * if the DSD doesn't answer with 200, or with a {@link DSDException} if the request fails.
+   */
+  @Nonnull
+  public CompletableFuture<List<DCatAPDatasetType>> queryDatasetByDPTypeAsync(@Nonnull final String datasetType,
+                                                                             @Nonnull final String dpType) {
+    ValueEnforcer.notEmpty(datasetType, "datasetType");
+    ValueEnforcer.notEmpty(dpType, "dpType");
+    return queryDatasetAsync(datasetType, DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE,
+        DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE, dpType);
+  }
+
+  private CompletableFuture<List<DCatAPDatasetType>> queryDatasetAsync(@Nonnull final String datasetType, final DSDQuery.DSDQueryID targetQueryId,
+                                                                      final String secondParamName, final String secondParam) {
+    final SimpleURL aURL = _createQueryURL(datasetType, targetQueryId, secondParamName, secondParam);
+    final String sURL = aURL.getAsStringWithEncodedParameters();
+    final ConditionalQueryCache.Entry aCached = m_aQueryCache.get(sURL);
+
+    final Lock aReadLock = m_aRWLock.readLock();
+    aReadLock.lock();
+    try {
+      return _getAsyncRequestDispatcher().execute(_createConditionalGet(aURL, aCached),
+          response -> _readResponse(sURL, aCached, response).getDatasets());
+    } catch (final IllegalStateException ex) {
+      // the client is closed
+      final CompletableFuture<List<DCatAPDatasetType>> aFailed = new CompletableFuture<>();
+      aFailed.completeExceptionally(ex);
+      return aFailed;
+    } finally {
+      aReadLock.unlock();
+    }
+  }
+
+  /**
+   * Send several queries to the DSD with a single batch request. The queries that need the same
+   * directory call are answered from a single call on the DSD side.
+   *
+   * @param queries the queries, <code>mandatory</code>
+   * @return the results, in the order of the queries. A query may fail while the others succeed,
+   * see {@link DSDBatchResult#isSuccess()}.
+   */
+  @Nonnull
+  public List<DSDBatchResult> queryBatch(@Nonnull @Nonempty final List<DSDQuery> queries) {
+    ValueEnforcer.notEmptyNoNullValue(queries, "queries");
+
+    final String sURL = m_sDSDBaseURL + "/rest/batch";
+    if (LOGGER.isInfoEnabled())
+      LOGGER.info("Querying " + sURL + " with " + queries.size() + " queries");
+
+    final Lock aReadLock = m_aRWLock.readLock();
+    aReadLock.lock();
+    try {
+      final HttpClientManager httpClient = _getHttpClientManager();
+      final HttpPost aPost = new HttpPost(sURL);
+      aPost.setHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING_GZIP);
+      aPost.setEntity(new StringEntity(DSDBatch.createRequestBody(queries),
+          ContentType.create(DSDBatch.REQUEST_CONTENT_TYPE, StandardCharsets.UTF_8)));
+
+      try (final CloseableHttpResponse response = httpClient.execute(aPost)) {
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+          throw new IllegalStateException("Request failed " + response.getStatusLine().getStatusCode());
+        }
+
+        final Header aContentType = response.getFirstHeader("Content-Type");
+        final String sBoundary = DSDBatch.getBoundary(aContentType != null ? aContentType.getValue() : null);
+        if (sBoundary == null)
+          throw new IllegalStateException("The batch response has no multipart boundary");
+
+        try (final InputStream aContent = getContent(response)) {
+          return DSDBatch.readResponse(aContent, sBoundary, queries.size());
+        }
+      }
+    } catch (final RuntimeException ex) {
+      throw ex;
+    } catch (final Exception ex) {
+      LOGGER.error(ex.getMessage(), ex);
+      throw new DSDException(ex.getMessage(), ex);
+    } finally {
+      aReadLock.unlock();
+    }
+  }
+
+  private String queryDatasetRaw(@Nonnull final String datasetType, final DSDQuery.DSDQueryID targetQueryId,
+                                 final String secondParamName, final String secondParam) {
+    return _queryDataset(datasetType, targetQueryId, secondParamName, secondParam).getBody();
+  }
+
+  /**
+   * Query the DSD. If the last response of the query is known, it is revalidated with a conditional request.
+   */
+  @Nonnull
+  private ConditionalQueryCache.Entry _queryDataset(@Nonnull final String datasetType, final DSDQuery.DSDQueryID targetQueryId,
+                                                    final String secondParamName, final String secondParam) {
+
+    final SimpleURL aBaseURL = _createQueryURL(datasetType, targetQueryId, secondParamName, secondParam);
+    final String sURL = aBaseURL.getAsStringWithEncodedParameters();
+    final ConditionalQueryCache.Entry aCached = m_aQueryCache.get(sURL);
+
+    final Lock aReadLock = m_aRWLock.readLock();
+    aReadLock.lock();
+    try {
+      final HttpClientManager httpClient = _getHttpClientManager();
+
+      try (final CloseableHttpResponse response = httpClient.execute(_createConditionalGet(aBaseURL, aCached))) {
+        return _readResponse(sURL, aCached, response);
+      }
+    } catch (final RuntimeException ex) {
+      throw ex;
+    } catch (final Exception ex) {
+      LOGGER.error(ex.getMessage(), ex);
+      throw new DSDException(ex.getMessage(), ex);
+    } finally {
+      aReadLock.unlock();
+    }
+  }
+
+  @Nonnull
+  private static HttpGet _createConditionalGet(@Nonnull final SimpleURL aURL, @Nullable final ConditionalQueryCache.Entry aCached) {
+    final HttpGet aGet = new HttpGet(aURL.getAsURI());
+    aGet.setHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING_GZIP);
+    if (aCached != null)
+      aGet.setHeader(HttpHeaders.IF_NONE_MATCH, aCached.getETag());
+    return aGet;
+  }
+
+  /**
+   * The content of a response. The synchronous HTTP client decodes gzipped responses by itself and
+   * removes their <code>Content-Encoding</code>, the asynchronous one leaves that to this method.
+   * Package-private for the tests.
+   */
+  @Nonnull
+  static InputStream getContent(@Nonnull final HttpResponse response) throws IOException {
+    final InputStream aContent = response.getEntity().getContent();
+    final Header aContentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+    if (aContentEncoding != null && ACCEPT_ENCODING_GZIP.equalsIgnoreCase(aContentEncoding.getValue().trim()))
+      return new GZIPInputStream(aContent);
+    return aContent;
+  }
+
+  /**
+   * Read a query response. On <code>304 Not Modified</code>, the last response is returned, otherwise
+   * the new response replaces it.
+   */
+  @Nonnull
+  private ConditionalQueryCache.Entry _readResponse(@Nonnull final String sURL, @Nullable final ConditionalQueryCache.Entry aCached,
+                                                    @Nonnull final HttpResponse response) {
+    final int nStatus = response.getStatusLine().getStatusCode();
+    if (nStatus == HttpStatus.SC_NOT_MODIFIED && aCached != null) {
+      LOGGER.debug("DSD result not modified");
+      return aCached;
+    }
+    if (nStatus != HttpStatus.SC_OK) {
+      throw new IllegalStateException("Request failed " + nStatus);
+    }
+
+    try {
+      final byte[] bytes = StreamHelper.getAllBytes(getContent(response));
+      if (bytes == null)
+        throw new IOException("Couldn't read the DSD result");
+      final String result = new String(bytes, StandardCharsets.UTF_8);
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("DSD result:\n" + result);
+      }
+
+      final Header aETag = response.getFirstHeader(HttpHeaders.ETAG);
+      final ConditionalQueryCache.Entry aEntry = new ConditionalQueryCache.Entry(aETag != null ? aETag.getValue() : null, result,
+          m_bValidateResponses);
+      m_aQueryCache.put(sURL, aEntry);
+      return aEntry;
+    } catch (final IOException ex) {
+      LOGGER.error(ex.getMessage(), ex);
+      throw new DSDException(ex.getMessage(), ex);
+    }
+  }
+
+  @Nonnull
+  private SimpleURL _createQueryURL(@Nonnull final String datasetType, final DSDQuery.DSDQueryID targetQueryId,
+                                    final String secondParamName, final String secondParam) {
+    final SimpleURL aBaseURL = new SimpleURL(m_sDSDBaseURL + "/rest/search");
+
+    aBaseURL.add(DSDQuery.PARAM_NAME_QUERY_ID, targetQueryId.id);
+    aBaseURL.add(DSDQuery.PARAM_NAME_DATA_SET_TYPE, datasetType);
+
+    aBaseURL.add(secondParamName, secondParam);
+    if (LOGGER.isInfoEnabled())
+      LOGGER.info("Querying " + aBaseURL.getAsStringWithEncodedParameters());
+    return aBaseURL;
+  }
 }
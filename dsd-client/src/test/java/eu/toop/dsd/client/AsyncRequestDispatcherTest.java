@@ -0,0 +1,121 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the close of an {@link AsyncRequestDispatcher} while a request is in flight, against a local HTTP server
+ *
+ * @author yerlibilgin
+ */
+public class AsyncRequestDispatcherTest {
+  private static final byte[] RESULT = "<QueryResponse/>".getBytes(StandardCharsets.UTF_8);
+
+  private final CountDownLatch requested = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private String url;
+
+  @Before
+  public void before() throws IOException {
+    serverExecutor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(serverExecutor);
+    server.createContext("/rest/search", exchange -> {
+      requested.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+        exchange.sendResponseHeaders(200, RESULT.length);
+        exchange.getResponseBody().write(RESULT);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        exchange.close();
+      }
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/rest/search";
+  }
+
+  @After
+  public void after() {
+    release.countDown();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  public void clientIsClosedAfterTheLastRequestInFlight() throws Exception {
+    final AsyncRequestDispatcher dispatcher = new AsyncRequestDispatcher(1, Runnable::run);
+    final CompletableFuture<Integer> inFlight = dispatcher.execute(new HttpGet(url), response -> response.getStatusLine().getStatusCode());
+    final CompletableFuture<Integer> queued = dispatcher.execute(new HttpGet(url), response -> response.getStatusLine().getStatusCode());
+    Assert.assertTrue(requested.await(10, TimeUnit.SECONDS));
+
+    dispatcher.close();
+    try {
+      queued.get(10, TimeUnit.SECONDS);
+      Assert.fail("The queued request is failed by the close");
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+    Assert.assertTrue(dispatcher.isHttpClientRunning());
+
+    release.countDown();
+    Assert.assertEquals(200, inFlight.get(10, TimeUnit.SECONDS).intValue());
+
+    // the request finishes on an I/O thread, which hands the close over instead of waiting for itself
+    final long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (dispatcher.isHttpClientRunning() && System.nanoTime() < until) {
+      Thread.sleep(10);
+    }
+    Assert.assertFalse(dispatcher.isHttpClientRunning());
+  }
+
+  @Test
+  public void requestAfterTheCloseFails() throws Exception {
+    final AsyncRequestDispatcher dispatcher = new AsyncRequestDispatcher(1, Runnable::run);
+    dispatcher.close();
+    Assert.assertFalse(dispatcher.isHttpClientRunning());
+
+    try {
+      dispatcher.execute(new HttpGet(url), response -> response.getStatusLine().getStatusCode()).get(10, TimeUnit.SECONDS);
+      Assert.fail("The dispatcher is closed");
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+  }
+}
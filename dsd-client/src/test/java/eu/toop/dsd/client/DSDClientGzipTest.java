@@ -0,0 +1,140 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests that a {@link DSDClient} requests gzipped responses and decodes them
+ *
+ * @author yerlibilgin
+ */
+public class DSDClientGzipTest {
+  private static final String DATASET_TYPE = "REGISTERED_ORGANIZATION_TYPE";
+  private static final String RESULT = "<QueryResponse>result</QueryResponse>";
+  private static final String ETAG = "W/\"1-gzip\"";
+
+  private final List<String> acceptEncodings = new CopyOnWriteArrayList<>();
+  private final List<Integer> statuses = new CopyOnWriteArrayList<>();
+
+  private HttpServer server;
+  private DSDClient client;
+
+  @Before
+  public void before() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/rest/search", exchange -> {
+      final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+      acceptEncodings.add(acceptEncoding != null ? acceptEncoding : "-");
+
+      exchange.getResponseHeaders().set("ETag", ETAG);
+      if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        statuses.add(304);
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        final byte[] body = gzip(RESULT);
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        statuses.add(200);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+      }
+      exchange.close();
+    });
+    server.start();
+    client = new DSDClient("http://127.0.0.1:" + server.getAddress().getPort());
+  }
+
+  @After
+  public void after() {
+    client.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void gzippedEntityIsDecoded() throws IOException {
+    final HttpResponse response = response(gzip(RESULT));
+    response.setHeader("Content-Encoding", "gzip");
+
+    Assert.assertEquals(RESULT, read(response));
+  }
+
+  @Test
+  public void contentEncodingIsCaseInsensitive() throws IOException {
+    final HttpResponse response = response(gzip(RESULT));
+    response.setHeader("Content-Encoding", " GZIP ");
+
+    Assert.assertEquals(RESULT, read(response));
+  }
+
+  @Test
+  public void unencodedEntityIsReadAsIs() throws IOException {
+    Assert.assertEquals(RESULT, read(response(RESULT.getBytes(StandardCharsets.UTF_8))));
+
+    final HttpResponse identity = response(RESULT.getBytes(StandardCharsets.UTF_8));
+    identity.setHeader("Content-Encoding", "identity");
+    Assert.assertEquals(RESULT, read(identity));
+  }
+
+  @Test
+  public void gzippedResponseIsRequestedAndDecoded() {
+    Assert.assertEquals(RESULT, client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+    // the decoded body is kept for the revalidation
+    Assert.assertEquals(RESULT, client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+
+    Assert.assertEquals("[200, 304]", statuses.toString());
+    for (String acceptEncoding : acceptEncodings)
+      Assert.assertTrue(acceptEncoding, acceptEncoding.contains("gzip"));
+  }
+
+  private static HttpResponse response(byte[] body) {
+    final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+    response.setEntity(new ByteArrayEntity(body));
+    return response;
+  }
+
+  private static String read(HttpResponse response) throws IOException {
+    return new String(StreamHelper.getAllBytes(DSDClient.getContent(response)), StandardCharsets.UTF_8);
+  }
+
+  private static byte[] gzip(String text) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzipStream = new GZIPOutputStream(out)) {
+      gzipStream.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests that a {@link DSDClient} revalidates the responses kept in its {@link ConditionalQueryCache},
+ * against a local HTTP server
+ *
+ * @author yerlibilgin
+ */
+public class DSDClientRevalidationTest {
+  private static final String DATASET_TYPE = "REGISTERED_ORGANIZATION_TYPE";
+
+  /**
+   * The <code>If-None-Match</code> header of each request, "-" if it had none
+   */
+  private final List<String> ifNoneMatches = new CopyOnWriteArrayList<>();
+  private final List<Integer> statuses = new CopyOnWriteArrayList<>();
+
+  private volatile String eTag;
+  private volatile String body;
+
+  private HttpServer server;
+  private DSDClient client;
+
+  @Before
+  public void before() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/rest/search", exchange -> {
+      final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+      ifNoneMatches.add(ifNoneMatch != null ? ifNoneMatch : "-");
+
+      final String currentETag = eTag;
+      if (currentETag != null)
+        exchange.getResponseHeaders().set("ETag", currentETag);
+      if (currentETag != null && currentETag.equals(ifNoneMatch)) {
+        statuses.add(304);
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        statuses.add(200);
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+      }
+      exchange.close();
+    });
+    server.start();
+    client = new DSDClient("http://127.0.0.1:" + server.getAddress().getPort());
+  }
+
+  @After
+  public void after() {
+    client.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void unchangedResponseIsRevalidated() {
+    serve("W/\"1\"", "first");
+
+    Assert.assertEquals("first", client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+    Assert.assertEquals("first", client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+
+    Assert.assertEquals("[-, W/\"1\"]", ifNoneMatches.toString());
+    Assert.assertEquals("[200, 304]", statuses.toString());
+  }
+
+  @Test
+  public void changedResponseReplacesTheKeptOne() {
+    serve("W/\"1\"", "first");
+    Assert.assertEquals("first", client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+
+    serve("W/\"2\"", "second");
+    Assert.assertEquals("second", client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+    Assert.assertEquals("second", client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+
+    Assert.assertEquals("[-, W/\"1\", W/\"2\"]", ifNoneMatches.toString());
+    Assert.assertEquals("[200, 200, 304]", statuses.toString());
+  }
+
+  @Test
+  public void eachQueryIsRevalidatedOnItsOwn() {
+    serve("W/\"1\"", "first");
+    Assert.assertEquals("first", client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+    Assert.assertEquals("first", client.queryDatasetRawByLocation(DATASET_TYPE, "PL"));
+
+    Assert.assertEquals("[-, -]", ifNoneMatches.toString());
+  }
+
+  @Test
+  public void responseWithoutETagIsNotRevalidated() {
+    serve("W/\"1\"", "first");
+    Assert.assertEquals("first", client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+
+    // the response without a tag drops the kept one
+    serve(null, "second");
+    Assert.assertEquals("second", client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+    Assert.assertEquals("second", client.queryDatasetRawByLocation(DATASET_TYPE, "SV"));
+
+    Assert.assertEquals("[-, W/\"1\", -]", ifNoneMatches.toString());
+    Assert.assertEquals("[200, 200, 200]", statuses.toString());
+  }
+
+  @Test
+  public void cacheDropsTheLeastRecentlyUsedResponse() {
+    final ConditionalQueryCache cache = new ConditionalQueryCache(2);
+    cache.put("a", new ConditionalQueryCache.Entry("\"a\"", "a", false));
+    cache.put("b", new ConditionalQueryCache.Entry("\"b\"", "b", false));
+    Assert.assertNotNull(cache.get("a"));
+    cache.put("c", new ConditionalQueryCache.Entry("\"c\"", "c", false));
+
+    Assert.assertNotNull(cache.get("a"));
+    Assert.assertNull(cache.get("b"));
+    Assert.assertNotNull(cache.get("c"));
+  }
+
+  @Test
+  public void cacheRemovesTheResponseWithoutETag() {
+    final ConditionalQueryCache cache = new ConditionalQueryCache(2);
+    cache.put("a", new ConditionalQueryCache.Entry("\"a\"", "a", false));
+    cache.put("a", new ConditionalQueryCache.Entry(null, "new", false));
+
+    Assert.assertNull(cache.get("a"));
+  }
+
+  private void serve(String eTag, String body) {
+    this.eTag = eTag;
+    this.body = body;
+  }
+}
@@ -19,9 +19,13 @@ package eu.toop.dsd.service;
 
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 
@@ -42,6 +46,8 @@ import org.apache.http.impl.io.DefaultHttpResponseWriterFactory;
 import org.apache.http.io.HttpMessageParserFactory;
 import org.apache.http.localserver.LocalServerTestBase;
 import org.apache.http.message.BasicLineParser;
+import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -61,16 +67,25 @@ public final class DSDClientTest {
 
   private static final int TEST_PORT = 25434;
 
+  private static DSDClient dsdClient;
+
   @BeforeClass
   public static void mocServer() throws Exception {
     MyLocalTestServer mlts = new MyLocalTestServer();
     mlts.setUp();
     mlts.start(TEST_PORT);
+
+    dsdClient = new DSDClient("http://localhost:" + TEST_PORT);
+  }
+
+  @AfterClass
+  public static void closeClient() {
+    dsdClient.close();
   }
 
   @Test
   public void testRawQuery() {
-    String rawResult = new DSDClient("http://localhost:" + TEST_PORT).queryDatasetRawByLocation(
+    String rawResult = dsdClient.queryDatasetRawByLocation(
         "REGISTERED_ORGANIZATION_TYPE",
         "SV");
 
@@ -84,7 +99,7 @@ public final class DSDClientTest {
    */
   @Test
   public void testQueryByLocation() {
-    final List<DCatAPDatasetType> dcatList = new DSDClient("http://localhost:" + TEST_PORT).queryDatasetByLocation("REGISTERED_ORGANIZATION_TYPE",
+    final List<DCatAPDatasetType> dcatList = dsdClient.queryDatasetByLocation("REGISTERED_ORGANIZATION_TYPE",
         "SV");
 
     if (dcatList == null) {
@@ -101,7 +116,7 @@ public final class DSDClientTest {
 
   @Test
   public void testQueryByDpType() {
-    final List<DCatAPDatasetType> dcatList = new DSDClient("http://localhost:" + TEST_PORT).queryDatasetByDPType("REGISTERED_ORGANIZATION_TYPE",
+    final List<DCatAPDatasetType> dcatList = dsdClient.queryDatasetByDPType("REGISTERED_ORGANIZATION_TYPE",
         "abc");
 
     if (dcatList == null) {
@@ -115,6 +130,45 @@ public final class DSDClientTest {
     });
   }
 
+  @Test
+  public void testConcurrentAsyncQueries() throws Exception {
+    final DSDClient asyncClient = new DSDClient("http://localhost:" + TEST_PORT).setAsyncSettings(2, null);
+    try {
+      final List<CompletableFuture<List<DCatAPDatasetType>>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; ++i) {
+        futures.add(asyncClient.queryDatasetByLocationAsync("REGISTERED_ORGANIZATION_TYPE", "SV"));
+        futures.add(asyncClient.queryDatasetByDPTypeAsync("REGISTERED_ORGANIZATION_TYPE", "abc"));
+      }
+
+      final List<DCatAPDatasetType> expectedByLocation = dsdClient.queryDatasetByLocation("REGISTERED_ORGANIZATION_TYPE", "SV");
+      final List<DCatAPDatasetType> expectedByDPType = dsdClient.queryDatasetByDPType("REGISTERED_ORGANIZATION_TYPE", "abc");
+      for (int i = 0; i < futures.size(); ++i) {
+        final List<DCatAPDatasetType> expected = i % 2 == 0 ? expectedByLocation : expectedByDPType;
+        Assert.assertEquals(expected.size(), futures.get(i).get(1, TimeUnit.MINUTES).size());
+      }
+    } finally {
+      asyncClient.close();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testAsyncQueryAfterClose() throws Throwable {
+    final DSDClient closedClient = new DSDClient("http://localhost:" + TEST_PORT);
+    closedClient.close();
+    try {
+      closedClient.queryDatasetByLocationAsync("REGISTERED_ORGANIZATION_TYPE", "SV").get();
+    } catch (ExecutionException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testQueryAfterClose() {
+    final DSDClient closedClient = new DSDClient("http://localhost:" + TEST_PORT);
+    closedClient.close();
+    closedClient.queryDatasetRawByLocation("REGISTERED_ORGANIZATION_TYPE", "SV");
+  }
+
   private static class MyLocalTestServer extends LocalServerTestBase {
     public static final String TOOP_DIR_URL = "http://directory.acc.exchange.toop.eu";
 
@@ -17,12 +17,23 @@
  */
 package eu.toop.dsd.config;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
+import eu.toop.dsd.api.DirectoryClientSettings;
+import eu.toop.dsd.api.DsdDataConverter;
+import eu.toop.dsd.service.DSDWarmUp;
+
 /**
  * The utility class for reading the dsd-config.conf file.
  *
@@ -40,6 +51,46 @@ public class DSDConfig {
   private static final String toopDirUrl;
   private static final String dsdVersion;
   private static final String buildDate;
+  private static final int directoryPageSize;
+  private static final int directoryMaxPagesInFlight;
+  private static final int directoryPageFetchThreads;
+  private static final boolean directoryCoalesceRequests;
+  private static final DirectoryClientSettings directoryClientSettings;
+  private static final boolean circuitBreakerEnabled;
+  private static final int circuitBreakerFailureThreshold;
+  private static final long circuitBreakerOpenMs;
+  private static final boolean fallbackEnabled;
+  private static final int fallbackMaxEntries;
+  private static final long fallbackMaxBytes;
+  private static final long fallbackMaxEntryBytes;
+  private static final DsdDataConverter.ConversionEngine conversionEngine;
+  private static final boolean indent;
+  private static final boolean gzipResponses;
+  private static final boolean snapshotEnabled;
+  private static final long snapshotRefreshIntervalSeconds;
+  private static final List<String> snapshotCountryCodes;
+  private static final Path snapshotFile;
+  private static final long snapshotFileMaxAgeSeconds;
+  private static final boolean warmUpEnabled;
+  private static final int warmUpIterations;
+  private static final int warmUpTransformers;
+  private static final int warmUpDirectoryConnections;
+  private static final boolean warmUpLoadSnapshot;
+  private static final List<DSDWarmUp.Input> warmUpInputs;
+  private static final boolean cacheEnabled;
+  private static final long cacheMaxBytes;
+  private static final long cacheTtlSeconds;
+  private static final long cacheStaleWhileRevalidateSeconds;
+  private static final int cacheRefreshThreads;
+  private static final boolean metricsEnabled;
+  private static final int asyncThreads;
+  private static final int asyncQueueSize;
+  private static final long asyncTimeoutMs;
+  private static final boolean virtualThreadsEnabled;
+  private static final int asyncMaxVirtualQueries;
+  private static final int batchMaxQueries;
+  private static final int batchFetchThreads;
+  private static final long batchTimeoutMs;
 
   private static final String DSD_CONFIG_RESOURCE_NAME = "/dsd-config.conf";
 
@@ -56,9 +107,81 @@ public class DSDConfig {
     toopDirUrl = config.getString("dsd.toop-dir-url");
     dsdVersion = config.getString("dsd.version");
     buildDate = config.getString("dsd.buildDate");
+    directoryPageSize = config.getInt("dsd.directory.page-size");
+    directoryMaxPagesInFlight = config.getInt("dsd.directory.max-pages-in-flight");
+    directoryPageFetchThreads = config.getInt("dsd.directory.page-fetch-threads");
+    directoryCoalesceRequests = config.getBoolean("dsd.directory.coalesce-requests");
+    directoryClientSettings = new DirectoryClientSettings()
+        .setMaxConnectionsTotal(config.getInt("dsd.directory.http.max-connections-total"))
+        .setMaxConnectionsPerRoute(config.getInt("dsd.directory.http.max-connections-per-route"))
+        .setConnectTimeoutMS(config.getInt("dsd.directory.http.connect-timeout-ms"))
+        .setSocketTimeoutMS(config.getInt("dsd.directory.http.socket-timeout-ms"))
+        .setConnectionRequestTimeoutMS(config.getInt("dsd.directory.http.connection-request-timeout-ms"))
+        .setIdleEvictionMS(config.getInt("dsd.directory.http.idle-eviction-ms"))
+        .setContentCompression(config.getBoolean("dsd.directory.http.content-compression"))
+        .setTotalTimeoutMS(config.getInt("dsd.directory.http.total-timeout-ms"))
+        .setMaxRetries(config.getInt("dsd.directory.retry.max-retries"))
+        .setRetryInitialBackoffMS(config.getInt("dsd.directory.retry.initial-backoff-ms"))
+        .setRetryMaxBackoffMS(config.getInt("dsd.directory.retry.max-backoff-ms"));
+    circuitBreakerEnabled = config.getBoolean("dsd.directory.circuit-breaker.enabled");
+    circuitBreakerFailureThreshold = config.getInt("dsd.directory.circuit-breaker.failure-threshold");
+    circuitBreakerOpenMs = config.getLong("dsd.directory.circuit-breaker.open-ms");
+    fallbackEnabled = config.getBoolean("dsd.fallback.enabled");
+    fallbackMaxEntries = config.getInt("dsd.fallback.max-entries");
+    fallbackMaxBytes = config.getBytes("dsd.fallback.max-size");
+    fallbackMaxEntryBytes = config.getBytes("dsd.fallback.max-entry-size");
+    conversionEngine = DsdDataConverter.ConversionEngine.valueOf(config.getString("dsd.converter").trim().toUpperCase(Locale.ROOT));
+    indent = config.getBoolean("dsd.indent");
+    gzipResponses = config.getBoolean("dsd.gzip-responses");
+    snapshotEnabled = config.getBoolean("dsd.snapshot.enabled");
+    snapshotRefreshIntervalSeconds = config.getLong("dsd.snapshot.refresh-interval-seconds");
+    snapshotCountryCodes = Collections.unmodifiableList(config.getStringList("dsd.snapshot.country-codes"));
+    final String snapshotFileName = config.getString("dsd.snapshot.file").trim();
+    snapshotFile = snapshotFileName.isEmpty() ? null : Paths.get(snapshotFileName);
+    snapshotFileMaxAgeSeconds = config.getLong("dsd.snapshot.file-max-age-seconds");
+    warmUpEnabled = config.getBoolean("dsd.warmup.enabled");
+    warmUpIterations = config.getInt("dsd.warmup.iterations");
+    warmUpTransformers = config.getInt("dsd.warmup.transformers");
+    warmUpDirectoryConnections = config.getInt("dsd.warmup.directory-connections");
+    warmUpLoadSnapshot = config.getBoolean("dsd.warmup.load-snapshot");
+    final List<DSDWarmUp.Input> inputs = new ArrayList<>();
+    for (Config input : config.getConfigList("dsd.warmup.inputs")) {
+      inputs.add(new DSDWarmUp.Input(input.getString("resource"), input.getString("dataset-type"),
+          input.getString("country-code"), input.getString("dp-type")));
+    }
+    warmUpInputs = Collections.unmodifiableList(inputs);
+    cacheEnabled = config.getBoolean("dsd.cache.enabled");
+    cacheMaxBytes = config.getBytes("dsd.cache.max-size");
+    cacheTtlSeconds = config.getLong("dsd.cache.ttl-seconds");
+    cacheStaleWhileRevalidateSeconds = config.getLong("dsd.cache.stale-while-revalidate-seconds");
+    cacheRefreshThreads = config.getInt("dsd.cache.refresh-threads");
+    metricsEnabled = config.getBoolean("dsd.metrics.enabled");
+    asyncThreads = config.getInt("dsd.async.threads");
+    asyncQueueSize = config.getInt("dsd.async.queue-size");
+    asyncTimeoutMs = config.getLong("dsd.async.timeout-ms");
+    virtualThreadsEnabled = config.getBoolean("dsd.async.virtual-threads");
+    asyncMaxVirtualQueries = config.getInt("dsd.async.max-virtual-queries");
+    batchMaxQueries = config.getInt("dsd.batch.max-queries");
+    batchFetchThreads = config.getInt("dsd.batch.fetch-threads");
+    batchTimeoutMs = config.getLong("dsd.batch.timeout-ms");
 
     LOGGER.info("--------- RUNNING DSD-" + dsdVersion + " ---------");
     LOGGER.debug("toopDirUrl: " + toopDirUrl);
+    LOGGER.debug("directoryPageSize: " + directoryPageSize);
+    LOGGER.debug("directoryMaxPagesInFlight: " + directoryMaxPagesInFlight + ", directoryPageFetchThreads: " + directoryPageFetchThreads);
+    LOGGER.debug("directoryCoalesceRequests: " + directoryCoalesceRequests);
+    LOGGER.debug("directoryClientSettings: " + directoryClientSettings);
+    LOGGER.debug("circuitBreakerEnabled: " + circuitBreakerEnabled + ", fallbackEnabled: " + fallbackEnabled);
+    LOGGER.debug("fallbackMaxEntries: " + fallbackMaxEntries + ", fallbackMaxBytes: " + fallbackMaxBytes + ", fallbackMaxEntryBytes: " + fallbackMaxEntryBytes);
+    LOGGER.debug("conversionEngine: " + conversionEngine);
+    LOGGER.debug("indent: " + indent + ", gzipResponses: " + gzipResponses);
+    LOGGER.debug("snapshotEnabled: " + snapshotEnabled + ", snapshotFile: " + snapshotFile + ", snapshotFileMaxAgeSeconds: " + snapshotFileMaxAgeSeconds);
+    LOGGER.debug("warmUpEnabled: " + warmUpEnabled + ", warmUpIterations: " + warmUpIterations + ", warmUpInputs: " + warmUpInputs);
+    LOGGER.debug("cacheEnabled: " + cacheEnabled);
+    LOGGER.debug("metricsEnabled: " + metricsEnabled);
+    LOGGER.debug("asyncThreads: " + asyncThreads + ", asyncQueueSize: " + asyncQueueSize + ", asyncTimeoutMs: " + asyncTimeoutMs);
+    LOGGER.debug("virtualThreadsEnabled: " + virtualThreadsEnabled);
+    LOGGER.debug("batchMaxQueries: " + batchMaxQueries + ", batchFetchThreads: " + batchFetchThreads + ", batchTimeoutMs: " + batchTimeoutMs);
   }
 
 
@@ -88,4 +211,364 @@ public class DSDConfig {
   public static String getBuildDate() {
     return buildDate;
   }
+
+  /**
+   * Gets the number of matches requested per directory page.
+   *
+   * @return the directory page size
+   */
+  public static int getDirectoryPageSize() {
+    return directoryPageSize;
+  }
+
+  /**
+   * Gets the maximum number of pages of a single directory result that are downloaded at the same time.
+   *
+   * @return the maximum number of pages in flight
+   */
+  public static int getDirectoryMaxPagesInFlight() {
+    return directoryMaxPagesInFlight;
+  }
+
+  /**
+   * Gets the number of threads that download the directory pages of all the concurrent queries.
+   *
+   * @return the number of page download threads
+   */
+  public static int getDirectoryPageFetchThreads() {
+    return directoryPageFetchThreads;
+  }
+
+  /**
+   * Are the identical concurrent directory requests coalesced.
+   *
+   * @return <code>true</code> if concurrent identical directory requests share one request
+   */
+  public static boolean isDirectoryCoalesceRequests() {
+    return directoryCoalesceRequests;
+  }
+
+  /**
+   * Gets the settings of the connection pool to the TOOP Directory.
+   *
+   * @return the directory client settings
+   */
+  public static DirectoryClientSettings getDirectoryClientSettings() {
+    return directoryClientSettings;
+  }
+
+  /**
+   * Is the circuit breaker of the directory calls enabled.
+   *
+   * @return <code>true</code> if the directory calls fail fast while the directory is unhealthy
+   */
+  public static boolean isCircuitBreakerEnabled() {
+    return circuitBreakerEnabled;
+  }
+
+  /**
+   * Gets the number of consecutive failed directory calls that open the circuit breaker.
+   *
+   * @return the failure threshold
+   */
+  public static int getCircuitBreakerFailureThreshold() {
+    return circuitBreakerFailureThreshold;
+  }
+
+  /**
+   * Gets the time the circuit breaker stays open before a probe request is let through.
+   *
+   * @return the open time in milliseconds
+   */
+  public static long getCircuitBreakerOpenMs() {
+    return circuitBreakerOpenMs;
+  }
+
+  /**
+   * Are the last successful responses served while the circuit breaker is open.
+   *
+   * @return <code>true</code> if the last known good responses are stored and served
+   */
+  public static boolean isFallbackEnabled() {
+    return fallbackEnabled;
+  }
+
+  /**
+   * Gets the maximum number of stored last known good responses.
+   *
+   * @return the maximum number of entries
+   */
+  public static int getFallbackMaxEntries() {
+    return fallbackMaxEntries;
+  }
+
+  /**
+   * Gets the maximum total size of the stored last known good responses.
+   *
+   * @return the maximum size in bytes
+   */
+  public static long getFallbackMaxBytes() {
+    return fallbackMaxBytes;
+  }
+
+  /**
+   * Gets the maximum size of a single stored last known good response.
+   *
+   * @return the maximum size in bytes
+   */
+  public static long getFallbackMaxEntryBytes() {
+    return fallbackMaxEntryBytes;
+  }
+
+  /**
+   * Gets the implementation of the directory result to DSD response conversion.
+   *
+   * @return the conversion engine
+   */
+  public static DsdDataConverter.ConversionEngine getConversionEngine() {
+    return conversionEngine;
+  }
+
+  /**
+   * Are the DSD responses indented.
+   *
+   * @return <code>true</code> for indented responses, <code>false</code> for the compact form
+   */
+  public static boolean isIndent() {
+    return indent;
+  }
+
+  /**
+   * Are the responses gzipped for the clients that accept it.
+   *
+   * @return <code>true</code> if the responses are gzipped when the client sends <code>Accept-Encoding: gzip</code>
+   */
+  public static boolean isGzipResponses() {
+    return gzipResponses;
+  }
+
+  /**
+   * Is the directory snapshot mode enabled.
+   *
+   * @return <code>true</code> if the queries are answered from an in-memory snapshot of the directory
+   */
+  public static boolean isSnapshotEnabled() {
+    return snapshotEnabled;
+  }
+
+  /**
+   * Gets the time between two refreshes of the directory snapshot.
+   *
+   * @return the refresh interval in seconds
+   */
+  public static long getSnapshotRefreshIntervalSeconds() {
+    return snapshotRefreshIntervalSeconds;
+  }
+
+  /**
+   * Gets the countries that are pulled into the directory snapshot.
+   *
+   * @return the unmodifiable list of country codes
+   */
+  public static List<String> getSnapshotCountryCodes() {
+    return snapshotCountryCodes;
+  }
+
+  /**
+   * Gets the file the directory snapshot is persisted to.
+   *
+   * @return the snapshot file, <code>null</code> if the snapshot is not persisted
+   */
+  public static Path getSnapshotFile() {
+    return snapshotFile;
+  }
+
+  /**
+   * Gets the maximum age of a persisted directory snapshot that is used after a restart.
+   *
+   * @return the maximum age in seconds, 0 for no limit
+   */
+  public static long getSnapshotFileMaxAgeSeconds() {
+    return snapshotFileMaxAgeSeconds;
+  }
+
+  /**
+   * Is the warm-up after the start enabled.
+   *
+   * @return <code>true</code> if the service warms up before it reports ready
+   */
+  public static boolean isWarmUpEnabled() {
+    return warmUpEnabled;
+  }
+
+  /**
+   * Gets the number of runs of the warm-up queries of each input.
+   *
+   * @return the number of warm-up iterations
+   */
+  public static int getWarmUpIterations() {
+    return warmUpIterations;
+  }
+
+  /**
+   * Gets the number of idle transformers that are created during the warm-up.
+   *
+   * @return the number of transformers
+   */
+  public static int getWarmUpTransformers() {
+    return warmUpTransformers;
+  }
+
+  /**
+   * Gets the number of directory connections that are opened during the warm-up.
+   *
+   * @return the number of connections, 0 to skip
+   */
+  public static int getWarmUpDirectoryConnections() {
+    return warmUpDirectoryConnections;
+  }
+
+  /**
+   * Is the first directory snapshot loaded during the warm-up.
+   *
+   * @return <code>true</code> if the service is ready only after the first snapshot is loaded
+   */
+  public static boolean isWarmUpLoadSnapshot() {
+    return warmUpLoadSnapshot;
+  }
+
+  /**
+   * Gets the directory results that are converted during the warm-up.
+   *
+   * @return the unmodifiable list of inputs
+   */
+  public static List<DSDWarmUp.Input> getWarmUpInputs() {
+    return warmUpInputs;
+  }
+
+  /**
+   * Is the query response cache enabled.
+   *
+   * @return <code>true</code> if the query responses are cached
+   */
+  public static boolean isCacheEnabled() {
+    return cacheEnabled;
+  }
+
+  /**
+   * Gets the maximum total size of the cached query responses.
+   *
+   * @return the maximum size in bytes
+   */
+  public static long getCacheMaxBytes() {
+    return cacheMaxBytes;
+  }
+
+  /**
+   * Gets the time a cached query response is fresh.
+   *
+   * @return the time to live in seconds
+   */
+  public static long getCacheTtlSeconds() {
+    return cacheTtlSeconds;
+  }
+
+  /**
+   * Gets the time an expired query response is still served while it is refreshed.
+   *
+   * @return the stale-while-revalidate time in seconds
+   */
+  public static long getCacheStaleWhileRevalidateSeconds() {
+    return cacheStaleWhileRevalidateSeconds;
+  }
+
+  /**
+   * Gets the number of threads that refresh the expired query responses.
+   *
+   * @return the number of refresh threads
+   */
+  public static int getCacheRefreshThreads() {
+    return cacheRefreshThreads;
+  }
+
+  /**
+   * Are the query metrics recorded and exposed at <code>/metrics</code>.
+   *
+   * @return <code>true</code> if the metrics are enabled
+   */
+  public static boolean isMetricsEnabled() {
+    return metricsEnabled;
+  }
+
+  /**
+   * Gets the number of threads that process the queries.
+   *
+   * @return the number of query threads
+   */
+  public static int getAsyncThreads() {
+    return asyncThreads;
+  }
+
+  /**
+   * Gets the number of queries that may wait for a free query thread.
+   *
+   * @return the size of the query queue
+   */
+  public static int getAsyncQueueSize() {
+    return asyncQueueSize;
+  }
+
+  /**
+   * Gets the time after which an unfinished query is answered with <code>504 Gateway Timeout</code>.
+   *
+   * @return the query timeout in milliseconds
+   */
+  public static long getAsyncTimeoutMs() {
+    return asyncTimeoutMs;
+  }
+
+  /**
+   * Are the queries and the directory page downloads run on virtual threads. Only effective on JDK 21 or newer.
+   *
+   * @return <code>true</code> if virtual threads are requested
+   */
+  public static boolean isVirtualThreadsEnabled() {
+    return virtualThreadsEnabled;
+  }
+
+  /**
+   * Gets the maximum number of concurrent queries on virtual threads.
+   *
+   * @return the maximum number of queries in flight
+   */
+  public static int getAsyncMaxVirtualQueries() {
+    return asyncMaxVirtualQueries;
+  }
+
+  /**
+   * Gets the maximum number of sub-queries of a single batch request.
+   *
+   * @return the maximum batch size
+   */
+  public static int getBatchMaxQueries() {
+    return batchMaxQueries;
+  }
+
+  /**
+   * Gets the number of threads that run the queries of the batch requests in parallel.
+   *
+   * @return the number of batch fetch threads
+   */
+  public static int getBatchFetchThreads() {
+    return batchFetchThreads;
+  }
+
+  /**
+   * Gets the time after which the unfinished queries of a batch are answered with 504.
+   *
+   * @return the batch timeout in milliseconds
+   */
+  public static long getBatchTimeoutMs() {
+    return batchTimeoutMs;
+  }
 }
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values with a bounded relative error, in the style of
+ * HdrHistogram. Every power of two is divided into {@value #SUB_BUCKET_COUNT} linear sub buckets, so a
+ * recorded value is reported with an error below 1/{@value #SUB_BUCKET_COUNT} (6.25%). The whole long
+ * range fits into a fixed number of buckets, so recording is a bucket index computation and a few
+ * atomic increments, without any allocation.
+ *
+ * @author yerlibilgin
+ */
+final class ConcurrentHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a value. Negative values are recorded as zero.
+   *
+   * @param value the value to record
+   */
+  void record(long value) {
+    final long v = Math.max(0, value);
+    counts.incrementAndGet(bucketIndex(v));
+    count.increment();
+    sum.add(v);
+
+    long currentMax = max.get();
+    while (v > currentMax && !max.compareAndSet(currentMax, v)) {
+      currentMax = max.get();
+    }
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT)
+      return (int) value;
+
+    // the position of the highest bit selects the power of two, the next SUB_BUCKET_BITS bits the sub bucket
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    final int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * @param index the bucket index
+   * @return the highest value that is recorded in the bucket
+   */
+  static long highestValueInBucket(int index) {
+    if (index < SUB_BUCKET_COUNT)
+      return index;
+
+    final int shift = index / SUB_BUCKET_COUNT - 1;
+    final long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * @return the number of recorded values
+   */
+  long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return the sum of the recorded values
+   */
+  long getSum() {
+    return sum.sum();
+  }
+
+  /**
+   * @return the largest recorded value
+   */
+  long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Calculate the values at the given quantiles. The buckets are read one by one while values may
+   * still be recorded, so the result is consistent only within the error of the histogram.
+   *
+   * @param quantiles the quantiles in ascending order, each between 0 and 1
+   * @return the value at each quantile, 0 if nothing was recorded
+   */
+  long[] getValuesAtQuantiles(double... quantiles) {
+    final long[] snapshot = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; ++i) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+
+    final long[] values = new long[quantiles.length];
+    if (total == 0)
+      return values;
+
+    final long currentMax = max.get();
+    int bucket = 0;
+    long seen = snapshot[0];
+    for (int q = 0; q < quantiles.length; ++q) {
+      final long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+      while (seen < rank && bucket < BUCKET_COUNT - 1) {
+        seen += snapshot[++bucket];
+      }
+      values[q] = Math.min(highestValueInBucket(bucket), currentMax);
+    }
+    return values;
+  }
+}
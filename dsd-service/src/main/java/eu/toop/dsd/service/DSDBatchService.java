@@ -0,0 +1,356 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+
+import eu.toop.dsd.api.DSDBatch;
+import eu.toop.dsd.api.DirectoryUnavailableException;
+import eu.toop.dsd.api.types.DSDQuery;
+
+/**
+ * Processes the DSD batch queries, see {@link DSDBatch} for the request and response format.
+ * <p>
+ * The queries of a batch are grouped by the directory call they need: all the location queries
+ * for the same country and all the data provider type queries for the same type are answered
+ * from a single directory result, whatever their dataset type. Every query runs on the given
+ * executor; the first query of a group fetches the directory result and the others of the group
+ * wait for it, then they are converted in parallel. The result of each query is written to the
+ * response as soon as it is available. The response cache, the directory snapshot and the store of
+ * the last known good responses are used just like for the single queries; a query that is answered from
+ * the store while the directory is unavailable is marked with {@link DSDBatch#HEADER_STALE}.
+ * <p>
+ * Every query gets a part in the response: a query that fails or is cancelled gets an error part,
+ * and the queries that haven't finished when the batch times out get a 504 part. A query that fails
+ * because the directory is unavailable and has no stored response gets a 503 part.
+ *
+ * @author yerlibilgin
+ */
+public final class DSDBatchService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DSDBatchService.class);
+
+  private static final int SC_OK = 200;
+  private static final int SC_BAD_REQUEST = 400;
+  private static final int SC_INTERNAL_SERVER_ERROR = 500;
+  private static final int SC_SERVICE_UNAVAILABLE = 503;
+  private static final int SC_GATEWAY_TIMEOUT = 504;
+
+  private DSDBatchService() {
+  }
+
+  /**
+   * Answer the queries of a batch request.
+   *
+   * @param parameterMaps  the parameter maps of the queries, as parsed by {@link DSDBatch#parseRequestBody(String)}
+   * @param executor       the executor that runs the queries of the batch in parallel
+   * @param timeoutMillis  the time after which the unfinished queries are answered with 504
+   * @param boundary       the multipart boundary of the response
+   * @param responseStream the stream to write the multipart response to
+   * @throws IOException          if the response cannot be written
+   * @throws InterruptedException if the batch was abandoned while waiting for the results
+   */
+  public static void processBatch(@Nonnull List<Map<String, String[]>> parameterMaps, @Nonnull ExecutorService executor,
+                                  long timeoutMillis, @Nonnull String boundary,
+                                  @Nonnull OutputStream responseStream) throws IOException, InterruptedException {
+    ValueEnforcer.notNull(parameterMaps, "parameterMaps");
+    ValueEnforcer.notNull(executor, "executor");
+    ValueEnforcer.isGT0(timeoutMillis, "timeoutMillis");
+    ValueEnforcer.notEmpty(boundary, "boundary");
+    ValueEnforcer.notNull(responseStream, "responseStream");
+
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    final BlockingQueue<QueryResult> results = new LinkedBlockingQueue<>();
+    final Map<String, List<BatchQuery>> groups = new LinkedHashMap<>();
+
+    for (int i = 0; i < parameterMaps.size(); ++i) {
+      try {
+        final DSDQuery dsdQuery = DSDQuery.resolve(parameterMaps.get(i));
+        groups.computeIfAbsent(getDirectoryCallKey(dsdQuery), k -> new ArrayList<>()).add(new BatchQuery(i, dsdQuery));
+      } catch (RuntimeException ex) {
+        DSDMetrics.recordInvalidRequest();
+        results.add(QueryResult.error(i, SC_BAD_REQUEST, ex));
+      }
+    }
+
+    LOGGER.debug("Processing a batch of " + parameterMaps.size() + " queries with " + groups.size() + " directory calls");
+
+    final List<Future<?>> futures = new ArrayList<>(parameterMaps.size());
+    try {
+      for (List<BatchQuery> group : groups.values()) {
+        final SharedDirectoryResult directoryResult = new SharedDirectoryResult(group.get(0).dsdQuery, group.size());
+        for (BatchQuery query : group) {
+          try {
+            futures.add(executor.submit(() -> processQuery(query, directoryResult, results)));
+          } catch (RejectedExecutionException ex) {
+            directoryResult.queryFinished();
+            results.add(QueryResult.error(query.queryIndex, SC_SERVICE_UNAVAILABLE, "Too many concurrent queries, please try again later"));
+          }
+        }
+      }
+
+      final boolean[] answered = new boolean[parameterMaps.size()];
+      int written = 0;
+      while (written < parameterMaps.size()) {
+        final long remaining = deadline - System.nanoTime();
+        final QueryResult result = remaining > 0 ? results.poll(remaining, TimeUnit.NANOSECONDS) : null;
+        if (result == null)
+          break;
+
+        DSDBatch.writePart(responseStream, boundary, result.queryIndex, result.status, result.contentType, result.body,
+            result.staleAgeSeconds);
+        // let the client consume the finished queries while the others are still running
+        responseStream.flush();
+        answered[result.queryIndex] = true;
+        ++written;
+      }
+
+      if (written < parameterMaps.size()) {
+        LOGGER.warn((parameterMaps.size() - written) + " of the " + parameterMaps.size() + " batch queries didn't finish in " +
+            timeoutMillis + " ms");
+        for (int i = 0; i < answered.length; ++i) {
+          if (!answered[i]) {
+            final QueryResult result = QueryResult.error(i, SC_GATEWAY_TIMEOUT, "The query didn't finish in time");
+            DSDBatch.writePart(responseStream, boundary, result.queryIndex, result.status, result.contentType, result.body);
+          }
+        }
+      }
+      DSDBatch.writeEnd(responseStream, boundary);
+    } finally {
+      // only has an effect if the batch failed or timed out
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * @return the key of the directory call that the query needs, queries with the same key share the directory result
+   */
+  private static String getDirectoryCallKey(DSDQuery dsdQuery) {
+    switch (dsdQuery.getQueryId()) {
+      case QUERY_BY_DATASETTYPE_AND_DPTYPE:
+        return "dpType:" + dsdQuery.safeGetParameterValue(DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE);
+      case QUERY_BY_DATASETTYPE_AND_LOCATION:
+        return "countryCode:" + dsdQuery.safeGetParameterValue(DSDQuery.PARAM_NAME_COUNTRY_CODE);
+      default:
+        throw new IllegalArgumentException("Unsupported query " + dsdQuery.getQueryId());
+    }
+  }
+
+  /**
+   * Answers a single query. A result is posted whatever happens, so that the batch never waits for a query
+   * that is gone.
+   */
+  private static void processQuery(BatchQuery query, SharedDirectoryResult directoryResult, BlockingQueue<QueryResult> results) {
+    QueryResult result = null;
+    try {
+      if (!Thread.currentThread().isInterrupted())
+        result = respond(query, directoryResult);
+    } catch (DirectoryUnavailableException ex) {
+      LOGGER.warn("Batch query " + query.queryIndex + " failed: " + ex.getMessage());
+      result = QueryResult.error(query.queryIndex, SC_SERVICE_UNAVAILABLE, ex);
+    } catch (Exception ex) {
+      LOGGER.error("Batch query " + query.queryIndex + " failed: " + ex.getMessage(), ex);
+      final int status = ex instanceof IllegalStateException ? SC_BAD_REQUEST : SC_INTERNAL_SERVER_ERROR;
+      result = QueryResult.error(query.queryIndex, status, ex);
+    } finally {
+      results.add(result != null ? result : QueryResult.error(query.queryIndex, SC_INTERNAL_SERVER_ERROR, "The query was cancelled"));
+      directoryResult.queryFinished();
+    }
+  }
+
+  private static QueryResult respond(BatchQuery query, SharedDirectoryResult directoryResult) throws Exception {
+    final DSDQuery dsdQuery = query.dsdQuery;
+    final DSDResponseCache.Loader loader = () -> convert(dsdQuery, directoryResult);
+    final DSDResponseCache cache = DSDQueryService.getResponseCache();
+    final LastKnownGoodStore store = DSDQueryService.getLastKnownGoodStore();
+    // the same key as the RegRep responses of the single queries
+    final String cacheKey = dsdQuery.getCanonicalForm();
+
+    final DSDResponse response;
+    try {
+      if (cache == null && store == null)
+        return QueryResult.success(query.queryIndex, loader.load());
+      response = cache != null ? cache.get(cacheKey, loader) : new DSDResponse(loader.load());
+    } catch (DirectoryUnavailableException ex) {
+      final LastKnownGoodStore.Entry entry = store != null ? store.get(cacheKey) : null;
+      if (entry == null)
+        throw ex;
+
+      final long ageSeconds = entry.getAgeSeconds();
+      LOGGER.warn(ex.getMessage() + ", answering batch query " + query.queryIndex + " with the last known good response from " +
+          ageSeconds + " seconds ago");
+      DSDMetrics.recordStaleResponse();
+      return QueryResult.stale(query.queryIndex, entry.getResponse().getBody(), ageSeconds);
+    }
+    if (store != null)
+      store.put(cacheKey, response);
+    return QueryResult.success(query.queryIndex, response.getBody());
+  }
+
+  private static byte[] convert(DSDQuery dsdQuery, SharedDirectoryResult directoryResult) throws IOException, TransformerException {
+    try (NonBlockingByteArrayOutputStream buffer = new NonBlockingByteArrayOutputStream()) {
+      final QueryTimer timer = new QueryTimer(DSDMetrics.getQueryMetrics(dsdQuery.getQueryId()), buffer);
+      try {
+        DSDQueryService.convert(dsdQuery, timer.startConversion(directoryResult.getSource(dsdQuery)), buffer);
+        timer.finished();
+      } catch (IOException | TransformerException | RuntimeException ex) {
+        timer.failed();
+        throw ex;
+      }
+      return buffer.toByteArray();
+    }
+  }
+
+  /**
+   * The directory result of a group, fetched at most once while the queries of the group are being processed.
+   * The response cache may call the loader again later for a background refresh; once all the queries of the
+   * group are finished, that loads a fresh result.
+   */
+  private static final class SharedDirectoryResult {
+    private final DSDQuery dsdQuery;
+    private final AtomicInteger pendingQueries;
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean shared = true;
+    private byte[] result;
+    private IOException failure;
+
+    SharedDirectoryResult(DSDQuery dsdQuery, int queryCount) {
+      this.dsdQuery = dsdQuery;
+      this.pendingQueries = new AtomicInteger(queryCount);
+    }
+
+    Source getSource(DSDQuery query) throws IOException {
+      final DirectorySnapshot snapshot = DirectorySnapshotService.getSnapshot();
+      final String countryCode = query.getParameterValue(DSDQuery.PARAM_NAME_COUNTRY_CODE);
+      if (snapshot != null && (countryCode == null || DirectorySnapshotService.isCountryCovered(countryCode))) {
+        final String dataSetType = query.safeGetParameterValue(DSDQuery.PARAM_NAME_DATA_SET_TYPE);
+        return snapshot.getDirectoryResult(dataSetType, countryCode, query.getParameterValue(DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE));
+      }
+
+      lock.lock();
+      try {
+        if (!shared)
+          return new StreamSource(new ByteArrayInputStream(fetch()));
+
+        if (result == null && failure == null) {
+          try {
+            result = fetch();
+          } catch (IOException ex) {
+            // the other queries of the group would fail the same way
+            failure = ex;
+          }
+        }
+        if (failure != null)
+          throw failure;
+        return new StreamSource(new ByteArrayInputStream(result));
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private byte[] fetch() throws IOException {
+      return DSDQueryService.fetchDirectoryResult(dsdQuery);
+    }
+
+    void queryFinished() {
+      if (pendingQueries.decrementAndGet() == 0)
+        release();
+    }
+
+    private void release() {
+      lock.lock();
+      try {
+        shared = false;
+        result = null;
+        failure = null;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private static final class BatchQuery {
+    private final int queryIndex;
+    private final DSDQuery dsdQuery;
+
+    BatchQuery(int queryIndex, DSDQuery dsdQuery) {
+      this.queryIndex = queryIndex;
+      this.dsdQuery = dsdQuery;
+    }
+  }
+
+  private static final class QueryResult {
+    private final int queryIndex;
+    private final int status;
+    private final String contentType;
+    private final byte[] body;
+    private final long staleAgeSeconds;
+
+    private QueryResult(int queryIndex, int status, String contentType, byte[] body, long staleAgeSeconds) {
+      this.queryIndex = queryIndex;
+      this.status = status;
+      this.contentType = contentType;
+      this.body = body;
+      this.staleAgeSeconds = staleAgeSeconds;
+    }
+
+    static QueryResult success(int queryIndex, byte[] body) {
+      return new QueryResult(queryIndex, SC_OK, "application/xml", body, -1);
+    }
+
+    static QueryResult stale(int queryIndex, byte[] body, long ageSeconds) {
+      return new QueryResult(queryIndex, SC_OK, "application/xml", body, ageSeconds);
+    }
+
+    static QueryResult error(int queryIndex, int status, Exception ex) {
+      return error(queryIndex, status, ex.getMessage() != null ? ex.getMessage() : "UNKNOWN ERROR");
+    }
+
+    static QueryResult error(int queryIndex, int status, String message) {
+      return new QueryResult(queryIndex, status, "text/plain", message.getBytes(StandardCharsets.UTF_8), -1);
+    }
+  }
+}
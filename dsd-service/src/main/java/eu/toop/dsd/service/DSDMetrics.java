@@ -0,0 +1,301 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+
+import eu.toop.dsd.api.types.DSDQuery;
+
+/**
+ * The latency, payload size and error metrics of the DSD queries, per {@link DSDQuery.DSDQueryID}.
+ * <p>
+ * A query is processed in the following {@link Stage}s:
+ * <ul>
+ *   <li>{@link Stage#DIRECTORY}: from the start of the directory call (or the snapshot lookup) until the
+ *   directory result is handed to the converter. If the directory requests are not coalesced, the result is
+ *   streamed, so this is the time until the first page starts to arrive.</li>
+ *   <li>{@link Stage#CONVERT}: the conversion of the directory result to the DSD response, without the time
+ *   spent writing to the client.</li>
+ *   <li>{@link Stage#WRITE}: the time spent writing the response to the client.</li>
+ *   <li>{@link Stage#TOTAL}: the whole request, including the requests that are served from the cache.</li>
+ * </ul>
+ * The values are kept in lock-free histograms, so recording is cheap enough to leave the metrics
+ * on under full load. {@link #writePrometheus(Writer)} renders them in the Prometheus text format.
+ *
+ * @author yerlibilgin
+ */
+public final class DSDMetrics {
+  /**
+   * The quantiles that are reported for the histograms
+   */
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+  /**
+   * The processing stages of a query
+   */
+  public enum Stage {
+    DIRECTORY,
+    CONVERT,
+    WRITE,
+    TOTAL;
+
+    final String label = name().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * The metrics of a single query type. All the methods are thread-safe and lock-free.
+   */
+  public static final class QueryMetrics {
+    private final String queryId;
+    private final EnumMap<Stage, ConcurrentHistogram> durations = new EnumMap<>(Stage.class);
+    private final EnumMap<Stage, LongAdder> errors = new EnumMap<>(Stage.class);
+    private final ConcurrentHistogram directoryBytes = new ConcurrentHistogram();
+    private final ConcurrentHistogram responseBytes = new ConcurrentHistogram();
+    private final LongAdder successfulRequests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+
+    private QueryMetrics(String queryId) {
+      this.queryId = queryId;
+      for (Stage stage : Stage.values()) {
+        durations.put(stage, new ConcurrentHistogram());
+        errors.put(stage, new LongAdder());
+      }
+    }
+
+    /**
+     * Record the duration of a stage
+     *
+     * @param stage the stage
+     * @param nanos the duration in nanoseconds
+     */
+    public void recordDuration(@Nonnull Stage stage, long nanos) {
+      if (enabled)
+        durations.get(stage).record(nanos);
+    }
+
+    /**
+     * Record an error that occurred in a stage
+     *
+     * @param stage the stage
+     */
+    public void recordError(@Nonnull Stage stage) {
+      if (enabled)
+        errors.get(stage).increment();
+    }
+
+    /**
+     * Record the size of a directory result that was converted
+     *
+     * @param bytes the size in bytes
+     */
+    public void recordDirectoryBytes(long bytes) {
+      if (enabled)
+        directoryBytes.record(bytes);
+    }
+
+    /**
+     * Record a finished request
+     *
+     * @param totalNanos    the duration of the whole request in nanoseconds
+     * @param writeNanos    the time spent writing the response in nanoseconds
+     * @param responseBytes the number of bytes sent to the client
+     * @param success       <code>false</code> if the request failed
+     */
+    public void recordRequest(long totalNanos, long writeNanos, long responseBytes, boolean success) {
+      if (!enabled)
+        return;
+
+      durations.get(Stage.TOTAL).record(totalNanos);
+      durations.get(Stage.WRITE).record(writeNanos);
+      this.responseBytes.record(responseBytes);
+      if (success) {
+        successfulRequests.increment();
+      } else {
+        failedRequests.increment();
+        errors.get(Stage.TOTAL).increment();
+      }
+    }
+  }
+
+  private static final Map<DSDQuery.DSDQueryID, QueryMetrics> queryMetrics;
+  private static final LongAdder invalidRequests = new LongAdder();
+  private static final LongAdder staleResponses = new LongAdder();
+  /**
+   * the duration of the last warm-up, -1 if none has finished
+   */
+  private static volatile long warmUpNanos = -1;
+
+  private static volatile boolean enabled = true;
+
+  static {
+    final EnumMap<DSDQuery.DSDQueryID, QueryMetrics> map = new EnumMap<>(DSDQuery.DSDQueryID.class);
+    for (DSDQuery.DSDQueryID queryID : DSDQuery.DSDQueryID.values()) {
+      map.put(queryID, new QueryMetrics(queryID.id));
+    }
+    // never modified after this, so it can be read without synchronization
+    queryMetrics = map;
+  }
+
+  private DSDMetrics() {
+  }
+
+  /**
+   * Enable or disable recording. The recorded values are kept while disabled.
+   *
+   * @param enabled <code>false</code> to stop recording
+   */
+  public static void setEnabled(boolean enabled) {
+    DSDMetrics.enabled = enabled;
+  }
+
+  /**
+   * @return <code>true</code> if the metrics are recorded
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Gets the metrics of a query type
+   *
+   * @param queryID the query id, may not be <code>null</code>
+   * @return the metrics of the query type
+   */
+  @Nonnull
+  public static QueryMetrics getQueryMetrics(@Nonnull DSDQuery.DSDQueryID queryID) {
+    ValueEnforcer.notNull(queryID, "queryID");
+    return queryMetrics.get(queryID);
+  }
+
+  /**
+   * Record a request that was rejected before its query type was known
+   */
+  public static void recordInvalidRequest() {
+    if (enabled)
+      invalidRequests.increment();
+  }
+
+  /**
+   * Record a query that was answered with its last known good response, because the directory was unavailable
+   */
+  public static void recordStaleResponse() {
+    if (enabled)
+      staleResponses.increment();
+  }
+
+  /**
+   * Record the duration of the warm-up of the service, see {@link DSDWarmUp}. Always recorded, even if the
+   * metrics are disabled.
+   *
+   * @param nanos the duration in nanoseconds
+   */
+  public static void recordWarmUp(long nanos) {
+    warmUpNanos = nanos;
+  }
+
+  /**
+   * Write all the metrics in the Prometheus text exposition format (version 0.0.4)
+   *
+   * @param writer the writer to write the metrics to
+   * @throws IOException if the metrics cannot be written
+   */
+  public static void writePrometheus(@Nonnull Writer writer) throws IOException {
+    final StringBuilder sb = new StringBuilder(4096);
+
+    sb.append("# HELP dsd_requests_total The processed DSD queries.\n");
+    sb.append("# TYPE dsd_requests_total counter\n");
+    for (QueryMetrics metrics : queryMetrics.values()) {
+      appendSample(sb, "dsd_requests_total", metrics.queryId, "outcome", "success", metrics.successfulRequests.sum());
+      appendSample(sb, "dsd_requests_total", metrics.queryId, "outcome", "error", metrics.failedRequests.sum());
+    }
+
+    sb.append("# HELP dsd_invalid_requests_total The requests that were rejected because of invalid parameters.\n");
+    sb.append("# TYPE dsd_invalid_requests_total counter\n");
+    sb.append("dsd_invalid_requests_total ").append(invalidRequests.sum()).append('\n');
+
+    sb.append("# HELP dsd_stale_responses_total The queries answered with their last known good response while the directory was unavailable.\n");
+    sb.append("# TYPE dsd_stale_responses_total counter\n");
+    sb.append("dsd_stale_responses_total ").append(staleResponses.sum()).append('\n');
+
+    final long warmUp = warmUpNanos;
+    if (warmUp >= 0) {
+      sb.append("# HELP dsd_warmup_duration_seconds The duration of the warm-up after the start of the service.\n");
+      sb.append("# TYPE dsd_warmup_duration_seconds gauge\n");
+      sb.append("dsd_warmup_duration_seconds ").append(warmUp / NANOS_PER_SECOND).append('\n');
+    }
+
+    sb.append("# HELP dsd_errors_total The failed DSD queries by the stage that failed.\n");
+    sb.append("# TYPE dsd_errors_total counter\n");
+    for (QueryMetrics metrics : queryMetrics.values()) {
+      for (Stage stage : Stage.values()) {
+        appendSample(sb, "dsd_errors_total", metrics.queryId, "stage", stage.label, metrics.errors.get(stage).sum());
+      }
+    }
+
+    sb.append("# HELP dsd_stage_duration_seconds The time spent in the processing stages of the DSD queries.\n");
+    sb.append("# TYPE dsd_stage_duration_seconds summary\n");
+    for (QueryMetrics metrics : queryMetrics.values()) {
+      for (Stage stage : Stage.values()) {
+        appendSummary(sb, "dsd_stage_duration_seconds", metrics.queryId, "stage", stage.label, metrics.durations.get(stage), NANOS_PER_SECOND);
+      }
+    }
+
+    sb.append("# HELP dsd_payload_bytes The size of the directory results and the DSD responses.\n");
+    sb.append("# TYPE dsd_payload_bytes summary\n");
+    for (QueryMetrics metrics : queryMetrics.values()) {
+      appendSummary(sb, "dsd_payload_bytes", metrics.queryId, "payload", "directory", metrics.directoryBytes, 1);
+      appendSummary(sb, "dsd_payload_bytes", metrics.queryId, "payload", "response", metrics.responseBytes, 1);
+    }
+
+    writer.write(sb.toString());
+  }
+
+  private static void appendSummary(StringBuilder sb, String name, String queryId, String labelName, String labelValue,
+                                    ConcurrentHistogram histogram, double divisor) {
+    final long[] values = histogram.getValuesAtQuantiles(QUANTILES);
+    for (int i = 0; i < QUANTILES.length; ++i) {
+      appendLabels(sb.append(name), queryId, labelName, labelValue).append(",quantile=\"").append(QUANTILES[i]).append("\"} ")
+          .append(values[i] / divisor).append('\n');
+    }
+    appendLabels(sb.append(name).append("_sum"), queryId, labelName, labelValue).append("} ").append(histogram.getSum() / divisor).append('\n');
+    appendLabels(sb.append(name).append("_count"), queryId, labelName, labelValue).append("} ").append(histogram.getCount()).append('\n');
+  }
+
+  private static void appendSample(StringBuilder sb, String name, String queryId, String labelName, String labelValue, long value) {
+    appendLabels(sb.append(name), queryId, labelName, labelValue).append("} ").append(value).append('\n');
+  }
+
+  /**
+   * Appends the opening brace and the labels, without the closing brace
+   */
+  private static StringBuilder appendLabels(StringBuilder sb, String queryId, String labelName, String labelValue) {
+    // the query ids and the label values are constants without quotes or backslashes, no escaping needed
+    return sb.append("{query_id=\"").append(queryId).append("\",").append(labelName).append("=\"").append(labelValue).append('"');
+  }
+}
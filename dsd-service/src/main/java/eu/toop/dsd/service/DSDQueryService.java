@@ -19,7 +19,11 @@ package eu.toop.dsd.service;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import eu.toop.dsd.api.DSDException;
+import eu.toop.dsd.api.DirectoryUnavailableException;
 import eu.toop.dsd.api.DsdDataConverter;
+import eu.toop.dsd.api.DsdStaxConverter;
 import eu.toop.dsd.api.ToopDirClient;
 import eu.toop.dsd.config.DSDConfig;
 import eu.toop.dsd.api.types.DSDQuery;
@@ -27,7 +31,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
@@ -38,12 +46,76 @@ import java.util.Map;
  * This class is the main query processor for the DSD queries. It processes
  * the incoming queries and generates the required results with
  * respect to the TOOP DSD specifications.
+ * <p>
+ * The responses are RegRep query responses, or the compact JSON form of the same datasets.
+ * <p>
+ * If a {@link LastKnownGoodStore} is set, the last successful response of each query is kept and served
+ * while the circuit breaker of the directory calls is open.
+ * <p>
+ * The responses carry an entity tag. Without the response cache, the tag is derived from the directory
+ * result of the query, which is then buffered rather than streamed through the converter. A client can
+ * thus revalidate its response without the response being converted again.
  *
  * @author yerlibilgin
  */
 public class DSDQueryService {
   private static final Logger LOGGER = LoggerFactory.getLogger(DSDQueryService.class);
 
+  private static volatile DSDResponseCache responseCache;
+  private static volatile LastKnownGoodStore lastKnownGoodStore;
+  private static volatile DirectoryFetcher directoryFetcher = DSDQueryService::fetchFromDirectory;
+
+  /**
+   * Fetches the buffered directory result of a query
+   */
+  @FunctionalInterface
+  interface DirectoryFetcher {
+    /**
+     * @param dsdQuery the query
+     * @return the directory result
+     * @throws IOException if a communication problem occurs
+     */
+    byte[] fetch(@Nonnull DSDQuery dsdQuery) throws IOException;
+  }
+
+  /**
+   * Decides from the digest of the directory result whether the response is converted
+   */
+  @FunctionalInterface
+  private interface ResultGate {
+    /**
+     * @param directoryResultDigest the SHA-256 digest of the directory result of the query
+     * @return <code>true</code> to convert the directory result to the response
+     * @throws IOException if the decision cannot be passed on
+     */
+    boolean accept(@Nonnull byte[] directoryResultDigest) throws IOException;
+  }
+
+  /**
+   * Receives the entity tag of a response before its body is written
+   */
+  @FunctionalInterface
+  public interface ETagHandler {
+    /**
+     * @param eTag the weak entity tag of the response, including the <code>W/</code> prefix and the quotes
+     * @return <code>true</code> to write the body, <code>false</code> if the client already has this response
+     * @throws IOException if the entity tag cannot be passed on
+     */
+    boolean handleETag(@Nonnull String eTag) throws IOException;
+  }
+
+  /**
+   * Is notified before a stored response is written instead of a fresh one, because the directory is unavailable
+   */
+  @FunctionalInterface
+  public interface StaleHandler {
+    /**
+     * @param ageSeconds the time since the stored response was created
+     * @throws IOException if the response cannot be marked as stale
+     */
+    void handleStale(long ageSeconds) throws IOException;
+  }
+
   /**
    * Query the underlying database for the provided parameters and
    * respond using the TOOP DSD RegRep response specification.
@@ -54,29 +126,306 @@ public class DSDQueryService {
    * @throws IllegalStateException    if a problem occurs
    */
   public static void processRequest(@Nonnull @Nonempty Map<String, String[]> parameterMap, @Nonnull OutputStream responseStream) throws IOException, TransformerException {
+    processRequest(parameterMap, responseStream, null);
+  }
+
+  /**
+   * Query the underlying database for the provided parameters and
+   * respond using the TOOP DSD RegRep response specification.
+   * <p>
+   * If an entity tag handler is given, it is called before the body is written. Without the response cache,
+   * the directory result is then buffered, the tag is derived from it.
+   *
+   * @param parameterMap   the map that contains the parameters for the queries, may not be null
+   * @param responseStream the stream to write the results in case of success, may not be null
+   * @param eTagHandler    the handler for the entity tag of the response, may be null
+   * @throws IllegalArgumentException if the query parameters are invalid
+   * @throws IllegalStateException    if a problem occurs
+   */
+  public static void processRequest(@Nonnull @Nonempty Map<String, String[]> parameterMap, @Nonnull OutputStream responseStream,
+                                    @Nullable ETagHandler eTagHandler) throws IOException, TransformerException {
+    processRequest(parameterMap, DSDResponseFormat.REGREP, responseStream, eTagHandler);
+  }
+
+  /**
+   * Query the underlying database for the provided parameters and respond in the given format.
+   * <p>
+   * If an entity tag handler is given, it is called before the body is written. Without the response cache,
+   * the directory result is then buffered, the tag is derived from it.
+   *
+   * @param parameterMap   the map that contains the parameters for the queries, may not be null
+   * @param format         the format of the response, may not be null
+   * @param responseStream the stream to write the results in case of success, may not be null
+   * @param eTagHandler    the handler for the entity tag of the response, may be null
+   * @throws IllegalArgumentException if the query parameters are invalid
+   * @throws IllegalStateException    if a problem occurs
+   */
+  public static void processRequest(@Nonnull @Nonempty Map<String, String[]> parameterMap, @Nonnull DSDResponseFormat format,
+                                    @Nonnull OutputStream responseStream, @Nullable ETagHandler eTagHandler) throws IOException, TransformerException {
+    processRequest(parameterMap, format, responseStream, eTagHandler, null);
+  }
+
+  /**
+   * Query the underlying database for the provided parameters and respond in the given format.
+   * <p>
+   * If an entity tag handler is given, it is called before the body is written. Without the response cache,
+   * the directory result is then buffered, the tag is derived from it.
+   *
+   * @param parameterMap   the map that contains the parameters for the queries, may not be null
+   * @param format         the format of the response, may not be null
+   * @param responseStream the stream to write the results in case of success, may not be null
+   * @param eTagHandler    the handler for the entity tag of the response, may be null
+   * @param staleHandler   the handler that is called if the last known good response is served, may be null
+   * @throws IllegalArgumentException if the query parameters are invalid
+   * @throws IllegalStateException    if a problem occurs
+   */
+  public static void processRequest(@Nonnull @Nonempty Map<String, String[]> parameterMap, @Nonnull DSDResponseFormat format,
+                                    @Nonnull OutputStream responseStream, @Nullable ETagHandler eTagHandler,
+                                    @Nullable StaleHandler staleHandler) throws IOException, TransformerException {
     ValueEnforcer.notNull(parameterMap, "parameterMap");
+    ValueEnforcer.notNull(format, "format");
     ValueEnforcer.notNull(responseStream, "responseStream");
 
     if (parameterMap.isEmpty())
       throw new IllegalArgumentException("parameterMap cannot be empty");
 
 
-    final DSDQuery dsdQuery = DSDQuery.resolve(parameterMap);
+    final long startNanos = System.nanoTime();
+    final DSDQuery dsdQuery;
+    try {
+      dsdQuery = DSDQuery.resolve(parameterMap);
+    } catch (RuntimeException ex) {
+      DSDMetrics.recordInvalidRequest();
+      throw ex;
+    }
+
+    final DSDMetrics.QueryMetrics metrics = DSDMetrics.getQueryMetrics(dsdQuery.getQueryId());
+    final MeteredOutputStream meteredStream = new MeteredOutputStream(responseStream);
+    boolean success = false;
+    try {
+      respond(dsdQuery, format, meteredStream, eTagHandler, staleHandler);
+      success = true;
+    } finally {
+      if (meteredStream.hasFailed())
+        metrics.recordError(DSDMetrics.Stage.WRITE);
+      metrics.recordRequest(System.nanoTime() - startNanos, meteredStream.getWriteNanos(), meteredStream.getBytesWritten(), success);
+    }
+  }
+
+  private static void respond(@Nonnull DSDQuery dsdQuery, @Nonnull DSDResponseFormat format, @Nonnull OutputStream responseStream,
+                              @Nullable ETagHandler eTagHandler, @Nullable StaleHandler staleHandler) throws IOException, TransformerException {
+    final DSDResponseCache cache = responseCache;
+    final LastKnownGoodStore store = lastKnownGoodStore;
+    // the RegRep responses keep the plain canonical form as their key, it is shared with the batches
+    final String cacheKey = format == DSDResponseFormat.REGREP ? dsdQuery.getCanonicalForm() : dsdQuery.getCanonicalForm() + "#" + format.name();
+
+    if (cache == null) {
+      final ResultGate gate = eTagHandler == null ? null
+          : directoryResultDigest -> eTagHandler.handleETag(createResultETag(cacheKey, directoryResultDigest));
+      if (store == null) {
+        processQuery(dsdQuery, format, responseStream, gate);
+        return;
+      }
+
+      final LastKnownGoodStore.Capture capture = store.capture(responseStream);
+      try {
+        if (!processQuery(dsdQuery, format, capture, gate))
+          return;
+      } catch (DirectoryUnavailableException ex) {
+        // the breaker fails the call before anything is written, unless it opened between two pages
+        if (capture.getBytesWritten() > 0 || !serveLastKnownGood(store, cacheKey, responseStream, eTagHandler, staleHandler, ex))
+          throw ex;
+        return;
+      }
+      store.put(cacheKey, capture);
+      return;
+    }
 
+    final DSDResponse response;
+    try {
+      response = cache.get(cacheKey, () -> {
+        try (NonBlockingByteArrayOutputStream buffer = new NonBlockingByteArrayOutputStream()) {
+          processQuery(dsdQuery, format, buffer, null);
+          return buffer.toByteArray();
+        }
+      });
+    } catch (DirectoryUnavailableException ex) {
+      if (store == null || !serveLastKnownGood(store, cacheKey, responseStream, eTagHandler, staleHandler, ex))
+        throw ex;
+      return;
+    } catch (IOException | TransformerException | RuntimeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new DSDException(ex.getMessage(), ex);
+    }
+    if (store != null)
+      store.put(cacheKey, response);
+    if (eTagHandler == null || eTagHandler.handleETag(response.getETag()))
+      responseStream.write(response.getBody());
+  }
+
+  /**
+   * The entity tag of a response that is converted from a directory result. It is derived from the query,
+   * the converter settings and the digest of the directory result.
+   *
+   * @param cacheKey              the key of the query and the response format
+   * @param directoryResultDigest the digest of the directory result
+   * @return the entity tag
+   */
+  @Nonnull
+  static String createResultETag(@Nonnull String cacheKey, @Nonnull byte[] directoryResultDigest) {
+    final String converterSettings = DsdDataConverter.getConversionEngine() + "," + DsdDataConverter.isIndent();
+    return DSDResponse.createETagFromParts(cacheKey.getBytes(StandardCharsets.UTF_8),
+        converterSettings.getBytes(StandardCharsets.UTF_8), directoryResultDigest);
+  }
+
+  private static boolean serveLastKnownGood(@Nonnull LastKnownGoodStore store, @Nonnull String cacheKey, @Nonnull OutputStream responseStream,
+                                            @Nullable ETagHandler eTagHandler, @Nullable StaleHandler staleHandler,
+                                            @Nonnull DirectoryUnavailableException cause) throws IOException {
+    final LastKnownGoodStore.Entry entry = store.get(cacheKey);
+    if (entry == null)
+      return false;
+
+    final long ageSeconds = entry.getAgeSeconds();
+    LOGGER.warn(cause.getMessage() + ", serving the last known good response of [" + cacheKey + "] from " + ageSeconds + " seconds ago");
+    DSDMetrics.recordStaleResponse();
+    if (staleHandler != null)
+      staleHandler.handleStale(ageSeconds);
+    final DSDResponse response = entry.getResponse();
+    if (eTagHandler == null || eTagHandler.handleETag(response.getETag()))
+      responseStream.write(response.getBody());
+    return true;
+  }
+
+  /**
+   * @return <code>false</code> if the gate refused the directory result and nothing was written
+   */
+  private static boolean processQuery(@Nonnull DSDQuery dsdQuery, @Nonnull DSDResponseFormat format,
+                                      @Nonnull OutputStream responseStream, @Nullable ResultGate gate) throws IOException, TransformerException {
     //currently only one type of query is supported
+    switch (dsdQuery.getQueryId()) {
+      case QUERY_BY_DATASETTYPE_AND_DPTYPE:
+        return processDataSetRequestByDPType(dsdQuery, format, responseStream, gate);
+
+      case QUERY_BY_DATASETTYPE_AND_LOCATION:
+        return processDataSetRequestByLocation(dsdQuery, format, responseStream, gate);
+
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Fetches the buffered directory result of a query, the directory calls can be replaced for the tests
+   *
+   * @param dsdQuery the query
+   * @return the directory result
+   * @throws IOException if a communication problem occurs
+   */
+  @Nonnull
+  static byte[] fetchDirectoryResult(@Nonnull DSDQuery dsdQuery) throws IOException {
+    return directoryFetcher.fetch(dsdQuery);
+  }
+
+  /**
+   * Replaces the directory calls, for the tests
+   *
+   * @param fetcher the fetcher, <code>null</code> to call the directory again
+   */
+  static void setDirectoryFetcher(@Nullable DirectoryFetcher fetcher) {
+    directoryFetcher = fetcher != null ? fetcher : DSDQueryService::fetchFromDirectory;
+  }
+
+  private static byte[] fetchFromDirectory(DSDQuery dsdQuery) throws IOException {
+    final String directoryResult;
+    if (dsdQuery.getQueryId() == DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE) {
+      directoryResult = ToopDirClient.callSearchApiForDpType(DSDConfig.getToopDirUrl(),
+          dsdQuery.safeGetParameterValue(DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE));
+    } else {
+      directoryResult = ToopDirClient.callSearchApiWithCountryCode(DSDConfig.getToopDirUrl(),
+          dsdQuery.safeGetParameterValue(DSDQuery.PARAM_NAME_COUNTRY_CODE));
+    }
+    return directoryResult.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Convert an already available directory result to the response of the given query
+   *
+   * @param dsdQuery        the query
+   * @param directoryResult the directory result of the query
+   * @param responseStream  the result will be written into this stream
+   */
+  static void convert(@Nonnull DSDQuery dsdQuery, @Nonnull Source directoryResult, @Nonnull OutputStream responseStream) throws TransformerException {
+    final String dataSetType = dsdQuery.safeGetParameterValue(DSDQuery.PARAM_NAME_DATA_SET_TYPE);
     switch (dsdQuery.getQueryId()) {
       case QUERY_BY_DATASETTYPE_AND_DPTYPE: {
-        processDataSetRequestByDPType(dsdQuery, responseStream);
+        convertByDPType(DSDResponseFormat.REGREP, directoryResult, dataSetType,
+            dsdQuery.safeGetParameterValue(DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE), responseStream);
         break;
       }
 
       case QUERY_BY_DATASETTYPE_AND_LOCATION: {
-        processDataSetRequestByLocation(dsdQuery, responseStream);
+        convertByLocation(DSDResponseFormat.REGREP, directoryResult, dataSetType,
+            dsdQuery.safeGetParameterValue(DSDQuery.PARAM_NAME_COUNTRY_CODE), responseStream);
         break;
       }
     }
   }
 
+  private static void convertByDPType(@Nonnull DSDResponseFormat format, @Nonnull Source directoryResult, String dataSetType,
+                                      String dpType, @Nonnull OutputStream responseStream) throws TransformerException {
+    if (format == DSDResponseFormat.JSON)
+      DsdStaxConverter.convertToJson(directoryResult, dataSetType, null, dpType, responseStream);
+    else
+      DsdDataConverter.convertDIRToDSDWithDPType(directoryResult, dataSetType, dpType, responseStream);
+  }
+
+  private static void convertByLocation(@Nonnull DSDResponseFormat format, @Nonnull Source directoryResult, String dataSetType,
+                                        String countryCode, @Nonnull OutputStream responseStream) throws TransformerException {
+    if (format == DSDResponseFormat.JSON)
+      DsdStaxConverter.convertToJson(directoryResult, dataSetType, countryCode, null, responseStream);
+    else
+      DsdDataConverter.convertDIRToDSDWithCountryCode(directoryResult, dataSetType, countryCode, responseStream);
+  }
+
+  /**
+   * Sets the cache for the query responses.
+   *
+   * @param cache the cache, <code>null</code> to disable caching
+   */
+  public static void setResponseCache(@Nullable DSDResponseCache cache) {
+    responseCache = cache;
+  }
+
+  /**
+   * Gets the cache for the query responses.
+   *
+   * @return the cache, <code>null</code> if caching is disabled
+   */
+  @Nullable
+  public static DSDResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  /**
+   * Sets the store of the last successful responses, which are served while the directory is unavailable.
+   *
+   * @param store the store, <code>null</code> to disable the fallback
+   */
+  public static void setLastKnownGoodStore(@Nullable LastKnownGoodStore store) {
+    lastKnownGoodStore = store;
+  }
+
+  /**
+   * Gets the store of the last successful responses.
+   *
+   * @return the store, <code>null</code> if the fallback is disabled
+   */
+  @Nullable
+  public static LastKnownGoodStore getLastKnownGoodStore() {
+    return lastKnownGoodStore;
+  }
+
   /**
    * Processes the incoming parameter map as a dataset request parameter map and performs a dataset request with respect to
    * <code>urn:toop:dsd:ebxml-regrem:queries:ByDatasetTypeAndDPType</code>
@@ -86,7 +435,27 @@ public class DSDQueryService {
    * @throws IOException if an io problem occurs.
    */
   public static void processDataSetRequestByDPType(DSDQuery dsdQuery, OutputStream responseStream) throws IOException, TransformerException {
+    processDataSetRequestByDPType(dsdQuery, DSDResponseFormat.REGREP, responseStream);
+  }
+
+  /**
+   * Processes the incoming parameter map as a dataset request parameter map and performs a dataset request with respect to
+   * <code>urn:toop:dsd:ebxml-regrem:queries:ByDatasetTypeAndDPType</code>
+   *
+   * @param dsdQuery       the parameters resolved as a {@link DSDQuery} object
+   * @param format         the format of the response
+   * @param responseStream the result will be written into this stream
+   * @throws IOException if an io problem occurs.
+   */
+  public static void processDataSetRequestByDPType(@Nonnull DSDQuery dsdQuery, @Nonnull DSDResponseFormat format,
+                                                   @Nonnull OutputStream responseStream) throws IOException, TransformerException {
+    processDataSetRequestByDPType(dsdQuery, format, responseStream, null);
+  }
+
+  private static boolean processDataSetRequestByDPType(@Nonnull DSDQuery dsdQuery, @Nonnull DSDResponseFormat format,
+                                                       @Nonnull OutputStream responseStream, @Nullable ResultGate gate) throws IOException, TransformerException {
     ValueEnforcer.notNull(dsdQuery, "dsdQuery");
+    ValueEnforcer.notNull(format, "format");
     ValueEnforcer.notNull(responseStream, "responseStream");
 
 
@@ -95,12 +464,31 @@ public class DSDQueryService {
 
     LOGGER.debug("Processing data set request [dataSetType: " + dataSetType + ", dpType: " + dpType + "]");
 
-    //query all the matches without a document type id.
-    final String directoryResult = ToopDirClient.callSearchApiForDpType(DSDConfig.getToopDirUrl(), dpType);
-
-    String resultXml = DsdDataConverter.convertDIRToDSDWithDPType(directoryResult, dataSetType, dpType);
-
-    responseStream.write(resultXml.getBytes(StandardCharsets.UTF_8));
+    final QueryTimer timer = new QueryTimer(DSDMetrics.getQueryMetrics(DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE), responseStream);
+    try {
+      final DirectorySnapshot snapshot = DirectorySnapshotService.getSnapshot();
+      if (snapshot != null) {
+        if (gate != null && !gate.accept(snapshot.getDirectoryResultDigest(dataSetType, null, dpType)))
+          return timer.notConverted();
+        final Source directoryResult = timer.startConversion(snapshot.getDirectoryResult(dataSetType, null, dpType));
+        convertByDPType(format, directoryResult, dataSetType, dpType, responseStream);
+      } else if (gate != null) {
+        final byte[] directoryResult = fetchDirectoryResult(dsdQuery);
+        if (!gate.accept(DSDResponse.digest(directoryResult)))
+          return timer.notConverted();
+        convertByDPType(format, timer.startConversion(new StreamSource(new ByteArrayInputStream(directoryResult))), dataSetType, dpType,
+            responseStream);
+      } else {
+        //query all the matches without a document type id and stream them through the converter to the response.
+        ToopDirClient.callSearchApiForDpType(DSDConfig.getToopDirUrl(), dpType,
+            directoryResult -> convertByDPType(format, timer.startConversion(directoryResult), dataSetType, dpType, responseStream));
+      }
+      timer.finished();
+      return true;
+    } catch (IOException | TransformerException | RuntimeException ex) {
+      timer.failed();
+      throw ex;
+    }
   }
 
   /**
@@ -112,7 +500,27 @@ public class DSDQueryService {
    * @throws IOException if an io problem occurs.
    */
   public static void processDataSetRequestByLocation(@Nonnull DSDQuery dsdQuery, @Nonnull OutputStream responseStream) throws IOException, TransformerException {
+    processDataSetRequestByLocation(dsdQuery, DSDResponseFormat.REGREP, responseStream);
+  }
+
+  /**
+   * Processes the incoming parameter map as a dataset request parameter map and performs a dataset request with respect to
+   * <code>urn:toop:dsd:ebxml-regrem:queries:ByDatasetTypeAndLocation</code>
+   *
+   * @param dsdQuery       the parameters resolved as a {@link DSDQuery} object
+   * @param format         the format of the response
+   * @param responseStream the result will be written into this stream
+   * @throws IOException if an io problem occurs.
+   */
+  public static void processDataSetRequestByLocation(@Nonnull DSDQuery dsdQuery, @Nonnull DSDResponseFormat format,
+                                                     @Nonnull OutputStream responseStream) throws IOException, TransformerException {
+    processDataSetRequestByLocation(dsdQuery, format, responseStream, null);
+  }
+
+  private static boolean processDataSetRequestByLocation(@Nonnull DSDQuery dsdQuery, @Nonnull DSDResponseFormat format,
+                                                         @Nonnull OutputStream responseStream, @Nullable ResultGate gate) throws IOException, TransformerException {
     ValueEnforcer.notNull(dsdQuery, "dsdQuery");
+    ValueEnforcer.notNull(format, "format");
     ValueEnforcer.notNull(responseStream, "responseStream");
 
 
@@ -122,11 +530,30 @@ public class DSDQueryService {
     LOGGER.debug("Processing data set request [dataSetType: " + dataSetType +
         ", countryCode: " + countryCode + "]");
 
-    //query all the matches without a document type id.
-    final String directoryResult = ToopDirClient.callSearchApiWithCountryCode(DSDConfig.getToopDirUrl(), countryCode);
-
-    String resultXml = DsdDataConverter.convertDIRToDSDWithCountryCode(directoryResult, dataSetType, countryCode);
-
-    responseStream.write(resultXml.getBytes(StandardCharsets.UTF_8));
+    final QueryTimer timer = new QueryTimer(DSDMetrics.getQueryMetrics(DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION), responseStream);
+    try {
+      final DirectorySnapshot snapshot = DirectorySnapshotService.getSnapshot();
+      if (snapshot != null && DirectorySnapshotService.isCountryCovered(countryCode)) {
+        if (gate != null && !gate.accept(snapshot.getDirectoryResultDigest(dataSetType, countryCode, null)))
+          return timer.notConverted();
+        final Source directoryResult = timer.startConversion(snapshot.getDirectoryResult(dataSetType, countryCode, null));
+        convertByLocation(format, directoryResult, dataSetType, countryCode, responseStream);
+      } else if (gate != null) {
+        final byte[] directoryResult = fetchDirectoryResult(dsdQuery);
+        if (!gate.accept(DSDResponse.digest(directoryResult)))
+          return timer.notConverted();
+        convertByLocation(format, timer.startConversion(new StreamSource(new ByteArrayInputStream(directoryResult))), dataSetType, countryCode,
+            responseStream);
+      } else {
+        //query all the matches without a document type id and stream them through the converter to the response.
+        ToopDirClient.callSearchApiWithCountryCode(DSDConfig.getToopDirUrl(), countryCode,
+            directoryResult -> convertByLocation(format, timer.startConversion(directoryResult), dataSetType, countryCode, responseStream));
+      }
+      timer.finished();
+      return true;
+    } catch (IOException | TransformerException | RuntimeException ex) {
+      timer.failed();
+      throw ex;
+    }
   }
 }
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A serialized DSD response together with its weak entity tag.
+ * <p>
+ * The entity tag is derived from a SHA-256 hash of the body. The XSLT converter gives every
+ * <code>RegistryObject</code> a generated id that differs from one transformation to the next, so the
+ * values of these ids are left out of the hash. Two responses thus have the same tag if they only differ
+ * in their generated ids, regardless of when and where they were created, and the tag is weak because
+ * such responses are equivalent rather than byte-identical.
+ *
+ * @author yerlibilgin
+ */
+public final class DSDResponse {
+  /**
+   * The number of hash bytes in the entity tag, 128 bits are more than enough to tell responses apart
+   */
+  private static final int ETAG_HASH_BYTES = 16;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final byte[] REGISTRY_OBJECT = "RegistryObject".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ID_ATTRIBUTE = "id=".getBytes(StandardCharsets.US_ASCII);
+
+  private final byte[] body;
+  private final String eTag;
+
+  /**
+   * @param body the serialized response
+   */
+  public DSDResponse(@Nonnull byte[] body) {
+    ValueEnforcer.notNull(body, "body");
+    this.body = body;
+    this.eTag = createETag(body);
+  }
+
+  /**
+   * @return the serialized response, must not be modified
+   */
+  @Nonnull
+  public byte[] getBody() {
+    return body;
+  }
+
+  /**
+   * @return the weak entity tag of the response, including the <code>W/</code> prefix and the quotes
+   */
+  @Nonnull
+  public String getETag() {
+    return eTag;
+  }
+
+  /**
+   * Create the weak entity tag of a response body, ignoring the ids of the <code>RegistryObject</code>
+   * elements.
+   *
+   * @param body the serialized response
+   * @return the entity tag, including the <code>W/</code> prefix and the quotes
+   */
+  @Nonnull
+  static String createETag(@Nonnull byte[] body) {
+    final MessageDigest digest = createDigest();
+    int start = 0;
+    int pos = 0;
+    while ((pos = indexOf(body, REGISTRY_OBJECT, pos)) >= 0) {
+      pos += REGISTRY_OBJECT.length;
+      if (!isRegistryObjectStartTag(body, pos - REGISTRY_OBJECT.length))
+        continue;
+
+      // skip the value of the id attribute of this start tag, if there is one
+      for (int i = pos; i < body.length && body[i] != '>'; ++i) {
+        if (startsWith(body, ID_ATTRIBUTE, i) && isWhitespace(body[i - 1]) && i + ID_ATTRIBUTE.length < body.length) {
+          final int valueStart = i + ID_ATTRIBUTE.length + 1;
+          final byte quote = body[valueStart - 1];
+          int valueEnd = valueStart;
+          while (valueEnd < body.length && body[valueEnd] != quote)
+            ++valueEnd;
+          digest.update(body, start, valueStart - start);
+          start = valueEnd;
+          pos = valueEnd;
+          break;
+        }
+      }
+    }
+    digest.update(body, start, body.length - start);
+    return toETag(digest.digest());
+  }
+
+  /**
+   * Create the weak entity tag of a response that is fully determined by the given parts, e.g. the
+   * query and the directory result it is converted from, without creating the response itself.
+   *
+   * @param parts the parts in a fixed order
+   * @return the entity tag, including the <code>W/</code> prefix and the quotes
+   */
+  @Nonnull
+  public static String createETagFromParts(@Nonnull byte[]... parts) {
+    ValueEnforcer.notNull(parts, "parts");
+    final MessageDigest digest = createDigest();
+    for (byte[] part : parts) {
+      // the length keeps the boundaries of the parts apart
+      final int length = part.length;
+      digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+      digest.update(part);
+    }
+    return toETag(digest.digest());
+  }
+
+  /**
+   * @param data the data to hash
+   * @return the SHA-256 digest of the data
+   */
+  @Nonnull
+  static byte[] digest(@Nonnull byte[] data) {
+    return createDigest().digest(data);
+  }
+
+  /**
+   * @return <code>true</code> if the name at <code>nameStart</code> is the (possibly prefixed) name of a start tag
+   */
+  private static boolean isRegistryObjectStartTag(byte[] body, int nameStart) {
+    final int nameEnd = nameStart + REGISTRY_OBJECT.length;
+    if (nameEnd >= body.length || !(isWhitespace(body[nameEnd]) || body[nameEnd] == '>' || body[nameEnd] == '/'))
+      return false;
+
+    int i = nameStart - 1;
+    if (i >= 0 && body[i] == ':') {
+      --i;
+      while (i >= 0 && body[i] != '<' && body[i] != '/' && !isWhitespace(body[i]) && body[i] != '>')
+        --i;
+    }
+    return i >= 0 && body[i] == '<';
+  }
+
+  private static int indexOf(byte[] body, byte[] pattern, int from) {
+    for (int i = from; i <= body.length - pattern.length; ++i) {
+      if (startsWith(body, pattern, i))
+        return i;
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(byte[] body, byte[] pattern, int offset) {
+    if (offset + pattern.length > body.length)
+      return false;
+    for (int i = 0; i < pattern.length; ++i) {
+      if (body[offset + i] != pattern[i])
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every JRE supports SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toETag(byte[] hash) {
+    final StringBuilder sb = new StringBuilder(ETAG_HASH_BYTES * 2 + 4).append("W/\"");
+    for (int i = 0; i < ETAG_HASH_BYTES; ++i) {
+      sb.append(HEX[(hash[i] >> 4) & 0xf]).append(HEX[hash[i] & 0xf]);
+    }
+    return sb.append('"').toString();
+  }
+}
@@ -0,0 +1,384 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A cache for the serialized DSD responses, keyed by the canonical form of the DSD query.
+ * <p>
+ * The cache is bounded by the total size of the cached responses; when it is exceeded, the least
+ * recently used entries are evicted. An entry is fresh for <code>ttl</code> after it was loaded. After
+ * that it is still served for another <code>staleWhileRevalidate</code> period, while a single
+ * background refresh reloads it. Entries older than both are reloaded synchronously.
+ * <p>
+ * Concurrent misses of the same key are coalesced: one of them loads the response, the others wait for it
+ * and share the result (or the failure), so a burst of identical queries calls the directory only once.
+ * <p>
+ * Lookups don't take any lock; only the insertion of new entries is serialized.
+ *
+ * @author yerlibilgin
+ */
+public class DSDResponseCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DSDResponseCache.class);
+
+  /**
+   * A rough estimate of the memory used by an entry besides its key and body
+   */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  /**
+   * When the cache is full, it is shrunk to this ratio of its maximum size, so that eviction doesn't
+   * run for every insertion
+   */
+  private static final double EVICTION_LOW_WATER_MARK = 0.9;
+
+  /**
+   * Loads the response of a query
+   */
+  @FunctionalInterface
+  public interface Loader {
+    /**
+     * @return the serialized response
+     * @throws Exception if the response cannot be created
+     */
+    @Nonnull
+    byte[] load() throws Exception;
+  }
+
+  private static final class Entry {
+    private final String key;
+    private final DSDResponse response;
+    private final long loadTime;
+    private final long weight;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long lastAccess;
+
+    private Entry(String key, DSDResponse response, long loadTime, long lastAccess) {
+      this.key = key;
+      this.response = response;
+      this.loadTime = loadTime;
+      this.lastAccess = lastAccess;
+      this.weight = ENTRY_OVERHEAD + 2L * key.length() + response.getBody().length;
+    }
+  }
+
+  private final long maxBytes;
+  private final long ttlNanos;
+  private final long staleNanos;
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  /**
+   * The running synchronous loads, by key
+   */
+  private final ConcurrentHashMap<String, CompletableFuture<DSDResponse>> loads = new ConcurrentHashMap<>();
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final AtomicLong totalBytes = new AtomicLong();
+  /**
+   * A logical clock for the access order, cheaper and more precise than the wall clock
+   */
+  private final AtomicLong accessClock = new AtomicLong();
+  private final ExecutorService refreshExecutor;
+  private final LongSupplier nanoClock;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder staleHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder coalescedMisses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder refreshes = new LongAdder();
+  private final LongAdder refreshFailures = new LongAdder();
+
+  /**
+   * Create a new cache
+   *
+   * @param maxBytes                    the maximum total size of the cached responses
+   * @param ttlSeconds                  the time an entry is fresh after it was loaded
+   * @param staleWhileRevalidateSeconds the time an expired entry is still served while it is refreshed
+   * @param refreshThreads              the number of threads for the background refreshes
+   */
+  public DSDResponseCache(long maxBytes, long ttlSeconds, long staleWhileRevalidateSeconds, int refreshThreads) {
+    this(maxBytes, ttlSeconds, staleWhileRevalidateSeconds, refreshThreads, System::nanoTime);
+  }
+
+  /**
+   * Create a new cache with the given clock, for the tests
+   */
+  DSDResponseCache(long maxBytes, long ttlSeconds, long staleWhileRevalidateSeconds, int refreshThreads, @Nonnull LongSupplier nanoClock) {
+    ValueEnforcer.isGT0(maxBytes, "maxBytes");
+    ValueEnforcer.isGT0(ttlSeconds, "ttlSeconds");
+    ValueEnforcer.isGE0(staleWhileRevalidateSeconds, "staleWhileRevalidateSeconds");
+    ValueEnforcer.isGT0(refreshThreads, "refreshThreads");
+    ValueEnforcer.notNull(nanoClock, "nanoClock");
+
+    this.maxBytes = maxBytes;
+    this.nanoClock = nanoClock;
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    this.staleNanos = TimeUnit.SECONDS.toNanos(staleWhileRevalidateSeconds);
+
+    final AtomicLong threadCounter = new AtomicLong();
+    this.refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(1024), r -> {
+      final Thread thread = new Thread(r, "dsd-cache-refresh-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Returns the cached response for the given key, or loads and caches it. A failed load is not cached.
+   * If the same key is already being loaded, waits for that load instead of calling the loader.
+   * The entity tag of the response is computed only once, when it is loaded.
+   *
+   * @param key    the canonical form of the query
+   * @param loader the loader that creates the response
+   * @return the response
+   * @throws Exception if the loader fails
+   */
+  @Nonnull
+  public DSDResponse get(@Nonnull String key, @Nonnull Loader loader) throws Exception {
+    ValueEnforcer.notNull(key, "key");
+    ValueEnforcer.notNull(loader, "loader");
+
+    final long now = nanoClock.getAsLong();
+    final Entry entry = entries.get(key);
+    if (entry != null) {
+      final long age = now - entry.loadTime;
+      if (age < ttlNanos) {
+        hits.increment();
+        entry.lastAccess = accessClock.incrementAndGet();
+        return entry.response;
+      }
+
+      if (age < ttlNanos + staleNanos) {
+        staleHits.increment();
+        entry.lastAccess = accessClock.incrementAndGet();
+        scheduleRefresh(entry, loader);
+        return entry.response;
+      }
+    }
+
+    final CompletableFuture<DSDResponse> load = new CompletableFuture<>();
+    final CompletableFuture<DSDResponse> running = loads.putIfAbsent(key, load);
+    if (running != null) {
+      coalescedMisses.increment();
+      return await(running);
+    }
+
+    misses.increment();
+    try {
+      final DSDResponse response = new DSDResponse(loader.load());
+      put(key, response);
+      load.complete(response);
+      return response;
+    } catch (Exception | Error ex) {
+      load.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      loads.remove(key, load);
+    }
+  }
+
+  private static DSDResponse await(CompletableFuture<DSDResponse> running) throws Exception {
+    try {
+      return running.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw ex;
+    } catch (ExecutionException ex) {
+      final Throwable cause = ex.getCause();
+      if (cause instanceof Exception)
+        throw (Exception) cause;
+      throw (Error) cause;
+    }
+  }
+
+  private void scheduleRefresh(Entry entry, Loader loader) {
+    if (!entry.refreshing.compareAndSet(false, true))
+      return;
+
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          final DSDResponse response = new DSDResponse(loader.load());
+          refreshes.increment();
+          put(entry.key, response);
+        } catch (Exception ex) {
+          refreshFailures.increment();
+          LOGGER.warn("Failed to refresh the cached response for [" + entry.key + "]: " + ex.getMessage());
+        } finally {
+          entry.refreshing.set(false);
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      entry.refreshing.set(false);
+      LOGGER.warn("Too many pending cache refreshes, serving [" + entry.key + "] stale");
+    }
+  }
+
+  private void put(String key, DSDResponse response) {
+    final Entry entry = new Entry(key, response, nanoClock.getAsLong(), accessClock.incrementAndGet());
+    if (entry.weight > maxBytes) {
+      LOGGER.debug("Not caching the response for [" + key + "], it is larger than the cache");
+      return;
+    }
+
+    writeLock.lock();
+    try {
+      final Entry previous = entries.put(key, entry);
+      totalBytes.addAndGet(entry.weight - (previous == null ? 0 : previous.weight));
+      if (totalBytes.get() > maxBytes)
+        evict();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Evicts the least recently used entries until the cache is below its low water mark. Must be called with the
+   * write lock held.
+   */
+  private void evict() {
+    final long target = (long) (maxBytes * EVICTION_LOW_WATER_MARK);
+    final List<Entry> candidates = new ArrayList<>(entries.values());
+    candidates.sort(Comparator.comparingLong(e -> e.lastAccess));
+
+    for (Entry candidate : candidates) {
+      if (totalBytes.get() <= target)
+        break;
+      if (entries.remove(candidate.key, candidate)) {
+        totalBytes.addAndGet(-candidate.weight);
+        evictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Removes all the entries
+   */
+  public void clear() {
+    writeLock.lock();
+    try {
+      entries.clear();
+      totalBytes.set(0);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Stops the background refreshes
+   */
+  public void shutdown() {
+    refreshExecutor.shutdownNow();
+  }
+
+  /**
+   * @return the number of cached responses
+   */
+  public int getSize() {
+    return entries.size();
+  }
+
+  /**
+   * @return the estimated total size of the cached responses in bytes
+   */
+  public long getTotalBytes() {
+    return totalBytes.get();
+  }
+
+  /**
+   * @return the number of lookups answered with a fresh entry
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * @return the number of lookups answered with an expired entry while it was being refreshed
+   */
+  public long getStaleHitCount() {
+    return staleHits.sum();
+  }
+
+  /**
+   * @return the number of lookups that had to load the response
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * @return the number of lookups that waited for the load of another lookup with the same key
+   */
+  public long getCoalescedMissCount() {
+    return coalescedMisses.sum();
+  }
+
+  /**
+   * @return the number of entries evicted because the cache was full
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return the number of successful background refreshes
+   */
+  public long getRefreshCount() {
+    return refreshes.sum();
+  }
+
+  /**
+   * @return the number of failed background refreshes
+   */
+  public long getRefreshFailureCount() {
+    return refreshFailures.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "DSDResponseCache [entries: " + getSize() + ", bytes: " + getTotalBytes() + "/" + maxBytes +
+        ", hits: " + getHitCount() + ", staleHits: " + getStaleHitCount() + ", misses: " + getMissCount() +
+        ", coalescedMisses: " + getCoalescedMissCount() +
+        ", evictions: " + getEvictionCount() + ", refreshes: " + getRefreshCount() +
+        ", refreshFailures: " + getRefreshFailureCount() + "]";
+  }
+}
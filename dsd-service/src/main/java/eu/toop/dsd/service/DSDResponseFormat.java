@@ -0,0 +1,52 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import javax.annotation.Nonnull;
+
+import eu.toop.dsd.api.DSDJson;
+
+/**
+ * The formats of the DSD query responses
+ *
+ * @author yerlibilgin
+ */
+public enum DSDResponseFormat {
+  /**
+   * The RegRep <code>QueryResponse</code>, converted with the configured conversion engine
+   */
+  REGREP("application/xml"),
+  /**
+   * The compact JSON form of {@link DSDJson}, written directly from the directory result
+   */
+  JSON(DSDJson.CONTENT_TYPE);
+
+  private final String contentType;
+
+  DSDResponseFormat(String contentType) {
+    this.contentType = contentType;
+  }
+
+  /**
+   * @return the content type of the responses in this format
+   */
+  @Nonnull
+  public String getContentType() {
+    return contentType;
+  }
+}
@@ -0,0 +1,342 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.dsd.api.DsdDataConverter;
+import eu.toop.dsd.api.DsdStaxConverter;
+
+/**
+ * The warm-up of the DSD service. The warm-up runs in the background after the start, in a fixed
+ * order of {@link Phase}s, e.g. compiling the stylesheet, running conversions so that the JIT compiles
+ * the hot paths, opening the directory connections and loading the directory snapshot. Until all the
+ * phases are finished, the service reports itself as not ready, so that a load balancer can keep the
+ * traffic away from it.
+ * <p>
+ * A phase is either required or best effort: if a required phase fails, the service stays
+ * {@link State#FAILED}; the failure of a best effort phase is only logged.
+ *
+ * @author yerlibilgin
+ */
+public final class DSDWarmUp {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DSDWarmUp.class);
+
+  /**
+   * The state of the warm-up
+   */
+  public enum State {
+    /**
+     * The warm-up has not finished yet
+     */
+    WARMING_UP,
+    /**
+     * All the phases are finished, the service is ready
+     */
+    READY,
+    /**
+     * A required phase failed, the service cannot serve the queries
+     */
+    FAILED
+  }
+
+  /**
+   * A step of the warm-up
+   */
+  @FunctionalInterface
+  public interface Step {
+    /**
+     * @throws Exception if the step fails
+     */
+    void run() throws Exception;
+  }
+
+  /**
+   * A named phase of the warm-up and its outcome
+   */
+  public static final class Phase {
+    private final String name;
+    private final boolean required;
+    private final Step step;
+    private volatile long durationNanos = -1;
+    private volatile boolean failed;
+
+    /**
+     * @param name     the name of the phase, reported by the health check
+     * @param required whether the service is unusable if this phase fails
+     * @param step     the work of the phase
+     */
+    public Phase(@Nonnull String name, boolean required, @Nonnull Step step) {
+      ValueEnforcer.notEmpty(name, "name");
+      ValueEnforcer.notNull(step, "step");
+      this.name = name;
+      this.required = required;
+      this.step = step;
+    }
+
+    @Nonnull
+    public String getName() {
+      return name;
+    }
+
+    public boolean isRequired() {
+      return required;
+    }
+
+    /**
+     * @return the duration of the phase in milliseconds, -1 if it hasn't finished yet
+     */
+    public long getDurationMillis() {
+      final long nanos = durationNanos;
+      return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @return <code>true</code> if the phase failed
+     */
+    public boolean isFailed() {
+      return failed;
+    }
+  }
+
+  /**
+   * A directory result that is converted during the warm-up, with the parameters of the queries that are
+   * run on it
+   */
+  public static final class Input {
+    private final String resource;
+    private final String datasetType;
+    private final String countryCode;
+    private final String dpType;
+
+    /**
+     * @param resource    the class path resource of the directory result
+     * @param datasetType the dataset type of the queries
+     * @param countryCode the country code of the query by location
+     * @param dpType      the data provider type of the query by data provider type
+     */
+    public Input(@Nonnull String resource, @Nonnull String datasetType, @Nonnull String countryCode, @Nonnull String dpType) {
+      ValueEnforcer.notEmpty(resource, "resource");
+      ValueEnforcer.notNull(datasetType, "datasetType");
+      ValueEnforcer.notNull(countryCode, "countryCode");
+      ValueEnforcer.notNull(dpType, "dpType");
+      this.resource = resource;
+      this.datasetType = datasetType;
+      this.countryCode = countryCode;
+      this.dpType = dpType;
+    }
+
+    @Override
+    public String toString() {
+      return resource + " [datasetType: " + datasetType + ", countryCode: " + countryCode + ", dpType: " + dpType + "]";
+    }
+  }
+
+  /**
+   * Discards the converted results
+   */
+  private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  private static volatile State state = State.WARMING_UP;
+  private static volatile List<Phase> phases = Collections.emptyList();
+  private static volatile long durationNanos = -1;
+  private static ExecutorService executor;
+
+  private DSDWarmUp() {
+  }
+
+  /**
+   * Starts the warm-up in the background. The phases are run one after the other, in the given order.
+   * Without phases the service is ready immediately.
+   *
+   * @param warmUpPhases the phases of the warm-up, may be empty
+   */
+  public static synchronized void start(@Nonnull List<Phase> warmUpPhases) {
+    ValueEnforcer.notNull(warmUpPhases, "warmUpPhases");
+
+    stop();
+
+    phases = Collections.unmodifiableList(new ArrayList<>(warmUpPhases));
+    state = State.WARMING_UP;
+    durationNanos = -1;
+
+    final List<Phase> toRun = phases;
+    executor = Executors.newSingleThreadExecutor(r -> {
+      final Thread thread = new Thread(r, "dsd-warmup");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.execute(() -> run(toRun));
+  }
+
+  /**
+   * Stops a running warm-up. The service is not ready afterwards.
+   */
+  public static synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    state = State.WARMING_UP;
+  }
+
+  private static void run(List<Phase> toRun) {
+    LOGGER.info("DSD warm-up started with " + toRun.size() + " phases");
+    final long start = System.nanoTime();
+    boolean failed = false;
+
+    for (Phase phase : toRun) {
+      if (Thread.currentThread().isInterrupted())
+        return;
+
+      final long phaseStart = System.nanoTime();
+      try {
+        phase.step.run();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception | LinkageError ex) {
+        // LinkageError: a class that cannot be initialized, e.g. the stylesheet doesn't compile
+        phase.failed = true;
+        if (phase.required) {
+          LOGGER.error("DSD warm-up phase '" + phase.name + "' failed: " + ex.getMessage(), ex);
+          failed = true;
+        } else {
+          LOGGER.warn("DSD warm-up phase '" + phase.name + "' failed, continuing: " + ex.getMessage());
+        }
+      }
+      phase.durationNanos = System.nanoTime() - phaseStart;
+      LOGGER.info("DSD warm-up phase '" + phase.name + "' " + (phase.failed ? "failed" : "finished") + " in " +
+          phase.getDurationMillis() + " ms");
+      if (failed)
+        break;
+    }
+
+    durationNanos = System.nanoTime() - start;
+    DSDMetrics.recordWarmUp(durationNanos);
+    state = failed ? State.FAILED : State.READY;
+    LOGGER.info("DSD warm-up " + (failed ? "failed" : "finished") + " in " + getDurationMillis() + " ms, the service is " +
+        (failed ? "not ready" : "ready"));
+  }
+
+  /**
+   * @return the state of the warm-up
+   */
+  @Nonnull
+  public static State getState() {
+    return state;
+  }
+
+  /**
+   * @return <code>true</code> if the warm-up is finished successfully and the service can serve the queries
+   */
+  public static boolean isReady() {
+    return state == State.READY;
+  }
+
+  /**
+   * @return the duration of the whole warm-up in milliseconds, -1 if it hasn't finished yet
+   */
+  public static long getDurationMillis() {
+    final long nanos = durationNanos;
+    return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  /**
+   * @return the phases of the current warm-up, in the order they are run
+   */
+  @Nonnull
+  public static List<Phase> getPhases() {
+    return phases;
+  }
+
+  /**
+   * Runs the queries of each input a number of times with the configured conversion engine, once for each
+   * query type and once for the JSON form of the result. The results are discarded.
+   *
+   * @param inputs     the inputs, may not be <code>null</code>
+   * @param iterations the number of runs per input
+   * @throws IOException          if an input cannot be read
+   * @throws TransformerException if a conversion fails
+   */
+  public static void runConversions(@Nonnull List<Input> inputs, int iterations) throws IOException, TransformerException {
+    ValueEnforcer.notNull(inputs, "inputs");
+
+    final List<byte[]> directoryResults = new ArrayList<>(inputs.size());
+    for (Input input : inputs) {
+      directoryResults.add(readResource(input.resource));
+    }
+
+    for (int iteration = 0; iteration < iterations; ++iteration) {
+      for (int i = 0; i < inputs.size(); ++i) {
+        final Input input = inputs.get(i);
+        final byte[] directoryResult = directoryResults.get(i);
+        DsdDataConverter.convertDIRToDSDWithCountryCode(createSource(directoryResult), input.datasetType, input.countryCode,
+            NULL_OUTPUT_STREAM);
+        DsdDataConverter.convertDIRToDSDWithDPType(createSource(directoryResult), input.datasetType, input.dpType,
+            NULL_OUTPUT_STREAM);
+        DsdStaxConverter.convertToJson(createSource(directoryResult), input.datasetType, input.countryCode, null,
+            NULL_OUTPUT_STREAM);
+      }
+    }
+  }
+
+  @Nonnull
+  private static byte[] readResource(@Nonnull String resource) throws IOException {
+    final InputStream inputStream = DSDWarmUp.class.getResourceAsStream(resource);
+    if (inputStream == null)
+      throw new IOException("Warm-up input " + resource + " not found");
+    final byte[] bytes = StreamHelper.getAllBytes(inputStream);
+    if (bytes == null)
+      throw new IOException("Couldn't read the warm-up input " + resource);
+    return bytes;
+  }
+
+  @Nonnull
+  private static Source createSource(@Nonnull byte[] directoryResult) {
+    return new StreamSource(new ByteArrayInputStream(directoryResult));
+  }
+}
@@ -0,0 +1,369 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * An immutable in-memory copy of the TOOP Directory, indexed by the values the DSD queries
+ * filter on.
+ * <p>
+ * The indexes are keyed by the normalized doctype ids, the entity country codes and the joined
+ * data provider types of the entities. Since the DSD filters with <code>contains</code> rather than
+ * equality, a lookup scans the (few) distinct keys of an index and unions the matches of the keys
+ * that contain the queried value. The result is a <code>resultlist</code> that only contains the
+ * candidate matches, which yields the same DSD response as the full directory result. The DSD converter
+ * still runs on the result, it renders the response and drops the parts of a match that don't fit.
+ * <p>
+ * The number of distinct queries is small (dataset types times countries or data provider types), so the
+ * encoded result of every query is kept until the snapshot is replaced and a repeated query neither scans
+ * the indexes nor concatenates the matches again.
+ * <p>
+ * A snapshot can be persisted and memory-mapped again with {@link DirectorySnapshotFile}.
+ *
+ * @author yerlibilgin
+ */
+public final class DirectorySnapshot {
+  private static final String DATA_PROVIDER_TYPE_SCHEME = "DataProviderType";
+  /**
+   * The cached results are dropped when their total size exceeds this limit
+   */
+  private static final long MAX_CACHED_RESULT_BYTES = 32L * 1024 * 1024;
+
+  private final long creationTime;
+  /**
+   * The serialized <code>match</code> elements in directory order
+   */
+  private final List<String> matches;
+  private final Map<String, BitSet> docTypeIndex;
+  private final Map<String, BitSet> countryCodeIndex;
+  private final Map<String, BitSet> dpTypeIndex;
+  /**
+   * The encoded results by [datasetType, countryCode, dpType]
+   */
+  private final ConcurrentHashMap<List<String>, byte[]> resultCache = new ConcurrentHashMap<>();
+  /**
+   * The digests of the cached results, for the entity tags of the responses
+   */
+  private final ConcurrentHashMap<List<String>, byte[]> resultDigests = new ConcurrentHashMap<>();
+  private final AtomicLong resultCacheBytes = new AtomicLong();
+
+  private DirectorySnapshot(Builder builder) {
+    this.creationTime = System.currentTimeMillis();
+    this.matches = Collections.unmodifiableList(new ArrayList<>(builder.matches));
+    this.docTypeIndex = copyIndex(builder.docTypeIndex);
+    this.countryCodeIndex = copyIndex(builder.countryCodeIndex);
+    this.dpTypeIndex = copyIndex(builder.dpTypeIndex);
+  }
+
+  /**
+   * Create a snapshot from already built parts, e.g. the lazily decoded matches of a mapped snapshot file.
+   * The parts are not copied and must not be modified afterwards.
+   */
+  DirectorySnapshot(long creationTime, @Nonnull List<String> matches, @Nonnull Map<String, BitSet> docTypeIndex,
+                    @Nonnull Map<String, BitSet> countryCodeIndex, @Nonnull Map<String, BitSet> dpTypeIndex) {
+    this.creationTime = creationTime;
+    this.matches = Collections.unmodifiableList(matches);
+    this.docTypeIndex = Collections.unmodifiableMap(docTypeIndex);
+    this.countryCodeIndex = Collections.unmodifiableMap(countryCodeIndex);
+    this.dpTypeIndex = Collections.unmodifiableMap(dpTypeIndex);
+  }
+
+  private static Map<String, BitSet> copyIndex(Map<String, BitSet> index) {
+    final Map<String, BitSet> copy = new HashMap<>(index.size() * 2);
+    index.forEach((key, value) -> copy.put(key, (BitSet) value.clone()));
+    return Collections.unmodifiableMap(copy);
+  }
+
+  /**
+   * @return the time this snapshot was created, in milliseconds since the epoch
+   */
+  public long getCreationTime() {
+    return creationTime;
+  }
+
+  /**
+   * @return the number of matches in this snapshot
+   */
+  public int getMatchCount() {
+    return matches.size();
+  }
+
+  /**
+   * @return the serialized matches in directory order
+   */
+  List<String> getMatches() {
+    return matches;
+  }
+
+  /**
+   * @return the matches by their normalized doctype ids
+   */
+  Map<String, BitSet> getDocTypeIndex() {
+    return docTypeIndex;
+  }
+
+  /**
+   * @return the matches by the country codes of their entities
+   */
+  Map<String, BitSet> getCountryCodeIndex() {
+    return countryCodeIndex;
+  }
+
+  /**
+   * @return the matches by the joined data provider types of their entities
+   */
+  Map<String, BitSet> getDpTypeIndex() {
+    return dpTypeIndex;
+  }
+
+  /**
+   * Creates a directory result that contains the matches for a DSD query. Exactly one of
+   * <code>countryCode</code> and <code>dpType</code> is expected to be set.
+   *
+   * @param datasetType the dataset type, may not be <code>null</code>
+   * @param countryCode the country code, may be <code>null</code>
+   * @param dpType      the data provider type, may be <code>null</code>
+   * @return the directory result that can be passed to the DSD converter
+   */
+  @Nonnull
+  public Source getDirectoryResult(@Nonnull String datasetType, @Nullable String countryCode, @Nullable String dpType) {
+    return new StreamSource(new ByteArrayInputStream(getDirectoryResultBytes(datasetType, countryCode, dpType)));
+  }
+
+  /**
+   * The encoded directory result of {@link #getDirectoryResult(String, String, String)}.
+   *
+   * @return the directory result, must not be modified
+   */
+  @Nonnull
+  byte[] getDirectoryResultBytes(@Nonnull String datasetType, @Nullable String countryCode, @Nullable String dpType) {
+    ValueEnforcer.notNull(datasetType, "datasetType");
+
+    final List<String> key = Arrays.asList(datasetType, countryCode, dpType);
+    byte[] result = resultCache.get(key);
+    if (result == null) {
+      result = createDirectoryResult(datasetType, countryCode, dpType);
+      if (resultCacheBytes.addAndGet(result.length) > MAX_CACHED_RESULT_BYTES) {
+        // unusual query values, start over rather than tracking the usage of every result
+        resultCache.clear();
+        resultDigests.clear();
+        resultCacheBytes.set(result.length);
+      }
+      resultCache.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * The SHA-256 digest of the directory result of {@link #getDirectoryResult(String, String, String)}. It is
+   * computed once per result.
+   *
+   * @return the digest, must not be modified
+   */
+  @Nonnull
+  byte[] getDirectoryResultDigest(@Nonnull String datasetType, @Nullable String countryCode, @Nullable String dpType) {
+    final List<String> key = Arrays.asList(datasetType, countryCode, dpType);
+    byte[] digest = resultDigests.get(key);
+    if (digest == null) {
+      digest = DSDResponse.digest(getDirectoryResultBytes(datasetType, countryCode, dpType));
+      resultDigests.put(key, digest);
+    }
+    return digest;
+  }
+
+  private byte[] createDirectoryResult(String datasetType, @Nullable String countryCode, @Nullable String dpType) {
+    final BitSet candidates = lookup(docTypeIndex, datasetType);
+    if (countryCode != null)
+      candidates.and(lookup(countryCodeIndex, countryCode));
+    if (dpType != null)
+      candidates.and(lookup(dpTypeIndex, dpType));
+
+    final StringBuilder sb = new StringBuilder();
+    sb.append("<resultlist version=\"1.0\" total-result-count=\"").append(candidates.cardinality()).append("\">");
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      sb.append(matches.get(i));
+    }
+    sb.append("</resultlist>");
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static BitSet lookup(Map<String, BitSet> index, String value) {
+    final BitSet result = new BitSet();
+    for (Map.Entry<String, BitSet> entry : index.entrySet()) {
+      if (entry.getKey().contains(value))
+        result.or(entry.getValue());
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "DirectorySnapshot [matches: " + matches.size() + ", docTypes: " + docTypeIndex.size() +
+        ", countries: " + countryCodeIndex.size() + ", dpTypes: " + dpTypeIndex.size() + "]";
+  }
+
+  /**
+   * Collects the matches of one or more directory results and builds a snapshot out of them.
+   * Matches that appear in more than one result are only added once. Not thread safe.
+   */
+  public static final class Builder {
+    private final Transformer transformer;
+    private final List<String> matches = new ArrayList<>();
+    private final Set<String> participantIds = new HashSet<>();
+    private final Map<String, BitSet> docTypeIndex = new HashMap<>();
+    private final Map<String, BitSet> countryCodeIndex = new HashMap<>();
+    private final Map<String, BitSet> dpTypeIndex = new HashMap<>();
+
+    /**
+     * Create a new builder
+     *
+     * @throws TransformerException if the XML serializer cannot be created
+     */
+    public Builder() throws TransformerException {
+      transformer = TransformerFactory.newInstance().newTransformer();
+      transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    }
+
+    /**
+     * Adds the matches of a directory result
+     *
+     * @param directoryResult the directory result
+     * @return this for chaining
+     * @throws TransformerException if the result cannot be parsed
+     */
+    @Nonnull
+    public Builder addDirectoryResult(@Nonnull Source directoryResult) throws TransformerException {
+      ValueEnforcer.notNull(directoryResult, "directoryResult");
+
+      final DOMResult domResult = new DOMResult();
+      transformer.transform(directoryResult, domResult);
+
+      final Node document = domResult.getNode();
+      final Element resultList = firstChildElement(document, "resultlist");
+      if (resultList == null)
+        throw new TransformerException("The directory result doesn't contain a resultlist");
+
+      for (Element match : childElements(resultList, "match")) {
+        addMatch(match);
+      }
+      return this;
+    }
+
+    private void addMatch(Element match) throws TransformerException {
+      final Element participantID = firstChildElement(match, "participantID");
+      if (participantID != null && !participantIds.add(participantID.getAttribute("scheme") + "::" + participantID.getTextContent().trim()))
+        return;
+
+      final int matchIndex = matches.size();
+      final StringWriter writer = new StringWriter();
+      transformer.transform(new DOMSource(match), new StreamResult(writer));
+      matches.add(writer.toString());
+
+      for (Element docTypeID : childElements(match, "docTypeID")) {
+        index(docTypeIndex, normalizeSpace(docTypeID.getTextContent()), matchIndex);
+      }
+
+      for (Element entity : childElements(match, "entity")) {
+        final Element countryCode = firstChildElement(entity, "countryCode");
+        index(countryCodeIndex, countryCode == null ? "" : countryCode.getTextContent(), matchIndex);
+
+        final StringBuilder dpTypes = new StringBuilder();
+        for (Element identifier : childElements(entity, "identifier")) {
+          if (DATA_PROVIDER_TYPE_SCHEME.equals(normalizeSpace(identifier.getAttribute("scheme")))) {
+            if (dpTypes.length() > 0)
+              dpTypes.append(' ');
+            dpTypes.append(identifier.getTextContent());
+          }
+        }
+        index(dpTypeIndex, dpTypes.toString(), matchIndex);
+      }
+    }
+
+    private static void index(Map<String, BitSet> index, String key, int matchIndex) {
+      index.computeIfAbsent(key, k -> new BitSet()).set(matchIndex);
+    }
+
+    /**
+     * @return the new snapshot
+     */
+    @Nonnull
+    public DirectorySnapshot build() {
+      return new DirectorySnapshot(this);
+    }
+  }
+
+  @Nullable
+  private static Element firstChildElement(Node parent, String localName) {
+    for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child instanceof Element && localName.equals(getName(child)))
+        return (Element) child;
+    }
+    return null;
+  }
+
+  private static List<Element> childElements(Node parent, String localName) {
+    final List<Element> result = new ArrayList<>();
+    for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child instanceof Element && localName.equals(getName(child)))
+        result.add((Element) child);
+    }
+    return result;
+  }
+
+  private static String getName(Node node) {
+    return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+  }
+
+  /**
+   * The XPath <code>normalize-space</code> function
+   */
+  private static String normalizeSpace(String value) {
+    return value.trim().replaceAll("\\s+", " ");
+  }
+}
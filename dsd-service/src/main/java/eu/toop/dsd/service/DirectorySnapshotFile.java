@@ -0,0 +1,434 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * Persists a {@link DirectorySnapshot} to a compact binary file and maps it back into memory, so that a
+ * restarted service can answer the queries before it has talked to the TOOP Directory.
+ * <p>
+ * The file starts with a fixed header, followed by fixed-width records that refer to a dictionary of
+ * distinct UTF-8 strings by their index. All the sections are 8 byte aligned, the byte order is big endian:
+ * <pre>
+ * header        magic, version, creation time, file length, string count, match count,
+ *               index entry count, bitset word count, directory url string, country codes string
+ * strings       per string: int offset (relative to the string data), int length
+ * index entries per entry: int index kind, int key string, int first bitset word, int bitset word count
+ * bitset words  the longs of the bitsets of the index entries
+ * matches       per match: int string
+ * string data   the UTF-8 bytes of the strings
+ * </pre>
+ * When the file is read, only the header and the (small) indexes are decoded. The matches are decoded from
+ * the mapped file when a query needs them, so loading takes milliseconds regardless of the size of the
+ * directory. A file of another version or with an unexpected length is ignored.
+ * <p>
+ * The header records where the snapshot was pulled from: the TOOP Directory URL and the (sorted) country codes.
+ * A file from another directory or with other countries, e.g. one left over from another environment, is
+ * ignored, just like a file that is older than the given maximum age.
+ * <p>
+ * The file is replaced atomically: a new snapshot is written to a temporary file in the same directory,
+ * which is then moved over the old file. The previous mapping stays valid, since the old file is only unlinked.
+ *
+ * @author yerlibilgin
+ */
+public final class DirectorySnapshotFile {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySnapshotFile.class);
+
+  /**
+   * "DSDS"
+   */
+  private static final int MAGIC = 0x44534453;
+  /**
+   * Increment on every change of the layout, files of other versions are not read
+   */
+  static final int VERSION = 2;
+
+  static final int HEADER_SIZE = 48;
+  static final int STRING_RECORD_SIZE = 8;
+  static final int INDEX_RECORD_SIZE = 16;
+  static final int MATCH_RECORD_SIZE = 4;
+
+  private static final int INDEX_DOC_TYPE = 0;
+  private static final int INDEX_COUNTRY_CODE = 1;
+  private static final int INDEX_DP_TYPE = 2;
+
+  private DirectorySnapshotFile() {
+  }
+
+  /**
+   * Writes the snapshot to the given file, replacing it atomically if it exists
+   *
+   * @param snapshot     the snapshot to write
+   * @param file         the target file
+   * @param toopDirUrl   the TOOP Directory the snapshot was pulled from
+   * @param countryCodes the countries that were pulled into the snapshot
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(@Nonnull DirectorySnapshot snapshot, @Nonnull Path file, @Nonnull String toopDirUrl,
+                           @Nonnull List<String> countryCodes) throws IOException {
+    ValueEnforcer.notNull(snapshot, "snapshot");
+    ValueEnforcer.notNull(file, "file");
+    ValueEnforcer.notNull(toopDirUrl, "toopDirUrl");
+    ValueEnforcer.notNull(countryCodes, "countryCodes");
+
+    final Path absoluteFile = file.toAbsolutePath();
+    final Path directory = absoluteFile.getParent();
+    Files.createDirectories(directory);
+
+    // in the same directory, so that it can be moved over the target atomically
+    final Path tempFile = Files.createTempFile(directory, absoluteFile.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+        final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+        write(snapshot, out, toopDirUrl, countryCodes);
+        out.flush();
+        // the data must be on disk before the file becomes visible under its final name
+        channel.force(true);
+      }
+
+      try {
+        Files.move(tempFile, absoluteFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException ex) {
+        LOGGER.warn("Atomic moves are not supported for " + absoluteFile + ", replacing it non-atomically");
+        Files.move(tempFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  static void write(@Nonnull DirectorySnapshot snapshot, @Nonnull OutputStream outputStream, @Nonnull String toopDirUrl,
+                    @Nonnull List<String> countryCodes) throws IOException {
+    final Map<String, Integer> stringIds = new LinkedHashMap<>();
+    final List<byte[]> strings = new ArrayList<>();
+    final int toopDirUrlId = addString(stringIds, strings, toopDirUrl);
+    final int countryCodesId = addString(stringIds, strings, joinCountryCodes(countryCodes));
+
+    final List<String> matches = snapshot.getMatches();
+    final int[] matchIds = new int[matches.size()];
+    for (int i = 0; i < matchIds.length; ++i) {
+      matchIds[i] = addString(stringIds, strings, matches.get(i));
+    }
+
+    final List<int[]> indexRecords = new ArrayList<>();
+    final List<long[]> bitsets = new ArrayList<>();
+    int wordCount = 0;
+    for (int kind = INDEX_DOC_TYPE; kind <= INDEX_DP_TYPE; ++kind) {
+      for (Map.Entry<String, BitSet> entry : getIndex(snapshot, kind).entrySet()) {
+        final long[] words = entry.getValue().toLongArray();
+        indexRecords.add(new int[]{kind, addString(stringIds, strings, entry.getKey()), wordCount, words.length});
+        bitsets.add(words);
+        wordCount += words.length;
+      }
+    }
+
+    long stringDataLength = 0;
+    for (byte[] string : strings) {
+      stringDataLength += string.length;
+    }
+    final long fileLength = getStringDataOffset(strings.size(), indexRecords.size(), wordCount, matchIds.length) + stringDataLength;
+    if (fileLength > Integer.MAX_VALUE)
+      throw new IOException("The directory snapshot is too large to be persisted: " + fileLength + " bytes");
+
+    final DataOutputStream out = new DataOutputStream(outputStream);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(snapshot.getCreationTime());
+    out.writeLong(fileLength);
+    out.writeInt(strings.size());
+    out.writeInt(matchIds.length);
+    out.writeInt(indexRecords.size());
+    out.writeInt(wordCount);
+    out.writeInt(toopDirUrlId);
+    out.writeInt(countryCodesId);
+
+    int stringOffset = 0;
+    for (byte[] string : strings) {
+      out.writeInt(stringOffset);
+      out.writeInt(string.length);
+      stringOffset += string.length;
+    }
+    for (int[] record : indexRecords) {
+      for (int value : record) {
+        out.writeInt(value);
+      }
+    }
+    for (long[] words : bitsets) {
+      for (long word : words) {
+        out.writeLong(word);
+      }
+    }
+    for (int matchId : matchIds) {
+      out.writeInt(matchId);
+    }
+    if (matchIds.length % 2 != 0)
+      out.writeInt(0);
+    for (byte[] string : strings) {
+      out.write(string);
+    }
+    out.flush();
+  }
+
+  /**
+   * The country codes in a canonical form, so that the order of the configured list doesn't matter
+   */
+  private static String joinCountryCodes(List<String> countryCodes) {
+    final TreeSet<String> sorted = new TreeSet<>();
+    for (String countryCode : countryCodes) {
+      sorted.add(countryCode.trim().toUpperCase(Locale.ROOT));
+    }
+    return String.join(",", sorted);
+  }
+
+  private static int addString(Map<String, Integer> stringIds, List<byte[]> strings, String value) {
+    return stringIds.computeIfAbsent(value, k -> {
+      strings.add(k.getBytes(StandardCharsets.UTF_8));
+      return strings.size() - 1;
+    });
+  }
+
+  private static Map<String, BitSet> getIndex(DirectorySnapshot snapshot, int kind) {
+    switch (kind) {
+      case INDEX_DOC_TYPE:
+        return snapshot.getDocTypeIndex();
+      case INDEX_COUNTRY_CODE:
+        return snapshot.getCountryCodeIndex();
+      default:
+        return snapshot.getDpTypeIndex();
+    }
+  }
+
+  static long getStringDataOffset(int stringCount, int indexEntryCount, int wordCount, int matchCount) {
+    // the match records are padded to a multiple of 8 bytes
+    return HEADER_SIZE + (long) stringCount * STRING_RECORD_SIZE + (long) indexEntryCount * INDEX_RECORD_SIZE +
+        wordCount * 8L + ((matchCount + 1) / 2) * 8L;
+  }
+
+  /**
+   * Maps a snapshot file into memory
+   *
+   * @param file          the snapshot file
+   * @param toopDirUrl    the TOOP Directory the snapshot must have been pulled from
+   * @param countryCodes  the countries that must have been pulled into the snapshot, in any order
+   * @param maxAgeSeconds the maximum age of the snapshot, 0 for no limit
+   * @return the snapshot, <code>null</code> if the file doesn't exist, has another version or source, is too old
+   * or is damaged
+   * @throws IOException if the file cannot be read
+   */
+  @Nullable
+  public static DirectorySnapshot read(@Nonnull Path file, @Nonnull String toopDirUrl, @Nonnull List<String> countryCodes,
+                                       long maxAgeSeconds) throws IOException {
+    ValueEnforcer.notNull(file, "file");
+    ValueEnforcer.notNull(toopDirUrl, "toopDirUrl");
+    ValueEnforcer.notNull(countryCodes, "countryCodes");
+    ValueEnforcer.isGE0(maxAgeSeconds, "maxAgeSeconds");
+
+    final MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        LOGGER.warn("Ignoring the directory snapshot file " + file + " of unexpected size " + size);
+        return null;
+      }
+      // the mapping stays valid after the channel is closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } catch (NoSuchFileException ex) {
+      return null;
+    }
+
+    try {
+      return read(buffer, file, toopDirUrl, joinCountryCodes(countryCodes), maxAgeSeconds);
+    } catch (IndexOutOfBoundsException | IllegalArgumentException ex) {
+      LOGGER.warn("Ignoring the damaged directory snapshot file " + file + ": " + ex.getMessage());
+      return null;
+    }
+  }
+
+  @Nullable
+  private static DirectorySnapshot read(ByteBuffer buffer, Path file, String toopDirUrl, String countryCodes, long maxAgeSeconds) {
+    final int magic = buffer.getInt(0);
+    final int version = buffer.getInt(4);
+    if (magic != MAGIC || version != VERSION) {
+      LOGGER.warn("Ignoring the directory snapshot file " + file + " of version " + version + ", expected version " + VERSION);
+      return null;
+    }
+
+    final long creationTime = buffer.getLong(8);
+    final long fileLength = buffer.getLong(16);
+    final int stringCount = buffer.getInt(24);
+    final int matchCount = buffer.getInt(28);
+    final int indexEntryCount = buffer.getInt(32);
+    final int wordCount = buffer.getInt(36);
+    final int toopDirUrlId = buffer.getInt(40);
+    final int countryCodesId = buffer.getInt(44);
+    if (fileLength != buffer.capacity() || stringCount < 0 || matchCount < 0 || indexEntryCount < 0 || wordCount < 0 ||
+        getStringDataOffset(stringCount, indexEntryCount, wordCount, matchCount) > fileLength) {
+      LOGGER.warn("Ignoring the truncated directory snapshot file " + file);
+      return null;
+    }
+
+    final int dataBase = (int) getStringDataOffset(stringCount, indexEntryCount, wordCount, matchCount);
+    final MappedStrings strings = new MappedStrings(buffer, HEADER_SIZE, stringCount, dataBase);
+    final int indexBase = HEADER_SIZE + stringCount * STRING_RECORD_SIZE;
+    final int wordBase = indexBase + indexEntryCount * INDEX_RECORD_SIZE;
+    final int matchBase = wordBase + wordCount * 8;
+
+    // only the fixed-width records are checked, so that the matches can be decoded later without surprises
+    for (int i = 0; i < stringCount; ++i) {
+      final int offset = buffer.getInt(HEADER_SIZE + i * STRING_RECORD_SIZE);
+      final int length = buffer.getInt(HEADER_SIZE + i * STRING_RECORD_SIZE + 4);
+      if (offset < 0 || length < 0 || (long) dataBase + offset + length > fileLength)
+        throw new IllegalArgumentException("invalid string " + i);
+    }
+    for (int i = 0; i < matchCount; ++i) {
+      final int id = buffer.getInt(matchBase + i * MATCH_RECORD_SIZE);
+      if (id < 0 || id >= stringCount)
+        throw new IllegalArgumentException("invalid match " + i);
+    }
+
+    final String fileToopDirUrl = strings.get(toopDirUrlId);
+    final String fileCountryCodes = strings.get(countryCodesId);
+    if (!toopDirUrl.equals(fileToopDirUrl) || !countryCodes.equals(fileCountryCodes)) {
+      LOGGER.warn("Ignoring the directory snapshot file " + file + " of " + fileToopDirUrl + " [" + fileCountryCodes +
+          "], expected " + toopDirUrl + " [" + countryCodes + "]");
+      return null;
+    }
+    final long ageMillis = System.currentTimeMillis() - creationTime;
+    if (maxAgeSeconds > 0 && ageMillis > TimeUnit.SECONDS.toMillis(maxAgeSeconds)) {
+      LOGGER.warn("Ignoring the directory snapshot file " + file + ", it is " + TimeUnit.MILLISECONDS.toSeconds(ageMillis) +
+          " seconds old, the maximum age is " + maxAgeSeconds + " seconds");
+      return null;
+    }
+
+    final List<Map<String, BitSet>> indexes = new ArrayList<>(3);
+    for (int kind = INDEX_DOC_TYPE; kind <= INDEX_DP_TYPE; ++kind) {
+      indexes.add(new HashMap<>());
+    }
+    for (int i = 0; i < indexEntryCount; ++i) {
+      final int record = indexBase + i * INDEX_RECORD_SIZE;
+      final int kind = buffer.getInt(record);
+      final int firstWord = buffer.getInt(record + 8);
+      final int recordWordCount = buffer.getInt(record + 12);
+      if (kind < INDEX_DOC_TYPE || kind > INDEX_DP_TYPE || firstWord < 0 || recordWordCount < 0 || (long) firstWord + recordWordCount > wordCount)
+        throw new IllegalArgumentException("invalid index entry " + i);
+      final long[] words = new long[recordWordCount];
+      for (int w = 0; w < words.length; ++w) {
+        words[w] = buffer.getLong(wordBase + (firstWord + w) * 8);
+      }
+      indexes.get(kind).put(strings.get(buffer.getInt(record + 4)), BitSet.valueOf(words));
+    }
+
+    final DirectorySnapshot snapshot = new DirectorySnapshot(creationTime, new MappedMatches(buffer, matchBase, matchCount, strings),
+        indexes.get(INDEX_DOC_TYPE), indexes.get(INDEX_COUNTRY_CODE), indexes.get(INDEX_DP_TYPE));
+    LOGGER.info("Mapped " + snapshot + " from " + file + " (" + fileLength + " bytes)");
+    return snapshot;
+  }
+
+  /**
+   * The string dictionary of a mapped file, the strings are decoded on every access
+   */
+  private static final class MappedStrings {
+    private final ByteBuffer buffer;
+    private final int recordBase;
+    private final int count;
+    private final int dataBase;
+
+    private MappedStrings(ByteBuffer buffer, int recordBase, int count, int dataBase) {
+      this.buffer = buffer;
+      this.recordBase = recordBase;
+      this.count = count;
+      this.dataBase = dataBase;
+    }
+
+    private String get(int id) {
+      if (id < 0 || id >= count)
+        throw new IllegalArgumentException("invalid string " + id);
+      final int offset = buffer.getInt(recordBase + id * STRING_RECORD_SIZE);
+      final int length = buffer.getInt(recordBase + id * STRING_RECORD_SIZE + 4);
+      final byte[] bytes = new byte[length];
+      // the position of the shared buffer must not be touched, the snapshot is read concurrently
+      final ByteBuffer view = buffer.duplicate();
+      view.position(dataBase + offset);
+      view.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * The matches of a mapped file
+   */
+  private static final class MappedMatches extends AbstractList<String> implements RandomAccess {
+    private final ByteBuffer buffer;
+    private final int recordBase;
+    private final int count;
+    private final MappedStrings strings;
+
+    private MappedMatches(ByteBuffer buffer, int recordBase, int count, MappedStrings strings) {
+      this.buffer = buffer;
+      this.recordBase = recordBase;
+      this.count = count;
+      this.strings = strings;
+    }
+
+    @Override
+    public String get(int index) {
+      if (index < 0 || index >= count)
+        throw new IndexOutOfBoundsException("match " + index + " of " + count);
+      return strings.get(buffer.getInt(recordBase + index * MATCH_RECORD_SIZE));
+    }
+
+    @Override
+    public int size() {
+      return count;
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.transform.TransformerException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+
+import eu.toop.dsd.api.ToopDirClient;
+
+/**
+ * Keeps a {@link DirectorySnapshot} of the TOOP Directory up to date. The directory is pulled
+ * country by country in the background on a fixed schedule, and the new snapshot replaces the
+ * old one atomically, so the readers never wait for a refresh. If a refresh fails, the previous
+ * snapshot stays in use.
+ * <p>
+ * Besides the configured countries, every match with a data provider type is pulled, so the data
+ * provider type queries are answered for the whole directory. The location queries are only
+ * answered from the snapshot for the configured countries (see {@link #isCountryCovered(String)}).
+ * <p>
+ * If a snapshot file is set, every new snapshot is persisted to it, and the persisted snapshot can be
+ * loaded at the start, before the directory is called at all (see {@link DirectorySnapshotFile}).
+ *
+ * @author yerlibilgin
+ */
+public final class DirectorySnapshotService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySnapshotService.class);
+
+  private static volatile DirectorySnapshot snapshot;
+  private static ScheduledExecutorService scheduler;
+  private static volatile Path snapshotFile;
+  private static volatile Set<String> coveredCountryCodes = Collections.emptySet();
+
+  private DirectorySnapshotService() {
+  }
+
+  /**
+   * Sets the file the snapshots are persisted to.
+   *
+   * @param file the snapshot file, <code>null</code> to not persist the snapshots
+   */
+  public static void setSnapshotFile(@Nullable Path file) {
+    snapshotFile = file;
+  }
+
+  /**
+   * @return the file the snapshots are persisted to, <code>null</code> if they are not persisted
+   */
+  @Nullable
+  public static Path getSnapshotFile() {
+    return snapshotFile;
+  }
+
+  /**
+   * Maps the persisted snapshot and uses it until the next refresh. A missing, outdated or damaged file is ignored,
+   * just like a file that was pulled from another directory or with other countries, or that is too old.
+   *
+   * @param toopDirUrl    the TOOP Directory base URL the snapshot must have been pulled from
+   * @param countryCodes  the countries that must have been pulled into the snapshot
+   * @param maxAgeSeconds the maximum age of the persisted snapshot, 0 for no limit
+   * @return the persisted snapshot, <code>null</code> if there is none
+   */
+  @Nullable
+  public static DirectorySnapshot loadSnapshotFile(@Nonnull String toopDirUrl, @Nonnull List<String> countryCodes, long maxAgeSeconds) {
+    final Path file = snapshotFile;
+    if (file == null)
+      return null;
+
+    try {
+      final DirectorySnapshot persistedSnapshot = DirectorySnapshotFile.read(file, toopDirUrl, countryCodes, maxAgeSeconds);
+      if (persistedSnapshot != null) {
+        setCoveredCountryCodes(countryCodes);
+        snapshot = persistedSnapshot;
+        LOGGER.info("Serving the persisted directory snapshot from " +
+            TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - persistedSnapshot.getCreationTime()) + " seconds ago until the next refresh");
+      }
+      return persistedSnapshot;
+    } catch (IOException ex) {
+      LOGGER.warn("Couldn't read the directory snapshot file " + file + ": " + ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Starts refreshing the snapshot in the background. The first refresh is started immediately;
+   * until it completes {@link #getSnapshot()} returns <code>null</code>, unless the persisted snapshot
+   * was loaded.
+   *
+   * @param toopDirUrl             the TOOP Directory base URL, may not be empty
+   * @param countryCodes           the countries to pull from the directory, may not be empty
+   * @param refreshIntervalSeconds the time between two refreshes
+   */
+  public static void start(@Nonnull String toopDirUrl, @Nonnull List<String> countryCodes, long refreshIntervalSeconds) {
+    start(toopDirUrl, countryCodes, refreshIntervalSeconds, 0);
+  }
+
+  /**
+   * Starts refreshing the snapshot in the background after the given delay, e.g. when the first snapshot
+   * is loaded with {@link #refresh(String, List)} during the warm-up. The current snapshot is kept.
+   *
+   * @param toopDirUrl             the TOOP Directory base URL, may not be empty
+   * @param countryCodes           the countries to pull from the directory, may not be empty
+   * @param refreshIntervalSeconds the time between two refreshes
+   * @param initialDelaySeconds    the time until the first refresh
+   */
+  public static synchronized void start(@Nonnull String toopDirUrl, @Nonnull List<String> countryCodes, long refreshIntervalSeconds,
+                                        long initialDelaySeconds) {
+    ValueEnforcer.notEmpty(toopDirUrl, "toopDirUrl");
+    ValueEnforcer.notEmpty(countryCodes, "countryCodes");
+    ValueEnforcer.isGT0(refreshIntervalSeconds, "refreshIntervalSeconds");
+    ValueEnforcer.isGE0(initialDelaySeconds, "initialDelaySeconds");
+
+    stopScheduler();
+
+    final List<String> countries = new ArrayList<>(countryCodes);
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "dsd-directory-snapshot");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        refresh(toopDirUrl, countries);
+      } catch (Exception ex) {
+        LOGGER.error("Failed to refresh the directory snapshot, keeping the previous one: " + ex.getMessage(), ex);
+      }
+    }, initialDelaySeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+
+    LOGGER.info("Directory snapshot refresh started for " + countries.size() + " countries every " +
+        refreshIntervalSeconds + " seconds");
+  }
+
+  /**
+   * Stops the background refresh and drops the snapshot.
+   */
+  public static synchronized void stop() {
+    stopScheduler();
+    snapshot = null;
+  }
+
+  private static void stopScheduler() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * @return the current snapshot, or <code>null</code> if the snapshot mode is off or the first refresh hasn't completed yet
+   */
+  @Nullable
+  public static DirectorySnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Is a country pulled into the snapshot. The location queries for other countries have to be sent
+   * to the directory, the snapshot doesn't know their matches.
+   *
+   * @param countryCode the country code of a query, may be <code>null</code>
+   * @return <code>true</code> if the snapshot contains all the matches of the country
+   */
+  public static boolean isCountryCovered(@Nullable String countryCode) {
+    return countryCode != null && coveredCountryCodes.contains(countryCode.trim().toUpperCase(Locale.ROOT));
+  }
+
+  private static void setCoveredCountryCodes(List<String> countryCodes) {
+    final Set<String> covered = new HashSet<>();
+    for (String countryCode : countryCodes) {
+      covered.add(countryCode.trim().toUpperCase(Locale.ROOT));
+    }
+    coveredCountryCodes = Collections.unmodifiableSet(covered);
+  }
+
+  /**
+   * Pulls the given countries from the directory and replaces the current snapshot with the result.
+   * The new snapshot is persisted to the snapshot file, if one is set; a failure to write it is only logged.
+   *
+   * @param toopDirUrl   the TOOP Directory base URL, may not be empty
+   * @param countryCodes the countries to pull from the directory, may not be empty
+   * @return the new snapshot
+   * @throws IOException          if a communication problem occurs
+   * @throws TransformerException if a directory result cannot be parsed
+   */
+  @Nonnull
+  public static DirectorySnapshot refresh(@Nonnull String toopDirUrl, @Nonnull List<String> countryCodes) throws IOException, TransformerException {
+    ValueEnforcer.notEmpty(toopDirUrl, "toopDirUrl");
+    ValueEnforcer.notEmpty(countryCodes, "countryCodes");
+
+    final long start = System.nanoTime();
+    final DirectorySnapshot.Builder builder = new DirectorySnapshot.Builder();
+    for (String countryCode : countryCodes) {
+      ToopDirClient.callSearchApiWithCountryCode(toopDirUrl, countryCode, builder::addDirectoryResult);
+    }
+    // the data providers of the countries that are not configured, the builder drops the duplicates
+    ToopDirClient.callSearchApiForAllDpTypes(toopDirUrl, builder::addDirectoryResult);
+
+    final DirectorySnapshot newSnapshot = builder.build();
+    setCoveredCountryCodes(countryCodes);
+    snapshot = newSnapshot;
+
+    LOGGER.info("Refreshed " + newSnapshot + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+
+    final Path file = snapshotFile;
+    if (file != null) {
+      try {
+        DirectorySnapshotFile.write(newSnapshot, file, toopDirUrl, countryCodes);
+      } catch (IOException ex) {
+        LOGGER.warn("Couldn't persist the directory snapshot to " + file + ": " + ex.getMessage());
+      }
+    }
+    return newSnapshot;
+  }
+}
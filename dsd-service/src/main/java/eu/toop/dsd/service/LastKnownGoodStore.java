@@ -0,0 +1,284 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+
+/**
+ * Keeps the last successful response of each query, so that it can still be answered while the TOOP
+ * Directory is unavailable.
+ * <p>
+ * Unlike the {@link DSDResponseCache}, the entries never expire; a stored response is only replaced by a
+ * newer successful response of the same query. The store is bounded by the number of entries and by their
+ * total size, the least recently used entries are evicted first. A single response larger than the entry
+ * limit is neither copied nor stored.
+ *
+ * @author yerlibilgin
+ */
+public class LastKnownGoodStore {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LastKnownGoodStore.class);
+
+  /**
+   * A rough estimate of the memory used by an entry besides its key and body
+   */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  /**
+   * A stored response
+   */
+  public static final class Entry {
+    private final DSDResponse response;
+    private final long storedAtNanos;
+    private final long weight;
+
+    private Entry(String key, DSDResponse response, long storedAtNanos) {
+      this.response = response;
+      this.storedAtNanos = storedAtNanos;
+      this.weight = ENTRY_OVERHEAD + 2L * key.length() + response.getBody().length;
+    }
+
+    /**
+     * @return the stored response
+     */
+    @Nonnull
+    public DSDResponse getResponse() {
+      return response;
+    }
+
+    /**
+     * @return the time since the response was stored in seconds
+     */
+    public long getAgeSeconds() {
+      return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - storedAtNanos);
+    }
+  }
+
+  /**
+   * Copies a response to a buffer while it is streamed, so that it can be stored after it was completed.
+   * Stops copying if the response gets too large to be stored.
+   */
+  public static final class Capture extends FilterOutputStream {
+    private final long maxBytes;
+    private NonBlockingByteArrayOutputStream buffer = new NonBlockingByteArrayOutputStream();
+    private long bytesWritten;
+
+    private Capture(@Nonnull OutputStream out, long maxBytes) {
+      super(out);
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      copy(1);
+      if (buffer != null)
+        buffer.write(b);
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      copy(len);
+      if (buffer != null)
+        buffer.write(b, off, len);
+    }
+
+    private void copy(int len) {
+      bytesWritten += len;
+      if (buffer != null && bytesWritten > maxBytes)
+        buffer = null;
+    }
+
+    /**
+     * @return the number of bytes written to the response so far
+     */
+    public long getBytesWritten() {
+      return bytesWritten;
+    }
+
+    /**
+     * @return the complete response, <code>null</code> if it was too large to be copied
+     */
+    @Nullable
+    public byte[] getCapturedBytes() {
+      return buffer == null ? null : buffer.toByteArray();
+    }
+  }
+
+  private final int maxEntries;
+  private final long maxBytes;
+  private final long maxEntryBytes;
+
+  /**
+   * in access order, the eldest entry is the least recently used one
+   */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ReentrantLock lock = new ReentrantLock();
+  private long totalBytes;
+
+  /**
+   * Create a new store
+   *
+   * @param maxEntries    the maximum number of stored responses
+   * @param maxBytes      the maximum total size of the stored responses
+   * @param maxEntryBytes the maximum size of a single stored response, it also bounds the copy of each
+   *                      response that is being captured
+   */
+  public LastKnownGoodStore(int maxEntries, long maxBytes, long maxEntryBytes) {
+    ValueEnforcer.isGT0(maxEntries, "maxEntries");
+    ValueEnforcer.isGT0(maxBytes, "maxBytes");
+    ValueEnforcer.isBetweenInclusive(maxEntryBytes, "maxEntryBytes", 1, maxBytes);
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  /**
+   * Store the latest successful response of a query, replacing the previous one
+   *
+   * @param key      the key of the query
+   * @param response the response
+   */
+  public void put(@Nonnull String key, @Nonnull DSDResponse response) {
+    ValueEnforcer.notNull(key, "key");
+    ValueEnforcer.notNull(response, "response");
+
+    final Entry entry = new Entry(key, response, System.nanoTime());
+    if (response.getBody().length > maxEntryBytes || entry.weight > maxBytes) {
+      LOGGER.debug("Not storing the response for [" + key + "], it is larger than the entry limit");
+      return;
+    }
+
+    lock.lock();
+    try {
+      final Entry previous = entries.put(key, entry);
+      totalBytes += entry.weight - (previous == null ? 0 : previous.weight);
+
+      final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+      while ((entries.size() > maxEntries || totalBytes > maxBytes) && it.hasNext()) {
+        final Entry eldest = it.next().getValue();
+        if (eldest == entry)
+          break;
+        it.remove();
+        totalBytes -= eldest.weight;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gets the last successful response of a query
+   *
+   * @param key the key of the query
+   * @return the stored response, <code>null</code> if there is none
+   */
+  @Nullable
+  public Entry get(@Nonnull String key) {
+    lock.lock();
+    try {
+      // also a modification, it moves the entry to the end of the access order
+      return entries.get(key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Start copying a response that is streamed to the given stream, see {@link #put(String, Capture)}
+   *
+   * @param out the response stream
+   * @return the stream to write the response to
+   */
+  @Nonnull
+  public Capture capture(@Nonnull OutputStream out) {
+    ValueEnforcer.notNull(out, "out");
+    return new Capture(out, maxEntryBytes);
+  }
+
+  /**
+   * Store the response copied by a {@link Capture}, unless it was too large
+   *
+   * @param key     the key of the query
+   * @param capture the capture of the completed response
+   */
+  public void put(@Nonnull String key, @Nonnull Capture capture) {
+    final byte[] body = capture.getCapturedBytes();
+    if (body != null)
+      put(key, new DSDResponse(body));
+  }
+
+  /**
+   * Removes all the entries
+   */
+  public void clear() {
+    lock.lock();
+    try {
+      entries.clear();
+      totalBytes = 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of stored responses
+   */
+  public int getSize() {
+    lock.lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the estimated total size of the stored responses in bytes
+   */
+  public long getTotalBytes() {
+    lock.lock();
+    try {
+      return totalBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LastKnownGoodStore [entries: " + getSize() + "/" + maxEntries + ", bytes: " + getTotalBytes() + "/" + maxBytes +
+        ", max entry bytes: " + maxEntryBytes + "]";
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An output stream that measures the bytes written to the underlying stream and the time spent
+ * writing them. Used for the response stream to the client, so that the time the converter is
+ * blocked by a slow client is not reported as conversion time.
+ * <p>
+ * Not thread-safe, like the response stream itself.
+ *
+ * @author yerlibilgin
+ */
+final class MeteredOutputStream extends FilterOutputStream {
+  private long bytesWritten;
+  private long writeNanos;
+  private boolean failed;
+
+  MeteredOutputStream(@Nonnull OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    final long start = System.nanoTime();
+    try {
+      out.write(b);
+      ++bytesWritten;
+    } catch (IOException | RuntimeException ex) {
+      failed = true;
+      throw ex;
+    } finally {
+      writeNanos += System.nanoTime() - start;
+    }
+  }
+
+  @Override
+  public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+    // FilterOutputStream would write the array byte by byte
+    final long start = System.nanoTime();
+    try {
+      out.write(b, off, len);
+      bytesWritten += len;
+    } catch (IOException | RuntimeException ex) {
+      failed = true;
+      throw ex;
+    } finally {
+      writeNanos += System.nanoTime() - start;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    final long start = System.nanoTime();
+    try {
+      out.flush();
+    } catch (IOException | RuntimeException ex) {
+      failed = true;
+      throw ex;
+    } finally {
+      writeNanos += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * @return the number of bytes written to the underlying stream
+   */
+  long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * @return the time spent in the write and flush calls of the underlying stream, in nanoseconds
+   */
+  long getWriteNanos() {
+    return writeNanos;
+  }
+
+  /**
+   * @return <code>true</code> if a write or flush call of the underlying stream failed
+   */
+  boolean hasFailed() {
+    return failed;
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Measures the {@link DSDMetrics.Stage#DIRECTORY} and {@link DSDMetrics.Stage#CONVERT} stages of
+ * a single query.
+ * <p>
+ * The timer is started before the directory is called. {@link #startConversion(Source)} is called
+ * when the directory result is handed to the converter and {@link #finished()} or {@link #failed()}
+ * once the query is done. If the response stream is a {@link MeteredOutputStream}, the time spent
+ * writing to it during the conversion is not counted as conversion time.
+ *
+ * @author yerlibilgin
+ */
+final class QueryTimer {
+  private final DSDMetrics.QueryMetrics metrics;
+  private final MeteredOutputStream responseStream;
+  private final long startNanos;
+
+  private boolean converting;
+  private long conversionStartNanos;
+  private long writeNanosAtConversionStart;
+  private CountingInputStream directoryStream;
+
+  QueryTimer(@Nonnull DSDMetrics.QueryMetrics metrics, @Nonnull OutputStream responseStream) {
+    this.metrics = metrics;
+    this.responseStream = responseStream instanceof MeteredOutputStream ? (MeteredOutputStream) responseStream : null;
+    this.startNanos = System.nanoTime();
+  }
+
+  /**
+   * End the directory stage and start the conversion stage
+   *
+   * @param directoryResult the directory result that is going to be converted
+   * @return the directory result to convert. If it is a buffered result, its size is counted.
+   */
+  @Nonnull
+  Source startConversion(@Nonnull Source directoryResult) {
+    converting = true;
+    conversionStartNanos = System.nanoTime();
+    writeNanosAtConversionStart = getWriteNanos();
+    metrics.recordDuration(DSDMetrics.Stage.DIRECTORY, conversionStartNanos - startNanos);
+
+    // a streamed result (SAXSource) reads the later pages from elsewhere, so only a buffered result can be counted
+    if (directoryResult instanceof StreamSource) {
+      final StreamSource streamSource = (StreamSource) directoryResult;
+      if (streamSource.getInputStream() != null) {
+        directoryStream = new CountingInputStream(streamSource.getInputStream());
+        streamSource.setInputStream(directoryStream);
+      }
+    }
+    return directoryResult;
+  }
+
+  /**
+   * End the directory stage of a query whose directory result is not converted, since the client
+   * already has the response
+   *
+   * @return always <code>false</code>, nothing was written
+   */
+  boolean notConverted() {
+    metrics.recordDuration(DSDMetrics.Stage.DIRECTORY, System.nanoTime() - startNanos);
+    return false;
+  }
+
+  /**
+   * The query was processed successfully
+   */
+  void finished() {
+    if (!converting)
+      return;
+
+    final long writeNanos = getWriteNanos() - writeNanosAtConversionStart;
+    metrics.recordDuration(DSDMetrics.Stage.CONVERT, System.nanoTime() - conversionStartNanos - writeNanos);
+    if (directoryStream != null)
+      metrics.recordDirectoryBytes(directoryStream.count);
+  }
+
+  /**
+   * The query failed, record the error for the stage it failed in
+   */
+  void failed() {
+    // write errors are recorded with the whole request
+    if (responseStream != null && responseStream.hasFailed())
+      return;
+
+    metrics.recordError(converting ? DSDMetrics.Stage.CONVERT : DSDMetrics.Stage.DIRECTORY);
+  }
+
+  private long getWriteNanos() {
+    return responseStream != null ? responseStream.getWriteNanos() : 0;
+  }
+
+  private static final class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = in.read();
+      if (b >= 0)
+        ++count;
+      return b;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+      final int read = in.read(b, off, len);
+      if (read > 0)
+        count += read;
+      return read;
+    }
+
+    @Override
+    public boolean markSupported() {
+      // a reset would count the same bytes twice
+      return false;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      final long skipped = in.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+}
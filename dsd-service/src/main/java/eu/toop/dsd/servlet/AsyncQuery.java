@@ -0,0 +1,424 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.toop.dsd.api.DirectoryUnavailableException;
+import eu.toop.dsd.config.DSDConfig;
+
+/**
+ * A DSD query that is processed outside of the container thread and answered through its
+ * {@link AsyncContext}.
+ * <p>
+ * The query runs on an executor thread while the container may time out the request at the
+ * same time. The response is finished exactly once, either by the query or by the timeout, and
+ * the query can't write to the response anymore after the timeout. A write that is blocked on a
+ * slow client doesn't hold up the timeout, the query is interrupted and its next write fails.
+ * <p>
+ * If the client accepts it, the result is gzipped while it is streamed. The encoding is only applied
+ * once the first byte of the result is written, so that a response without a body stays unencoded.
+ *
+ * @author yerlibilgin
+ */
+final class AsyncQuery implements Runnable, AsyncListener {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncQuery.class);
+
+  private static final int GZIP_BUFFER_SIZE = 8192;
+
+  private final AsyncContext asyncContext;
+  private final HttpServletResponse response;
+  private final String contentType;
+  private final boolean gzip;
+  private final Task task;
+
+  /**
+   * guards the response headers and the transition to {@link #finished}. It is never held during
+   * servlet I/O, so that the container's timeout thread doesn't wait for a slow client.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile boolean finished;
+  private volatile Future<?> future;
+
+  /**
+   * Writes the result of the query
+   */
+  @FunctionalInterface
+  interface Task {
+    /**
+     * @param query          the query, for setting the response headers before the result is written
+     * @param responseStream the stream to write the result to
+     * @throws Exception if the query fails
+     */
+    void process(@Nonnull AsyncQuery query, @Nonnull OutputStream responseStream) throws Exception;
+  }
+
+  /**
+   * @param asyncContext the started async context of the request
+   * @param contentType  the content type of a successful response
+   * @param gzip         <code>true</code> to gzip the result, see {@link #negotiateGzip(HttpServletRequest, HttpServletResponse)}
+   * @param task         the query, it may not use the request anymore
+   */
+  AsyncQuery(@Nonnull AsyncContext asyncContext, @Nonnull String contentType, boolean gzip, @Nonnull Task task) {
+    this.asyncContext = asyncContext;
+    this.response = (HttpServletResponse) asyncContext.getResponse();
+    this.contentType = contentType;
+    this.gzip = gzip;
+    this.task = task;
+  }
+
+  /**
+   * Decide whether the response is gzipped. If gzipped responses are enabled, the response varies
+   * by the <code>Accept-Encoding</code> of the request, so that caches keep the encodings apart.
+   *
+   * @param request  the request
+   * @param response the response
+   * @return <code>true</code> if gzipped responses are enabled and the client accepts them
+   */
+  static boolean negotiateGzip(@Nonnull HttpServletRequest request, @Nonnull HttpServletResponse response) {
+    if (!DSDConfig.isGzipResponses())
+      return false;
+
+    response.setHeader("Vary", "Accept-Encoding");
+    return acceptsGzip(request.getHeader("Accept-Encoding"));
+  }
+
+  /**
+   * Does the <code>Accept-Encoding</code> header accept gzip. A zero quality value refuses an encoding.
+   *
+   * @param acceptEncoding the header value, may be null
+   * @return <code>true</code> if gzip is accepted explicitly or through <code>*</code>
+   */
+  static boolean acceptsGzip(@Nullable String acceptEncoding) {
+    if (acceptEncoding == null)
+      return false;
+
+    boolean wildcard = false;
+    for (String coding : acceptEncoding.split(",")) {
+      final String[] parts = coding.split(";");
+      final String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      final boolean accepted = getQuality(parts) > 0;
+      if (name.equals("gzip") || name.equals("x-gzip"))
+        return accepted;
+      if (name.equals("*"))
+        wildcard = accepted;
+    }
+    return wildcard;
+  }
+
+  /**
+   * @param parts the parts of an element of an <code>Accept</code> style header, split at the semicolons
+   * @return the value of its <code>q</code> parameter, 1 if it has none and 0 if it is invalid
+   */
+  static float getQuality(@Nonnull String[] parts) {
+    for (int i = 1; i < parts.length; ++i) {
+      final String param = parts[i].trim();
+      if (param.length() >= 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+        try {
+          return Float.parseFloat(param.substring(2).trim());
+        } catch (NumberFormatException ex) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * @param future the future of this query, cancelled if the request is finished before the query
+   */
+  void setFuture(@Nonnull Future<?> future) {
+    this.future = future;
+    if (isFinished())
+      future.cancel(true);
+  }
+
+  @Override
+  public void run() {
+    try {
+      lock.lock();
+      try {
+        if (finished)
+          return;
+        // the result is streamed, so the headers must be set before the body is written
+        response.setContentType(contentType);
+      } finally {
+        lock.unlock();
+      }
+
+      final OutputStream responseStream = new GuardedOutputStream(response.getOutputStream());
+      if (gzip) {
+        final DeferredGzipOutputStream gzipStream = new DeferredGzipOutputStream(responseStream);
+        task.process(this, gzipStream);
+        gzipStream.finish();
+      } else {
+        task.process(this, responseStream);
+      }
+      complete();
+    } catch (Exception ex) {
+      if (isFinished()) {
+        // the request timed out or the client went away, nobody waits for this result anymore
+        LOGGER.debug("Abandoned DSD query failed: " + ex.getMessage());
+        return;
+      }
+
+      LOGGER.error(ex.getMessage(), ex);
+      final int status;
+      if (ex instanceof IllegalStateException)
+        status = HttpServletResponse.SC_BAD_REQUEST;
+      else if (ex instanceof DirectoryUnavailableException)
+        status = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+      else
+        status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+      final String message = ex.getMessage();
+      sendError(status, message != null ? message : "UNKNOWN ERROR");
+    }
+  }
+
+  /**
+   * Set a response header, before the result is written
+   *
+   * @param name  the header name
+   * @param value the header value
+   * @throws IOException if the request is already finished
+   */
+  void setHeader(@Nonnull String name, @Nonnull String value) throws IOException {
+    lock.lock();
+    try {
+      if (finished)
+        throw new IOException("The request is already finished");
+      response.setHeader(name, value);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Set the status of a successful response, before the result is written
+   *
+   * @param status the HTTP status
+   * @throws IOException if the request is already finished
+   */
+  void setStatus(int status) throws IOException {
+    lock.lock();
+    try {
+      if (finished)
+        throw new IOException("The request is already finished");
+      response.setStatus(status);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Finish the request with an error status, unless it is already finished. If a part of the
+   * result has already been sent, the status cannot be changed anymore and the response is just closed.
+   *
+   * @param status  the HTTP status
+   * @param message the plain text message of the response
+   */
+  void sendError(int status, @Nonnull String message) {
+    if (markFinished())
+      writeError(status, message);
+  }
+
+  /**
+   * Write the error response of a request that was just marked as finished. Not called under the
+   * lock, since writing the message may block.
+   */
+  private void writeError(int status, @Nonnull String message) {
+    try {
+      if (!response.isCommitted()) {
+        // also drops the headers of the result, like its content encoding
+        response.reset();
+        response.setContentType("text/plain");
+        response.setStatus(status);
+        response.getOutputStream().println(message);
+      }
+    } catch (IOException | RuntimeException ex) {
+      LOGGER.debug("Couldn't send the error response: " + ex.getMessage());
+    }
+    completeAsyncContext();
+  }
+
+  private void complete() {
+    if (markFinished())
+      completeAsyncContext();
+  }
+
+  private void completeAsyncContext() {
+    try {
+      asyncContext.complete();
+    } catch (IllegalStateException ex) {
+      // the container has already completed the request
+      LOGGER.debug("Couldn't complete the request: " + ex.getMessage());
+    }
+  }
+
+  /**
+   * @return <code>true</code> if this call finished the request, <code>false</code> if it was already finished
+   */
+  private boolean markFinished() {
+    lock.lock();
+    try {
+      if (finished)
+        return false;
+      finished = true;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isFinished() {
+    return finished;
+  }
+
+  private void cancelQuery() {
+    final Future<?> f = future;
+    if (f != null)
+      f.cancel(true);
+  }
+
+  @Override
+  public void onTimeout(AsyncEvent event) {
+    LOGGER.warn("DSD query timed out after " + asyncContext.getTimeout() + " ms");
+    // stop the query before the error is sent, a query blocked on a slow client must not delay the response
+    final boolean timedOut = markFinished();
+    cancelQuery();
+    if (timedOut)
+      writeError(HttpServletResponse.SC_GATEWAY_TIMEOUT, "The query timed out");
+  }
+
+  @Override
+  public void onError(AsyncEvent event) {
+    final Throwable throwable = event.getThrowable();
+    LOGGER.debug("DSD query request failed: " + (throwable != null ? throwable.getMessage() : "unknown error"));
+    // the request is finished without touching the response
+    markFinished();
+    cancelQuery();
+  }
+
+  @Override
+  public void onComplete(AsyncEvent event) {
+    markFinished();
+    cancelQuery();
+  }
+
+  @Override
+  public void onStartAsync(AsyncEvent event) {
+    // not used, the async processing is started only once
+  }
+
+  /**
+   * Writes to the response only as long as the request is not finished
+   */
+  private final class GuardedOutputStream extends OutputStream {
+    private final OutputStream out;
+
+    private GuardedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      ensureNotFinished();
+      out.write(b);
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+      ensureNotFinished();
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      ensureNotFinished();
+      out.flush();
+    }
+
+    private void ensureNotFinished() throws IOException {
+      if (finished)
+        throw new IOException("The request is already finished");
+    }
+  }
+
+  /**
+   * Gzips the result. The content encoding is set and the gzip header is written with the first
+   * byte of the result, a flush before that doesn't commit the response. A flush of the result
+   * flushes the compressed data as well, so that a streamed result isn't held back.
+   */
+  private final class DeferredGzipOutputStream extends OutputStream {
+    private final OutputStream out;
+    private GZIPOutputStream gzipStream;
+
+    private DeferredGzipOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    private GZIPOutputStream getGzipStream() throws IOException {
+      if (gzipStream == null) {
+        setHeader("Content-Encoding", "gzip");
+        gzipStream = new GZIPOutputStream(out, GZIP_BUFFER_SIZE, true);
+      }
+      return gzipStream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      getGzipStream().write(b);
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+      if (len > 0)
+        getGzipStream().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (gzipStream != null)
+        gzipStream.flush();
+    }
+
+    /**
+     * Writes the gzip trailer, if anything was written
+     */
+    private void finish() throws IOException {
+      if (gzipStream != null)
+        gzipStream.finish();
+    }
+  }
+}
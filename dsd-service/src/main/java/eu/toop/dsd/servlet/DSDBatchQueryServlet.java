@@ -0,0 +1,155 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+
+import eu.toop.dsd.api.DSDBatch;
+import eu.toop.dsd.api.VirtualThreads;
+import eu.toop.dsd.config.DSDConfig;
+import eu.toop.dsd.service.DSDBatchService;
+import eu.toop.dsd.service.DSDMetrics;
+
+/**
+ * The HTTP servlet for the batch queries: several <code>/rest/search</code> queries answered with a
+ * single request. See {@link DSDBatch} for the request and response format.
+ * <p>
+ * A batch is processed asynchronously like a single query and is subject to the same timeout and
+ * limits. The directory calls of a batch run in parallel on a separate executor.
+ *
+ * @author yerlibilgin
+ */
+@WebServlet(value = "/rest/batch", loadOnStartup = 1, asyncSupported = true)
+public class DSDBatchQueryServlet extends HttpServlet {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DSDBatchQueryServlet.class);
+
+  /**
+   * The maximum size of a single line of the request body
+   */
+  private static final int MAX_QUERY_LENGTH = 4096;
+
+  private static final AtomicInteger fetchThreadCounter = new AtomicInteger();
+
+  /**
+   * runs the batches, so that the container threads are not blocked while the directory is queried
+   */
+  private transient QueryExecutor batchExecutor;
+
+  /**
+   * runs the directory calls of the batches
+   */
+  private transient ExecutorService fetchExecutor;
+
+  @Override
+  public void init() throws ServletException {
+    batchExecutor = new QueryExecutor("dsd-batch-");
+
+    if (DSDConfig.isVirtualThreadsEnabled() && VirtualThreads.isAvailable()) {
+      fetchExecutor = VirtualThreads.newThreadPerTaskExecutor("dsd-batch-fetch-");
+    } else {
+      // the queries of a batch must not be rejected halfway, so the queue is not bounded. The number of
+      // batches, and so the number of queued queries, is bounded by the batch executor.
+      fetchExecutor = Executors.newFixedThreadPool(DSDConfig.getBatchFetchThreads(), runnable -> {
+        final Thread thread = new Thread(runnable, "dsd-batch-fetch-" + fetchThreadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  @Override
+  public void destroy() {
+    batchExecutor.shutdown();
+    fetchExecutor.shutdownNow();
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    final int maxQueries = DSDConfig.getBatchMaxQueries();
+
+    final List<Map<String, String[]>> parameterMaps;
+    try {
+      final String requestBody = readRequestBody(req.getInputStream(), maxQueries * MAX_QUERY_LENGTH);
+      parameterMaps = DSDBatch.parseRequestBody(requestBody);
+      if (parameterMaps.isEmpty())
+        throw new IllegalArgumentException("The batch doesn't contain any queries");
+      if (parameterMaps.size() > maxQueries)
+        throw new IllegalArgumentException("The batch contains " + parameterMaps.size() + " queries, the maximum is " + maxQueries);
+    } catch (IllegalArgumentException ex) {
+      LOGGER.warn("Invalid DSD batch: " + ex.getMessage());
+      DSDMetrics.recordInvalidRequest();
+      resp.setContentType("text/plain");
+      resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      resp.getOutputStream().println(ex.getMessage());
+      return;
+    }
+
+    LOGGER.debug("DSD batch with " + parameterMaps.size() + " queries");
+
+    final String boundary = DSDBatch.createBoundary();
+    final boolean gzip = AsyncQuery.negotiateGzip(req, resp);
+    final AsyncContext asyncContext = req.startAsync();
+    asyncContext.setTimeout(DSDConfig.getAsyncTimeoutMs());
+    final AsyncQuery query = new AsyncQuery(asyncContext, DSDBatch.RESPONSE_CONTENT_TYPE + "; boundary=" + boundary, gzip,
+        (batch, responseStream) -> DSDBatchService.processBatch(parameterMaps, fetchExecutor, DSDConfig.getBatchTimeoutMs(), boundary,
+            responseStream));
+    asyncContext.addListener(query);
+
+    try {
+      query.setFuture(batchExecutor.submit(query));
+    } catch (RejectedExecutionException ex) {
+      LOGGER.warn("Rejecting DSD batch: " + ex.getMessage());
+      query.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent queries, please try again later");
+    }
+  }
+
+  private static String readRequestBody(InputStream in, int maxLength) throws IOException {
+    try (NonBlockingByteArrayOutputStream body = new NonBlockingByteArrayOutputStream()) {
+      final byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        if (body.size() + read > maxLength)
+          throw new IllegalArgumentException("The batch request is too large");
+        body.write(buffer, 0, read);
+      }
+      // the query strings are URL encoded, so they are plain ASCII
+      return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -17,9 +17,25 @@
  */
 package eu.toop.dsd.servlet;
 
+import eu.toop.dsd.api.DirectoryCircuitBreaker;
+import eu.toop.dsd.api.DirectoryConnectionPool;
+import eu.toop.dsd.api.DsdDataConverter;
+import eu.toop.dsd.api.ToopDirClient;
+import eu.toop.dsd.api.VirtualThreads;
+import eu.toop.dsd.config.DSDConfig;
+import eu.toop.dsd.service.DSDMetrics;
+import eu.toop.dsd.service.DSDQueryService;
+import eu.toop.dsd.service.DSDResponseCache;
+import eu.toop.dsd.service.DSDWarmUp;
+import eu.toop.dsd.service.DirectorySnapshotService;
+import eu.toop.dsd.service.LastKnownGoodStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
@@ -31,10 +47,93 @@ public class DSDContextListener implements ServletContextListener {
     @Override
     public void contextInitialized(ServletContextEvent servletContextEvent) {
         LOGGER.info("DSD Starting UP");
+
+        ToopDirClient.setConnectionPool(new DirectoryConnectionPool(DSDConfig.getDirectoryClientSettings()));
+        ToopDirClient.setPageSize(DSDConfig.getDirectoryPageSize());
+        ToopDirClient.setMaxPagesInFlight(DSDConfig.getDirectoryMaxPagesInFlight());
+        ToopDirClient.setCoalesceRequests(DSDConfig.isDirectoryCoalesceRequests());
+        ExecutorService pageFetchExecutor = null;
+        if (DSDConfig.isVirtualThreadsEnabled()) {
+            if (VirtualThreads.isAvailable()) {
+                pageFetchExecutor = VirtualThreads.newThreadPerTaskExecutor("dsd-dir-page-");
+            } else {
+                LOGGER.warn("Virtual threads are enabled but not supported by Java " + System.getProperty("java.version") +
+                    ", using platform threads");
+            }
+        }
+        ToopDirClient.setPageFetchExecutor(pageFetchExecutor != null ? pageFetchExecutor :
+            ToopDirClient.createPageFetchExecutor(DSDConfig.getDirectoryPageFetchThreads()));
+        DsdDataConverter.setConversionEngine(DSDConfig.getConversionEngine());
+        DsdDataConverter.setIndent(DSDConfig.isIndent());
+        DSDMetrics.setEnabled(DSDConfig.isMetricsEnabled());
+
+        if (DSDConfig.isCircuitBreakerEnabled()) {
+            ToopDirClient.setCircuitBreaker(new DirectoryCircuitBreaker(DSDConfig.getCircuitBreakerFailureThreshold(),
+                DSDConfig.getCircuitBreakerOpenMs()));
+            // the stored responses are only served while the breaker is open
+            if (DSDConfig.isFallbackEnabled()) {
+                DSDQueryService.setLastKnownGoodStore(new LastKnownGoodStore(DSDConfig.getFallbackMaxEntries(),
+                    DSDConfig.getFallbackMaxBytes(), DSDConfig.getFallbackMaxEntryBytes()));
+            }
+        }
+
+        if (DSDConfig.isCacheEnabled()) {
+            DSDQueryService.setResponseCache(new DSDResponseCache(DSDConfig.getCacheMaxBytes(), DSDConfig.getCacheTtlSeconds(),
+                DSDConfig.getCacheStaleWhileRevalidateSeconds(), DSDConfig.getCacheRefreshThreads()));
+        }
+
+        boolean persistedSnapshot = false;
+        if (DSDConfig.isSnapshotEnabled()) {
+            DirectorySnapshotService.setSnapshotFile(DSDConfig.getSnapshotFile());
+            // answer from the saved snapshot right away, the first refresh replaces it
+            persistedSnapshot = DirectorySnapshotService.loadSnapshotFile(DSDConfig.getToopDirUrl(), DSDConfig.getSnapshotCountryCodes(),
+                DSDConfig.getSnapshotFileMaxAgeSeconds()) != null;
+        }
+
+        final boolean loadSnapshot = DSDConfig.isSnapshotEnabled() && DSDConfig.isWarmUpEnabled() && DSDConfig.isWarmUpLoadSnapshot() &&
+            !persistedSnapshot;
+        if (DSDConfig.isSnapshotEnabled()) {
+            // the warm-up loads the first snapshot, the scheduled refreshes follow it
+            DirectorySnapshotService.start(DSDConfig.getToopDirUrl(), DSDConfig.getSnapshotCountryCodes(),
+                DSDConfig.getSnapshotRefreshIntervalSeconds(), loadSnapshot ? DSDConfig.getSnapshotRefreshIntervalSeconds() : 0);
+        }
+
+        DSDWarmUp.start(DSDConfig.isWarmUpEnabled() ? createWarmUpPhases(loadSnapshot) : new ArrayList<>());
+    }
+
+    private static List<DSDWarmUp.Phase> createWarmUpPhases(boolean loadSnapshot) {
+        final List<DSDWarmUp.Phase> phases = new ArrayList<>();
+        phases.add(new DSDWarmUp.Phase("templates", true,
+            () -> DsdDataConverter.primeTransformerPool(DSDConfig.getWarmUpTransformers())));
+        phases.add(new DSDWarmUp.Phase("conversions", true,
+            () -> DSDWarmUp.runConversions(DSDConfig.getWarmUpInputs(), DSDConfig.getWarmUpIterations())));
+        if (DSDConfig.getWarmUpDirectoryConnections() > 0) {
+            phases.add(new DSDWarmUp.Phase("directory-connections", false,
+                () -> ToopDirClient.getConnectionPool().prime(DSDConfig.getToopDirUrl(), DSDConfig.getWarmUpDirectoryConnections())));
+        }
+        if (loadSnapshot) {
+            phases.add(new DSDWarmUp.Phase("snapshot", false,
+                () -> DirectorySnapshotService.refresh(DSDConfig.getToopDirUrl(), DSDConfig.getSnapshotCountryCodes())));
+        }
+        return phases;
     }
 
     @Override
     public void contextDestroyed(ServletContextEvent servletContextEvent) {
         LOGGER.info("DSD Shutdown");
+
+        DSDWarmUp.stop();
+
+        DirectorySnapshotService.stop();
+        final DSDResponseCache responseCache = DSDQueryService.getResponseCache();
+        if (responseCache != null) {
+            DSDQueryService.setResponseCache(null);
+            responseCache.shutdown();
+        }
+        DSDQueryService.setLastKnownGoodStore(null);
+        ToopDirClient.setCircuitBreaker(null);
+        ToopDirClient.getConnectionPool().close();
+        // otherwise its threads would outlive the web application
+        ToopDirClient.getPageFetchExecutor().shutdownNow();
     }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.servlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import eu.toop.dsd.service.DSDWarmUp;
+
+/**
+ * The health checks of the service, for the load balancer and the container orchestration:
+ * <ul>
+ *   <li><code>/health/live</code> answers <code>200</code> as long as the service is running.</li>
+ *   <li><code>/health/ready</code> answers <code>200</code> once the {@link DSDWarmUp warm-up} is finished
+ *   and <code>503</code> before, or if it failed. The body reports the state and the duration of the
+ *   warm-up and its phases.</li>
+ * </ul>
+ *
+ * @author yerlibilgin
+ */
+@WebServlet("/health/*")
+public class DSDHealthServlet extends HttpServlet {
+  private static final String CONTENT_TYPE = "application/json";
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    final String pathInfo = req.getPathInfo();
+    if ("/live".equals(pathInfo)) {
+      writeResponse(resp, HttpServletResponse.SC_OK, "{\"status\":\"UP\"}");
+    } else if ("/ready".equals(pathInfo)) {
+      writeResponse(resp, DSDWarmUp.isReady() ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE, getReadiness());
+    } else {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+  }
+
+  /**
+   * @return the state of the warm-up as JSON. The phase names are plain identifiers, they need no escaping
+   */
+  private static String getReadiness() {
+    final StringBuilder sb = new StringBuilder(256);
+    sb.append("{\"status\":\"").append(DSDWarmUp.getState()).append("\",\"warmUpMillis\":").append(DSDWarmUp.getDurationMillis())
+        .append(",\"phases\":[");
+    boolean first = true;
+    for (DSDWarmUp.Phase phase : DSDWarmUp.getPhases()) {
+      if (!first)
+        sb.append(',');
+      first = false;
+      sb.append("{\"name\":\"").append(phase.getName()).append("\",\"required\":").append(phase.isRequired())
+          .append(",\"millis\":").append(phase.getDurationMillis()).append(",\"failed\":").append(phase.isFailed()).append('}');
+    }
+    return sb.append("]}").toString();
+  }
+
+  private static void writeResponse(HttpServletResponse resp, int status, String body) throws IOException {
+    resp.setStatus(status);
+    resp.setContentType(CONTENT_TYPE);
+    resp.setHeader("Cache-Control", "no-cache");
+    resp.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+  }
+}
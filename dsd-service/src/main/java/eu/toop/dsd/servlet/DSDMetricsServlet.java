@@ -0,0 +1,54 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.servlet;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import eu.toop.dsd.service.DSDMetrics;
+
+/**
+ * Exposes the {@link DSDMetrics} in the Prometheus text format, to be scraped by a Prometheus server.
+ *
+ * @author yerlibilgin
+ */
+@WebServlet("/metrics")
+public class DSDMetricsServlet extends HttpServlet {
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    if (!DSDMetrics.isEnabled()) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND, "The metrics are disabled");
+      return;
+    }
+
+    resp.setContentType(CONTENT_TYPE);
+    resp.setHeader("Cache-Control", "no-cache");
+    final Writer writer = new OutputStreamWriter(resp.getOutputStream(), StandardCharsets.UTF_8);
+    DSDMetrics.writePrometheus(writer);
+    writer.flush();
+  }
+}
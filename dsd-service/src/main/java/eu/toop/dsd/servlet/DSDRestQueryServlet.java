@@ -17,22 +17,27 @@
  */
 package eu.toop.dsd.servlet;
 
-import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import eu.toop.dsd.api.DsdDataConverter;
-import eu.toop.dsd.api.ToopDirClient;
+import eu.toop.dsd.api.DSDJson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import eu.toop.dsd.config.DSDConfig;
 import eu.toop.dsd.service.DSDQueryService;
+import eu.toop.dsd.service.DSDResponseFormat;
 
 /**
  * The HTTP servlet for the REST query. One servlet could be used
@@ -40,43 +45,155 @@ import eu.toop.dsd.service.DSDQueryService;
  * {http://docs.oasis-open.org/regrep/regrep-core/v4.0/os/regrep-core-rs-v4.0-os.html#__RefHeading__32747_422331532}
  * suggests using "/rest/search" for the rest based query, which would
  * be meaningless for handling a Post request that is not REST.
+ * <p>
+ * The queries are processed asynchronously on a dedicated executor, so that the container threads
+ * are not blocked while the TOOP Directory is queried. A query that doesn't finish within the
+ * configured timeout is answered with <code>504 Gateway Timeout</code>, a query that can't be
+ * queued is answered with <code>503 Service Unavailable</code>.
+ * If enabled and supported by the JDK, each query runs on its own virtual thread instead.
+ * <p>
+ * The responses that come from the response cache or the directory snapshot carry a weak <code>ETag</code>
+ * and a request whose <code>If-None-Match</code> matches it is answered with <code>304 Not Modified</code>
+ * without a body.
+ * The gzipped representation has its own entity tag.
+ * <p>
+ * The responses are gzipped for the clients that send <code>Accept-Encoding: gzip</code>, unless disabled.
+ * <p>
+ * A request that prefers <code>application/json</code> in its <code>Accept</code> header is answered with the
+ * compact JSON form of the result, see {@link DSDJson}. Otherwise the response is the RegRep query response.
+ * <p>
+ * While the TOOP Directory is unavailable, the last successful response of the query may be served instead. Such a
+ * response carries the <code>X-DSD-Stale</code> header with its age in seconds.
  *
  * @author yerlibilgin
  */
-@WebServlet(value = "/rest/search", loadOnStartup = 1)
+@WebServlet(value = "/rest/search", loadOnStartup = 1, asyncSupported = true)
 public class DSDRestQueryServlet extends HttpServlet {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(DSDRestQueryServlet.class);
 
+  private static final String HEADER_ETAG = "ETag";
+  private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+  private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+  private static final String HEADER_ACCEPT = "Accept";
+  private static final String HEADER_STALE = "X-DSD-Stale";
+
+  /**
+   * runs the queries, so that the container threads are not blocked while the directory is queried
+   */
+  private transient QueryExecutor queryExecutor;
+
   public DSDRestQueryServlet() {
     LOGGER.debug("Creating DSDRestQueryServlet");
+  }
+
+  @Override
+  public void init() throws ServletException {
+    queryExecutor = new QueryExecutor("dsd-query-");
+  }
 
-    //Preapre transfomation for further uses
-    DsdDataConverter.prepare();
+  @Override
+  public void destroy() {
+    queryExecutor.shutdown();
   }
 
   @Override
-  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
     LOGGER.debug("DSD query  with " + req.getQueryString());
 
+    // the query outlives this call, so it gets its own copy of the parameters
+    final Map<String, String[]> parameterMap = new HashMap<>(req.getParameterMap());
+    final String ifNoneMatch = req.getHeader(HEADER_IF_NONE_MATCH);
+    final boolean gzip = AsyncQuery.negotiateGzip(req, resp);
+    final DSDResponseFormat format = negotiateFormat(req.getHeader(HEADER_ACCEPT));
+    resp.addHeader("Vary", HEADER_ACCEPT);
+
+    final AsyncContext asyncContext = req.startAsync();
+    asyncContext.setTimeout(DSDConfig.getAsyncTimeoutMs());
+    final AsyncQuery query = new AsyncQuery(asyncContext, format.getContentType(), gzip,
+        (asyncQuery, responseStream) -> DSDQueryService.processRequest(parameterMap, format, responseStream, identityETag -> {
+          final String eTag = gzip ? getGzipETag(identityETag) : identityETag;
+          asyncQuery.setHeader(HEADER_ETAG, eTag);
+          // the response may be stored, but must be revalidated before it is used
+          asyncQuery.setHeader(HEADER_CACHE_CONTROL, "no-cache");
+          if (matchesETag(ifNoneMatch, eTag)) {
+            asyncQuery.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+          }
+          return true;
+        }, ageSeconds -> asyncQuery.setHeader(HEADER_STALE, Long.toString(ageSeconds))));
+    asyncContext.addListener(query);
+
     try {
-      Map<String, String[]> parameterMap = req.getParameterMap();
-      DSDQueryService.processRequest(parameterMap, resp.getOutputStream());
-      resp.setContentType("application/xml");
-    } catch (Exception ex) {
-      resp.setContentType("text/plain");
-      LOGGER.error(ex.getMessage(), ex);
-
-      if (ex instanceof IllegalStateException) {
-        resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-      } else {
-        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-      }
-
-      final String message = ex.getMessage();
-      resp.getOutputStream().println(message != null ? message : "UNKNOWN ERROR");
+      query.setFuture(queryExecutor.submit(query));
+    } catch (RejectedExecutionException ex) {
+      LOGGER.warn("Rejecting DSD query: " + ex.getMessage());
+      query.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent queries, please try again later");
     }
   }
 
+  /**
+   * Select the response format from the <code>Accept</code> header. JSON is only sent if it is
+   * accepted explicitly and not less preferred than XML.
+   *
+   * @param accept the header value, may be null
+   * @return the format of the response
+   */
+  @Nonnull
+  static DSDResponseFormat negotiateFormat(@Nullable String accept) {
+    if (accept == null)
+      return DSDResponseFormat.REGREP;
 
+    float jsonQuality = 0;
+    float xmlQuality = 0;
+    for (String range : accept.split(",")) {
+      final String[] parts = range.split(";");
+      final String mediaType = parts[0].trim().toLowerCase(Locale.ROOT);
+      final float quality = AsyncQuery.getQuality(parts);
+      if (mediaType.equals(DSDJson.CONTENT_TYPE))
+        jsonQuality = Math.max(jsonQuality, quality);
+      else if (mediaType.equals("application/xml") || mediaType.equals("text/xml"))
+        xmlQuality = Math.max(xmlQuality, quality);
+    }
+    return jsonQuality > 0 && jsonQuality >= xmlQuality ? DSDResponseFormat.JSON : DSDResponseFormat.REGREP;
+  }
+
+  /**
+   * The entity tag of the gzipped representation, which is a different representation than the identity
+   * representation and thus gets its own tag
+   *
+   * @param eTag the entity tag of the identity representation
+   * @return the entity tag of the gzipped representation
+   */
+  static String getGzipETag(@Nonnull String eTag) {
+    return eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+  }
+
+  /**
+   * Does the <code>If-None-Match</code> header match the entity tag. Like RFC 7232 requires for
+   * <code>If-None-Match</code>, the weak comparison is used.
+   *
+   * @param ifNoneMatch the header value, may be null
+   * @param eTag        the entity tag of the response
+   * @return <code>true</code> if the client already has the response
+   */
+  static boolean matchesETag(@Nullable String ifNoneMatch, @Nonnull String eTag) {
+    if (ifNoneMatch == null)
+      return false;
+
+    final String opaqueTag = getOpaqueTag(eTag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      final String tag = candidate.trim();
+      if (tag.equals("*") || getOpaqueTag(tag).equals(opaqueTag))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the entity tag without the weakness indicator
+   */
+  private static String getOpaqueTag(String eTag) {
+    return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+  }
 }
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.servlet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.toop.dsd.api.VirtualThreads;
+import eu.toop.dsd.config.DSDConfig;
+
+/**
+ * Runs the asynchronous queries of a servlet, so that the container threads are not blocked while
+ * the directory is queried.
+ * <p>
+ * The queries run on a bounded thread pool with a bounded queue, or, if enabled and supported by
+ * the JDK, each on its own virtual thread with a bounded number of queries in flight. A query that
+ * exceeds the bounds is rejected with a {@link RejectedExecutionException}.
+ *
+ * @author yerlibilgin
+ */
+final class QueryExecutor {
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueryExecutor.class);
+
+  private final ExecutorService executor;
+
+  /**
+   * limits the concurrent queries if they run on virtual threads, <code>null</code> for the bounded thread pool
+   */
+  private final Semaphore virtualQueryPermits;
+
+  /**
+   * @param threadNamePrefix the prefix of the names of the query threads
+   */
+  QueryExecutor(@Nonnull String threadNamePrefix) {
+    if (DSDConfig.isVirtualThreadsEnabled() && VirtualThreads.isAvailable()) {
+      LOGGER.info("Processing the " + threadNamePrefix + " queries on virtual threads");
+      executor = VirtualThreads.newThreadPerTaskExecutor(threadNamePrefix);
+      virtualQueryPermits = new Semaphore(DSDConfig.getAsyncMaxVirtualQueries());
+      return;
+    }
+
+    final AtomicInteger threadCounter = new AtomicInteger();
+    final int threads = DSDConfig.getAsyncThreads();
+    final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(DSDConfig.getAsyncQueueSize()), runnable -> {
+      final Thread thread = new Thread(runnable, threadNamePrefix + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    threadPool.allowCoreThreadTimeOut(true);
+    executor = threadPool;
+    virtualQueryPermits = null;
+  }
+
+  /**
+   * Submit a query
+   *
+   * @param query the query
+   * @return the future of the query
+   * @throws RejectedExecutionException if there are too many queries
+   */
+  Future<?> submit(@Nonnull Runnable query) {
+    final Semaphore permits = virtualQueryPermits;
+    if (permits == null)
+      return executor.submit(query);
+
+    // a virtual thread per query has no natural limit, keep the number of queries in flight bounded
+    if (!permits.tryAcquire())
+      throw new RejectedExecutionException("too many concurrent queries");
+    try {
+      return executor.submit(() -> {
+        try {
+          query.run();
+        } finally {
+          permits.release();
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      permits.release();
+      throw ex;
+    }
+  }
+
+  /**
+   * Stop the running queries
+   */
+  void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -71,7 +71,12 @@ limitations under the License.
 
                     <br/><br/>
                     <h3>Parameters</h3>
-                    <b>Toop Directory Address: </b> <span> <%= eu.toop.dsd.config.DSDConfig.getToopDirUrl() %> </span> </br></br>
+                    <b>Toop Directory Address: </b> <span> <%= eu.toop.dsd.config.DSDConfig.getToopDirUrl() %> </span> </br>
+                    <b>Directory Connection Pool: </b> <span> <%= eu.toop.dsd.api.ToopDirClient.getConnectionPool().getPoolStats() %> </span> </br>
+                    <b>Directory Snapshot: </b> <span> <%= eu.toop.dsd.service.DirectorySnapshotService.getSnapshot() != null ? eu.toop.dsd.service.DirectorySnapshotService.getSnapshot() : "not in use" %> </span> </br>
+                    <b>Directory Circuit Breaker: </b> <span> <%= eu.toop.dsd.api.ToopDirClient.getCircuitBreaker() != null ? eu.toop.dsd.api.ToopDirClient.getCircuitBreaker() : "disabled" %> </span> </br>
+                    <b>Last Known Good Responses: </b> <span> <%= eu.toop.dsd.service.DSDQueryService.getLastKnownGoodStore() != null ? eu.toop.dsd.service.DSDQueryService.getLastKnownGoodStore() : "disabled" %> </span> </br>
+                    <b>Response Cache: </b> <span> <%= eu.toop.dsd.service.DSDQueryService.getResponseCache() != null ? eu.toop.dsd.service.DSDQueryService.getResponseCache() : "disabled" %> </span> </br></br>
                     <p class="small">
                         <b>Version: </b> <span> <%= eu.toop.dsd.config.DSDConfig.getDsdVersion() %></span> </br>
                         <b>Build Date</b> <span><%= eu.toop.dsd.config.DSDConfig.getBuildDate() %> </span> </br>
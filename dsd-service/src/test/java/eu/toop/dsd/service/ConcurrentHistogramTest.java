@@ -0,0 +1,129 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the bucket layout, the error bound and the quantiles of the {@link ConcurrentHistogram}
+ *
+ * @author yerlibilgin
+ */
+public class ConcurrentHistogramTest {
+  @Test
+  public void bucketBoundaries() {
+    // the values below the sub bucket count have a bucket of their own
+    Assert.assertEquals(0, ConcurrentHistogram.bucketIndex(0));
+    Assert.assertEquals(15, ConcurrentHistogram.bucketIndex(15));
+    Assert.assertEquals(15, ConcurrentHistogram.highestValueInBucket(15));
+
+    // 16..31 still have a bucket each
+    Assert.assertEquals(16, ConcurrentHistogram.bucketIndex(16));
+    Assert.assertEquals(16, ConcurrentHistogram.highestValueInBucket(16));
+    Assert.assertEquals(31, ConcurrentHistogram.bucketIndex(31));
+    Assert.assertEquals(31, ConcurrentHistogram.highestValueInBucket(31));
+
+    // from 32 on, a bucket holds two or more values
+    Assert.assertEquals(32, ConcurrentHistogram.bucketIndex(32));
+    Assert.assertEquals(32, ConcurrentHistogram.bucketIndex(33));
+    Assert.assertEquals(33, ConcurrentHistogram.highestValueInBucket(32));
+    Assert.assertEquals(33, ConcurrentHistogram.bucketIndex(34));
+
+    Assert.assertEquals(ConcurrentHistogram.BUCKET_COUNT - 1, ConcurrentHistogram.bucketIndex(Long.MAX_VALUE));
+    Assert.assertEquals(Long.MAX_VALUE, ConcurrentHistogram.highestValueInBucket(ConcurrentHistogram.BUCKET_COUNT - 1));
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    for (int index = 1; index < ConcurrentHistogram.BUCKET_COUNT; ++index) {
+      final long lowest = ConcurrentHistogram.highestValueInBucket(index - 1) + 1;
+      Assert.assertEquals(index, ConcurrentHistogram.bucketIndex(lowest));
+      Assert.assertEquals(index, ConcurrentHistogram.bucketIndex(ConcurrentHistogram.highestValueInBucket(index)));
+    }
+  }
+
+  @Test
+  public void errorBound() {
+    final Random random = new Random(42);
+    for (int i = 0; i < 100_000; ++i) {
+      // uniformly distributed magnitudes
+      final long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+      assertWithinErrorBound(value);
+    }
+    for (int shift = 0; shift < 63; ++shift) {
+      assertWithinErrorBound((1L << shift) - 1);
+      assertWithinErrorBound(1L << shift);
+      assertWithinErrorBound((1L << shift) + 1);
+    }
+    assertWithinErrorBound(Long.MAX_VALUE);
+  }
+
+  private static void assertWithinErrorBound(long value) {
+    final long reported = ConcurrentHistogram.highestValueInBucket(ConcurrentHistogram.bucketIndex(value));
+    Assert.assertTrue(value + " reported as " + reported, reported >= value);
+    Assert.assertTrue(value + " reported as " + reported, (reported - value) <= value / ConcurrentHistogram.SUB_BUCKET_COUNT);
+  }
+
+  @Test
+  public void emptyHistogram() {
+    final ConcurrentHistogram histogram = new ConcurrentHistogram();
+    Assert.assertEquals(0, histogram.getCount());
+    Assert.assertEquals(0, histogram.getSum());
+    Assert.assertEquals(0, histogram.getMax());
+    Assert.assertArrayEquals(new long[]{0, 0, 0}, histogram.getValuesAtQuantiles(0.5, 0.99, 1));
+  }
+
+  @Test
+  public void quantiles() {
+    final ConcurrentHistogram histogram = new ConcurrentHistogram();
+    for (int value = 1; value <= 1000; ++value) {
+      histogram.record(value);
+    }
+    Assert.assertEquals(1000, histogram.getCount());
+    Assert.assertEquals(500_500, histogram.getSum());
+    Assert.assertEquals(1000, histogram.getMax());
+
+    final double[] quantiles = {0, 0.5, 0.9, 0.99, 1};
+    final long[] expected = {1, 500, 900, 990, 1000};
+    final long[] values = histogram.getValuesAtQuantiles(quantiles);
+    for (int i = 0; i < quantiles.length; ++i) {
+      Assert.assertTrue(quantiles[i] + ": " + values[i], values[i] >= expected[i]);
+      Assert.assertTrue(quantiles[i] + ": " + values[i], values[i] - expected[i] <= expected[i] / ConcurrentHistogram.SUB_BUCKET_COUNT);
+    }
+  }
+
+  @Test
+  public void quantilesDontExceedTheMax() {
+    final ConcurrentHistogram histogram = new ConcurrentHistogram();
+    // 1000 is in the bucket 992..1023
+    histogram.record(1000);
+    Assert.assertArrayEquals(new long[]{1000, 1000}, histogram.getValuesAtQuantiles(0.5, 1));
+  }
+
+  @Test
+  public void negativeValuesAreRecordedAsZero() {
+    final ConcurrentHistogram histogram = new ConcurrentHistogram();
+    histogram.record(-5);
+    Assert.assertEquals(1, histogram.getCount());
+    Assert.assertEquals(0, histogram.getSum());
+    Assert.assertArrayEquals(new long[]{0}, histogram.getValuesAtQuantiles(1));
+  }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.dsd.api.DSDBatch;
+import eu.toop.dsd.api.DSDBatchResult;
+import eu.toop.dsd.api.DirectoryUnavailableException;
+import eu.toop.dsd.api.types.DSDQuery;
+
+/**
+ * Tests the {@link DSDBatchService} with a counting directory stub
+ *
+ * @author yerlibilgin
+ */
+public class DSDBatchServiceTest {
+  private static final String BOUNDARY = "dsd-test-boundary";
+
+  private static byte[] directoryResult;
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+
+  @BeforeClass
+  public static void beforeClass() throws IOException {
+    directoryResult = StreamHelper.getAllBytes(DSDBatchServiceTest.class.getResourceAsStream("/directory-results.xml"));
+  }
+
+  @After
+  public void after() {
+    DSDQueryService.setDirectoryFetcher(null);
+    DSDQueryService.setLastKnownGoodStore(null);
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void queriesSharingADirectoryCallFetchOnce() throws Exception {
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      count(dsdQuery);
+      return directoryResult;
+    });
+
+    final List<Map<String, String[]>> queries = new ArrayList<>();
+    queries.add(byLocation("registeredorganization", "PL"));
+    queries.add(byLocation("crewcertificate", "PL"));
+    queries.add(byDpType("registeredorganization", "abc"));
+    queries.add(byLocation("shipcertificate", "PL"));
+    queries.add(byLocation("shipcertificate", "SV"));
+    queries.add(byDpType("crewcertificate", "abc"));
+
+    final List<DSDBatchResult> results = process(queries, 60_000);
+
+    for (DSDBatchResult result : results) {
+      Assert.assertEquals(result.getRawResult(), 200, result.getStatus());
+    }
+    Assert.assertEquals(3, fetches.size());
+    Assert.assertEquals(1, fetches.get("PL").get());
+    Assert.assertEquals(1, fetches.get("SV").get());
+    Assert.assertEquals(1, fetches.get("abc").get());
+  }
+
+  @Test
+  public void failedFetchFailsItsGroupOnly() throws Exception {
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      if ("DE".equals(count(dsdQuery)))
+        throw new IOException("directory down");
+      return directoryResult;
+    });
+
+    final List<Map<String, String[]>> queries = new ArrayList<>();
+    queries.add(byLocation("registeredorganization", "DE"));
+    queries.add(byLocation("registeredorganization", "PL"));
+    queries.add(byLocation("crewcertificate", "DE"));
+
+    final List<DSDBatchResult> results = process(queries, 60_000);
+
+    Assert.assertEquals(500, results.get(0).getStatus());
+    Assert.assertEquals("directory down", results.get(0).getRawResult());
+    Assert.assertEquals(200, results.get(1).getStatus());
+    Assert.assertEquals(500, results.get(2).getStatus());
+    // the failure is shared by the group
+    Assert.assertEquals(1, fetches.get("DE").get());
+  }
+
+  @Test
+  public void unavailableDirectoryIsAnsweredWith503() throws Exception {
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      count(dsdQuery);
+      throw new DirectoryUnavailableException("The TOOP Directory is unavailable, failing fast");
+    });
+
+    final List<DSDBatchResult> results = process(Collections.singletonList(byLocation("registeredorganization", "PL")), 60_000);
+    Assert.assertEquals(503, results.get(0).getStatus());
+    Assert.assertFalse(results.get(0).isStale());
+  }
+
+  @Test
+  public void storedResponseAnswersTheQueryWhileTheDirectoryIsUnavailable() throws Exception {
+    final LastKnownGoodStore store = new LastKnownGoodStore(10, 1024 * 1024, 64 * 1024);
+    DSDQueryService.setLastKnownGoodStore(store);
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> directoryResult);
+    final DSDBatchResult fresh = process(Collections.singletonList(byLocation("registeredorganization", "PL")), 60_000).get(0);
+    Assert.assertEquals(200, fresh.getStatus());
+    Assert.assertFalse(fresh.isStale());
+    Assert.assertEquals(1, store.getSize());
+
+    // the circuit breaker is open
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      throw new DirectoryUnavailableException("The TOOP Directory is unavailable, failing fast");
+    });
+    final List<Map<String, String[]>> queries = new ArrayList<>();
+    queries.add(byLocation("registeredorganization", "PL"));
+    queries.add(byLocation("crewcertificate", "PL"));
+    final List<DSDBatchResult> results = process(queries, 60_000);
+
+    Assert.assertEquals(200, results.get(0).getStatus());
+    Assert.assertTrue(results.get(0).isStale());
+    Assert.assertEquals(fresh.getRawResult(), results.get(0).getRawResult());
+    // nothing is stored for the other query
+    Assert.assertEquals(503, results.get(1).getStatus());
+  }
+
+  @Test
+  public void errorsStillAnswerTheQuery() throws Exception {
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      count(dsdQuery);
+      throw new StackOverflowError();
+    });
+
+    final List<DSDBatchResult> results = process(Collections.singletonList(byLocation("registeredorganization", "PL")), 60_000);
+    Assert.assertEquals(500, results.get(0).getStatus());
+  }
+
+  @Test
+  public void invalidQueryIsAnsweredWith400() throws Exception {
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      count(dsdQuery);
+      return directoryResult;
+    });
+
+    final Map<String, String[]> invalid = new HashMap<>();
+    invalid.put(DSDQuery.PARAM_NAME_QUERY_ID, new String[]{DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION.id});
+
+    final List<Map<String, String[]>> queries = new ArrayList<>();
+    queries.add(invalid);
+    queries.add(byLocation("registeredorganization", "PL"));
+
+    final List<DSDBatchResult> results = process(queries, 60_000);
+    Assert.assertEquals(400, results.get(0).getStatus());
+    Assert.assertEquals(200, results.get(1).getStatus());
+  }
+
+  @Test
+  public void unfinishedQueriesTimeOut() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      if ("GQ".equals(count(dsdQuery))) {
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted");
+        }
+      }
+      return directoryResult;
+    });
+
+    final List<Map<String, String[]>> queries = new ArrayList<>();
+    queries.add(byLocation("crewcertificate", "GQ"));
+    queries.add(byLocation("registeredorganization", "PL"));
+    queries.add(byLocation("shipcertificate", "GQ"));
+
+    try {
+      final long start = System.nanoTime();
+      final List<DSDBatchResult> results = process(queries, 500);
+
+      Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+      Assert.assertEquals(504, results.get(0).getStatus());
+      Assert.assertEquals(200, results.get(1).getStatus());
+      Assert.assertEquals(504, results.get(2).getStatus());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  private List<DSDBatchResult> process(List<Map<String, String[]>> queries, long timeoutMillis) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DSDBatchService.processBatch(queries, executor, timeoutMillis, BOUNDARY, out);
+    return DSDBatch.readResponse(new ByteArrayInputStream(out.toByteArray()), BOUNDARY, queries.size());
+  }
+
+  private String count(DSDQuery dsdQuery) {
+    final String countryCode = dsdQuery.getParameterValue(DSDQuery.PARAM_NAME_COUNTRY_CODE);
+    final String key = countryCode != null ? countryCode : dsdQuery.getParameterValue(DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE);
+    fetches.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+    return key;
+  }
+
+  private static Map<String, String[]> byLocation(String dataSetType, String countryCode) {
+    final Map<String, String[]> parameters = new HashMap<>();
+    parameters.put(DSDQuery.PARAM_NAME_QUERY_ID, new String[]{DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION.id});
+    parameters.put(DSDQuery.PARAM_NAME_DATA_SET_TYPE, new String[]{dataSetType});
+    parameters.put(DSDQuery.PARAM_NAME_COUNTRY_CODE, new String[]{countryCode});
+    return parameters;
+  }
+
+  private static Map<String, String[]> byDpType(String dataSetType, String dpType) {
+    final Map<String, String[]> parameters = new HashMap<>();
+    parameters.put(DSDQuery.PARAM_NAME_QUERY_ID, new String[]{DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE.id});
+    parameters.put(DSDQuery.PARAM_NAME_DATA_SET_TYPE, new String[]{dataSetType});
+    parameters.put(DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE, new String[]{dpType});
+    return parameters;
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.toop.dsd.api.types.DSDQuery;
+
+/**
+ * Tests the Prometheus text of the {@link DSDMetrics}. The metrics are global, so the tests only look at the
+ * changes they cause.
+ *
+ * @author yerlibilgin
+ */
+public class DSDMetricsTest {
+  private static final String LOCATION_ID = DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION.id;
+
+  @Test
+  public void summaryHasQuantilesSumAndCount() throws IOException {
+    final String labels = "{query_id=\"" + LOCATION_ID + "\",stage=\"convert\"";
+    final String before = prometheus();
+    final double sumBefore = value(before, "dsd_stage_duration_seconds_sum" + labels + "}");
+    final double countBefore = value(before, "dsd_stage_duration_seconds_count" + labels + "}");
+
+    final DSDMetrics.QueryMetrics metrics = DSDMetrics.getQueryMetrics(DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION);
+    metrics.recordDuration(DSDMetrics.Stage.CONVERT, TimeUnit.MILLISECONDS.toNanos(250));
+    metrics.recordDuration(DSDMetrics.Stage.CONVERT, TimeUnit.MILLISECONDS.toNanos(750));
+
+    final String after = prometheus();
+    Assert.assertEquals(sumBefore + 1.0, value(after, "dsd_stage_duration_seconds_sum" + labels + "}"), 1e-9);
+    Assert.assertEquals(countBefore + 2, value(after, "dsd_stage_duration_seconds_count" + labels + "}"), 0);
+    for (String quantile : new String[]{"0.5", "0.9", "0.99", "0.999"}) {
+      Assert.assertTrue(value(after, "dsd_stage_duration_seconds" + labels + ",quantile=\"" + quantile + "\"}") > 0);
+    }
+  }
+
+  @Test
+  public void requestsAndErrorsAreCountedPerLabel() throws IOException {
+    final String success = "dsd_requests_total{query_id=\"" + LOCATION_ID + "\",outcome=\"success\"}";
+    final String error = "dsd_requests_total{query_id=\"" + LOCATION_ID + "\",outcome=\"error\"}";
+    final String totalErrors = "dsd_errors_total{query_id=\"" + LOCATION_ID + "\",stage=\"total\"}";
+    final String directoryErrors = "dsd_errors_total{query_id=\"" + LOCATION_ID + "\",stage=\"directory\"}";
+    final String responseBytes = "dsd_payload_bytes_sum{query_id=\"" + LOCATION_ID + "\",payload=\"response\"}";
+    final String before = prometheus();
+
+    final DSDMetrics.QueryMetrics metrics = DSDMetrics.getQueryMetrics(DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION);
+    metrics.recordRequest(1000, 100, 2048, true);
+    metrics.recordError(DSDMetrics.Stage.DIRECTORY);
+    metrics.recordRequest(1000, 0, 0, false);
+
+    final String after = prometheus();
+    Assert.assertEquals(value(before, success) + 1, value(after, success), 0);
+    Assert.assertEquals(value(before, error) + 1, value(after, error), 0);
+    Assert.assertEquals(value(before, totalErrors) + 1, value(after, totalErrors), 0);
+    Assert.assertEquals(value(before, directoryErrors) + 1, value(after, directoryErrors), 0);
+    Assert.assertEquals(value(before, responseBytes) + 2048, value(after, responseBytes), 0);
+  }
+
+  @Test
+  public void everyMetricHasHelpAndType() throws IOException {
+    final String text = prometheus();
+    for (String name : new String[]{"dsd_requests_total", "dsd_invalid_requests_total", "dsd_stale_responses_total", "dsd_errors_total"}) {
+      Assert.assertTrue(name, text.contains("# HELP " + name + " "));
+      Assert.assertTrue(name, text.contains("# TYPE " + name + " counter\n"));
+    }
+    for (String name : new String[]{"dsd_stage_duration_seconds", "dsd_payload_bytes"}) {
+      Assert.assertTrue(name, text.contains("# TYPE " + name + " summary\n"));
+    }
+    Assert.assertTrue(text.endsWith("\n"));
+  }
+
+  @Test
+  public void disabledMetricsAreNotRecorded() throws IOException {
+    final String success = "dsd_requests_total{query_id=\"" + LOCATION_ID + "\",outcome=\"success\"}";
+    final double before = value(prometheus(), success);
+
+    DSDMetrics.setEnabled(false);
+    try {
+      DSDMetrics.getQueryMetrics(DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION).recordRequest(1000, 100, 10, true);
+    } finally {
+      DSDMetrics.setEnabled(true);
+    }
+    Assert.assertEquals(before, value(prometheus(), success), 0);
+  }
+
+  private static String prometheus() throws IOException {
+    final StringWriter writer = new StringWriter();
+    DSDMetrics.writePrometheus(writer);
+    return writer.toString();
+  }
+
+  /**
+   * @return the value of the sample with the given name and labels
+   */
+  private static double value(String text, String sample) {
+    for (String line : text.split("\n")) {
+      if (line.startsWith(sample + " "))
+        return Double.parseDouble(line.substring(sample.length() + 1));
+    }
+    Assert.fail("no sample " + sample);
+    return 0;
+  }
+}
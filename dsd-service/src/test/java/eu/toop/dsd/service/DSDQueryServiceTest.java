@@ -0,0 +1,260 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.dsd.api.DirectoryUnavailableException;
+import eu.toop.dsd.api.types.DSDQuery;
+
+/**
+ * Tests the entity tags of the responses that the {@link DSDQueryService} converts from the directory snapshot
+ * and from the directory, and the stored responses it serves while the directory is unavailable
+ *
+ * @author yerlibilgin
+ */
+public class DSDQueryServiceTest {
+  private static final String TOOP_DIR_URL = "http://directory.test";
+  private static final List<String> COUNTRY_CODES = Arrays.asList("PL", "SV");
+
+  private static byte[] directoryResult;
+
+  private Path file;
+
+  @BeforeClass
+  public static void beforeClass() throws IOException {
+    directoryResult = readResource("/directory-results.xml");
+  }
+
+  @Before
+  public void before() throws Exception {
+    file = Files.createTempFile("dsd-query-service-test", ".snapshot");
+    DirectorySnapshotService.setSnapshotFile(file);
+    loadSnapshot("/directory-results.xml");
+  }
+
+  @After
+  public void after() throws IOException {
+    DSDQueryService.setDirectoryFetcher(null);
+    DSDQueryService.setLastKnownGoodStore(null);
+    DirectorySnapshotService.stop();
+    DirectorySnapshotService.setSnapshotFile(null);
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void snapshotResponseHasAnETag() throws Exception {
+    final AtomicReference<String> eTag = new AtomicReference<>();
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DSDQueryService.processRequest(byLocation("registeredorganization", "PL"), DSDResponseFormat.JSON, body, tag -> {
+      Assert.assertNull(eTag.getAndSet(tag));
+      return true;
+    }, null);
+
+    Assert.assertNotNull(eTag.get());
+    Assert.assertTrue(eTag.get().startsWith("W/\""));
+    Assert.assertTrue(body.size() > 0);
+  }
+
+  @Test
+  public void matchingETagSkipsTheBody() throws Exception {
+    final String eTag = getETag(byLocation("registeredorganization", "PL"), DSDResponseFormat.JSON);
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    // the servlet answers with 304 Not Modified if the client already has the tag
+    DSDQueryService.processRequest(byLocation("registeredorganization", "PL"), DSDResponseFormat.JSON, body, tag -> !tag.equals(eTag), null);
+
+    Assert.assertEquals(0, body.size());
+  }
+
+  @Test
+  public void eTagIsStableAcrossTransformations() throws Exception {
+    // the XSLT generates other registry object ids on every transformation
+    Assert.assertEquals(getETag(byLocation("registeredorganization", "PL"), DSDResponseFormat.REGREP),
+        getETag(byLocation("registeredorganization", "PL"), DSDResponseFormat.REGREP));
+    Assert.assertEquals(getETag(byDPType("registeredorganization", "abc"), DSDResponseFormat.REGREP),
+        getETag(byDPType("registeredorganization", "abc"), DSDResponseFormat.REGREP));
+  }
+
+  @Test
+  public void eTagIsStableAcrossSnapshotRefreshes() throws Exception {
+    final String eTag = getETag(byLocation("registeredorganization", "PL"), DSDResponseFormat.JSON);
+    loadSnapshot("/directory-results.xml");
+
+    Assert.assertEquals(eTag, getETag(byLocation("registeredorganization", "PL"), DSDResponseFormat.JSON));
+  }
+
+  @Test
+  public void eTagChangesWithTheDirectory() throws Exception {
+    final String eTag = getETag(byLocation("registeredorganization", "PL"), DSDResponseFormat.JSON);
+    loadSnapshot("/directory-result-single.xml");
+
+    Assert.assertNotEquals(eTag, getETag(byLocation("registeredorganization", "PL"), DSDResponseFormat.JSON));
+  }
+
+  @Test
+  public void eTagDependsOnTheQueryAndTheFormat() throws Exception {
+    final String eTag = getETag(byLocation("registeredorganization", "PL"), DSDResponseFormat.JSON);
+
+    Assert.assertNotEquals(eTag, getETag(byLocation("registeredorganization", "SV"), DSDResponseFormat.JSON));
+    Assert.assertNotEquals(eTag, getETag(byLocation("shipcertificate", "PL"), DSDResponseFormat.JSON));
+    Assert.assertNotEquals(eTag, getETag(byLocation("registeredorganization", "PL"), DSDResponseFormat.REGREP));
+  }
+
+  @Test
+  public void snapshotDigestIsComputedOnce() throws Exception {
+    final DirectorySnapshot snapshot = DirectorySnapshotService.getSnapshot();
+
+    Assert.assertSame(snapshot.getDirectoryResultDigest("registeredorganization", "PL", null),
+        snapshot.getDirectoryResultDigest("registeredorganization", "PL", null));
+  }
+
+  @Test
+  public void directoryResponseHasAnETag() throws Exception {
+    // the countries outside of the snapshot are queried from the directory
+    final AtomicInteger fetches = new AtomicInteger();
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      fetches.incrementAndGet();
+      return directoryResult;
+    });
+
+    final String eTag = getETag(byLocation("registeredorganization", "DE"), DSDResponseFormat.JSON);
+    Assert.assertEquals(eTag, getETag(byLocation("registeredorganization", "DE"), DSDResponseFormat.JSON));
+    Assert.assertEquals(2, fetches.get());
+
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DSDQueryService.processRequest(byLocation("registeredorganization", "DE"), DSDResponseFormat.JSON, body, tag -> !tag.equals(eTag), null);
+    Assert.assertEquals(0, body.size());
+
+    DSDQueryService.processRequest(byLocation("registeredorganization", "DE"), DSDResponseFormat.JSON, body, tag -> true, null);
+    Assert.assertTrue(body.size() > 0);
+  }
+
+  @Test
+  public void directoryETagChangesWithTheDirectory() throws Exception {
+    DirectorySnapshotService.stop();
+    final AtomicReference<byte[]> result = new AtomicReference<>(directoryResult);
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> result.get());
+
+    final String eTag = getETag(byDPType("registeredorganization", "abc"), DSDResponseFormat.JSON);
+    result.set(readResource("/directory-result-single.xml"));
+
+    Assert.assertNotEquals(eTag, getETag(byDPType("registeredorganization", "abc"), DSDResponseFormat.JSON));
+  }
+
+  @Test
+  public void storedResponseIsServedWhileTheDirectoryIsUnavailable() throws Exception {
+    final LastKnownGoodStore store = new LastKnownGoodStore(10, 1024 * 1024, 64 * 1024);
+    DSDQueryService.setLastKnownGoodStore(store);
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> directoryResult);
+    final ByteArrayOutputStream fresh = new ByteArrayOutputStream();
+    DSDQueryService.processRequest(byLocation("registeredorganization", "DE"), DSDResponseFormat.JSON, fresh, tag -> true,
+        ageSeconds -> Assert.fail("The response is fresh"));
+    Assert.assertEquals(1, store.getSize());
+
+    // the circuit breaker is open
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      throw new DirectoryUnavailableException("The TOOP Directory is unavailable, failing fast");
+    });
+    final List<Long> staleAges = new ArrayList<>();
+    final ByteArrayOutputStream stale = new ByteArrayOutputStream();
+    // the servlet sends the age in the X-DSD-Stale header
+    DSDQueryService.processRequest(byLocation("registeredorganization", "DE"), DSDResponseFormat.JSON, stale, tag -> true, staleAges::add);
+
+    Assert.assertArrayEquals(fresh.toByteArray(), stale.toByteArray());
+    Assert.assertEquals(1, staleAges.size());
+    Assert.assertTrue(staleAges.get(0) >= 0);
+  }
+
+  @Test
+  public void unavailableDirectoryFailsWithoutAStoredResponse() throws Exception {
+    // the stored response is larger than an entry may be
+    DSDQueryService.setLastKnownGoodStore(new LastKnownGoodStore(10, 1024 * 1024, 16));
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> directoryResult);
+    DSDQueryService.processRequest(byLocation("registeredorganization", "DE"), DSDResponseFormat.JSON, new ByteArrayOutputStream(),
+        tag -> true, null);
+
+    DSDQueryService.setDirectoryFetcher(dsdQuery -> {
+      throw new DirectoryUnavailableException("The TOOP Directory is unavailable, failing fast");
+    });
+    try {
+      DSDQueryService.processRequest(byLocation("registeredorganization", "DE"), DSDResponseFormat.JSON, new ByteArrayOutputStream(),
+          tag -> true, ageSeconds -> Assert.fail("Nothing is stored"));
+      Assert.fail("There is no response to fall back to");
+    } catch (DirectoryUnavailableException ex) {
+      // expected
+    }
+  }
+
+  private void loadSnapshot(String resource) throws Exception {
+    final DirectorySnapshot snapshot = new DirectorySnapshot.Builder()
+        .addDirectoryResult(new StreamSource(DSDQueryServiceTest.class.getResourceAsStream(resource)))
+        .build();
+    DirectorySnapshotFile.write(snapshot, file, TOOP_DIR_URL, COUNTRY_CODES);
+    Assert.assertNotNull(DirectorySnapshotService.loadSnapshotFile(TOOP_DIR_URL, COUNTRY_CODES, 0));
+  }
+
+  private static byte[] readResource(String resource) throws IOException {
+    return StreamHelper.getAllBytes(DSDQueryServiceTest.class.getResourceAsStream(resource));
+  }
+
+  private static String getETag(Map<String, String[]> parameters, DSDResponseFormat format) throws Exception {
+    final AtomicReference<String> eTag = new AtomicReference<>();
+    DSDQueryService.processRequest(parameters, format, new ByteArrayOutputStream(), tag -> {
+      eTag.set(tag);
+      return false;
+    }, null);
+    Assert.assertNotNull(eTag.get());
+    return eTag.get();
+  }
+
+  private static Map<String, String[]> byLocation(String dataSetType, String countryCode) {
+    final Map<String, String[]> parameters = new HashMap<>();
+    parameters.put(DSDQuery.PARAM_NAME_QUERY_ID, new String[]{DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_LOCATION.id});
+    parameters.put(DSDQuery.PARAM_NAME_DATA_SET_TYPE, new String[]{dataSetType});
+    parameters.put(DSDQuery.PARAM_NAME_COUNTRY_CODE, new String[]{countryCode});
+    return parameters;
+  }
+
+  private static Map<String, String[]> byDPType(String dataSetType, String dpType) {
+    final Map<String, String[]> parameters = new HashMap<>();
+    parameters.put(DSDQuery.PARAM_NAME_QUERY_ID, new String[]{DSDQuery.DSDQueryID.QUERY_BY_DATASETTYPE_AND_DPTYPE.id});
+    parameters.put(DSDQuery.PARAM_NAME_DATA_SET_TYPE, new String[]{dataSetType});
+    parameters.put(DSDQuery.PARAM_NAME_DATA_PROVIDER_TYPE, new String[]{dpType});
+    return parameters;
+  }
+}
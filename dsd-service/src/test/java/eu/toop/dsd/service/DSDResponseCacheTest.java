@@ -0,0 +1,250 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the expiry, the background refresh, the eviction and the miss coalescing of the {@link DSDResponseCache}
+ *
+ * @author yerlibilgin
+ */
+public class DSDResponseCacheTest {
+  private static final long TTL_SECONDS = 10;
+  private static final long STALE_SECONDS = 20;
+
+  private final AtomicLong clock = new AtomicLong();
+  private DSDResponseCache cache = new DSDResponseCache(1024 * 1024, TTL_SECONDS, STALE_SECONDS, 1, clock::get);
+
+  @After
+  public void shutdown() {
+    cache.shutdown();
+  }
+
+  @Test
+  public void freshEntryIsNotReloaded() throws Exception {
+    final AtomicInteger loads = new AtomicInteger();
+    final DSDResponse first = cache.get("q", () -> body("v" + loads.incrementAndGet()));
+    advance(TTL_SECONDS - 1);
+    final DSDResponse second = cache.get("q", () -> body("v" + loads.incrementAndGet()));
+
+    Assert.assertSame(first, second);
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(0, cache.getStaleHitCount());
+  }
+
+  @Test
+  public void expiredEntryIsReloadedSynchronously() throws Exception {
+    cache.get("q", () -> body("old"));
+    advance(TTL_SECONDS + STALE_SECONDS);
+
+    Assert.assertEquals("new", text(cache.get("q", () -> body("new"))));
+    Assert.assertEquals(2, cache.getMissCount());
+    Assert.assertEquals(0, cache.getStaleHitCount());
+    Assert.assertEquals(0, cache.getRefreshCount());
+  }
+
+  @Test
+  public void staleEntryIsRefreshedOnceInTheBackground() throws Exception {
+    cache.get("q", () -> body("old"));
+    advance(TTL_SECONDS);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger refreshes = new AtomicInteger();
+    final DSDResponseCache.Loader slowLoader = () -> {
+      refreshes.incrementAndGet();
+      release.await();
+      return body("new");
+    };
+    for (int i = 0; i < 5; ++i) {
+      Assert.assertEquals("old", text(cache.get("q", slowLoader)));
+    }
+    release.countDown();
+    waitFor(() -> cache.getRefreshCount() == 1);
+
+    Assert.assertEquals(1, refreshes.get());
+    Assert.assertEquals(5, cache.getStaleHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+    // the refreshed entry is fresh again
+    Assert.assertEquals("new", text(cache.get("q", () -> body("other"))));
+    Assert.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void failedRefreshKeepsTheStaleEntry() throws Exception {
+    cache.get("q", () -> body("old"));
+    advance(TTL_SECONDS);
+
+    Assert.assertEquals("old", text(cache.get("q", () -> {
+      throw new IllegalStateException("directory down");
+    })));
+    waitFor(() -> cache.getRefreshFailureCount() == 1);
+    Assert.assertEquals("old", text(cache.get("q", () -> body("new"))));
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+    // every entry weighs 96 + 2 * 2 + 100 = 200 bytes, so five of them fit
+    cache.shutdown();
+    cache = new DSDResponseCache(1000, TTL_SECONDS, STALE_SECONDS, 1, clock::get);
+    for (int i = 0; i < 5; ++i) {
+      cache.get("q" + i, () -> new byte[100]);
+    }
+    Assert.assertEquals(1000, cache.getTotalBytes());
+    Assert.assertEquals(0, cache.getEvictionCount());
+
+    // q0 is used again, so q1 is the least recently used one
+    cache.get("q0", () -> new byte[100]);
+    cache.get("q5", () -> new byte[100]);
+
+    // shrunk to 90%: 1200 bytes - 2 entries
+    Assert.assertEquals(2, cache.getEvictionCount());
+    Assert.assertEquals(4, cache.getSize());
+    Assert.assertEquals(800, cache.getTotalBytes());
+
+    final AtomicInteger loads = new AtomicInteger();
+    for (String key : new String[]{"q0", "q3", "q4", "q5"}) {
+      cache.get(key, () -> body("" + loads.incrementAndGet()));
+    }
+    Assert.assertEquals(0, loads.get());
+    cache.get("q1", () -> body("" + loads.incrementAndGet()));
+    Assert.assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void oversizedResponseIsNotCached() throws Exception {
+    cache.shutdown();
+    cache = new DSDResponseCache(1000, TTL_SECONDS, STALE_SECONDS, 1, clock::get);
+    cache.get("q", () -> new byte[1000]);
+
+    Assert.assertEquals(0, cache.getSize());
+    Assert.assertEquals(0, cache.getTotalBytes());
+    Assert.assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public void concurrentMissesLoadOnce() throws Exception {
+    final int callers = 8;
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger loads = new AtomicInteger();
+    final DSDResponseCache.Loader loader = () -> {
+      loads.incrementAndGet();
+      loading.countDown();
+      release.await();
+      return body("shared");
+    };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(callers);
+    try {
+      final List<Future<DSDResponse>> futures = new ArrayList<>();
+      futures.add(executor.submit(() -> cache.get("q", loader)));
+      Assert.assertTrue(loading.await(10, TimeUnit.SECONDS));
+      for (int i = 1; i < callers; ++i) {
+        futures.add(executor.submit(() -> cache.get("q", loader)));
+      }
+      waitFor(() -> cache.getCoalescedMissCount() == callers - 1);
+      release.countDown();
+
+      for (Future<DSDResponse> future : futures) {
+        Assert.assertEquals("shared", text(future.get(10, TimeUnit.SECONDS)));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(callers - 1, cache.getCoalescedMissCount());
+  }
+
+  @Test
+  public void failedLoadIsSharedButNotCached() throws Exception {
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final DSDResponseCache.Loader failingLoader = () -> {
+      loading.countDown();
+      release.await();
+      throw new IllegalStateException("directory down");
+    };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<DSDResponse> first = executor.submit(() -> cache.get("q", failingLoader));
+      Assert.assertTrue(loading.await(10, TimeUnit.SECONDS));
+      final Future<DSDResponse> second = executor.submit(() -> cache.get("q", failingLoader));
+      waitFor(() -> cache.getCoalescedMissCount() == 1);
+      release.countDown();
+
+      for (Future<DSDResponse> future : Arrays.asList(first, second)) {
+        try {
+          future.get(10, TimeUnit.SECONDS);
+          Assert.fail("the load failure was not passed on");
+        } catch (ExecutionException ex) {
+          Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    Assert.assertEquals(0, cache.getSize());
+    Assert.assertEquals("ok", text(cache.get("q", () -> body("ok"))));
+  }
+
+  private void advance(long seconds) {
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+
+  private static byte[] body(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String text(DSDResponse response) {
+    return new String(response.getBody(), StandardCharsets.UTF_8);
+  }
+
+  private interface Condition {
+    boolean isMet();
+  }
+
+  private static void waitFor(Condition condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.isMet()) {
+      if (System.nanoTime() > deadline)
+        Assert.fail("timed out");
+      Thread.sleep(5);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.dsd.api.DsdDataConverter;
+
+/**
+ * Tests that the entity tag of a {@link DSDResponse} ignores the generated ids of the registry objects
+ *
+ * @author yerlibilgin
+ */
+public class DSDResponseTest {
+  private static final String RESPONSE = "<query:QueryResponse xmlns:rim=\"urn:rim\">" +
+      "<rim:RegistryObjectList>" +
+      "<rim:RegistryObject id=\"%s\"><rim:Slot name=\"Dataset\"><dcat:identifier id=\"keep\">%s</dcat:identifier></rim:Slot></rim:RegistryObject>" +
+      "<rim:RegistryObject xsi:type=\"rim:ExtrinsicObjectType\" id='%s'/>" +
+      "</rim:RegistryObjectList>" +
+      "</query:QueryResponse>";
+
+  @Test
+  public void generatedIdsAreIgnored() {
+    final String eTag = new DSDResponse(response("d1e5", "ds1", "d1e9")).getETag();
+
+    Assert.assertEquals(eTag, new DSDResponse(response("d2e17", "ds1", "d2e123")).getETag());
+    Assert.assertEquals(eTag, new DSDResponse(response("", "ds1", "x")).getETag());
+  }
+
+  @Test
+  public void transformationsHaveTheSameTag() throws Exception {
+    final String directoryResult = new String(StreamHelper.getAllBytes(DSDResponseTest.class.getResourceAsStream("/directory-results.xml")),
+        StandardCharsets.UTF_8);
+    final String first = DsdDataConverter.convertDIRToDSDWithCountryCode(directoryResult, "registeredorganization", "PL");
+    final String second = DsdDataConverter.convertDIRToDSDWithCountryCode(directoryResult, "registeredorganization", "PL");
+
+    Assert.assertEquals(new DSDResponse(bytes(first)).getETag(), new DSDResponse(bytes(second)).getETag());
+  }
+
+  @Test
+  public void contentChangesTheTag() {
+    final String eTag = new DSDResponse(response("d1e5", "ds1", "d1e9")).getETag();
+
+    Assert.assertNotEquals(eTag, new DSDResponse(response("d1e5", "ds2", "d1e9")).getETag());
+    // only the ids of the registry objects are generated
+    Assert.assertNotEquals(eTag, new DSDResponse(bytes(String.format(RESPONSE, "d1e5", "ds1", "d1e9").replace("\"keep\"", "\"other\"")))
+        .getETag());
+  }
+
+  @Test
+  public void idsOfOtherElementsAreKept() {
+    final String registryObjectList = "<rim:RegistryObjectList id=\"%s\"/>";
+
+    Assert.assertNotEquals(new DSDResponse(bytes(String.format(registryObjectList, "a"))).getETag(),
+        new DSDResponse(bytes(String.format(registryObjectList, "b"))).getETag());
+    Assert.assertNotEquals(new DSDResponse(bytes("<RegistryObjectX id=\"a\"/>")).getETag(),
+        new DSDResponse(bytes("<RegistryObjectX id=\"b\"/>")).getETag());
+    Assert.assertNotEquals(new DSDResponse(bytes("<RegistryObject xid=\"a\"/>")).getETag(),
+        new DSDResponse(bytes("<RegistryObject xid=\"b\"/>")).getETag());
+  }
+
+  @Test
+  public void unprefixedRegistryObject() {
+    Assert.assertEquals(new DSDResponse(bytes("<RegistryObject id=\"a\">text</RegistryObject>")).getETag(),
+        new DSDResponse(bytes("<RegistryObject id=\"b\">text</RegistryObject>")).getETag());
+  }
+
+  @Test
+  public void eTagIsWeak() {
+    final String eTag = new DSDResponse(response("d1e5", "ds1", "d1e9")).getETag();
+
+    Assert.assertTrue(eTag, eTag.matches("W/\"[0-9a-f]{32}\""));
+  }
+
+  @Test
+  public void partsAreKeptApart() {
+    Assert.assertEquals(DSDResponse.createETagFromParts(bytes("ab"), bytes("c")), DSDResponse.createETagFromParts(bytes("ab"), bytes("c")));
+    Assert.assertNotEquals(DSDResponse.createETagFromParts(bytes("ab"), bytes("c")), DSDResponse.createETagFromParts(bytes("a"), bytes("bc")));
+  }
+
+  private static byte[] response(String firstId, String dataset, String secondId) {
+    return bytes(String.format(RESPONSE, firstId, dataset, secondId));
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+}
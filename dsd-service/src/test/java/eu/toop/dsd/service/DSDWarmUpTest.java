@@ -0,0 +1,194 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the phases, the outcome and the stop of the {@link DSDWarmUp}
+ *
+ * @author yerlibilgin
+ */
+public class DSDWarmUpTest {
+
+  @After
+  public void after() {
+    DSDWarmUp.stop();
+  }
+
+  @Test
+  public void noPhasesIsReady() throws Exception {
+    DSDWarmUp.start(Collections.emptyList());
+    awaitOutcome();
+
+    Assert.assertEquals(DSDWarmUp.State.READY, DSDWarmUp.getState());
+    Assert.assertTrue(DSDWarmUp.isReady());
+    Assert.assertTrue(DSDWarmUp.getDurationMillis() >= 0);
+  }
+
+  @Test
+  public void phasesRunInOrder() throws Exception {
+    final List<String> runs = Collections.synchronizedList(new ArrayList<>());
+    DSDWarmUp.start(Arrays.asList(
+        new DSDWarmUp.Phase("first", true, () -> runs.add("first")),
+        new DSDWarmUp.Phase("second", false, () -> runs.add("second")),
+        new DSDWarmUp.Phase("third", true, () -> runs.add("third"))));
+    awaitOutcome();
+
+    Assert.assertEquals(Arrays.asList("first", "second", "third"), runs);
+    Assert.assertEquals(DSDWarmUp.State.READY, DSDWarmUp.getState());
+    for (DSDWarmUp.Phase phase : DSDWarmUp.getPhases()) {
+      Assert.assertFalse(phase.getName(), phase.isFailed());
+    }
+  }
+
+  @Test
+  public void failedRequiredPhaseFailsTheWarmUp() throws Exception {
+    final CountDownLatch laterPhase = new CountDownLatch(1);
+    DSDWarmUp.start(Arrays.asList(
+        new DSDWarmUp.Phase("required", true, () -> {
+          throw new IllegalStateException("stylesheet broken");
+        }),
+        new DSDWarmUp.Phase("later", false, laterPhase::countDown)));
+    awaitOutcome();
+
+    Assert.assertEquals(DSDWarmUp.State.FAILED, DSDWarmUp.getState());
+    Assert.assertFalse(DSDWarmUp.isReady());
+    final List<DSDWarmUp.Phase> phases = DSDWarmUp.getPhases();
+    Assert.assertTrue(phases.get(0).isFailed());
+    Assert.assertTrue(phases.get(0).getDurationMillis() >= 0);
+    // the warm-up stops at the failed phase
+    Assert.assertEquals(1, laterPhase.getCount());
+    Assert.assertEquals(-1, phases.get(1).getDurationMillis());
+  }
+
+  @Test
+  public void linkageErrorFailsTheWarmUp() throws Exception {
+    DSDWarmUp.start(Collections.singletonList(new DSDWarmUp.Phase("required", true, () -> {
+      throw new ExceptionInInitializerError("cannot initialize the converter");
+    })));
+    awaitOutcome();
+
+    Assert.assertEquals(DSDWarmUp.State.FAILED, DSDWarmUp.getState());
+  }
+
+  @Test
+  public void failedBestEffortPhaseIsOnlyReported() throws Exception {
+    DSDWarmUp.start(Arrays.asList(
+        new DSDWarmUp.Phase("best effort", false, () -> {
+          throw new IllegalStateException("directory down");
+        }),
+        new DSDWarmUp.Phase("required", true, () -> {
+        })));
+    awaitOutcome();
+
+    Assert.assertEquals(DSDWarmUp.State.READY, DSDWarmUp.getState());
+    final List<DSDWarmUp.Phase> phases = DSDWarmUp.getPhases();
+    Assert.assertTrue(phases.get(0).isFailed());
+    Assert.assertFalse(phases.get(1).isFailed());
+    Assert.assertTrue(phases.get(1).getDurationMillis() >= 0);
+  }
+
+  @Test
+  public void durationsAreMeasured() throws Exception {
+    DSDWarmUp.start(Arrays.asList(
+        new DSDWarmUp.Phase("slow", true, () -> Thread.sleep(50)),
+        new DSDWarmUp.Phase("fast", true, () -> {
+        })));
+    Assert.assertEquals(-1, DSDWarmUp.getDurationMillis());
+    awaitOutcome();
+
+    final List<DSDWarmUp.Phase> phases = DSDWarmUp.getPhases();
+    Assert.assertTrue(phases.get(0).getDurationMillis() >= 50);
+    Assert.assertTrue(phases.get(1).getDurationMillis() >= 0);
+    Assert.assertTrue(DSDWarmUp.getDurationMillis() >= phases.get(0).getDurationMillis());
+  }
+
+  @Test
+  public void stopInterruptsTheRunningPhase() throws Exception {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    final CountDownLatch laterPhase = new CountDownLatch(1);
+    DSDWarmUp.start(Arrays.asList(
+        new DSDWarmUp.Phase("blocking", true, () -> {
+          running.countDown();
+          try {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+          } catch (InterruptedException ex) {
+            interrupted.countDown();
+            throw ex;
+          }
+        }),
+        new DSDWarmUp.Phase("later", true, laterPhase::countDown)));
+    Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+
+    DSDWarmUp.stop();
+    Assert.assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    Thread.sleep(100);
+
+    // the stopped warm-up never reports an outcome
+    Assert.assertEquals(DSDWarmUp.State.WARMING_UP, DSDWarmUp.getState());
+    Assert.assertEquals(-1, DSDWarmUp.getDurationMillis());
+    Assert.assertEquals(1, laterPhase.getCount());
+    Assert.assertFalse(DSDWarmUp.getPhases().get(0).isFailed());
+  }
+
+  @Test
+  public void restartReplacesThePhases() throws Exception {
+    DSDWarmUp.start(Collections.singletonList(new DSDWarmUp.Phase("failing", true, () -> {
+      throw new IllegalStateException("failed");
+    })));
+    awaitOutcome();
+    Assert.assertEquals(DSDWarmUp.State.FAILED, DSDWarmUp.getState());
+
+    DSDWarmUp.start(Collections.singletonList(new DSDWarmUp.Phase("passing", true, () -> {
+    })));
+    awaitOutcome();
+    Assert.assertEquals(DSDWarmUp.State.READY, DSDWarmUp.getState());
+    Assert.assertEquals("passing", DSDWarmUp.getPhases().get(0).getName());
+  }
+
+  @Test
+  public void shippedInputIsConverted() throws Exception {
+    // the input of dsd-config.conf that the build copies from the test fixture, see the dsd-service pom
+    DSDWarmUp.runConversions(Collections.singletonList(
+        new DSDWarmUp.Input("/warmup/directory-results.xml", "registeredorganization", "PL", "abc")), 1);
+  }
+
+  private static void awaitOutcome() throws InterruptedException {
+    waitFor(() -> DSDWarmUp.getState() != DSDWarmUp.State.WARMING_UP);
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    final long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      Assert.assertTrue("Timed out", System.nanoTime() < until);
+      Thread.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link DirectorySnapshotFile} round trip and that damaged or foreign files are ignored
+ *
+ * @author yerlibilgin
+ */
+public class DirectorySnapshotFileTest {
+  private static final String TOOP_DIR_URL = "http://directory.example.org";
+  private static final List<String> COUNTRY_CODES = Arrays.asList("SV", "GQ");
+
+  private Path directory;
+  private Path file;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("dsd-snapshot-test");
+    file = directory.resolve("snapshot.bin");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        Files.delete(path);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    final DirectorySnapshot snapshot = build("/directory-results.xml");
+    Assert.assertTrue(snapshot.getMatchCount() > 1);
+
+    DirectorySnapshotFile.write(snapshot, file, TOOP_DIR_URL, COUNTRY_CODES);
+    assertSnapshotEquals(snapshot, read());
+  }
+
+  @Test
+  public void roundTripOddMatchCount() throws Exception {
+    // the 4 byte match records of an odd count are padded to the next 8 byte boundary
+    final DirectorySnapshot snapshot = build("/directory-result-single.xml");
+    Assert.assertEquals(1, snapshot.getMatchCount() % 2);
+
+    DirectorySnapshotFile.write(snapshot, file, TOOP_DIR_URL, COUNTRY_CODES);
+    final long stringDataOffset = DirectorySnapshotFile.getStringDataOffset(getInt(24), getInt(32), getInt(36), getInt(28));
+    Assert.assertEquals(getMatchBase() + 8, stringDataOffset);
+    assertSnapshotEquals(snapshot, read());
+  }
+
+  @Test
+  public void roundTripEmpty() throws Exception {
+    final DirectorySnapshot snapshot = new DirectorySnapshot.Builder().build();
+
+    DirectorySnapshotFile.write(snapshot, file, TOOP_DIR_URL, COUNTRY_CODES);
+    assertSnapshotEquals(snapshot, read());
+  }
+
+  @Test
+  public void missingFile() throws Exception {
+    Assert.assertNull(read());
+  }
+
+  @Test
+  public void wrongMagic() throws Exception {
+    writeSample();
+    putInt(0, 0x12345678);
+    Assert.assertNull(read());
+  }
+
+  @Test
+  public void wrongVersion() throws Exception {
+    writeSample();
+    putInt(4, DirectorySnapshotFile.VERSION + 1);
+    Assert.assertNull(read());
+  }
+
+  @Test
+  public void truncatedFile() throws Exception {
+    writeSample();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 8);
+    }
+    Assert.assertNull(read());
+
+    // a file shorter than the header
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(DirectorySnapshotFile.HEADER_SIZE - 1);
+    }
+    Assert.assertNull(read());
+  }
+
+  @Test
+  public void wrongFileLength() throws Exception {
+    writeSample();
+    putLong(16, Files.size(file) + 8);
+    Assert.assertNull(read());
+  }
+
+  @Test
+  public void outOfRangeMatchId() throws Exception {
+    writeSample();
+    putInt(getMatchBase(), getInt(24));
+    Assert.assertNull(read());
+  }
+
+  @Test
+  public void outOfRangeStringId() throws Exception {
+    writeSample();
+    // the directory URL string
+    putInt(40, -1);
+    Assert.assertNull(read());
+  }
+
+  @Test
+  public void outOfRangeStringData() throws Exception {
+    writeSample();
+    // the length of the first string
+    putInt(DirectorySnapshotFile.HEADER_SIZE + 4, Integer.MAX_VALUE);
+    Assert.assertNull(read());
+  }
+
+  @Test
+  public void otherDirectoryIsIgnored() throws Exception {
+    writeSample();
+    Assert.assertNull(DirectorySnapshotFile.read(file, "http://other.example.org", COUNTRY_CODES, 0));
+  }
+
+  @Test
+  public void otherCountriesAreIgnored() throws Exception {
+    writeSample();
+    Assert.assertNull(DirectorySnapshotFile.read(file, TOOP_DIR_URL, Collections.singletonList("SV"), 0));
+    Assert.assertNull(DirectorySnapshotFile.read(file, TOOP_DIR_URL, Arrays.asList("SV", "GQ", "DE"), 0));
+    // the order and case of the configured countries doesn't matter
+    Assert.assertNotNull(DirectorySnapshotFile.read(file, TOOP_DIR_URL, Arrays.asList("gq", "SV"), 0));
+  }
+
+  @Test
+  public void tooOldFileIsIgnored() throws Exception {
+    final DirectorySnapshot snapshot = build("/directory-results.xml");
+    final DirectorySnapshot old = new DirectorySnapshot(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2), snapshot.getMatches(),
+        snapshot.getDocTypeIndex(), snapshot.getCountryCodeIndex(), snapshot.getDpTypeIndex());
+    DirectorySnapshotFile.write(old, file, TOOP_DIR_URL, COUNTRY_CODES);
+
+    Assert.assertNull(DirectorySnapshotFile.read(file, TOOP_DIR_URL, COUNTRY_CODES, TimeUnit.HOURS.toSeconds(1)));
+    Assert.assertNotNull(DirectorySnapshotFile.read(file, TOOP_DIR_URL, COUNTRY_CODES, TimeUnit.HOURS.toSeconds(3)));
+    // no limit
+    Assert.assertNotNull(DirectorySnapshotFile.read(file, TOOP_DIR_URL, COUNTRY_CODES, 0));
+  }
+
+  @Test
+  public void replaceMappedFile() throws Exception {
+    final DirectorySnapshot first = build("/directory-results.xml");
+    DirectorySnapshotFile.write(first, file, TOOP_DIR_URL, COUNTRY_CODES);
+    final DirectorySnapshot mapped = read();
+    Assert.assertNotNull(mapped);
+
+    final DirectorySnapshot second = build("/directory-result-single.xml");
+    DirectorySnapshotFile.write(second, file, TOOP_DIR_URL, COUNTRY_CODES);
+
+    // the old mapping keeps the replaced file alive
+    assertSnapshotEquals(first, mapped);
+    assertSnapshotEquals(second, read());
+  }
+
+  private DirectorySnapshot read() throws IOException {
+    return DirectorySnapshotFile.read(file, TOOP_DIR_URL, COUNTRY_CODES, 0);
+  }
+
+  private void writeSample() throws Exception {
+    DirectorySnapshotFile.write(build("/directory-results.xml"), file, TOOP_DIR_URL, COUNTRY_CODES);
+  }
+
+  private static DirectorySnapshot build(String resource) throws IOException, TransformerException {
+    try (InputStream inputStream = DirectorySnapshotFileTest.class.getResourceAsStream(resource)) {
+      return new DirectorySnapshot.Builder().addDirectoryResult(new StreamSource(inputStream)).build();
+    }
+  }
+
+  private static void assertSnapshotEquals(DirectorySnapshot expected, DirectorySnapshot actual) {
+    Assert.assertNotNull(actual);
+    Assert.assertEquals(expected.getCreationTime(), actual.getCreationTime());
+    Assert.assertEquals(expected.getMatchCount(), actual.getMatchCount());
+    Assert.assertEquals(new ArrayList<>(expected.getMatches()), new ArrayList<>(actual.getMatches()));
+    Assert.assertEquals(expected.getDocTypeIndex(), actual.getDocTypeIndex());
+    Assert.assertEquals(expected.getCountryCodeIndex(), actual.getCountryCodeIndex());
+    Assert.assertEquals(expected.getDpTypeIndex(), actual.getDpTypeIndex());
+  }
+
+  private int getMatchBase() throws IOException {
+    return DirectorySnapshotFile.HEADER_SIZE + getInt(24) * DirectorySnapshotFile.STRING_RECORD_SIZE +
+        getInt(32) * DirectorySnapshotFile.INDEX_RECORD_SIZE + getInt(36) * 8;
+  }
+
+  private int getInt(int position) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(4);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      channel.read(buffer, position);
+    }
+    buffer.flip();
+    return buffer.getInt();
+  }
+
+  private void putInt(int position, int value) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(4);
+    buffer.putInt(value).flip();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(buffer, position);
+    }
+  }
+
+  private void putLong(int position, long value) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(8);
+    buffer.putLong(value).flip();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(buffer, position);
+    }
+  }
+}
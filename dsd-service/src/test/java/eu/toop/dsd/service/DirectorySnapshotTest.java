@@ -0,0 +1,171 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.dsd.api.DsdDataConverter;
+import eu.toop.dsd.api.DsdStaxConverter;
+
+/**
+ * Tests the indexes of the {@link DirectorySnapshot} and that it answers the DSD queries like the full directory result
+ *
+ * @author yerlibilgin
+ */
+public class DirectorySnapshotTest {
+  private static final String CREW_CERTIFICATE = "urn:eu:toop:ns:dataexchange-1p40::Request##urn:eu.toop.request.crewcertificate::1.40";
+
+  /**
+   * datasetType, countryCode, dpType. Includes partial values, since the DSD filters with <code>contains</code>,
+   * and values without any match.
+   */
+  private static final String[][] QUERIES = {
+      {"registeredorganization", "PL", null},
+      {"shipcertificate", "SV", null},
+      {"crewcertificate", "GQ", null},
+      {"certificate", "SV", null},
+      {"registeredorganization", "DE", null},
+      {"nosuchtype", "PL", null},
+      {"registeredorganization", null, "abc"},
+      {"registeredorganization", null, "ab"},
+      {"registeredorganization", null, "xyz"},
+  };
+
+  private static String directoryResult;
+  private static DirectorySnapshot snapshot;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    directoryResult = new String(StreamHelper.getAllBytes(DirectorySnapshotTest.class.getResourceAsStream("/directory-results.xml")),
+        StandardCharsets.UTF_8);
+    snapshot = new DirectorySnapshot.Builder().addDirectoryResult(new StreamSource(new StringReader(directoryResult))).build();
+  }
+
+  @Test
+  public void builderDropsDuplicateMatches() throws Exception {
+    final DirectorySnapshot twice = new DirectorySnapshot.Builder()
+        .addDirectoryResult(source("/directory-results.xml"))
+        .addDirectoryResult(source("/directory-results.xml"))
+        .build();
+
+    Assert.assertTrue(snapshot.getMatchCount() > 1);
+    Assert.assertEquals(snapshot.getMatchCount(), twice.getMatchCount());
+    Assert.assertEquals(snapshot.getMatches(), twice.getMatches());
+    Assert.assertEquals(snapshot.getDocTypeIndex(), twice.getDocTypeIndex());
+    Assert.assertEquals(snapshot.getCountryCodeIndex(), twice.getCountryCodeIndex());
+    Assert.assertEquals(snapshot.getDpTypeIndex(), twice.getDpTypeIndex());
+  }
+
+  @Test
+  public void indexes() {
+    final BitSet crewCertificates = snapshot.getDocTypeIndex().get(CREW_CERTIFICATE);
+    Assert.assertNotNull(crewCertificates);
+    for (int i = crewCertificates.nextSetBit(0); i >= 0; i = crewCertificates.nextSetBit(i + 1)) {
+      Assert.assertTrue(snapshot.getMatches().get(i).contains(CREW_CERTIFICATE));
+    }
+
+    for (String countryCode : new String[]{"PL", "SV", "GQ", "SI", "AX"}) {
+      final BitSet matches = snapshot.getCountryCodeIndex().get(countryCode);
+      Assert.assertNotNull(countryCode, matches);
+      for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+        Assert.assertTrue(snapshot.getMatches().get(i).contains("<countryCode>" + countryCode + "</countryCode>"));
+      }
+    }
+
+    Assert.assertNotNull(snapshot.getDpTypeIndex().get("abc"));
+    Assert.assertEquals(1, snapshot.getDpTypeIndex().get("abc").cardinality());
+  }
+
+  @Test
+  public void sameResultsAsTheDirectory() throws Exception {
+    // the queries are not trivially equal
+    Assert.assertNotEquals(convertDirectoryToJson(QUERIES[0]), convertDirectoryToJson(QUERIES[4]));
+
+    for (String[] query : QUERIES) {
+      final String message = query[0] + ", " + query[1] + ", " + query[2];
+      Assert.assertEquals(message, normalize(convertDirectory(query)), normalize(convert(snapshot.getDirectoryResult(query[0], query[1], query[2]), query)));
+      Assert.assertEquals(message, normalize(convertDirectoryToJson(query)),
+          normalize(convertToJson(snapshot.getDirectoryResult(query[0], query[1], query[2]), query)));
+    }
+  }
+
+  @Test
+  public void repeatedQueryIsServedFromTheCachedResult() throws Exception {
+    final String first = read(snapshot.getDirectoryResult("registeredorganization", "PL", null));
+    Assert.assertEquals(first, read(snapshot.getDirectoryResult("registeredorganization", "PL", null)));
+    // a missing filter is not the same as an empty one
+    Assert.assertNotEquals(read(snapshot.getDirectoryResult("registeredorganization", null, null)), read(snapshot.getDirectoryResult("registeredorganization", null, "abc")));
+  }
+
+  private static String convertDirectory(String[] query) throws TransformerException {
+    if (query[2] != null)
+      return DsdDataConverter.convertDIRToDSDWithDPType(directoryResult, query[0], query[2]);
+    return DsdDataConverter.convertDIRToDSDWithCountryCode(directoryResult, query[0], query[1]);
+  }
+
+  private static String convert(Source source, String[] query) throws TransformerException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (query[2] != null)
+      DsdDataConverter.convertDIRToDSDWithDPType(source, query[0], query[2], out);
+    else
+      DsdDataConverter.convertDIRToDSDWithCountryCode(source, query[0], query[1], out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static String convertDirectoryToJson(String[] query) throws TransformerException {
+    return convertToJson(new StreamSource(new StringReader(directoryResult)), query);
+  }
+
+  private static String convertToJson(Source source, String[] query) throws TransformerException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DsdStaxConverter.convertToJson(source, query[0], query[1], query[2], out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static StreamSource source(String resource) {
+    return new StreamSource(DirectorySnapshotTest.class.getResourceAsStream(resource));
+  }
+
+  private static String read(Source source) throws IOException {
+    try (InputStream inputStream = ((StreamSource) source).getInputStream()) {
+      return new String(StreamHelper.getAllBytes(inputStream), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * The registry object ids are generated per transformation, so they are not stable across calls
+   */
+  private static String normalize(String result) {
+    return result.replaceAll(" id=\"[^\"]*\"", " id=\"\"");
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the eviction and the response capture of the {@link LastKnownGoodStore}
+ *
+ * @author yerlibilgin
+ */
+public class LastKnownGoodStoreTest {
+
+  @Test
+  public void newerResponseReplacesTheStoredOne() {
+    final LastKnownGoodStore store = new LastKnownGoodStore(10, 1000, 500);
+    store.put("q0", new DSDResponse(new byte[100]));
+    store.put("q0", new DSDResponse(new byte[50]));
+
+    Assert.assertEquals(1, store.getSize());
+    // 96 + 2 * 2 + 50
+    Assert.assertEquals(150, store.getTotalBytes());
+    Assert.assertEquals(50, store.get("q0").getResponse().getBody().length);
+  }
+
+  @Test
+  public void leastRecentlyUsedEntryIsEvictedByCount() {
+    final LastKnownGoodStore store = new LastKnownGoodStore(3, 1000, 500);
+    for (int i = 0; i < 3; ++i) {
+      store.put("q" + i, body("v" + i));
+    }
+    // q0 is used again, so q1 is the least recently used one
+    Assert.assertNotNull(store.get("q0"));
+    store.put("q3", body("v3"));
+
+    Assert.assertEquals(3, store.getSize());
+    Assert.assertNull(store.get("q1"));
+    for (String key : new String[]{"q0", "q2", "q3"}) {
+      Assert.assertNotNull(key, store.get(key));
+    }
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreEvictedBySize() {
+    // every entry weighs 96 + 2 * 2 + 100 = 200 bytes, so five of them fit
+    final LastKnownGoodStore store = new LastKnownGoodStore(100, 1000, 500);
+    for (int i = 0; i < 5; ++i) {
+      store.put("q" + i, new DSDResponse(new byte[100]));
+    }
+    Assert.assertEquals(1000, store.getTotalBytes());
+
+    Assert.assertNotNull(store.get("q0"));
+    store.put("q5", new DSDResponse(new byte[300]));
+
+    // q1 and q2 make room for the larger entry
+    Assert.assertEquals(4, store.getSize());
+    Assert.assertEquals(1000, store.getTotalBytes());
+    Assert.assertNull(store.get("q1"));
+    Assert.assertNull(store.get("q2"));
+    for (String key : new String[]{"q0", "q3", "q4", "q5"}) {
+      Assert.assertNotNull(key, store.get(key));
+    }
+  }
+
+  @Test
+  public void oversizedResponseIsNotStored() {
+    final LastKnownGoodStore store = new LastKnownGoodStore(10, 1000, 100);
+    store.put("q0", new DSDResponse(new byte[100]));
+    store.put("q1", new DSDResponse(new byte[101]));
+
+    Assert.assertEquals(1, store.getSize());
+    Assert.assertNull(store.get("q1"));
+  }
+
+  @Test
+  public void capturedResponseIsStored() throws Exception {
+    final LastKnownGoodStore store = new LastKnownGoodStore(10, 1000, 100);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] response = "response".getBytes(StandardCharsets.UTF_8);
+
+    final LastKnownGoodStore.Capture capture = store.capture(out);
+    capture.write(response[0]);
+    capture.write(response, 1, response.length - 1);
+    store.put("q", capture);
+
+    Assert.assertArrayEquals(response, out.toByteArray());
+    Assert.assertEquals(response.length, capture.getBytesWritten());
+    Assert.assertArrayEquals(response, store.get("q").getResponse().getBody());
+  }
+
+  @Test
+  public void captureStopsCopyingAtTheEntryLimit() throws Exception {
+    final LastKnownGoodStore store = new LastKnownGoodStore(10, 1000, 10);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    final LastKnownGoodStore.Capture capture = store.capture(out);
+    capture.write(new byte[8]);
+    Assert.assertEquals(8, capture.getCapturedBytes().length);
+    capture.write(new byte[5]);
+    capture.write(0);
+    store.put("q", capture);
+
+    // the response itself is not cut
+    Assert.assertEquals(14, out.size());
+    Assert.assertEquals(14, capture.getBytesWritten());
+    Assert.assertNull(capture.getCapturedBytes());
+    Assert.assertEquals(0, store.getSize());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void entryLimitCannotExceedTheStore() {
+    new LastKnownGoodStore(10, 1000, 1001);
+  }
+
+  private static DSDResponse body(String text) {
+    return new DSDResponse(text.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+
+import eu.toop.dsd.config.DSDConfig;
+
+/**
+ * Tests the <code>Accept-Encoding</code> negotiation, the deferred gzip encoding and the timeout of the {@link AsyncQuery}
+ *
+ * @author yerlibilgin
+ */
+public class AsyncQueryTest {
+  private static final String CONTENT_TYPE = "application/xml";
+  private static final byte[] RESULT = "<QueryResponse>result</QueryResponse>".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void gzipIsAcceptedExplicitly() {
+    Assert.assertTrue(AsyncQuery.acceptsGzip("gzip"));
+    Assert.assertTrue(AsyncQuery.acceptsGzip("GZIP"));
+    Assert.assertTrue(AsyncQuery.acceptsGzip("x-gzip"));
+    Assert.assertTrue(AsyncQuery.acceptsGzip("deflate, gzip;q=0.5, br"));
+    Assert.assertTrue(AsyncQuery.acceptsGzip(" gzip ; q=1.0"));
+  }
+
+  @Test
+  public void gzipIsRefused() {
+    Assert.assertFalse(AsyncQuery.acceptsGzip(null));
+    Assert.assertFalse(AsyncQuery.acceptsGzip(""));
+    Assert.assertFalse(AsyncQuery.acceptsGzip("identity"));
+    Assert.assertFalse(AsyncQuery.acceptsGzip("deflate, br"));
+  }
+
+  @Test
+  public void zeroQualityRefusesGzip() {
+    Assert.assertFalse(AsyncQuery.acceptsGzip("gzip;q=0"));
+    Assert.assertFalse(AsyncQuery.acceptsGzip("gzip; Q=0.0"));
+    Assert.assertFalse(AsyncQuery.acceptsGzip("gzip;q=0.000, identity"));
+    // an invalid quality value doesn't accept anything
+    Assert.assertFalse(AsyncQuery.acceptsGzip("gzip;q=high"));
+  }
+
+  @Test
+  public void wildcardAcceptsGzip() {
+    Assert.assertTrue(AsyncQuery.acceptsGzip("*"));
+    Assert.assertTrue(AsyncQuery.acceptsGzip("br, *;q=0.1"));
+    Assert.assertFalse(AsyncQuery.acceptsGzip("*;q=0"));
+  }
+
+  @Test
+  public void explicitGzipOverridesTheWildcard() {
+    Assert.assertFalse(AsyncQuery.acceptsGzip("*, gzip;q=0"));
+    Assert.assertFalse(AsyncQuery.acceptsGzip("gzip;q=0, *"));
+    Assert.assertTrue(AsyncQuery.acceptsGzip("*;q=0, gzip"));
+    Assert.assertTrue(AsyncQuery.acceptsGzip("gzip, *;q=0"));
+  }
+
+  @Test
+  public void quality() {
+    Assert.assertEquals(1, AsyncQuery.getQuality("gzip".split(";")), 0);
+    Assert.assertEquals(0.5, AsyncQuery.getQuality("gzip;level=1; q=0.5".split(";")), 0);
+    Assert.assertEquals(0, AsyncQuery.getQuality("gzip;q=".split(";")), 0);
+    Assert.assertEquals(0, AsyncQuery.getQuality("gzip;q=none".split(";")), 0);
+  }
+
+  @Test
+  public void negotiateGzip() {
+    final FakeResponse response = new FakeResponse();
+    final boolean gzip = AsyncQuery.negotiateGzip(request("deflate, gzip"), response.proxy);
+
+    if (DSDConfig.isGzipResponses()) {
+      Assert.assertTrue(gzip);
+      Assert.assertEquals("Accept-Encoding", response.headers.get("Vary"));
+      Assert.assertFalse(AsyncQuery.negotiateGzip(request("gzip;q=0"), new FakeResponse().proxy));
+      Assert.assertFalse(AsyncQuery.negotiateGzip(request(null), new FakeResponse().proxy));
+    } else {
+      Assert.assertFalse(gzip);
+      Assert.assertNull(response.headers.get("Vary"));
+    }
+  }
+
+  @Test
+  public void gzippedResult() throws IOException {
+    final FakeResponse response = new FakeResponse();
+    new AsyncQuery(response.asyncContext(), CONTENT_TYPE, true, (query, out) -> {
+      out.write(RESULT, 0, 10);
+      out.flush();
+      out.write(RESULT, 10, RESULT.length - 10);
+    }).run();
+
+    Assert.assertEquals(1, response.completions);
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+    Assert.assertEquals(CONTENT_TYPE, response.contentType);
+    Assert.assertEquals("gzip", response.headers.get("Content-Encoding"));
+    Assert.assertArrayEquals(RESULT, StreamHelper.getAllBytes(new GZIPInputStream(new ByteArrayInputStream(response.body.toByteArray()))));
+  }
+
+  @Test
+  public void notModifiedStaysUnencoded() {
+    final FakeResponse response = new FakeResponse();
+    new AsyncQuery(response.asyncContext(), CONTENT_TYPE, true, (query, out) -> {
+      query.setHeader("ETag", "W/\"1\"");
+      query.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }).run();
+
+    Assert.assertEquals(1, response.completions);
+    Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.status);
+    Assert.assertEquals("W/\"1\"", response.headers.get("ETag"));
+    Assert.assertNull(response.headers.get("Content-Encoding"));
+    Assert.assertEquals(0, response.body.size());
+  }
+
+  @Test
+  public void identityResult() {
+    final FakeResponse response = new FakeResponse();
+    new AsyncQuery(response.asyncContext(), CONTENT_TYPE, false, (query, out) -> out.write(RESULT)).run();
+
+    Assert.assertNull(response.headers.get("Content-Encoding"));
+    Assert.assertArrayEquals(RESULT, response.body.toByteArray());
+  }
+
+  @Test
+  public void errorBeforeTheResultIsUnencoded() {
+    final FakeResponse response = new FakeResponse();
+    new AsyncQuery(response.asyncContext(), CONTENT_TYPE, true, (query, out) -> {
+      throw new IllegalStateException("Invalid query");
+    }).run();
+
+    Assert.assertEquals(1, response.completions);
+    Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.status);
+    Assert.assertNull(response.headers.get("Content-Encoding"));
+    Assert.assertEquals("Invalid query", new String(response.body.toByteArray(), StandardCharsets.UTF_8).trim());
+  }
+
+  @Test
+  public void timeoutDoesNotWaitForABlockedWrite() throws Exception {
+    final FakeResponse response = new FakeResponse();
+    final AsyncQuery query = new AsyncQuery(response.asyncContext(), CONTENT_TYPE, false, (q, out) -> {
+      response.blockedWriter = Thread.currentThread();
+      out.write(RESULT);
+    });
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<?> future = executor.submit(query);
+      query.setFuture(future);
+      Assert.assertTrue(response.writing.await(5, TimeUnit.SECONDS));
+
+      final long startNanos = System.nanoTime();
+      query.onTimeout(new AsyncEvent(response.asyncContext()));
+      Assert.assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(2));
+
+      Assert.assertTrue(future.isCancelled());
+      Assert.assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, response.status);
+      Assert.assertEquals("The query timed out", new String(response.body.toByteArray(), StandardCharsets.UTF_8).trim());
+      Assert.assertEquals(1, response.completions);
+    } finally {
+      executor.shutdown();
+      Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+    // the interrupted query doesn't answer the request a second time
+    Assert.assertEquals(1, response.completions);
+  }
+
+  private static HttpServletRequest request(String acceptEncoding) {
+    return (HttpServletRequest) Proxy.newProxyInstance(AsyncQueryTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class},
+        (proxy, method, args) -> {
+          if (method.getName().equals("getHeader"))
+            return "Accept-Encoding".equalsIgnoreCase((String) args[0]) ? acceptEncoding : null;
+          throw new UnsupportedOperationException(method.getName());
+        });
+  }
+
+  /**
+   * Records what is written to a response, the parts of the servlet API that the query doesn't use throw
+   */
+  private static final class FakeResponse {
+    private final Map<String, String> headers = new HashMap<>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final CountDownLatch writing = new CountDownLatch(1);
+    /**
+     * A write of this thread blocks like a client that doesn't read, until the thread is interrupted
+     */
+    private volatile Thread blockedWriter;
+    private final HttpServletResponse proxy;
+    private int status = HttpServletResponse.SC_OK;
+    private String contentType;
+    private int completions;
+
+    private FakeResponse() {
+      final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          if (Thread.currentThread() == blockedWriter) {
+            writing.countDown();
+            try {
+              Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException ex) {
+              throw new InterruptedIOException("The write was interrupted");
+            }
+          }
+          body.write(b);
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+          throw new UnsupportedOperationException();
+        }
+      };
+
+      proxy = (HttpServletResponse) Proxy.newProxyInstance(AsyncQueryTest.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class},
+          (p, method, args) -> {
+            switch (method.getName()) {
+              case "setHeader":
+                headers.put((String) args[0], (String) args[1]);
+                return null;
+              case "setStatus":
+                status = (Integer) args[0];
+                return null;
+              case "setContentType":
+                contentType = (String) args[0];
+                return null;
+              case "getOutputStream":
+                return outputStream;
+              case "isCommitted":
+                return body.size() > 0;
+              case "reset":
+                headers.clear();
+                status = HttpServletResponse.SC_OK;
+                contentType = null;
+                return null;
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          });
+    }
+
+    private AsyncContext asyncContext() {
+      return (AsyncContext) Proxy.newProxyInstance(AsyncQueryTest.class.getClassLoader(), new Class<?>[]{AsyncContext.class},
+          (p, method, args) -> {
+            switch (method.getName()) {
+              case "getResponse":
+                return proxy;
+              case "complete":
+                ++completions;
+                return null;
+              case "getTimeout":
+                return 0L;
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          });
+    }
+  }
+}
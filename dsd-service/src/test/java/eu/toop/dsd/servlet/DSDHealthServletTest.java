@@ -0,0 +1,188 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.toop.dsd.service.DSDWarmUp;
+
+/**
+ * Tests the status codes and the readiness report of the {@link DSDHealthServlet} in the states of the {@link DSDWarmUp}
+ *
+ * @author yerlibilgin
+ */
+public class DSDHealthServletTest {
+  private final DSDHealthServlet servlet = new DSDHealthServlet();
+
+  @After
+  public void after() {
+    DSDWarmUp.stop();
+  }
+
+  @Test
+  public void liveWhileWarmingUp() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    DSDWarmUp.start(Collections.singletonList(new DSDWarmUp.Phase("blocking", true, release::await)));
+    try {
+      Assert.assertEquals(HttpServletResponse.SC_OK, get("/live").status);
+
+      final FakeResponse ready = get("/ready");
+      Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ready.status);
+      Assert.assertTrue(ready.getBody(), ready.getBody().startsWith("{\"status\":\"WARMING_UP\",\"warmUpMillis\":-1,"));
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void readyAfterTheWarmUp() throws Exception {
+    DSDWarmUp.start(Arrays.asList(
+        new DSDWarmUp.Phase("required", true, () -> {
+        }),
+        new DSDWarmUp.Phase("best-effort", false, () -> {
+          throw new IllegalStateException("directory down");
+        })));
+    awaitOutcome();
+
+    final FakeResponse ready = get("/ready");
+    Assert.assertEquals(HttpServletResponse.SC_OK, ready.status);
+    Assert.assertEquals("application/json", ready.contentType);
+    Assert.assertTrue(ready.getBody(), ready.getBody().startsWith("{\"status\":\"READY\","));
+    Assert.assertTrue(ready.getBody(), ready.getBody().contains("{\"name\":\"best-effort\",\"required\":false,\"millis\":"));
+    Assert.assertTrue(ready.getBody(), ready.getBody().endsWith(",\"failed\":true}]}"));
+  }
+
+  @Test
+  public void failedRequiredPhaseIsNotReady() throws Exception {
+    DSDWarmUp.start(Collections.singletonList(new DSDWarmUp.Phase("required", true, () -> {
+      throw new IllegalStateException("stylesheet broken");
+    })));
+    awaitOutcome();
+
+    final FakeResponse ready = get("/ready");
+    Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ready.status);
+    Assert.assertTrue(ready.getBody(), ready.getBody().startsWith("{\"status\":\"FAILED\","));
+    // the service is still running
+    Assert.assertEquals(HttpServletResponse.SC_OK, get("/live").status);
+  }
+
+  @Test
+  public void stoppedWarmUpIsNotReady() throws Exception {
+    DSDWarmUp.start(Collections.emptyList());
+    awaitOutcome();
+    Assert.assertEquals(HttpServletResponse.SC_OK, get("/ready").status);
+
+    DSDWarmUp.stop();
+    Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, get("/ready").status);
+  }
+
+  @Test
+  public void unknownCheck() throws Exception {
+    Assert.assertEquals(HttpServletResponse.SC_NOT_FOUND, get("/other").status);
+    Assert.assertEquals(HttpServletResponse.SC_NOT_FOUND, get(null).status);
+  }
+
+  private FakeResponse get(String pathInfo) throws IOException {
+    final HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(DSDHealthServletTest.class.getClassLoader(),
+        new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+          if (method.getName().equals("getPathInfo"))
+            return pathInfo;
+          throw new UnsupportedOperationException(method.getName());
+        });
+    final FakeResponse response = new FakeResponse();
+    servlet.doGet(request, response.proxy);
+    return response;
+  }
+
+  private static void awaitOutcome() throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (DSDWarmUp.getState() == DSDWarmUp.State.WARMING_UP) {
+      if (System.nanoTime() > deadline)
+        Assert.fail("timed out");
+      Thread.sleep(5);
+    }
+  }
+
+  /**
+   * Records the status and the body of a response, the parts of the servlet API that the servlet doesn't use throw
+   */
+  private static final class FakeResponse {
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final HttpServletResponse proxy;
+    private int status = HttpServletResponse.SC_OK;
+    private String contentType;
+
+    private FakeResponse() {
+      final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public void write(int b) {
+          body.write(b);
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+          throw new UnsupportedOperationException();
+        }
+      };
+
+      proxy = (HttpServletResponse) Proxy.newProxyInstance(DSDHealthServletTest.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class},
+          (p, method, args) -> {
+            switch (method.getName()) {
+              case "setStatus":
+              case "sendError":
+                status = (Integer) args[0];
+                return null;
+              case "setContentType":
+                contentType = (String) args[0];
+                return null;
+              case "setHeader":
+                return null;
+              case "getOutputStream":
+                return outputStream;
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          });
+    }
+
+    private String getBody() {
+      return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2021 - TOOP Project
+ *
+ * This file and its contents are licensed under the EUPL, Version 1.2
+ * or – as soon they will be approved by the European Commission – subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *       https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the Licence for the specific language governing permissions and limitations under the Licence.
+ */
+package eu.toop.dsd.servlet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the <code>If-None-Match</code> handling of the {@link DSDRestQueryServlet}
+ *
+ * @author yerlibilgin
+ */
+public class DSDRestQueryServletTest {
+  private static final String ETAG = "W/\"0123456789abcdef\"";
+
+  @Test
+  public void noHeaderDoesNotMatch() {
+    Assert.assertFalse(DSDRestQueryServlet.matchesETag(null, ETAG));
+  }
+
+  @Test
+  public void sameTagMatches() {
+    Assert.assertTrue(DSDRestQueryServlet.matchesETag(ETAG, ETAG));
+  }
+
+  @Test
+  public void weakComparison() {
+    // If-None-Match ignores the weakness indicator on both sides
+    Assert.assertTrue(DSDRestQueryServlet.matchesETag("\"0123456789abcdef\"", ETAG));
+    Assert.assertTrue(DSDRestQueryServlet.matchesETag(ETAG, "\"0123456789abcdef\""));
+  }
+
+  @Test
+  public void anyTagInTheListMatches() {
+    Assert.assertTrue(DSDRestQueryServlet.matchesETag("\"other\", " + ETAG + " ,W/\"third\"", ETAG));
+    Assert.assertFalse(DSDRestQueryServlet.matchesETag("\"other\", W/\"third\"", ETAG));
+  }
+
+  @Test
+  public void wildcardMatches() {
+    Assert.assertTrue(DSDRestQueryServlet.matchesETag("*", ETAG));
+  }
+
+  @Test
+  public void otherTagDoesNotMatch() {
+    Assert.assertFalse(DSDRestQueryServlet.matchesETag("W/\"0123456789abcdee\"", ETAG));
+    Assert.assertFalse(DSDRestQueryServlet.matchesETag("", ETAG));
+  }
+
+  @Test
+  public void gzipRepresentationHasItsOwnTag() {
+    final String gzipETag = DSDRestQueryServlet.getGzipETag(ETAG);
+
+    Assert.assertEquals("W/\"0123456789abcdef-gzip\"", gzipETag);
+    Assert.assertFalse(DSDRestQueryServlet.matchesETag(ETAG, gzipETag));
+    Assert.assertFalse(DSDRestQueryServlet.matchesETag(gzipETag, ETAG));
+    Assert.assertTrue(DSDRestQueryServlet.matchesETag(gzipETag, gzipETag));
+  }
+}